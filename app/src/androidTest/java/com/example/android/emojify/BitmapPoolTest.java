@@ -0,0 +1,105 @@
+package com.example.android.emojify;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test for {@link BitmapPool}, which will execute on an Android device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapPoolTest {
+
+    private static final int SIZE = 100;
+    private static final int BYTES = SIZE * SIZE * 4;
+
+    private BitmapPool mPool;
+
+    @Before
+    public void setUp() throws Exception {
+        mPool = new BitmapPool(3 * BYTES);
+    }
+
+    @Test
+    public void returnedBitmap_isReusedCleared() throws Exception {
+        Bitmap first = mPool.acquire(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        first.eraseColor(Color.RED);
+        assertEquals(BYTES, mPool.getBytesInUse());
+
+        mPool.put(first);
+        assertEquals(0, mPool.getBytesInUse());
+        assertEquals(BYTES, mPool.getPooledBytes());
+
+        Bitmap second = mPool.acquire(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        assertSame(first, second);
+        assertEquals(Color.TRANSPARENT, second.getPixel(10, 10));
+        assertEquals(1, mPool.getHitCount());
+        assertEquals(1, mPool.getMissCount());
+        assertEquals(.5f, mPool.getHitRate(), 0f);
+    }
+
+    @Test
+    public void differentSizeOrConfig_isNotReused() throws Exception {
+        mPool.put(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+
+        assertNull(mPool.get(SIZE, SIZE + 1, Bitmap.Config.ARGB_8888));
+        assertNull(mPool.get(SIZE, SIZE, Bitmap.Config.RGB_565));
+        assertNotNull(mPool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void immutableBitmap_isNotPooled() throws Exception {
+        Bitmap mutable = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mPool.put(Bitmap.createBitmap(mutable));
+
+        assertEquals(0, mPool.getPooledBytes());
+    }
+
+    @Test
+    public void pool_staysUnderItsCap() throws Exception {
+        Bitmap oldest = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mPool.put(oldest);
+        for (int i = 0; i < 4; i++) {
+            mPool.put(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        }
+
+        assertEquals(3 * BYTES, mPool.getPooledBytes());
+        assertEquals(2, mPool.getEvictionCount());
+        assertTrue(oldest.isRecycled());
+    }
+
+    @Test
+    public void trimMemory_releasesBitmaps() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mPool.put(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        }
+
+        mPool.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(BYTES, mPool.getPooledBytes());
+
+        mPool.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(0, mPool.getPooledBytes());
+    }
+
+    @Test
+    public void decode_reusesALargeEnoughBitmap() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        Bitmap small = Bitmap.createBitmap(SIZE / 2, SIZE / 2, Bitmap.Config.ARGB_8888);
+        Bitmap large = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mPool.put(large);
+        mPool.put(small);
+
+        assertSame(large, mPool.getForDecode(SIZE * 80 * 4, Bitmap.Config.ARGB_8888));
+        assertNull(mPool.getForDecode(BYTES, Bitmap.Config.ARGB_8888));
+    }
+}
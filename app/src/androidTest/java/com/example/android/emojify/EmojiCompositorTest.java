@@ -0,0 +1,86 @@
+package com.example.android.emojify;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test for {@link EmojiCompositor}, which will execute on an Android device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EmojiCompositorTest {
+
+    private static Bitmap immutableBackground() {
+        Bitmap mutable = Bitmap.createBitmap(400, 300, Bitmap.Config.ARGB_8888);
+        mutable.eraseColor(Color.BLUE);
+        return Bitmap.createBitmap(mutable);
+    }
+
+    private static Bitmap emoji() {
+        Bitmap emoji = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        emoji.eraseColor(Color.YELLOW);
+        return emoji;
+    }
+
+    @Test
+    public void oneOutputBitmap_regardlessOfFaceCount() throws Exception {
+        Bitmap background = immutableBackground();
+        Bitmap emoji = emoji();
+
+        for (int faceCount : new int[]{1, 12, 50}) {
+            EmojiCompositor compositor = EmojiCompositor.begin(background, true);
+            for (int i = 0; i < faceCount; i++) {
+                compositor.drawEmoji(emoji, (i * 7) % 360, (i * 5) % 260, 40, 40);
+            }
+            Bitmap result = compositor.finish();
+
+            assertEquals(1, compositor.getAllocatedBitmapCount());
+            assertEquals(faceCount, compositor.getEmojiCount());
+            assertNotSame(background, result);
+            assertTrue(result.isMutable());
+        }
+
+        // The original picture is left untouched
+        assertEquals(Color.BLUE, background.getPixel(20, 20));
+    }
+
+    @Test
+    public void mutableBackground_isDrawnInPlace() throws Exception {
+        Bitmap background = Bitmap.createBitmap(400, 300, Bitmap.Config.ARGB_8888);
+        background.eraseColor(Color.BLUE);
+
+        EmojiCompositor compositor = EmojiCompositor.begin(background, true);
+        compositor.drawEmoji(emoji(), 100, 100, 100, 100);
+        Bitmap result = compositor.finish();
+
+        assertEquals(0, compositor.getAllocatedBitmapCount());
+        assertSame(background, result);
+        assertEquals(Color.YELLOW, result.getPixel(150, 140));
+    }
+
+    @Test
+    public void sidewaysBackground_isTurnedUprightInTheSameCopy() throws Exception {
+        // Stored with the top of the scene on the left, marked red
+        Bitmap background = Bitmap.createBitmap(400, 300, Bitmap.Config.ARGB_8888);
+        background.eraseColor(Color.BLUE);
+        background.setPixel(0, 150, Color.RED);
+
+        EmojiCompositor compositor = EmojiCompositor.begin(background, true,
+                ImageOrientation.fromExif(ImageOrientation.EXIF_ROTATE_90));
+        compositor.drawEmoji(emoji(), 100, 100, 100, 100);
+        Bitmap result = compositor.finish();
+
+        assertEquals(1, compositor.getAllocatedBitmapCount());
+        assertEquals(300, result.getWidth());
+        assertEquals(400, result.getHeight());
+        assertEquals(Color.RED, result.getPixel(149, 0));
+
+        // Faces are in upright coordinates, so the emoji is drawn upright
+        assertEquals(Color.YELLOW, result.getPixel(150, 140));
+    }
+}
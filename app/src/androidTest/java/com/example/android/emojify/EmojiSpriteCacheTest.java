@@ -0,0 +1,102 @@
+package com.example.android.emojify;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test for {@link EmojiSpriteCache}, which will execute on an Android device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EmojiSpriteCacheTest {
+
+    private EmojiSpriteCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+        mCache = new EmojiSpriteCache(appContext, 64 * 1024 * 1024,
+                16 * 1024 * 1024);
+    }
+
+    @Test
+    public void eachPack_isBuiltIntoAnAtlasOnce() throws Exception {
+        EmojiPack pack = EmojiPack.load(InstrumentationRegistry.getTargetContext(),
+                EmojiPack.DEFAULT_PACK);
+        for (int pass = 0; pass < 3; pass++) {
+            assertNotNull(mCache.getAtlas(pack));
+        }
+
+        assertEquals(1, mCache.getAtlasMissCount());
+        assertEquals(2, mCache.getAtlasHitCount());
+    }
+
+    @Test
+    public void atlasLargerThanTheTier_isKeptAnyway() throws Exception {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+        EmojiSpriteCache cache = new EmojiSpriteCache(appContext, 1, 16 * 1024 * 1024);
+        EmojiPack pack = EmojiPack.load(appContext, EmojiPack.DEFAULT_PACK);
+        EmojiAtlas atlas = cache.getAtlas(pack);
+
+        assertSame(atlas, cache.getAtlas(pack));
+        assertEquals(1, cache.getAtlasMissCount());
+        assertEquals(1, cache.getAtlasHitCount());
+    }
+
+    @Test
+    public void defaultPack_atlasHasEverySprite() throws Exception {
+        EmojiPack pack = EmojiPack.load(InstrumentationRegistry.getTargetContext(),
+                EmojiPack.DEFAULT_PACK);
+        EmojiAtlas atlas = mCache.getAtlas(pack);
+        for (int sprite = 0; sprite < pack.rules.getSpriteCount(); sprite++) {
+            assertTrue(pack.rules.getSpriteName(sprite), atlas.getSpriteWidth(sprite) > 0);
+            assertTrue(pack.rules.getSpriteName(sprite),
+                    atlas.getSpriteWidth(sprite) <= EmojiPack.MAX_SPRITE_SIZE
+                            && atlas.getSpriteHeight(sprite) <= EmojiPack.MAX_SPRITE_SIZE);
+        }
+        assertEquals(Emoji.values().length, pack.rules.getSpriteCount());
+    }
+
+    @Test
+    public void scaledSprite_isFilteredFromTheAtlas() throws Exception {
+        // A small emoji is drawn from the mip level nearest its size, keeping its opaque face
+        Bitmap small = mCache.getScaledSprite(Emoji.SMILE, 20);
+        assertEquals(EmojiSpriteCache.bucketWidth(18), small.getWidth());
+        int center = small.getPixel(small.getWidth() / 2, small.getHeight() / 2);
+        assertEquals(0xFF, center >>> 24);
+    }
+
+    @Test
+    public void similarFaceWidths_shareScaledSprite() throws Exception {
+        Bitmap first = mCache.getScaledSprite(Emoji.SMILE, 100);
+        Bitmap second = mCache.getScaledSprite(Emoji.SMILE, 101);
+        Bitmap other = mCache.getScaledSprite(Emoji.FROWN, 100);
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(EmojiSpriteCache.bucketWidth(90), first.getWidth());
+        assertEquals(2, mCache.getScaledSpriteMissCount());
+        assertEquals(1, mCache.getScaledSpriteHitCount());
+
+        // The scaled sprites were drawn from the atlas of the pack, built once
+        assertEquals(1, mCache.getAtlasMissCount());
+    }
+
+    @Test
+    public void trimMemory_releasesSprites() throws Exception {
+        mCache.getScaledSprite(Emoji.SMILE, 100);
+        mCache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        mCache.getScaledSprite(Emoji.SMILE, 100);
+
+        assertEquals(2, mCache.getScaledSpriteMissCount());
+        assertEquals(2, mCache.getAtlasMissCount());
+    }
+}
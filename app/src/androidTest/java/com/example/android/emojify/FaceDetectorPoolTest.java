@@ -0,0 +1,69 @@
+package com.example.android.emojify;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.gms.vision.Frame;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test for {@link FaceDetectorPool}, which will execute on an Android device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FaceDetectorPoolTest {
+
+    private static final int DETECTS = 50;
+
+    private final FaceDetectorPool mPool =
+            FaceDetectorPool.getInstance(InstrumentationRegistry.getTargetContext());
+
+    @After
+    public void tearDown() throws Exception {
+        mPool.release();
+    }
+
+    @Test
+    public void releaseDuringDetect_doesNotBreakTheDetect() throws Exception {
+        Bitmap picture = Bitmap.createBitmap(320, 240, Bitmap.Config.ARGB_8888);
+        picture.eraseColor(Color.GRAY);
+        final Frame frame = new Frame.Builder().setBitmap(picture).build();
+        final AtomicBoolean detecting = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // Release over and over, as onTrimMemory would, while the detects run
+        Thread release = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (detecting.get()) {
+                    mPool.release();
+                    Thread.yield();
+                }
+            }
+        });
+        release.start();
+
+        try {
+            for (int i = 0; i < DETECTS; i++) {
+                assertEquals(0, mPool.detect(Emojifier.DETECTOR_CONFIG, frame).size());
+            }
+        } catch (Throwable t) {
+            failure.set(t);
+        } finally {
+            detecting.set(false);
+            release.join();
+        }
+
+        assertNull(failure.get());
+        assertTrue(mPool.getWarmUpCount() > 1);
+    }
+}
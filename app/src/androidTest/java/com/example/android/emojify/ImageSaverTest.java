@@ -0,0 +1,90 @@
+package com.example.android.emojify;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test for {@link ImageSaver}, which will execute on an Android device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageSaverTest {
+
+    private Context mContext;
+    private ImageSaver mSaver;
+    private Bitmap mImage;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        File directory = new File(mContext.getCacheDir(), "image_saver_test");
+        mSaver = new ImageSaver(directory, Executors.newSingleThreadExecutor());
+        mImage = Bitmap.createBitmap(200, 100, Bitmap.Config.ARGB_8888);
+        mImage.eraseColor(Color.RED);
+    }
+
+    @Test
+    public void save_reportsPathAndBytesWritten() throws Exception {
+        ImageSaver.Saved saved = mSaver.save(mContext, mImage, ImageSaver.Format.PNG, 100, null)
+                .get();
+
+        File savedFile = new File(saved.path);
+        assertTrue(savedFile.getName().endsWith(".png"));
+        assertEquals(savedFile.length(), saved.bytesWritten);
+        assertTrue(saved.bytesWritten > 0);
+    }
+
+    @Test
+    public void sameImageAndSettings_isEncodedOnce() throws Exception {
+        Future<ImageSaver.Saved> first = mSaver.save(mContext, mImage, ImageSaver.Format.JPEG,
+                90, null);
+        Future<ImageSaver.Saved> second = mSaver.save(mContext, mImage, ImageSaver.Format.JPEG,
+                90, null);
+        Future<ImageSaver.Saved> otherQuality = mSaver.save(mContext, mImage,
+                ImageSaver.Format.JPEG, 50, null);
+
+        assertSame(first, second);
+        assertNotSame(first, otherQuality);
+        assertNotEquals(first.get().path, otherQuality.get().path);
+    }
+
+    @Test
+    public void encodedImage_isSavedWithoutEncodingAgain() throws Exception {
+        byte[] encoded = mSaver.encode(mImage, ImageSaver.Format.JPEG, 90, null).get();
+        ImageSaver.Saved saved = mSaver.save(mContext, mImage, ImageSaver.Format.JPEG, 90, null)
+                .get();
+        assertArrayEquals(encoded, readFile(new File(saved.path)));
+
+        // Bytes from elsewhere, such as the result cache, are written as they are
+        Bitmap decoded = BitmapFactory.decodeByteArray(encoded, 0, encoded.length);
+        mSaver.putEncoded(decoded, ImageSaver.Format.JPEG, 90, encoded);
+        saved = mSaver.save(mContext, decoded, ImageSaver.Format.JPEG, 90, null).get();
+        assertArrayEquals(encoded, readFile(new File(saved.path)));
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+}
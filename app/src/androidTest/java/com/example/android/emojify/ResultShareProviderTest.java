@@ -0,0 +1,147 @@
+package com.example.android.emojify;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test for {@link ResultShareProvider}, which will execute on an Android device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ResultShareProviderTest {
+
+    private ContentResolver mResolver;
+    private MetricsRegistry mMetrics;
+    private Bitmap mImage;
+
+    @Before
+    public void setUp() throws Exception {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mMetrics = new MetricsRegistry(true);
+        MetricsRegistry.setInstance(mMetrics);
+        mImage = Bitmap.createBitmap(1200, 900, Bitmap.Config.ARGB_8888);
+        mImage.eraseColor(Color.RED);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MetricsRegistry.setInstance(new MetricsRegistry(false));
+    }
+
+    @Test
+    public void sharedImage_isStreamedAsItIsRead() throws Exception {
+        Uri uri = ResultShareProvider.share(mImage, ImageSaver.Format.JPEG, 90);
+        assertEquals("image/jpeg", mResolver.getType(uri));
+
+        long start = System.nanoTime();
+        InputStream in = mResolver.openInputStream(uri);
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        long timeToFirstByte = -1;
+        try {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                if (timeToFirstByte < 0) {
+                    timeToFirstByte = System.nanoTime() - start;
+                }
+                read.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        long timeToLastByte = System.nanoTime() - start;
+
+        Bitmap decoded = BitmapFactory.decodeByteArray(read.toByteArray(), 0, read.size());
+        assertEquals(mImage.getWidth(), decoded.getWidth());
+        assertEquals(mImage.getHeight(), decoded.getHeight());
+        assertTrue(timeToFirstByte >= 0 && timeToFirstByte <= timeToLastByte);
+
+        // The writer records once it closes its end, which may be just after the reader is done
+        for (int i = 0; i < 50 && mMetrics.getStageHistogram(
+                MetricsRegistry.Stage.SHARE).getCount() == 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(read.size(), mMetrics.counter(MetricsRegistry.SHARE_BYTES_WRITTEN).get());
+        assertEquals(1, mMetrics.getStageHistogram(MetricsRegistry.Stage.SHARE_FIRST_BYTE)
+                .getCount());
+    }
+
+    @Test
+    public void onlyTheLatestImage_canBeRead() throws Exception {
+        Uri first = ResultShareProvider.share(mImage, ImageSaver.Format.JPEG, 90);
+        assertEquals(first, ResultShareProvider.share(mImage, ImageSaver.Format.JPEG, 90));
+
+        Bitmap other = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        Uri second = ResultShareProvider.share(other, ImageSaver.Format.PNG, 100);
+        assertNotEquals(first, second);
+
+        try {
+            mResolver.openInputStream(first).close();
+            fail("Expected the replaced image to be gone");
+        } catch (FileNotFoundException expected) {
+        }
+
+        Cursor cursor = mResolver.query(second, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(second.getLastPathSegment(), cursor.getString(
+                    cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void fullResolutionShare_streamsThePhotoAndDeletesItOnceUnshared() throws Exception {
+        File photo = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "full_resolution_share.jpg");
+        FileOutputStream photoOut = new FileOutputStream(photo);
+        try {
+            assertTrue(mImage.compress(Bitmap.CompressFormat.JPEG, 90, photoOut));
+        } finally {
+            photoOut.close();
+        }
+
+        Uri uri = ResultShareProvider.shareFullResolution(mImage, photo.getAbsolutePath());
+        assertEquals("image/png", mResolver.getType(uri));
+        InputStream in = mResolver.openInputStream(uri);
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeStream(in);
+        } finally {
+            in.close();
+        }
+        assertEquals(mImage.getWidth(), decoded.getWidth());
+        assertEquals(mImage.getHeight(), decoded.getHeight());
+
+        // Still shared, so still kept, until another image is shared
+        ResultShareProvider.deleteWhenUnshared(photo.getAbsolutePath());
+        assertTrue(photo.exists());
+        ResultShareProvider.share(Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888),
+                ImageSaver.Format.PNG, 100);
+
+        // The writer closes its end just after the reader is done, then the saver deletes it
+        for (int i = 0; i < 50 && photo.exists(); i++) {
+            Thread.sleep(20);
+        }
+        assertFalse(photo.exists());
+    }
+}
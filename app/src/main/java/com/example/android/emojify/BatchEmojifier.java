@@ -0,0 +1,324 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Emojifies a whole list of photos, decoding, detecting, compositing and encoding them in
+ * overlapping stages.
+ * <p>
+ * Every photo is scanned for faces whole, unless the batch is known to be a burst, such as the
+ * pictures of a single shot: then most photos are only scanned around the faces of the previous
+ * one. Unrelated photos, such as ones picked from the gallery, must not be treated as a burst,
+ * as the faces of one photo say nothing about where the faces of the next are.
+ * <p>
+ * Photos picked in another app, such as several photos picked at once in the gallery, are
+ * emojified with {@link #start(List, Callback)}, which copies them and runs the batch on a
+ * thread of its own.
+ */
+class BatchEmojifier {
+
+    /**
+     * Receives the outcome of a batch started with {@link #start(List, Callback)} on the main
+     * thread.
+     */
+    interface Callback {
+
+        /**
+         * @param photoCount The number of photos picked.
+         * @param report     The report of the photos which could be read, whose outputs are the
+         *                   paths of the saved images.
+         */
+        void onBatchFinished(int photoCount, StagedPipeline.Report<String> report);
+    }
+
+    private static final int DECODE_WORKERS = 2;
+    // Keep a single detect worker, a burst detector sees one photo at a time
+    private static final int DETECT_WORKERS = 1;
+    private static final int COMPOSITE_WORKERS = 2;
+    private static final int ENCODE_WORKERS = 2;
+
+    // Few pictures may wait between stages, as each of them is a full-size bitmap
+    private static final int QUEUE_CAPACITY = 2;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Context mContext;
+    private final boolean mBurst;
+    private final StagedPipeline<String, String> mPipeline;
+
+    // In a burst, only look around the faces of the previous photo. Two decode workers may swap
+    // neighbouring photos, which faces barely move across anyway. Faces are found in upright
+    // coordinates, so photos stored another way have their own detector. Only touched by the
+    // single detect worker.
+    private final Map<ImageOrientation, IncrementalFaceDetector<Bitmap>> mDetectors =
+            new HashMap<>();
+
+    /**
+     * @param context The context, whose application context is kept.
+     * @param burst   Whether the photos are a burst, taken one after the other of the same
+     *                scene and listed in the order they were taken, so that only the first of a
+     *                few photos is scanned whole.
+     */
+    BatchEmojifier(Context context, boolean burst) {
+        mContext = context.getApplicationContext();
+        mBurst = burst;
+        mPipeline = StagedPipeline
+                .<String, Photo>startWith("decode", DECODE_WORKERS, QUEUE_CAPACITY,
+                        new StagedPipeline.Stage<String, Photo>() {
+                            @Override
+                            public Photo process(String imagePath) throws Exception {
+                                Photo photo = decode(imagePath);
+                                MetricsRegistry.getInstance().sampleHeap();
+                                return photo;
+                            }
+                        })
+                .then("detect", DETECT_WORKERS, QUEUE_CAPACITY,
+                        new StagedPipeline.Stage<Photo, Detection>() {
+                            @Override
+                            public Detection process(Photo photo) throws Exception {
+                                return new Detection(photo.picture, photo.orientation,
+                                        detect(photo));
+                            }
+                        })
+                .then("composite", COMPOSITE_WORKERS, QUEUE_CAPACITY,
+                        new StagedPipeline.Stage<Detection, Detection>() {
+                            @Override
+                            public Detection process(Detection detection) throws Exception {
+                                Bitmap result = Emojifier.overlayEmoji(mContext,
+                                        detection.picture, detection.faces,
+                                        detection.orientation);
+
+                                // A photo stored sideways was turned upright into another bitmap
+                                if (result != detection.picture) {
+                                    BitmapPool.getInstance().put(detection.picture);
+                                }
+                                MetricsRegistry.getInstance().sampleHeap();
+                                return new Detection(result, ImageOrientation.NORMAL,
+                                        detection.faces);
+                            }
+                        })
+                .then("encode", ENCODE_WORKERS, QUEUE_CAPACITY,
+                        new StagedPipeline.Stage<Detection, String>() {
+                            @Override
+                            public String process(Detection result) throws Exception {
+                                return encode(result);
+                            }
+                        })
+                .build();
+    }
+
+    /**
+     * Emojifies every photo, blocking until they are all saved.
+     *
+     * @param imagePaths The paths of the photos.
+     * @return The report, whose outputs are the paths of the saved images.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    StagedPipeline.Report<String> run(List<String> imagePaths) throws InterruptedException {
+        // The whole batch is a single run, as its photos are in memory at the same time
+        MetricsRegistry.getInstance().beginRun();
+        mDetectors.clear();
+        StagedPipeline.Report<String> report = mPipeline.run(imagePaths);
+        Timber.d("run: %s, %s", report, mDetectors.values());
+        return report;
+    }
+
+    /**
+     * Copies photos picked in another app to the cache directory, emojifies them on a thread of
+     * its own and deletes the copies. Photos which cannot be read are left out of the report.
+     *
+     * @param photos   The content URIs of the photos, readable by this app.
+     * @param callback The callback receiving the report on the main thread, unless the batch
+     *                 is interrupted.
+     */
+    void start(final List<Uri> photos, final Callback callback) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<String> copies = new ArrayList<>(photos.size());
+                try {
+                    for (Uri photo : photos) {
+                        try {
+                            copies.add(copy(photo));
+                        } catch (IOException e) {
+                            Timber.w(e, "start: cannot read %s", photo);
+                        }
+                    }
+                    final StagedPipeline.Report<String> report =
+                            BatchEmojifier.this.run(copies);
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onBatchFinished(photos.size(), report);
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Timber.w("start: interrupted");
+                } finally {
+                    for (String copy : copies) {
+                        if (!new File(copy).delete()) {
+                            Timber.w("start: cannot delete %s", copy);
+                        }
+                    }
+                }
+            }
+        }, "BatchEmojifier").start();
+    }
+
+    /**
+     * @return The number of photos currently waiting for each stage.
+     */
+    int[] getQueueDepths() {
+        return mPipeline.getQueueDepths();
+    }
+
+    /**
+     * Stops emojifying, making a pending {@link #run(List)} return as soon as possible.
+     */
+    void cancel() {
+        mPipeline.cancel();
+    }
+
+    private String copy(Uri photo) throws IOException {
+        InputStream in = mContext.getContentResolver().openInputStream(photo);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + photo);
+        }
+        File copy = BitmapUtils.createTempImageFile(mContext);
+        try {
+            OutputStream out = new FileOutputStream(copy);
+            try {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            if (!copy.delete()) {
+                Timber.w("copy: cannot delete %s", copy);
+            }
+            throw e;
+        } finally {
+            in.close();
+        }
+        return copy.getAbsolutePath();
+    }
+
+    private Photo decode(String imagePath) throws IOException {
+        // Decoded as stored, and turned upright when the emoji are drawn
+        ImageOrientation orientation = BitmapUtils.readOrientation(imagePath);
+        Bitmap picture = BitmapUtils.resamplePic(mContext, imagePath);
+        if (picture == null) {
+            throw new FileNotFoundException("Cannot decode " + imagePath);
+        }
+        return new Photo(picture, orientation);
+    }
+
+    private List<DetectedFace> detect(Photo photo) {
+        if (!mBurst) {
+            return Emojifier.detectFaces(mContext, photo.picture, photo.orientation);
+        }
+        return getDetector(photo.orientation).detect(photo.picture);
+    }
+
+    private IncrementalFaceDetector<Bitmap> getDetector(ImageOrientation orientation) {
+        IncrementalFaceDetector<Bitmap> detector = mDetectors.get(orientation);
+        if (detector == null) {
+            detector = Emojifier.newBurstDetector(mContext, orientation);
+            mDetectors.put(orientation, detector);
+        }
+        return detector;
+    }
+
+    private String encode(Detection result) throws IOException {
+        File storageDir = BitmapUtils.getSavedImagesDir();
+        if (!storageDir.exists() && !storageDir.mkdirs()) {
+            throw new IOException("Cannot create " + storageDir);
+        }
+
+        ImageSaver.Format format = ImageSaver.DEFAULT_FORMAT;
+        File imageFile = File.createTempFile(format.prefix + "batch_", format.suffix, storageDir);
+        Bitmap picture = result.picture;
+        try {
+            ImageSaver.writeImage(picture, imageFile, format, ImageSaver.DEFAULT_QUALITY);
+            ImageSaver.writeSidecar(new FaceMetadata(picture.getWidth(), picture.getHeight(),
+                    result.faces), imageFile);
+        } finally {
+            // The next photo can be decoded into this one
+            BitmapPool.getInstance().put(picture);
+        }
+
+        String imagePath = imageFile.getAbsolutePath();
+        BitmapUtils.galleryAddPic(mContext, imagePath);
+        return imagePath;
+    }
+
+    /**
+     * A decoded photo, as stored.
+     */
+    private static final class Photo {
+
+        final Bitmap picture;
+        final ImageOrientation orientation;
+
+        Photo(Bitmap picture, ImageOrientation orientation) {
+            this.picture = picture;
+            this.orientation = orientation;
+        }
+    }
+
+    /**
+     * A picture and the faces found in it, in upright coordinates, before or after the emoji
+     * are drawn over them.
+     */
+    private static final class Detection {
+
+        final Bitmap picture;
+        final ImageOrientation orientation;
+        final List<DetectedFace> faces;
+
+        Detection(Bitmap picture, ImageOrientation orientation, List<DetectedFace> faces) {
+            this.picture = picture;
+            this.orientation = orientation;
+            this.faces = faces;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Pool of mutable bitmaps, reused across photos instead of allocating full-size buffers for
+ * every decode, composite and scale.
+ * <p>
+ * Bitmaps are looked up by size and config, or on KitKat and up by allocation size for
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}. The idle bitmaps are bounded by a
+ * byte cap, least recently returned first out. A bitmap handed back with {@link #put(Bitmap)}
+ * must no longer be used or shown by the caller.
+ */
+class BitmapPool {
+
+    // Default cap on the idle bitmaps, as a fraction of the maximum heap size
+    private static final int DEFAULT_MAX_HEAP_FRACTION = 8;
+
+    private static BitmapPool sInstance;
+
+    private final long mMaxBytes;
+
+    // Idle bitmaps, least recently returned first
+    private final LinkedList<Bitmap> mIdle = new LinkedList<>();
+    private long mPooledBytes;
+
+    // Bitmaps handed out and not returned yet; weak, in case they are never returned
+    private final Map<Bitmap, Boolean> mInUse = new WeakHashMap<>();
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return The process-wide pool, capped at a fraction of the maximum heap size.
+     */
+    static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool(Runtime.getRuntime().maxMemory()
+                    / DEFAULT_MAX_HEAP_FRACTION);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Releases pooled bitmaps according to how much memory the system needs back.
+     *
+     * @param level The level passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    static synchronized void onTrimMemory(int level) {
+        if (sInstance != null) {
+            sInstance.trimMemory(level);
+        }
+    }
+
+    /**
+     * Takes an idle bitmap of exactly the given size and config out of the pool.
+     *
+     * @return The bitmap, cleared to transparent, or null if there is none.
+     */
+    synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        for (Iterator<Bitmap> it = mIdle.descendingIterator(); it.hasNext(); ) {
+            Bitmap bitmap = it.next();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                    && bitmap.getConfig() == config) {
+                it.remove();
+                hit(bitmap);
+
+                // Unlike a decode, drawing only partly covers what was there before
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            }
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Takes an idle bitmap of the given size and config out of the pool, or allocates one.
+     *
+     * @return The mutable bitmap, cleared to transparent.
+     */
+    Bitmap acquire(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+            MetricsRegistry.getInstance().counter(MetricsRegistry.BITMAP_BYTES_ALLOCATED)
+                    .add(bitmap.getByteCount());
+            markInUse(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Takes the smallest idle bitmap of the given config which can hold an image of the given
+     * byte count, to decode into with {@code inBitmap}. Before KitKat decoding into a bitmap
+     * needs an exact size match, which cannot be known for a subsampled decode.
+     *
+     * @return The bitmap, or null if there is none.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    synchronized Bitmap getForDecode(long byteCount, Bitmap.Config config) {
+        Bitmap best = null;
+        for (Bitmap bitmap : mIdle) {
+            if (bitmap.getConfig() == config && bitmap.getAllocationByteCount() >= byteCount
+                    && (best == null
+                    || bitmap.getAllocationByteCount() < best.getAllocationByteCount())) {
+                best = bitmap;
+            }
+        }
+        if (best == null) {
+            mMissCount++;
+            return null;
+        }
+        mIdle.remove(best);
+        hit(best);
+        return best;
+    }
+
+    /**
+     * Counts a bitmap which was not allocated by the pool, such as a decoded photo, as in use.
+     */
+    synchronized void markInUse(Bitmap bitmap) {
+        mInUse.put(bitmap, Boolean.TRUE);
+    }
+
+    /**
+     * Hands a bitmap back to the pool. Immutable or recycled bitmaps cannot be reused and are
+     * ignored.
+     *
+     * @param bitmap The bitmap, which the caller must no longer use.
+     */
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        mInUse.remove(bitmap);
+        if (bitmap.isRecycled() || !bitmap.isMutable() || sizeOf(bitmap) > mMaxBytes
+                || mIdle.contains(bitmap)) {
+            return;
+        }
+        mIdle.addLast(bitmap);
+        mPooledBytes += sizeOf(bitmap);
+        trimToSize(mMaxBytes);
+    }
+
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToSize(mMaxBytes / 2);
+            }
+        }
+    }
+
+    /**
+     * Recycles every idle bitmap.
+     */
+    synchronized void clear() {
+        trimToSize(0);
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return The share of lookups which found a bitmap to reuse, or 0 before any lookup.
+     */
+    synchronized float getHitRate() {
+        int lookups = mHitCount + mMissCount;
+        return lookups == 0 ? 0f : (float) mHitCount / lookups;
+    }
+
+    synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return The bytes held by the idle bitmaps.
+     */
+    synchronized long getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    /**
+     * @return The bytes held by the bitmaps handed out and not returned yet.
+     */
+    synchronized long getBytesInUse() {
+        long bytes = 0;
+        for (Bitmap bitmap : mInUse.keySet()) {
+            if (bitmap != null && !bitmap.isRecycled()) {
+                bytes += sizeOf(bitmap);
+            }
+        }
+        return bytes;
+    }
+
+    long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{idle=" + mIdle.size() + ", pooledBytes=" + mPooledBytes
+                + ", bytesInUse=" + getBytesInUse() + ", hits=" + mHitCount
+                + ", misses=" + mMissCount + ", evictions=" + mEvictionCount + "}";
+    }
+
+    private void hit(Bitmap bitmap) {
+        mPooledBytes -= sizeOf(bitmap);
+        mHitCount++;
+        mInUse.put(bitmap, Boolean.TRUE);
+    }
+
+    private void trimToSize(long maxBytes) {
+        while (mPooledBytes > maxBytes && !mIdle.isEmpty()) {
+            Bitmap bitmap = mIdle.removeFirst();
+            mPooledBytes -= sizeOf(bitmap);
+            bitmap.recycle();
+            mEvictionCount++;
+        }
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+/**
+ * Works out how much to subsample an image when decoding it.
+ * <p>
+ * This class has no Android dependencies, so it can be tested and benchmarked on the host.
+ */
+final class BitmapSampling {
+
+    // Thumbnails are rounded to whole pixels, so their aspect ratio is only about right
+    static final float THUMBNAIL_ASPECT_TOLERANCE = .02f;
+
+    private BitmapSampling() {
+    }
+
+    /**
+     * Calculates the largest power of two subsampling which keeps the decoded image at least as
+     * big as the target, then keeps halving the image until it fits within the byte budget.
+     *
+     * @param photoW        The width of the source image.
+     * @param photoH        The height of the source image.
+     * @param targetW       The target width, or 0 if there is no target.
+     * @param targetH       The target height, or 0 if there is no target.
+     * @param maxBytes      The maximum number of bytes the decoded image may take.
+     * @param bytesPerPixel The number of bytes per pixel of the decoded image.
+     * @return The value for {@code BitmapFactory.Options.inSampleSize}.
+     */
+    static int calculateInSampleSize(int photoW, int photoH, int targetW, int targetH,
+                                     long maxBytes, int bytesPerPixel) {
+        int sampleSize = 1;
+
+        if (targetW > 0 && targetH > 0) {
+            while (photoW / (sampleSize * 2) >= targetW
+                    && photoH / (sampleSize * 2) >= targetH) {
+                sampleSize *= 2;
+            }
+        }
+
+        while (decodedByteCount(photoW, photoH, sampleSize, bytesPerPixel) > maxBytes
+                && (photoW > sampleSize || photoH > sampleSize)) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * Tells whether a thumbnail shows the whole image, undistorted: cameras often store a 4:3
+     * thumbnail for other aspect ratios, letterboxed or stretched.
+     *
+     * @param thumbW The width of the thumbnail.
+     * @param thumbH The height of the thumbnail.
+     * @param photoW The width of the image.
+     * @param photoH The height of the image.
+     * @return Whether both have the same aspect ratio, within {@link #THUMBNAIL_ASPECT_TOLERANCE}.
+     */
+    static boolean isThumbnailOf(int thumbW, int thumbH, int photoW, int photoH) {
+        if (thumbW <= 0 || thumbH <= 0 || photoW <= 0 || photoH <= 0) {
+            return false;
+        }
+        float thumbAspect = (float) thumbW / thumbH;
+        float photoAspect = (float) photoW / photoH;
+        return Math.abs(thumbAspect / photoAspect - 1f) <= THUMBNAIL_ASPECT_TOLERANCE;
+    }
+
+    /**
+     * Calculates the density to scale an image to, as for the screen, but no further than a
+     * maximum size.
+     *
+     * @param density       The density the image was drawn for.
+     * @param targetDensity The density of the screen.
+     * @param width         The width of the image, unscaled.
+     * @param height        The height of the image, unscaled.
+     * @param maxSize       The largest width or height the scaled image may have.
+     * @return The value for {@code BitmapFactory.Options.inTargetDensity}.
+     */
+    static int cappedTargetDensity(int density, int targetDensity, int width, int height,
+                                   int maxSize) {
+        long largest = Math.max(width, height);
+        if (density <= 0 || largest <= 0 || largest * targetDensity <= (long) maxSize * density) {
+            return targetDensity;
+        }
+        return Math.max(1, (int) ((long) maxSize * density / largest));
+    }
+
+    /**
+     * @return The number of bytes an image takes once decoded with the given subsampling.
+     */
+    static long decodedByteCount(int photoW, int photoH, int sampleSize, int bytesPerPixel) {
+        long decodedW = (photoW + sampleSize - 1) / sampleSize;
+        long decodedH = (photoH + sampleSize - 1) / sampleSize;
+        return decodedW * decodedH * bytesPerPixel;
+    }
+
+    /**
+     * Calculates the centered region of an image which has the aspect ratio of the target.
+     *
+     * @return The region as {left, top, right, bottom}.
+     */
+    static int[] centerCropRegion(int photoW, int photoH, int targetW, int targetH) {
+        if (targetW <= 0 || targetH <= 0) {
+            return new int[]{0, 0, photoW, photoH};
+        }
+
+        int regionW = photoW;
+        int regionH = photoH;
+        if ((long) photoW * targetH > (long) photoH * targetW) {
+            regionW = (int) ((long) photoH * targetW / targetH);
+        } else {
+            regionH = (int) ((long) photoW * targetH / targetW);
+        }
+
+        int left = (photoW - regionW) / 2;
+        int top = (photoH - regionH) / 2;
+        return new int[]{left, top, left + regionW, top + regionH};
+    }
+}
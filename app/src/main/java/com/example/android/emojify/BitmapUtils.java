@@ -16,29 +16,38 @@
 
 package com.example.android.emojify;
 
+import android.content.ClipData;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.media.ExifInterface;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Environment;
-import android.support.v4.content.FileProvider;
 import android.util.DisplayMetrics;
 import android.view.WindowManager;
 import android.widget.Toast;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 
+import timber.log.Timber;
+
 class BitmapUtils {
 
-    private static final String FILE_PROVIDER_AUTHORITY = "com.example.android.fileprovider";
+    // Default ceiling for a decoded photo, as a fraction of the maximum heap size
+    private static final int DEFAULT_MAX_DECODE_HEAP_FRACTION = 8;
 
+    // Coarse previews are decoded at about this fraction of the target size, on each side
+    static final int PREVIEW_DIVISOR = 4;
 
     /**
      * Resamples the captured photo to fit the screen for better memory usage.
@@ -48,14 +57,123 @@ class BitmapUtils {
      * @return The resampled bitmap
      */
     static Bitmap resamplePic(Context context, String imagePath) {
+        return resamplePic(context, imagePath, new DecodeOptions());
+    }
+
+    /**
+     * Resamples the captured photo to fit the screen, within the memory budget of the options.
+     *
+     * @param context   The application context.
+     * @param imagePath The path of the photo to be resampled.
+     * @param options   The decoding options.
+     * @return The resampled bitmap
+     */
+    static Bitmap resamplePic(Context context, String imagePath, DecodeOptions options) {
+        int[] targetSize = getTargetSize(context);
+        return decodeSampledBitmap(imagePath, targetSize[0], targetSize[1], options);
+    }
 
+    /**
+     * @param context The application context.
+     * @return The size photos are resampled to, as {width, height}: the size of the screen.
+     */
+    static int[] getTargetSize(Context context) {
         // Get device screen size information
         DisplayMetrics metrics = new DisplayMetrics();
         WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
         manager.getDefaultDisplay().getMetrics(metrics);
 
-        int targetH = metrics.heightPixels;
-        int targetW = metrics.widthPixels;
+        return new int[]{metrics.widthPixels, metrics.heightPixels};
+    }
+
+    /**
+     * Reads how a photo is stored compared to upright, from its EXIF orientation, so it can be
+     * turned upright in the draw which composites it instead of in a copy of its own.
+     *
+     * @param imagePath The path of the photo.
+     * @return The orientation, {@link ImageOrientation#NORMAL} if the photo has none.
+     */
+    static ImageOrientation readOrientation(String imagePath) {
+        try {
+            ExifInterface exif = new ExifInterface(imagePath);
+            return ImageOrientation.fromExif(exif.getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+        } catch (IOException e) {
+            Timber.w(e, "readOrientation: cannot read the EXIF data of %s", imagePath);
+            return ImageOrientation.NORMAL;
+        }
+    }
+
+    /**
+     * Decodes a quick, coarse preview of a photo: the thumbnail the camera embedded in its
+     * EXIF data if it shows the whole photo, or else the photo subsampled down to about
+     * 1/{@link #PREVIEW_DIVISOR} of the target size, which the JPEG decoder does cheaply.
+     * <p>
+     * Previews are small and short-lived, so they are not taken from the bitmap pool.
+     *
+     * @param imagePath The path of the photo.
+     * @param targetW   The width the photo will be shown at.
+     * @param targetH   The height the photo will be shown at.
+     * @return The mutable preview, with the aspect ratio of the photo, or null if the photo
+     * could not be decoded.
+     */
+    static Bitmap decodePreview(String imagePath, int targetW, int targetH) {
+        BitmapFactory.Options bmOptions = new BitmapFactory.Options();
+        bmOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imagePath, bmOptions);
+        int photoW = bmOptions.outWidth;
+        int photoH = bmOptions.outHeight;
+        if (photoW <= 0 || photoH <= 0) {
+            return null;
+        }
+
+        // The embedded thumbnail takes no decoding of the photo at all
+        byte[] thumbnail = null;
+        try {
+            ExifInterface exif = new ExifInterface(imagePath);
+            if (exif.hasThumbnail()) {
+                thumbnail = exif.getThumbnail();
+            }
+        } catch (IOException e) {
+            Timber.w(e, "decodePreview: cannot read the EXIF data of %s", imagePath);
+        }
+        if (thumbnail != null) {
+            BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, bmOptions);
+            if (BitmapSampling.isThumbnailOf(bmOptions.outWidth, bmOptions.outHeight,
+                    photoW, photoH)) {
+                BitmapFactory.Options thumbOptions = new BitmapFactory.Options();
+                thumbOptions.inMutable = true;
+                Bitmap preview = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length,
+                        thumbOptions);
+                if (preview != null) {
+                    Timber.d("decodePreview: %dx%d thumbnail of %dx%d", preview.getWidth(),
+                            preview.getHeight(), photoW, photoH);
+                    return preview;
+                }
+            }
+        }
+
+        bmOptions.inJustDecodeBounds = false;
+        bmOptions.inMutable = true;
+        bmOptions.inSampleSize = BitmapSampling.calculateInSampleSize(photoW, photoH,
+                targetW / PREVIEW_DIVISOR, targetH / PREVIEW_DIVISOR, Long.MAX_VALUE, 4);
+        Timber.d("decodePreview: %dx%d, inSampleSize = %d", photoW, photoH,
+                bmOptions.inSampleSize);
+        return BitmapFactory.decodeFile(imagePath, bmOptions);
+    }
+
+    /**
+     * Decodes an image file subsampled by a power of two, so that it is no smaller than the
+     * target size unless that would exceed the byte budget of the options.
+     *
+     * @param imagePath The path of the image to decode.
+     * @param targetW   The width the image will be shown at.
+     * @param targetH   The height the image will be shown at.
+     * @param options   The decoding options.
+     * @return The decoded bitmap, or null if the image could not be decoded.
+     */
+    static Bitmap decodeSampledBitmap(String imagePath, int targetW, int targetH,
+                                      DecodeOptions options) {
 
         // Get the dimensions of the original bitmap
         BitmapFactory.Options bmOptions = new BitmapFactory.Options();
@@ -63,15 +181,91 @@ class BitmapUtils {
         BitmapFactory.decodeFile(imagePath, bmOptions);
         int photoW = bmOptions.outWidth;
         int photoH = bmOptions.outHeight;
+        if (photoW <= 0 || photoH <= 0) {
+            return null;
+        }
+
+        // Only decode the part of the photo which fills the target, if asked to
+        int[] region = options.cropToTarget
+                ? BitmapSampling.centerCropRegion(photoW, photoH, targetW, targetH)
+                : new int[]{0, 0, photoW, photoH};
+        int regionW = region[2] - region[0];
+        int regionH = region[3] - region[1];
+
+        Bitmap.Config config = options.opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        int bytesPerPixel = options.opaque ? 2 : 4;
 
         // Determine how much to scale down the image
-        int scaleFactor = Math.min(photoW / targetW, photoH / targetH);
+        int sampleSize = BitmapSampling.calculateInSampleSize(regionW, regionH, targetW, targetH,
+                options.maxBytes, bytesPerPixel);
 
         // Decode the image file into a Bitmap sized to fill the View
         bmOptions.inJustDecodeBounds = false;
-        bmOptions.inSampleSize = scaleFactor;
+        bmOptions.inSampleSize = sampleSize;
+        bmOptions.inPreferredConfig = config;
 
-        return BitmapFactory.decodeFile(imagePath);
+        // Decode into a mutable bitmap, so emoji can be drawn on it without a copy and it can go
+        // back to the pool, reusing a pooled bitmap where the platform allows it
+        bmOptions.inMutable = true;
+        BitmapPool pool = BitmapPool.getInstance();
+        Bitmap reusable = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            reusable = pool.getForDecode(BitmapSampling.decodedByteCount(regionW, regionH,
+                    sampleSize, bytesPerPixel), config);
+            bmOptions.inBitmap = reusable;
+        }
+
+        Timber.d("decodeSampledBitmap: %dx%d region of %dx%d, inSampleSize = %d, reused = %b",
+                regionW, regionH, photoW, photoH, sampleSize, reusable != null);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long start = metrics.startTimer();
+        Bitmap bitmap;
+        try {
+            bitmap = decode(imagePath, photoW, photoH, region, bmOptions);
+        } catch (IllegalArgumentException e) {
+            if (reusable == null) {
+                throw e;
+            }
+            // The pooled bitmap did not suit the decoder after all
+            Timber.w(e, "decodeSampledBitmap: cannot decode into a pooled bitmap");
+            bmOptions.inBitmap = null;
+            bitmap = decode(imagePath, photoW, photoH, region, bmOptions);
+        }
+        metrics.recordStage(MetricsRegistry.Stage.DECODE, start);
+
+        if (reusable != null && bitmap != reusable) {
+            pool.put(reusable);
+        }
+        if (bitmap != null) {
+            if (bitmap != reusable) {
+                metrics.counter(MetricsRegistry.BITMAP_BYTES_ALLOCATED).add(bitmap.getByteCount());
+            }
+            pool.markInUse(bitmap);
+        }
+        return bitmap;
+    }
+
+    private static Bitmap decode(String imagePath, int photoW, int photoH, int[] region,
+                                 BitmapFactory.Options bmOptions) {
+        int regionW = region[2] - region[0];
+        int regionH = region[3] - region[1];
+        if (regionW != photoW || regionH != photoH) {
+            try {
+                BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(imagePath, false);
+                Bitmap bitmap = decoder.decodeRegion(
+                        new Rect(region[0], region[1], region[2], region[3]), bmOptions);
+                decoder.recycle();
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            } catch (IOException e) {
+                // Fall back to decoding the whole image
+                Timber.w(e, "decodeSampledBitmap: region decoding failed");
+            }
+        }
+
+        return BitmapFactory.decodeFile(imagePath, bmOptions);
     }
 
     /**
@@ -121,7 +315,7 @@ class BitmapUtils {
      *
      * @param imagePath The path of the saved image
      */
-    private static void galleryAddPic(Context context, String imagePath) {
+    static void galleryAddPic(Context context, String imagePath) {
         Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
         File f = new File(imagePath);
         Uri contentUri = Uri.fromFile(f);
@@ -131,64 +325,65 @@ class BitmapUtils {
 
 
     /**
-     * Helper method for saving the image.
-     *
-     * @param context The application context.
-     * @param image   The image to be saved.
-     * @return The path of the saved image.
+     * @return The public directory in which emojified images are saved.
      */
-    static String saveImage(Context context, Bitmap image) {
-
-        String savedImagePath = null;
-
-        // Create the new file in the external storage
-        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss",
-                Locale.getDefault()).format(new Date());
-        String imageFileName = "JPEG_" + timeStamp + ".jpg";
-        File storageDir = new File(
+    static File getSavedImagesDir() {
+        return new File(
                 Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES)
                         + "/Emojify");
-        boolean success = true;
-        if (!storageDir.exists()) {
-            success = storageDir.mkdirs();
-        }
-
-        // Save the new Bitmap
-        if (success) {
-            File imageFile = new File(storageDir, imageFileName);
-            savedImagePath = imageFile.getAbsolutePath();
-            try {
-                OutputStream fOut = new FileOutputStream(imageFile);
-                image.compress(Bitmap.CompressFormat.JPEG, 100, fOut);
-                fOut.close();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            // Add the image to the system gallery
-            galleryAddPic(context, savedImagePath);
-
-            // Show a Toast with the save location
-            String savedMessage = context.getString(R.string.saved_message, savedImagePath);
-            Toast.makeText(context, savedMessage, Toast.LENGTH_SHORT).show();
-        }
-
-        return savedImagePath;
     }
 
     /**
      * Helper method for sharing an image.
      *
-     * @param context   The image context.
-     * @param imagePath The path of the image to be shared.
+     * @param context  The image context.
+     * @param imageUri The content URI of the image to be shared.
+     * @param mimeType The type of the image.
      */
-    static void shareImage(Context context, String imagePath) {
-        // Create the share intent and start the share activity
-        File imageFile = new File(imagePath);
+    static void shareImage(Context context, Uri imageUri, String mimeType) {
+        // Create the share intent, letting the receiving app read the image, and start the
+        // share activity
         Intent shareIntent = new Intent(Intent.ACTION_SEND);
-        shareIntent.setType("image/*");
-        Uri photoURI = FileProvider.getUriForFile(context, FILE_PROVIDER_AUTHORITY, imageFile);
-        shareIntent.putExtra(Intent.EXTRA_STREAM, photoURI);
+        shareIntent.setType(mimeType);
+        shareIntent.putExtra(Intent.EXTRA_STREAM, imageUri);
+        shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // The grant flag only covers the data and clip data of the intent, not its extras
+            shareIntent.setClipData(ClipData.newRawUri(null, imageUri));
+        } else {
+            grantReadToReceivers(context, shareIntent, imageUri);
+        }
         context.startActivity(shareIntent);
     }
+
+    /**
+     * Grants read access to a URI to every app which can receive an intent, for versions before
+     * Jelly Bean where the intent cannot carry the URI as clip data.
+     *
+     * @param context The application context.
+     * @param intent  The intent to be started.
+     * @param uri     The URI the receiving app needs to read.
+     */
+    private static void grantReadToReceivers(Context context, Intent intent, Uri uri) {
+        for (ResolveInfo receiver : context.getPackageManager()
+                .queryIntentActivities(intent, PackageManager.MATCH_DEFAULT_ONLY)) {
+            context.grantUriPermission(receiver.activityInfo.packageName, uri,
+                    Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        }
+    }
+
+    /**
+     * Options for {@link #decodeSampledBitmap(String, int, int, DecodeOptions)}.
+     */
+    static class DecodeOptions {
+
+        // The maximum number of bytes the decoded bitmap may take
+        long maxBytes = Runtime.getRuntime().maxMemory() / DEFAULT_MAX_DECODE_HEAP_FRACTION;
+
+        // Only decode the centered region of the image with the aspect ratio of the target
+        boolean cropToTarget;
+
+        // Decode to RGB_565, for images which do not need an alpha channel
+        boolean opaque;
+    }
 }
@@ -0,0 +1,74 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.android.emojify;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects faces in camera preview frames with the Mobile Vision face detector.
+ * <p>
+ * Faces are reported in the coordinates of the upright frame, and keep their ID from one frame
+ * to the next when the detector configuration enables tracking.
+ */
+class CameraFaceDetectionEngine implements FaceDetectionEngine<PreviewFrame> {
+
+    private final FaceDetectorPool mDetectorPool;
+    private final FaceDetectorPool.Config mConfig;
+
+    /**
+     * @param context The application context.
+     * @param config  The configuration of the pooled detector to use.
+     */
+    CameraFaceDetectionEngine(Context context, FaceDetectorPool.Config config) {
+        mDetectorPool = FaceDetectorPool.getInstance(context);
+        mConfig = config;
+    }
+
+    @Override
+    public List<DetectedFace> detect(PreviewFrame previewFrame) {
+
+        // Wrap the camera buffer rather than copying it; Frame.ROTATION_* count quarter turns
+        Frame frame = new Frame.Builder()
+                .setImageData(ByteBuffer.wrap(previewFrame.data), previewFrame.width,
+                        previewFrame.height, ImageFormat.NV21)
+                .setId(previewFrame.id)
+                .setTimestampMillis(previewFrame.timestampMillis)
+                .setRotation(previewFrame.rotationDegrees / 90)
+                .build();
+
+        SparseArray<Face> faces = mDetectorPool.detect(mConfig, frame);
+
+        List<DetectedFace> detectedFaces = new ArrayList<>(faces.size());
+        for (int i = 0; i < faces.size(); ++i) {
+            detectedFaces.add(GmsFaceDetectionEngine.toDetectedFace(faces.valueAt(i)));
+        }
+        return detectedFaces;
+    }
+
+    @Override
+    public String toString() {
+        return mDetectorPool.toString();
+    }
+}
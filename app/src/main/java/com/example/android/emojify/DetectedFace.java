@@ -0,0 +1,139 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A face found in a picture: its bounds and landmarks in the coordinates of the picture, and the
+ * odds that the person is smiling and has each eye open.
+ * <p>
+ * This class has no Android dependencies, so it can be used on the host.
+ */
+final class DetectedFace {
+
+    // Probability reported when the detector could not compute it
+    static final float UNCOMPUTED_PROBABILITY = -1f;
+
+    final int id;
+    final float left;
+    final float top;
+    final float width;
+    final float height;
+    final float smilingProbability;
+    final float leftEyeOpenProbability;
+    final float rightEyeOpenProbability;
+    final List<Landmark> landmarks;
+
+    /**
+     * A point of interest on a face, such as an eye or the base of the nose.
+     */
+    static final class Landmark {
+
+        // One of the Mobile Vision Landmark types, such as Landmark.LEFT_EYE
+        final int type;
+        final float x;
+        final float y;
+
+        Landmark(int type, float x, float y) {
+            this.type = type;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public String toString() {
+            return "Landmark{type=" + type + ", x=" + x + ", y=" + y + "}";
+        }
+    }
+
+    DetectedFace(int id, float left, float top, float width, float height,
+                 float smilingProbability, float leftEyeOpenProbability,
+                 float rightEyeOpenProbability) {
+        this(id, left, top, width, height, smilingProbability, leftEyeOpenProbability,
+                rightEyeOpenProbability, Collections.<Landmark>emptyList());
+    }
+
+    DetectedFace(int id, float left, float top, float width, float height,
+                 float smilingProbability, float leftEyeOpenProbability,
+                 float rightEyeOpenProbability, List<Landmark> landmarks) {
+        this.id = id;
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+        this.smilingProbability = smilingProbability;
+        this.leftEyeOpenProbability = leftEyeOpenProbability;
+        this.rightEyeOpenProbability = rightEyeOpenProbability;
+        this.landmarks = landmarks.isEmpty() ? Collections.<Landmark>emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(landmarks));
+    }
+
+    /**
+     * Maps the face from the coordinates of a resized picture back to the original picture.
+     *
+     * @param scaleX The width of the original picture divided by the width of the resized one.
+     * @param scaleY The height of the original picture divided by the height of the resized one.
+     * @return The face in the coordinates of the original picture.
+     */
+    DetectedFace scale(float scaleX, float scaleY) {
+        List<Landmark> scaledLandmarks = new ArrayList<>(landmarks.size());
+        for (Landmark landmark : landmarks) {
+            scaledLandmarks.add(new Landmark(landmark.type, landmark.x * scaleX,
+                    landmark.y * scaleY));
+        }
+        return new DetectedFace(id, left * scaleX, top * scaleY, width * scaleX,
+                height * scaleY, smilingProbability, leftEyeOpenProbability,
+                rightEyeOpenProbability, scaledLandmarks);
+    }
+
+    /**
+     * Maps the face from the coordinates of a region of a picture to the whole picture.
+     *
+     * @param dx The left edge of the region in the picture.
+     * @param dy The top edge of the region in the picture.
+     * @return The face in the coordinates of the picture.
+     */
+    DetectedFace offset(float dx, float dy) {
+        List<Landmark> offsetLandmarks = new ArrayList<>(landmarks.size());
+        for (Landmark landmark : landmarks) {
+            offsetLandmarks.add(new Landmark(landmark.type, landmark.x + dx, landmark.y + dy));
+        }
+        return new DetectedFace(id, left + dx, top + dy, width, height, smilingProbability,
+                leftEyeOpenProbability, rightEyeOpenProbability, offsetLandmarks);
+    }
+
+    /**
+     * @param newId The ID to give the face.
+     * @return The same face under another ID.
+     */
+    DetectedFace withId(int newId) {
+        return new DetectedFace(newId, left, top, width, height, smilingProbability,
+                leftEyeOpenProbability, rightEyeOpenProbability, landmarks);
+    }
+
+    @Override
+    public String toString() {
+        return "DetectedFace{id=" + id + ", left=" + left + ", top=" + top + ", width=" + width
+                + ", height=" + height + ", smiling=" + smilingProbability
+                + ", leftEyeOpen=" + leftEyeOpenProbability
+                + ", rightEyeOpen=" + rightEyeOpenProbability
+                + ", landmarks=" + landmarks.size() + "}";
+    }
+}
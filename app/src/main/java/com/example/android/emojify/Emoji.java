@@ -0,0 +1,39 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+// Enum for all possible Emojis, along with the expression each of them stands for
+enum Emoji {
+    SMILE(true, false, false),
+    FROWN(false, false, false),
+    LEFT_WINK(true, true, false),
+    RIGHT_WINK(true, false, true),
+    LEFT_WINK_FROWN(false, true, false),
+    RIGHT_WINK_FROWN(false, false, true),
+    CLOSED_EYE_SMILE(true, true, true),
+    CLOSED_EYE_FROWN(false, true, true);
+
+    final boolean smiling;
+    final boolean leftEyeClosed;
+    final boolean rightEyeClosed;
+
+    Emoji(boolean smiling, boolean leftEyeClosed, boolean rightEyeClosed) {
+        this.smiling = smiling;
+        this.leftEyeClosed = leftEyeClosed;
+        this.rightEyeClosed = rightEyeClosed;
+    }
+}
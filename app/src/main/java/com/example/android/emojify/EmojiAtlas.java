@@ -0,0 +1,160 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.io.IOException;
+
+/**
+ * Every sprite of an {@link EmojiPack} in a single bitmap, along with a chain of mip levels
+ * for each of them, laid out by a {@link MipAtlasLayout}.
+ * <p>
+ * A sprite is drawn from the smallest level still at least as large as the destination, with
+ * bilinear filtering, so drawing it costs about as much as the pixels drawn however large the
+ * original drawable, and small emoji do not alias.
+ */
+final class EmojiAtlas {
+
+    private final Bitmap mBitmap;
+    private final MipAtlasLayout mLayout;
+    private final Paint mFilterPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private EmojiAtlas(Bitmap bitmap, MipAtlasLayout layout) {
+        mBitmap = bitmap;
+        mLayout = layout;
+    }
+
+    /**
+     * Decodes every sprite of a pack, and packs them and their mip levels into an atlas.
+     *
+     * @param pack The pack.
+     * @return The atlas, with one sprite per sprite handle of the pack.
+     * @throws IOException If a sprite cannot be decoded.
+     */
+    static EmojiAtlas build(EmojiPack pack) throws IOException {
+        int spriteCount = pack.rules.getSpriteCount();
+        Bitmap[] sprites = new Bitmap[spriteCount];
+        try {
+            int[] widths = new int[spriteCount];
+            int[] heights = new int[spriteCount];
+            for (int sprite = 0; sprite < spriteCount; sprite++) {
+                sprites[sprite] = pack.decodeSprite(sprite);
+                if (sprites[sprite] == null) {
+                    throw new IOException("Cannot decode " + pack.rules.getSpriteName(sprite)
+                            + " of pack " + pack.name);
+                }
+                widths[sprite] = sprites[sprite].getWidth();
+                heights[sprite] = sprites[sprite].getHeight();
+            }
+
+            MipAtlasLayout layout = new MipAtlasLayout(widths, heights);
+            Bitmap bitmap = Bitmap.createBitmap(layout.getWidth(), layout.getHeight(),
+                    Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            for (int sprite = 0; sprite < spriteCount; sprite++) {
+                Bitmap level = sprites[sprite];
+                canvas.drawBitmap(level, layout.getLeft(sprite, 0), layout.getTop(sprite, 0),
+                        null);
+
+                // Halving with filtering averages every 2x2 block of the level above
+                for (int i = 1; i < layout.getLevelCount(sprite); i++) {
+                    Bitmap next = Bitmap.createScaledBitmap(level, layout.getWidth(sprite, i),
+                            layout.getHeight(sprite, i), true);
+                    canvas.drawBitmap(next, layout.getLeft(sprite, i), layout.getTop(sprite, i),
+                            null);
+                    if (level != sprites[sprite]) {
+                        level.recycle();
+                    }
+                    level = next;
+                }
+                if (level != sprites[sprite]) {
+                    level.recycle();
+                }
+            }
+            return new EmojiAtlas(bitmap, layout);
+        } finally {
+            for (Bitmap sprite : sprites) {
+                if (sprite != null) {
+                    sprite.recycle();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The width of a sprite at its original size.
+     */
+    int getSpriteWidth(int sprite) {
+        return mLayout.getWidth(sprite, 0);
+    }
+
+    /**
+     * @return The height of a sprite at its original size.
+     */
+    int getSpriteHeight(int sprite) {
+        return mLayout.getHeight(sprite, 0);
+    }
+
+    /**
+     * Draws a sprite from its nearest mip level, filtered.
+     *
+     * @param canvas      The canvas to draw on.
+     * @param sprite      The handle of the sprite.
+     * @param destination Where the sprite goes on the canvas, stretched to fill it.
+     */
+    void draw(Canvas canvas, int sprite, RectF destination) {
+        int level = mLayout.chooseLevel(sprite, (int) Math.ceil(destination.width()));
+        canvas.drawBitmap(mBitmap, levelRect(mLayout, sprite, level), destination,
+                mFilterPaint);
+    }
+
+    /**
+     * @param sprite The handle of the sprite.
+     * @param width  The width of the result.
+     * @param height The height of the result.
+     * @return A new bitmap of the sprite, scaled from its nearest mip level.
+     */
+    Bitmap scale(int sprite, int width, int height) {
+        Bitmap scaled = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        draw(new Canvas(scaled), sprite, new RectF(0, 0, width, height));
+        return scaled;
+    }
+
+    /**
+     * @return The number of bytes taken by the atlas.
+     */
+    int getByteCount() {
+        return mBitmap.getByteCount();
+    }
+
+    @Override
+    public String toString() {
+        return "EmojiAtlas{" + mLayout + "}";
+    }
+
+    private static Rect levelRect(MipAtlasLayout layout, int sprite, int level) {
+        int left = layout.getLeft(sprite, level);
+        int top = layout.getTop(sprite, level);
+        return new Rect(left, top, left + layout.getWidth(sprite, level),
+                top + layout.getHeight(sprite, level));
+    }
+}
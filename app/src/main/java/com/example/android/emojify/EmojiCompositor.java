@@ -0,0 +1,179 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Draws the emoji for every face of a picture onto a single canvas.
+ * <p>
+ * At most one full-size bitmap is taken per picture: a mutable copy of the background, from
+ * the {@link BitmapPool}, or none at all when the background is already mutable and may be drawn
+ * on in place. A background stored sideways is turned upright as it is copied, so correcting
+ * its orientation costs no bitmap of its own.
+ */
+class EmojiCompositor {
+
+    private static final Paint FILTER_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final Bitmap mResultBitmap;
+    private final Canvas mCanvas;
+    private final int mAllocatedBitmapCount;
+
+    private int mEmojiCount;
+
+    private EmojiCompositor(Bitmap resultBitmap, int allocatedBitmapCount) {
+        mResultBitmap = resultBitmap;
+        mCanvas = new Canvas(resultBitmap);
+        mAllocatedBitmapCount = allocatedBitmapCount;
+    }
+
+    /**
+     * Starts compositing over the given background.
+     *
+     * @param backgroundBitmap The original picture.
+     * @param inPlace          Whether a mutable background may be drawn on directly.
+     * @return The compositor drawing over the background, or a single mutable copy of it.
+     */
+    static EmojiCompositor begin(Bitmap backgroundBitmap, boolean inPlace) {
+        if (inPlace && backgroundBitmap.isMutable()) {
+            return new EmojiCompositor(backgroundBitmap, 0);
+        }
+
+        // Initialize the results bitmap to be a mutable copy of the original image
+        Bitmap.Config config = backgroundBitmap.getConfig() != null
+                ? backgroundBitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap resultBitmap = BitmapPool.getInstance().acquire(backgroundBitmap.getWidth(),
+                backgroundBitmap.getHeight(), config);
+        EmojiCompositor compositor = new EmojiCompositor(resultBitmap, 1);
+        compositor.mCanvas.drawBitmap(backgroundBitmap, 0, 0, null);
+        return compositor;
+    }
+
+    /**
+     * Starts compositing over the given background, turned upright.
+     *
+     * @param backgroundBitmap The original picture, as stored.
+     * @param inPlace          Whether a mutable background may be drawn on directly, which
+     *                         it only can when it is already upright.
+     * @param orientation      How the picture is stored compared to upright.
+     * @return The compositor drawing over the upright background, in upright coordinates.
+     */
+    static EmojiCompositor begin(Bitmap backgroundBitmap, boolean inPlace,
+                                 ImageOrientation orientation) {
+        if (orientation.isNormal()) {
+            return begin(backgroundBitmap, inPlace);
+        }
+
+        // Rotating by quarter turns maps every pixel onto exactly one pixel, so no filtering
+        int width = backgroundBitmap.getWidth();
+        int height = backgroundBitmap.getHeight();
+        Bitmap.Config config = backgroundBitmap.getConfig() != null
+                ? backgroundBitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap resultBitmap = BitmapPool.getInstance().acquire(
+                orientation.uprightWidth(width, height), orientation.uprightHeight(width, height),
+                config);
+        EmojiCompositor compositor = new EmojiCompositor(resultBitmap, 1);
+        Matrix toUpright = new Matrix();
+        toUpright.setValues(orientation.toUprightMatrix(width, height));
+        compositor.mCanvas.drawBitmap(backgroundBitmap, toUpright, null);
+        return compositor;
+    }
+
+    /**
+     * Draws an emoji over a face, scaled to match the width of the face.
+     *
+     * @param emojiBitmap The chosen emoji, at its original size.
+     * @param faceX       The left edge of the face.
+     * @param faceY       The top edge of the face.
+     * @param faceWidth   The width of the face.
+     * @param faceHeight  The height of the face.
+     */
+    void drawEmoji(Bitmap emojiBitmap, float faceX, float faceY, float faceWidth,
+                   float faceHeight) {
+
+        // Determine the size of the emoji to match the width of the face and preserve aspect ratio
+        int newEmojiWidth = EmojiPlacement.scaledEmojiWidth(faceWidth);
+        int newEmojiHeight = EmojiPlacement.scaledEmojiHeight(emojiBitmap.getWidth(),
+                emojiBitmap.getHeight(), newEmojiWidth);
+        if (newEmojiWidth <= 0 || newEmojiHeight <= 0) {
+            return;
+        }
+
+        // Scale the emoji into a pooled buffer, filtered so small emoji do not alias
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long start = metrics.startTimer();
+        BitmapPool pool = BitmapPool.getInstance();
+        Bitmap scaledEmoji = pool.acquire(newEmojiWidth, newEmojiHeight,
+                Bitmap.Config.ARGB_8888);
+        new Canvas(scaledEmoji).drawBitmap(emojiBitmap, null,
+                new Rect(0, 0, newEmojiWidth, newEmojiHeight), FILTER_PAINT);
+        metrics.recordStage(MetricsRegistry.Stage.SCALE, start);
+
+        drawScaledEmoji(scaledEmoji, faceX, faceY, faceWidth, faceHeight);
+
+        pool.put(scaledEmoji);
+    }
+
+    /**
+     * Draws an emoji which has already been scaled for the face.
+     *
+     * @param scaledEmoji The emoji, already scaled to the face.
+     * @param faceX       The left edge of the face.
+     * @param faceY       The top edge of the face.
+     * @param faceWidth   The width of the face.
+     * @param faceHeight  The height of the face.
+     */
+    void drawScaledEmoji(Bitmap scaledEmoji, float faceX, float faceY, float faceWidth,
+                         float faceHeight) {
+        // Determine the emoji position so it best lines up with the face
+        float emojiPositionX = EmojiPlacement.emojiLeft(faceX, faceWidth,
+                scaledEmoji.getWidth());
+        float emojiPositionY = EmojiPlacement.emojiTop(faceY, faceHeight,
+                scaledEmoji.getHeight());
+
+        mCanvas.drawBitmap(scaledEmoji, emojiPositionX, emojiPositionY, null);
+        mEmojiCount++;
+    }
+
+    /**
+     * Finishes compositing.
+     *
+     * @return The final bitmap, including the emojis over the faces.
+     */
+    Bitmap finish() {
+        return mResultBitmap;
+    }
+
+    /**
+     * @return The number of full-size bitmaps taken by this compositor, either 0 or 1.
+     */
+    int getAllocatedBitmapCount() {
+        return mAllocatedBitmapCount;
+    }
+
+    /**
+     * @return The number of emoji drawn so far.
+     */
+    int getEmojiCount() {
+        return mEmojiCount;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * A set of emoji sprites and the rules picking one of them for each face, loaded from the
+ * {@code emoji_packs/<name>/} directory of the assets.
+ * <p>
+ * Every sprite named by the rules is resolved once, when the pack is loaded: to a PNG of the
+ * pack directory if there is one, or else to a drawable of the app. Packs can be swapped while
+ * pictures are being emojified; each picture is drawn with the pack current when it started.
+ */
+final class EmojiPack {
+
+    static final String DEFAULT_PACK = "default";
+
+    // The largest width or height of a decoded sprite. Every sprite takes about one and a half
+    // times its pixels in the atlas, along with its mip levels, so scaling them up to the
+    // densest screens would make the atlas of a pack tens of megabytes.
+    static final int MAX_SPRITE_SIZE = 384;
+
+    private static final String PACKS_DIR = "emoji_packs";
+    private static final String RULES_FILE = "rules.txt";
+    private static final String SPRITE_SUFFIX = ".png";
+
+    private static final AtomicInteger sNextId = new AtomicInteger();
+
+    private static volatile EmojiPack sCurrent;
+
+    final String name;
+    final EmojiRuleTable rules;
+
+    // Tells apart the sprites of packs in shared caches, even packs of the same name
+    final int id;
+
+    private final Resources mResources;
+    private final AssetManager mAssets;
+
+    // For each sprite handle, the drawable to decode, or 0 for a PNG of the pack directory
+    private final int[] mDrawables;
+
+    // The sprite of each built-in expression, for faces followed across frames
+    private final int[] mEmojiSprites;
+
+    private EmojiPack(Context context, String name, EmojiRuleTable rules) throws IOException {
+        this.name = name;
+        this.rules = rules;
+        this.id = sNextId.incrementAndGet();
+        mResources = context.getResources();
+        mAssets = context.getAssets();
+
+        List<String> packFiles = Arrays.asList(mAssets.list(packDir(name)));
+        mDrawables = new int[rules.getSpriteCount()];
+        for (int sprite = 0; sprite < mDrawables.length; sprite++) {
+            String spriteName = rules.getSpriteName(sprite);
+            if (packFiles.contains(spriteName + SPRITE_SUFFIX)) {
+                continue;
+            }
+            mDrawables[sprite] = mResources.getIdentifier(spriteName, "drawable",
+                    context.getPackageName());
+            if (mDrawables[sprite] == 0) {
+                throw new IOException("No sprite " + spriteName + " in pack " + name);
+            }
+        }
+
+        Emoji[] emojis = Emoji.values();
+        mEmojiSprites = new int[emojis.length];
+        for (Emoji emoji : emojis) {
+            mEmojiSprites[emoji.ordinal()] = rules.lookup(emoji);
+        }
+    }
+
+    /**
+     * Loads a pack from the assets.
+     *
+     * @param context The application context.
+     * @param name    The name of the pack directory.
+     * @return The pack, with its rules compiled and its sprites resolved.
+     * @throws IOException If the pack is missing, or its rules are malformed or name a sprite
+     *                     which does not exist.
+     */
+    static EmojiPack load(Context context, String name) throws IOException {
+        Context appContext = context.getApplicationContext();
+        InputStream in = appContext.getAssets().open(packDir(name) + "/" + RULES_FILE);
+        EmojiRuleTable rules = EmojiRuleTable.parse(new InputStreamReader(in, "UTF-8"));
+        return new EmojiPack(appContext, name, rules);
+    }
+
+    /**
+     * @param context The application context.
+     * @return The pack emoji are drawn with, loading the default pack the first time.
+     */
+    static EmojiPack getCurrent(Context context) {
+        EmojiPack current = sCurrent;
+        if (current == null) {
+            synchronized (EmojiPack.class) {
+                current = sCurrent;
+                if (current == null) {
+                    try {
+                        current = load(context, DEFAULT_PACK);
+                    } catch (IOException e) {
+                        // The default pack ships with the app, so this is a broken build
+                        throw new IllegalStateException("Cannot load the default emoji pack", e);
+                    }
+                    sCurrent = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Loads a pack and draws emoji with it from now on. Pictures already being emojified
+     * finish with the previous pack.
+     *
+     * @param context The application context.
+     * @param name    The name of the pack directory.
+     * @return The pack now in use.
+     * @throws IOException If the pack cannot be loaded, in which case the current pack stays.
+     */
+    static EmojiPack select(Context context, String name) throws IOException {
+        EmojiPack pack = load(context, name);
+        synchronized (EmojiPack.class) {
+            sCurrent = pack;
+        }
+
+        // The sprites of the previous pack are not drawn any more
+        EmojiSpriteCache.onPackChanged();
+        Timber.d("select: %s", pack);
+        return pack;
+    }
+
+    /**
+     * @param face The face for which you pick an emoji.
+     * @return The handle of the sprite to draw over the face.
+     */
+    int spriteFor(DetectedFace face) {
+        return rules.lookup(face);
+    }
+
+    /**
+     * @param emoji One of the built-in expressions.
+     * @return The handle of the sprite this pack draws for it.
+     */
+    int spriteFor(Emoji emoji) {
+        return mEmojiSprites[emoji.ordinal()];
+    }
+
+    /**
+     * @param sprite The handle of a sprite.
+     * @return The sprite decoded scaled to the density of the screen, as drawables always were,
+     * but no larger than {@link #MAX_SPRITE_SIZE}, or null if it cannot be decoded. Emoji over
+     * larger faces are filtered up from it, and emoji over smaller faces drawn from the mip
+     * levels of the atlas.
+     */
+    Bitmap decodeSprite(int sprite) {
+        // Read the size and the density of the sprite first, so its scaling can be capped
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        int drawable = mDrawables[sprite];
+        if (drawable != 0) {
+            BitmapFactory.decodeResource(mResources, drawable, options);
+            capDensity(options);
+            return BitmapFactory.decodeResource(mResources, drawable, options);
+        }
+
+        // Sprites of the pack directory are scaled like drawables without a density qualifier
+        String path = packDir(name) + "/" + rules.getSpriteName(sprite) + SPRITE_SUFFIX;
+        options.inDensity = DisplayMetrics.DENSITY_DEFAULT;
+        try {
+            decodeAsset(path, options);
+            capDensity(options);
+            return decodeAsset(path, options);
+        } catch (IOException e) {
+            Timber.w(e, "decodeSprite: cannot read %s", path);
+            return null;
+        }
+    }
+
+    /**
+     * Turns options which only read the bounds of a sprite into options decoding it scaled to
+     * the screen, within {@link #MAX_SPRITE_SIZE}.
+     */
+    private void capDensity(BitmapFactory.Options options) {
+        options.inJustDecodeBounds = false;
+        options.inScaled = true;
+        options.inTargetDensity = BitmapSampling.cappedTargetDensity(options.inDensity,
+                mResources.getDisplayMetrics().densityDpi, options.outWidth, options.outHeight,
+                MAX_SPRITE_SIZE);
+    }
+
+    private Bitmap decodeAsset(String path, BitmapFactory.Options options) throws IOException {
+        InputStream in = mAssets.open(path);
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return Describes the pack for the result cache, so results drawn with another pack, or
+     * another version of this one, are not reused.
+     */
+    String fingerprint() {
+        return name + "@" + rules.getVersion();
+    }
+
+    @Override
+    public String toString() {
+        return "EmojiPack{name=" + name + ", id=" + id + ", rules=" + rules + "}";
+    }
+
+    private static String packDir(String name) {
+        return PACKS_DIR + "/" + name;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+/**
+ * Works out the size and position of the emoji drawn over a face.
+ * <p>
+ * This class has no Android dependencies, so it can be tested and benchmarked on the host.
+ */
+final class EmojiPlacement {
+
+    // Scale the emoji so it looks better on the face
+    static final float EMOJI_SCALE_FACTOR = .9f;
+
+    private EmojiPlacement() {
+    }
+
+    /**
+     * @param faceWidth The width of the face.
+     * @return The width of the emoji, to match the width of the face.
+     */
+    static int scaledEmojiWidth(float faceWidth) {
+        return (int) (faceWidth * EMOJI_SCALE_FACTOR);
+    }
+
+    /**
+     * @param emojiWidth    The original width of the emoji.
+     * @param emojiHeight   The original height of the emoji.
+     * @param newEmojiWidth The width the emoji is scaled to.
+     * @return The height of the emoji, preserving its aspect ratio.
+     */
+    static int scaledEmojiHeight(int emojiWidth, int emojiHeight, int newEmojiWidth) {
+        return (int) (emojiHeight * newEmojiWidth / emojiWidth * EMOJI_SCALE_FACTOR);
+    }
+
+    /**
+     * @return The left edge of the emoji, centered horizontally on the face.
+     */
+    static float emojiLeft(float faceX, float faceWidth, int scaledEmojiWidth) {
+        return (faceX + faceWidth / 2) - scaledEmojiWidth / 2;
+    }
+
+    /**
+     * @return The top edge of the emoji, so it best lines up with the eyes and mouth.
+     */
+    static float emojiTop(float faceY, float faceHeight, int scaledEmojiHeight) {
+        return (faceY + faceHeight / 2) - scaledEmojiHeight / 3;
+    }
+}
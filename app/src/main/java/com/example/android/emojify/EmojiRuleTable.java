@@ -0,0 +1,363 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The rules of an emoji pack, compiled into a table from quantized expressions to sprites.
+ * <p>
+ * The odds that the person is smiling, and that each eye is open, are each cut into buckets.
+ * Every combination of buckets has one cell in the table, holding the handle of the sprite to
+ * draw, so picking the emoji of a face is three bucket lookups and one array read.
+ * <p>
+ * Rules are read from text, one statement per line, {@code #} starting a comment:
+ * <pre>
+ * version 1                      the version of the pack, bumped whenever its sprites change
+ * smiling 0.15                   the cuts between the smiling buckets, in increasing order
+ * eye_open 0.5                   the cuts between the eye buckets, shared by both eyes
+ * rule 1 1 0 rightwink           smiling, left eye and right eye buckets, then the sprite
+ * rule 0 * * frown               * matches any bucket
+ * </pre>
+ * A probability goes to the bucket after every cut it is at or above, so with the cuts above a
+ * face smiling with odds of .2, its left eye open and its right eye closed gets
+ * {@code rightwink}. Probabilities the detector could not compute are negative, so they go to
+ * the first bucket. Where rules overlap the first one wins, and every combination of buckets
+ * must be covered by a rule.
+ * <p>
+ * Faces followed across the frames of a stream keep their previous cell until their odds have
+ * gone past a cut by a margin, so odds hovering right at a cut don't flip the sprite on every
+ * frame.
+ * <p>
+ * This class has no Android dependencies, so it can be tested and benchmarked on the host.
+ */
+final class EmojiRuleTable {
+
+    private static final String WILDCARD = "*";
+
+    // Keeps the table small; a pack needs a handful of buckets at most
+    private static final int MAX_CUTS = 15;
+
+    // How far past a cut the odds of a tracked face must go to leave their previous bucket
+    static final double SMILING_HYSTERESIS = .05;
+    static final double EYE_OPEN_HYSTERESIS = .1;
+
+    private final int mVersion;
+    private final double[] mSmilingCuts;
+    private final double[] mEyeOpenCuts;
+    private final int mEyeBuckets;
+    private final String[] mSpriteNames;
+
+    // The sprite of every combination of buckets, smiling first, then left eye, then right eye
+    private final int[] mTable;
+
+    private EmojiRuleTable(int version, double[] smilingCuts, double[] eyeOpenCuts,
+                           String[] spriteNames, int[] table) {
+        mVersion = version;
+        mSmilingCuts = smilingCuts;
+        mEyeOpenCuts = eyeOpenCuts;
+        mEyeBuckets = eyeOpenCuts.length + 1;
+        mSpriteNames = spriteNames;
+        mTable = table;
+    }
+
+    /**
+     * Reads and compiles the rules of a pack.
+     *
+     * @param reader The text of the rules, closed once read.
+     * @return The compiled table.
+     * @throws IOException If the rules cannot be read, are malformed, or leave a combination of
+     *                     buckets without a sprite.
+     */
+    static EmojiRuleTable parse(Reader reader) throws IOException {
+        int version = 0;
+        double[] smilingCuts = null;
+        double[] eyeOpenCuts = null;
+        List<String[]> rules = new ArrayList<>();
+        List<Integer> ruleLines = new ArrayList<>();
+
+        BufferedReader lines = new BufferedReader(reader);
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = lines.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String[] tokens = line.split("\\s+");
+                switch (tokens[0]) {
+                    case "version":
+                        expectTokens(tokens, 2, lineNumber);
+                        version = parseInt(tokens[1], lineNumber);
+                        break;
+                    case "smiling":
+                        smilingCuts = parseCuts(tokens, lineNumber);
+                        break;
+                    case "eye_open":
+                        eyeOpenCuts = parseCuts(tokens, lineNumber);
+                        break;
+                    case "rule":
+                        expectTokens(tokens, 5, lineNumber);
+                        rules.add(tokens);
+                        ruleLines.add(lineNumber);
+                        break;
+                    default:
+                        throw new IOException("Line " + lineNumber + ": unknown statement "
+                                + tokens[0]);
+                }
+            }
+        } finally {
+            lines.close();
+        }
+
+        if (smilingCuts == null || eyeOpenCuts == null) {
+            throw new IOException("Missing the smiling or eye_open cuts");
+        }
+        return compile(version, smilingCuts, eyeOpenCuts, rules, ruleLines);
+    }
+
+    private static EmojiRuleTable compile(int version, double[] smilingCuts,
+                                          double[] eyeOpenCuts, List<String[]> rules,
+                                          List<Integer> ruleLines) throws IOException {
+        int smilingBuckets = smilingCuts.length + 1;
+        int eyeBuckets = eyeOpenCuts.length + 1;
+        int[] table = new int[smilingBuckets * eyeBuckets * eyeBuckets];
+        Arrays.fill(table, -1);
+        List<String> spriteNames = new ArrayList<>();
+
+        for (int i = 0; i < rules.size(); i++) {
+            String[] rule = rules.get(i);
+            int lineNumber = ruleLines.get(i);
+            int smiling = parseBucket(rule[1], smilingBuckets, lineNumber);
+            int leftEye = parseBucket(rule[2], eyeBuckets, lineNumber);
+            int rightEye = parseBucket(rule[3], eyeBuckets, lineNumber);
+
+            int sprite = spriteNames.indexOf(rule[4]);
+            if (sprite < 0) {
+                sprite = spriteNames.size();
+                spriteNames.add(rule[4]);
+            }
+
+            for (int s = 0; s < smilingBuckets; s++) {
+                if (smiling >= 0 && s != smiling) continue;
+                for (int l = 0; l < eyeBuckets; l++) {
+                    if (leftEye >= 0 && l != leftEye) continue;
+                    for (int r = 0; r < eyeBuckets; r++) {
+                        if (rightEye >= 0 && r != rightEye) continue;
+                        int cell = (s * eyeBuckets + l) * eyeBuckets + r;
+                        if (table[cell] < 0) {
+                            table[cell] = sprite;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int cell = 0; cell < table.length; cell++) {
+            if (table[cell] < 0) {
+                throw new IOException("No rule for smiling " + cell / (eyeBuckets * eyeBuckets)
+                        + ", left eye " + cell / eyeBuckets % eyeBuckets
+                        + ", right eye " + cell % eyeBuckets);
+            }
+        }
+        return new EmojiRuleTable(version, smilingCuts, eyeOpenCuts,
+                spriteNames.toArray(new String[spriteNames.size()]), table);
+    }
+
+    /**
+     * @param face The face for which you pick an emoji.
+     * @return The handle of the sprite to draw over the face.
+     */
+    int lookup(DetectedFace face) {
+        return lookup(face.smilingProbability, face.leftEyeOpenProbability,
+                face.rightEyeOpenProbability);
+    }
+
+    /**
+     * @param smilingProbability      The odds that the person is smiling.
+     * @param leftEyeOpenProbability  The odds that the left eye is open.
+     * @param rightEyeOpenProbability The odds that the right eye is open.
+     * @return The handle of the sprite to draw for the expression.
+     */
+    int lookup(float smilingProbability, float leftEyeOpenProbability,
+               float rightEyeOpenProbability) {
+        return mTable[getCell(smilingProbability, leftEyeOpenProbability,
+                rightEyeOpenProbability, -1)];
+    }
+
+    /**
+     * Picks the cell of an expression followed from frame to frame: each odds only leave the
+     * bucket they were in once they are past its cut by the hysteresis margin.
+     *
+     * @param smilingProbability      The odds that the person is smiling.
+     * @param leftEyeOpenProbability  The odds that the left eye is open.
+     * @param rightEyeOpenProbability The odds that the right eye is open.
+     * @param previousCell            The cell of the expression in the previous frame, or -1 for
+     *                                a face seen for the first time.
+     * @return The cell of the expression, to pass to {@link #getSprite(int)}.
+     */
+    int getCell(float smilingProbability, float leftEyeOpenProbability,
+                float rightEyeOpenProbability, int previousCell) {
+        int smiling = bucket(mSmilingCuts, smilingProbability);
+        int leftEye = bucket(mEyeOpenCuts, leftEyeOpenProbability);
+        int rightEye = bucket(mEyeOpenCuts, rightEyeOpenProbability);
+        if (previousCell >= 0) {
+            smiling = stick(mSmilingCuts, smilingProbability, smiling,
+                    previousCell / (mEyeBuckets * mEyeBuckets), SMILING_HYSTERESIS);
+            leftEye = stick(mEyeOpenCuts, leftEyeOpenProbability, leftEye,
+                    previousCell / mEyeBuckets % mEyeBuckets, EYE_OPEN_HYSTERESIS);
+            rightEye = stick(mEyeOpenCuts, rightEyeOpenProbability, rightEye,
+                    previousCell % mEyeBuckets, EYE_OPEN_HYSTERESIS);
+        }
+        return (smiling * mEyeBuckets + leftEye) * mEyeBuckets + rightEye;
+    }
+
+    /**
+     * @param cell A cell returned by {@link #getCell(float, float, float, int)}.
+     * @return The handle of the sprite to draw for the cell.
+     */
+    int getSprite(int cell) {
+        return mTable[cell];
+    }
+
+    /**
+     * @param emoji One of the built-in expressions.
+     * @return The handle of the sprite this pack draws for the expression, taken at the most
+     * certain odds so packs with finer buckets still get their most pronounced sprite.
+     */
+    int lookup(Emoji emoji) {
+        return lookup(emoji.smiling ? 1f : 0f, emoji.leftEyeClosed ? 0f : 1f,
+                emoji.rightEyeClosed ? 0f : 1f);
+    }
+
+    /**
+     * @return The version of the pack, bumped whenever its rules or sprites change.
+     */
+    int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return The number of distinct sprites, whose handles go from 0 to this count excluded.
+     */
+    int getSpriteCount() {
+        return mSpriteNames.length;
+    }
+
+    /**
+     * @param sprite The handle of a sprite.
+     * @return The name of the sprite, as written in the rules.
+     */
+    String getSpriteName(int sprite) {
+        return mSpriteNames[sprite];
+    }
+
+    @Override
+    public String toString() {
+        return "EmojiRuleTable{version=" + mVersion
+                + ", smiling=" + Arrays.toString(mSmilingCuts)
+                + ", eyeOpen=" + Arrays.toString(mEyeOpenCuts)
+                + ", sprites=" + Arrays.toString(mSpriteNames) + "}";
+    }
+
+    // Cuts are few and sorted, so a linear scan beats a binary search
+    private static int bucket(double[] cuts, float probability) {
+        int bucket = 0;
+        while (bucket < cuts.length && probability >= cuts[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    // Stays in the previous bucket unless the odds are past its cuts by the margin
+    private static int stick(double[] cuts, float probability, int bucket, int previous,
+                             double margin) {
+        if (bucket > previous && probability < cuts[bucket - 1] + margin) {
+            bucket = previous;
+            while (bucket < cuts.length && probability >= cuts[bucket] + margin) {
+                bucket++;
+            }
+        } else if (bucket < previous && probability >= cuts[bucket] - margin) {
+            bucket = previous;
+            while (bucket > 0 && probability < cuts[bucket - 1] - margin) {
+                bucket--;
+            }
+        }
+        return bucket;
+    }
+
+    private static double[] parseCuts(String[] tokens, int lineNumber) throws IOException {
+        if (tokens.length < 2 || tokens.length > MAX_CUTS + 1) {
+            throw new IOException("Line " + lineNumber + ": expected 1 to " + MAX_CUTS
+                    + " cuts");
+        }
+        double[] cuts = new double[tokens.length - 1];
+        for (int i = 0; i < cuts.length; i++) {
+            try {
+                cuts[i] = Double.parseDouble(tokens[i + 1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Line " + lineNumber + ": bad cut " + tokens[i + 1]);
+            }
+            if (i > 0 && !(cuts[i] > cuts[i - 1])) {
+                throw new IOException("Line " + lineNumber + ": cuts must be increasing");
+            }
+        }
+        return cuts;
+    }
+
+    // Returns -1 for the wildcard
+    private static int parseBucket(String token, int bucketCount, int lineNumber)
+            throws IOException {
+        if (WILDCARD.equals(token)) {
+            return -1;
+        }
+        int bucket = parseInt(token, lineNumber);
+        if (bucket < 0 || bucket >= bucketCount) {
+            throw new IOException("Line " + lineNumber + ": bucket " + bucket
+                    + " out of range, there are " + bucketCount);
+        }
+        return bucket;
+    }
+
+    private static int parseInt(String token, int lineNumber) throws IOException {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("Line " + lineNumber + ": bad number " + token);
+        }
+    }
+
+    private static void expectTokens(String[] tokens, int count, int lineNumber)
+            throws IOException {
+        if (tokens.length != count) {
+            throw new IOException("Line " + lineNumber + ": expected " + (count - 1)
+                    + " arguments to " + tokens[0]);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Two-tier LRU cache of emoji sprites.
+ * <p>
+ * The first tier holds the {@link EmojiAtlas} of each {@link EmojiPack}, built once. The second
+ * tier holds sprites scaled to a face width from the nearest mip level of the atlas, with widths
+ * rounded to {@link #WIDTH_BUCKET} pixels so that faces of nearly the same size share one scaled
+ * sprite. Both tiers are bounded by byte size, and keyed by the pack, so swapping packs never
+ * mixes up their sprites. The atlas tier grows to hold the largest atlas built, so an atlas is
+ * never evicted as soon as it is put and built again on the next miss.
+ */
+class EmojiSpriteCache {
+
+    // Scaled sprite widths are rounded to a multiple of this many pixels
+    static final int WIDTH_BUCKET = 8;
+
+    // Bump whenever sprites are scaled differently, so results scaled the old way are redone
+    static final int SCALING_VERSION = 4;
+
+    private static EmojiSpriteCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<Long, Bitmap> mScaledSprites;
+
+    // Guarded by this cache, as it is replaced by a larger one when an atlas does not fit,
+    // along with its counts, which carry over
+    private LruCache<Integer, EmojiAtlas> mAtlases;
+    private int mAtlasHits;
+    private int mAtlasMisses;
+
+    EmojiSpriteCache(Context context, int maxAtlasBytes, int maxScaledSpriteBytes) {
+        mContext = context.getApplicationContext();
+        mAtlases = newAtlasCache(maxAtlasBytes);
+
+        mScaledSprites = new LruCache<Long, Bitmap>(maxScaledSpriteBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap sprite) {
+                return sprite.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * @param context Any context, only the application context is kept.
+     * @return The process-wide sprite cache, sized from the memory class of the app.
+     */
+    static synchronized EmojiSpriteCache getInstance(Context context) {
+        if (sInstance == null) {
+            int maxMemory = (int) Math.min(Runtime.getRuntime().maxMemory(), Integer.MAX_VALUE);
+            sInstance = new EmojiSpriteCache(context, maxMemory / 16, maxMemory / 32);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Releases cached sprites according to how much memory the system needs back.
+     *
+     * @param level The level passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    static synchronized void onTrimMemory(int level) {
+        if (sInstance != null) {
+            sInstance.trimMemory(level);
+        }
+    }
+
+    /**
+     * Releases every cached sprite once another pack is selected, as the sprites of the
+     * previous one are not drawn any more.
+     */
+    static synchronized void onPackChanged() {
+        if (sInstance != null) {
+            sInstance.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    }
+
+    /**
+     * @param emoji     The emoji.
+     * @param faceWidth The width of the face the emoji will be drawn over.
+     * @return The sprite the current pack draws for the emoji, scaled to the bucketed width of
+     * the face, or null if the face is too small to draw an emoji over.
+     */
+    Bitmap getScaledSprite(Emoji emoji, float faceWidth) {
+        EmojiPack pack = EmojiPack.getCurrent(mContext);
+        return getScaledSprite(pack, pack.spriteFor(emoji), faceWidth);
+    }
+
+    /**
+     * @param pack The pack.
+     * @return The atlas of every sprite of the pack, or null if it cannot be built.
+     */
+    synchronized EmojiAtlas getAtlas(EmojiPack pack) {
+        EmojiAtlas atlas = mAtlases.get(pack.id);
+        if (atlas != null) {
+            mAtlasHits++;
+        } else {
+            mAtlasMisses++;
+            try {
+                atlas = EmojiAtlas.build(pack);
+            } catch (IOException e) {
+                Timber.e(e, "getAtlas: cannot build the atlas of %s", pack);
+                return null;
+            }
+
+            // Size the tier from the atlas itself, rather than evict it straight away
+            if (atlas.getByteCount() > mAtlases.maxSize()) {
+                Timber.w("getAtlas: %s takes %d bytes, more than the %d of the tier", atlas,
+                        atlas.getByteCount(), mAtlases.maxSize());
+                LruCache<Integer, EmojiAtlas> atlases = newAtlasCache(atlas.getByteCount());
+                for (Map.Entry<Integer, EmojiAtlas> entry
+                        : mAtlases.snapshot().entrySet()) {
+                    atlases.put(entry.getKey(), entry.getValue());
+                }
+                mAtlases = atlases;
+            }
+            mAtlases.put(pack.id, atlas);
+        }
+        return atlas;
+    }
+
+    /**
+     * @param pack      The pack of the sprite.
+     * @param sprite    The handle of the sprite in the pack.
+     * @param faceWidth The width of the face the emoji will be drawn over.
+     * @return The sprite scaled to the bucketed width of the face, or null if the face is too
+     * small to draw an emoji over.
+     */
+    Bitmap getScaledSprite(EmojiPack pack, int sprite, float faceWidth) {
+        int width = bucketWidth(EmojiPlacement.scaledEmojiWidth(faceWidth));
+        if (width <= 0) {
+            return null;
+        }
+
+        Long key = key(pack, sprite, width);
+        Bitmap scaled = mScaledSprites.get(key);
+        if (scaled == null) {
+            EmojiAtlas atlas = getAtlas(pack);
+            if (atlas == null) {
+                return null;
+            }
+            scaled = scale(atlas, sprite, width);
+            mScaledSprites.put(key, scaled);
+        }
+        return scaled;
+    }
+
+    synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mAtlases.evictAll();
+            mScaledSprites.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mScaledSprites.evictAll();
+        }
+    }
+
+    synchronized int getAtlasHitCount() {
+        return mAtlasHits;
+    }
+
+    synchronized int getAtlasMissCount() {
+        return mAtlasMisses;
+    }
+
+    int getScaledSpriteHitCount() {
+        return mScaledSprites.hitCount();
+    }
+
+    int getScaledSpriteMissCount() {
+        return mScaledSprites.missCount();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EmojiSpriteCache{atlases=" + mAtlases + ", scaled=" + mScaledSprites + "}";
+    }
+
+    private static LruCache<Integer, EmojiAtlas> newAtlasCache(int maxBytes) {
+        return new LruCache<Integer, EmojiAtlas>(maxBytes) {
+            @Override
+            protected int sizeOf(Integer packId, EmojiAtlas atlas) {
+                return atlas.getByteCount();
+            }
+        };
+    }
+
+    // The pack, the sprite and the width, which fits in 16 bits once bucketed
+    private static Long key(EmojiPack pack, int sprite, int width) {
+        return ((long) pack.id << 32) | ((long) sprite << 16) | width;
+    }
+
+    /**
+     * Rounds a sprite width to the nearest bucket, capped to what fits in a cache key.
+     */
+    static int bucketWidth(int width) {
+        if (width <= 0) {
+            return 0;
+        }
+        int bucketed = Math.max(WIDTH_BUCKET,
+                (width + WIDTH_BUCKET / 2) / WIDTH_BUCKET * WIDTH_BUCKET);
+        return Math.min(bucketed, 0xFFFF);
+    }
+
+    // Filtered from the nearest mip level, so the cost is bounded by the size of the result
+    private static Bitmap scale(EmojiAtlas atlas, int sprite, int width) {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long start = metrics.startTimer();
+        int height = EmojiPlacement.scaledEmojiHeight(atlas.getSpriteWidth(sprite),
+                atlas.getSpriteHeight(sprite), width);
+        Bitmap scaled = atlas.scale(sprite, width, Math.max(1, height));
+        metrics.recordStage(MetricsRegistry.Stage.SCALE, start);
+        return scaled;
+    }
+}
@@ -18,23 +18,44 @@ package com.example.android.emojify;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.util.SparseArray;
-import android.widget.Toast;
+import android.os.Process;
 
-import com.google.android.gms.vision.Frame;
-import com.google.android.gms.vision.face.Face;
 import com.google.android.gms.vision.face.FaceDetector;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import timber.log.Timber;
 
 class Emojifier {
 
 
-    private static final float EMOJI_SCALE_FACTOR = .9f;
-    private static final double SMILING_PROB_THRESHOLD = .15;
-    private static final double EYE_OPEN_PROB_THRESHOLD = .5;
+    // Faces are detected on a copy of the picture no larger than this on its longest side
+    static final int DETECTION_MAX_DIMENSION = 640;
+
+    // Disable tracking and enable classifications
+    static final FaceDetectorPool.Config DETECTOR_CONFIG = new FaceDetectorPool.Config(
+            false, FaceDetector.ALL_CLASSIFICATIONS, FaceDetector.NO_LANDMARKS,
+            FaceDetector.FAST_MODE);
+
+    // Enable tracking for the live preview, so faces keep their ID from one frame to the next
+    static final FaceDetectorPool.Config TRACKING_DETECTOR_CONFIG = new FaceDetectorPool.Config(
+            true, FaceDetector.ALL_CLASSIFICATIONS, FaceDetector.NO_LANDMARKS,
+            FaceDetector.FAST_MODE);
+
+    // Pictures with at least this many faces get their emoji prepared on several cores
+    static final int PARALLEL_MIN_FACES = 8;
+
+    // Bursts are scanned whole once every this many pictures, and only around the faces of the
+    // previous picture in between, padded by half the size of each face
+    static final int BURST_FULL_SCAN_INTERVAL = 5;
+    static final float BURST_REGION_PADDING = .5f;
+
+    private static ParallelFaceMapper sFaceMapper;
 
     /**
      * Method for detecting faces in a bitmap, and drawing emoji depending on the facial
@@ -44,191 +65,256 @@ class Emojifier {
      * @param picture The picture in which to detect the faces.
      */
     static Bitmap detectFacesandOverlayEmoji(Context context, Bitmap picture) {
+        return overlayEmoji(context, picture, detectFaces(context, picture));
+    }
 
-        // Create the face detector, disable tracking and enable classifications
-        FaceDetector detector = new FaceDetector.Builder(context)
-                .setTrackingEnabled(false)
-                .setClassificationType(FaceDetector.ALL_CLASSIFICATIONS)
-                .build();
-
-        // Build the frame
-        Frame frame = new Frame.Builder().setBitmap(picture).build();
-
-        // Detect the faces
-        SparseArray<Face> faces = detector.detect(frame);
-
-        // Log the number of faces
-        Timber.d("detectFaces: number of faces = " + faces.size());
-
-        // Initialize result bitmap to original picture
-        Bitmap resultBitmap = picture;
+    /**
+     * Method for detecting faces in an upright bitmap with a given detector, such as one made by
+     * {@link #newBurstDetector(Context, ImageOrientation)} for upright pictures, and drawing
+     * emoji depending on the facial expression.
+     *
+     * @param context  The application context.
+     * @param picture  The picture in which to detect the faces.
+     * @param detector The detector to find the faces with.
+     */
+    static Bitmap detectFacesandOverlayEmoji(Context context, Bitmap picture,
+                                             FaceDetectionEngine<Bitmap> detector) {
+        List<DetectedFace> faces = detector.detect(picture);
+        Timber.d("detectFaces: number of faces = %d, %s", faces.size(), detector);
+        return overlayEmoji(context, picture, faces);
+    }
 
-        // If there are no faces detected, show a Toast message
-        if (faces.size() == 0) {
-            Toast.makeText(context, R.string.no_faces_message, Toast.LENGTH_SHORT).show();
-        } else {
+    /**
+     * Makes a detector for pictures taken in a burst, which only looks around the faces of the
+     * previous picture most of the time, as they barely move from one picture to the next.
+     * Pictures must be passed to it one at a time, in the order they were taken.
+     *
+     * @param context     The application context.
+     * @param orientation How the pictures are stored compared to upright.
+     * @return The detector, working on copies of the pictures no larger than
+     * {@link #DETECTION_MAX_DIMENSION}, and finding the faces in upright coordinates.
+     */
+    static IncrementalFaceDetector<Bitmap> newBurstDetector(Context context,
+                                                            ImageOrientation orientation) {
+        return new IncrementalFaceDetector<>(new GmsFaceDetectionEngine(context, DETECTOR_CONFIG,
+                DETECTION_MAX_DIMENSION, orientation), BURST_FULL_SCAN_INTERVAL,
+                BURST_REGION_PADDING);
+    }
 
-            // Iterate through the faces
-            for (int i = 0; i < faces.size(); ++i) {
-                Face face = faces.valueAt(i);
-
-                Bitmap emojiBitmap;
-                switch (whichEmoji(face)) {
-                    case SMILE:
-                        emojiBitmap = BitmapFactory.decodeResource(context.getResources(),
-                                R.drawable.smile);
-                        break;
-                    case FROWN:
-                        emojiBitmap = BitmapFactory.decodeResource(context.getResources(),
-                                R.drawable.frown);
-                        break;
-                    case LEFT_WINK:
-                        emojiBitmap = BitmapFactory.decodeResource(context.getResources(),
-                                R.drawable.leftwink);
-                        break;
-                    case RIGHT_WINK:
-                        emojiBitmap = BitmapFactory.decodeResource(context.getResources(),
-                                R.drawable.rightwink);
-                        break;
-                    case LEFT_WINK_FROWN:
-                        emojiBitmap = BitmapFactory.decodeResource(context.getResources(),
-                                R.drawable.leftwinkfrown);
-                        break;
-                    case RIGHT_WINK_FROWN:
-                        emojiBitmap = BitmapFactory.decodeResource(context.getResources(),
-                                R.drawable.rightwinkfrown);
-                        break;
-                    case CLOSED_EYE_SMILE:
-                        emojiBitmap = BitmapFactory.decodeResource(context.getResources(),
-                                R.drawable.closed_smile);
-                        break;
-                    case CLOSED_EYE_FROWN:
-                        emojiBitmap = BitmapFactory.decodeResource(context.getResources(),
-                                R.drawable.closed_frown);
-                        break;
-                    default:
-                        emojiBitmap = null;
-                        Toast.makeText(context, R.string.no_emoji, Toast.LENGTH_SHORT).show();
-                }
-
-                // Add the emojiBitmap to the proper position in the original image
-                resultBitmap = addBitmapToFace(resultBitmap, emojiBitmap, face);
-            }
-        }
+    /**
+     * Method for detecting faces in a bitmap, on a copy of the bitmap no larger than
+     * {@link #DETECTION_MAX_DIMENSION}.
+     *
+     * @param context The application context.
+     * @param picture The picture in which to detect the faces.
+     * @return The detected faces, in the coordinates of the picture.
+     */
+    static List<DetectedFace> detectFaces(Context context, Bitmap picture) {
+        return detectFaces(context, picture, DETECTION_MAX_DIMENSION);
+    }
 
+    /**
+     * Method for detecting faces in a bitmap.
+     *
+     * @param context      The application context.
+     * @param picture      The picture in which to detect the faces.
+     * @param maxDimension The largest width or height to run detection at, or 0 to run it on
+     *                     the picture itself.
+     * @return The detected faces, in the coordinates of the picture.
+     */
+    static List<DetectedFace> detectFaces(Context context, Bitmap picture, int maxDimension) {
+        FaceDetectionEngine<Bitmap> engine = new GmsFaceDetectionEngine(context, DETECTOR_CONFIG,
+                maxDimension);
+        List<DetectedFace> faces = engine.detect(picture);
 
-        // Release the detector
-        detector.release();
+        // Log the number of faces, only formatted if logging is on
+        Timber.d("detectFaces: number of faces = %d", faces.size());
+        Timber.d("detectFaces: %s", engine);
 
-        return resultBitmap;
+        return faces;
     }
 
-
     /**
-     * Determines the closest emoji to the expression on the face, based on the
-     * odds that the person is smiling and has each eye open.
+     * Method for detecting faces in a bitmap stored sideways, scanning the whole bitmap, on a
+     * copy no larger than {@link #DETECTION_MAX_DIMENSION}.
      *
-     * @param face The face for which you pick an emoji.
+     * @param context     The application context.
+     * @param picture     The picture in which to detect the faces, as stored.
+     * @param orientation How the picture is stored compared to upright.
+     * @return The detected faces, in the coordinates of the upright picture.
      */
+    static List<DetectedFace> detectFaces(Context context, Bitmap picture,
+                                          ImageOrientation orientation) {
+        FaceDetectionEngine<Bitmap> engine = new GmsFaceDetectionEngine(context, DETECTOR_CONFIG,
+                DETECTION_MAX_DIMENSION, orientation);
+        List<DetectedFace> faces = engine.detect(picture);
+        Timber.d("detectFaces: number of faces = %d, %s", faces.size(), engine);
+        return faces;
+    }
 
-    private static Emoji whichEmoji(Face face) {
-        // Log all the probabilities
-        Timber.d("whichEmoji: smilingProb = " + face.getIsSmilingProbability());
-        Timber.d("whichEmoji: leftEyeOpenProb = "
-                + face.getIsLeftEyeOpenProbability());
-        Timber.d("whichEmoji: rightEyeOpenProb = "
-                + face.getIsRightEyeOpenProbability());
-
+    /**
+     * Calculates how much to shrink a picture so its largest side is no more than the maximum.
+     *
+     * @param width        The width of the picture.
+     * @param height       The height of the picture.
+     * @param maxDimension The largest width or height allowed, or 0 for no limit.
+     * @return The scale to apply to the picture, never more than 1.
+     */
+    static float detectionScale(int width, int height, int maxDimension) {
+        int largest = Math.max(width, height);
+        if (maxDimension <= 0 || largest <= maxDimension) {
+            return 1f;
+        }
+        return (float) maxDimension / largest;
+    }
 
-        boolean smiling = face.getIsSmilingProbability() > SMILING_PROB_THRESHOLD;
+    /**
+     * Method for drawing emoji over the detected faces, depending on the facial expression.
+     *
+     * @param context The application context.
+     * @param picture The picture in which the faces were detected.
+     * @param faces   The detected faces.
+     * @return The picture with the emoji drawn over it, or the picture itself if there are no
+     * faces.
+     */
+    static Bitmap overlayEmoji(Context context, Bitmap picture, List<DetectedFace> faces) {
+        return overlayEmoji(context, picture, faces, ImageOrientation.NORMAL);
+    }
 
-        boolean leftEyeClosed = face.getIsLeftEyeOpenProbability() < EYE_OPEN_PROB_THRESHOLD;
-        boolean rightEyeClosed = face.getIsRightEyeOpenProbability() < EYE_OPEN_PROB_THRESHOLD;
+    /**
+     * Method for drawing emoji over the detected faces of a picture stored sideways, turning
+     * the picture upright in the same draw.
+     *
+     * @param context     The application context.
+     * @param picture     The picture in which the faces were detected, as stored.
+     * @param faces       The detected faces, in the coordinates of the upright picture.
+     * @param orientation How the picture is stored compared to upright.
+     * @return The upright picture with the emoji drawn over it, which is the picture itself if
+     * it was already upright and there are no faces.
+     */
+    static Bitmap overlayEmoji(Context context, Bitmap picture, List<DetectedFace> faces,
+                               ImageOrientation orientation) {
 
+        // If there are no faces detected, return the original picture
+        if (faces.isEmpty() && orientation.isNormal()) {
+            return picture;
+        }
 
-        // Determine and log the appropriate emoji
-        Emoji emoji;
-        if(smiling) {
-            if (leftEyeClosed && !rightEyeClosed) {
-                emoji = Emoji.LEFT_WINK;
-            }  else if(rightEyeClosed && !leftEyeClosed){
-                emoji = Emoji.RIGHT_WINK;
-            } else if (leftEyeClosed){
-                emoji = Emoji.CLOSED_EYE_SMILE;
-            } else {
-                emoji = Emoji.SMILE;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long start = metrics.startTimer();
+
+        // Get the emoji of every face, already scaled to the width of the face, spreading the
+        // work over the cores for crowded pictures. The whole picture is drawn with one pack,
+        // even if another one is selected meanwhile.
+        final EmojiSpriteCache spriteCache = EmojiSpriteCache.getInstance(context);
+        final EmojiPack pack = EmojiPack.getCurrent(context);
+        ParallelFaceMapper.Mapper<Bitmap> prepare = new ParallelFaceMapper.Mapper<Bitmap>() {
+            @Override
+            public Bitmap map(DetectedFace face) {
+                return spriteCache.getScaledSprite(pack, whichSprite(pack, face), face.width);
             }
+        };
+        List<Bitmap> emojiBitmaps;
+        if (faces.size() >= PARALLEL_MIN_FACES) {
+            emojiBitmaps = getFaceMapper().map(faces, prepare);
         } else {
-            if (leftEyeClosed && !rightEyeClosed) {
-                emoji = Emoji.LEFT_WINK_FROWN;
-            }  else if(rightEyeClosed && !leftEyeClosed){
-                emoji = Emoji.RIGHT_WINK_FROWN;
-            } else if (leftEyeClosed){
-                emoji = Emoji.CLOSED_EYE_FROWN;
-            } else {
-                emoji = Emoji.FROWN;
+            emojiBitmaps = new ArrayList<>(faces.size());
+            for (DetectedFace face : faces) {
+                emojiBitmaps.add(prepare.map(face));
             }
         }
 
+        // Draw every emoji onto a single copy of the picture, in the order of the faces so
+        // overlapping emoji always stack the same way
+        EmojiCompositor compositor = EmojiCompositor.begin(picture, true, orientation);
+        for (int i = 0; i < faces.size(); i++) {
+            DetectedFace face = faces.get(i);
+            Bitmap emojiBitmap = emojiBitmaps.get(i);
+
+            // Add the emojiBitmap to the proper position in the original image
+            if (emojiBitmap != null) {
+                compositor.drawScaledEmoji(emojiBitmap, face.left, face.top, face.width,
+                        face.height);
+            }
+        }
+
+        Bitmap result = compositor.finish();
+        metrics.recordStage(MetricsRegistry.Stage.COMPOSITE, start);
+        Timber.d("overlayEmoji: %s", spriteCache);
 
-        // Log the chosen Emoji
-        Timber.d("whichEmoji: " + emoji.name());
-        
-        // return the chosen Emoji
-        return emoji;
+        return result;
     }
 
     /**
-     * Combines the original picture with the emoji bitmaps
-     *
-     * @param backgroundBitmap The original picture
-     * @param emojiBitmap      The chosen emoji
-     * @param face             The detected face
-     * @return The final bitmap, including the emojis over the faces
+     * @return The mapper preparing the emoji of crowded pictures, with one thread per core, the
+     * calling thread included.
      */
-    private static Bitmap addBitmapToFace(Bitmap backgroundBitmap, Bitmap emojiBitmap, Face face) {
-
-        // Initialize the results bitmap to be a mutable copy of the original image
-        Bitmap resultBitmap = Bitmap.createBitmap(backgroundBitmap.getWidth(),
-                backgroundBitmap.getHeight(), backgroundBitmap.getConfig());
-
-        // Scale the emoji so it looks better on the face
-        float scaleFactor = EMOJI_SCALE_FACTOR;
-
-        // Determine the size of the emoji to match the width of the face and preserve aspect ratio
-        int newEmojiWidth = (int) (face.getWidth() * scaleFactor);
-        int newEmojiHeight = (int) (emojiBitmap.getHeight() *
-                newEmojiWidth / emojiBitmap.getWidth() * scaleFactor);
-
-
-        // Scale the emoji
-        emojiBitmap = Bitmap.createScaledBitmap(emojiBitmap, newEmojiWidth, newEmojiHeight, false);
+    static synchronized ParallelFaceMapper getFaceMapper() {
+        if (sFaceMapper == null) {
+            int parallelism = Runtime.getRuntime().availableProcessors();
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism - 1),
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(
+                                            Process.THREAD_PRIORITY_BACKGROUND);
+                                    runnable.run();
+                                }
+                            }, "EmojiPrep #" + mCount.incrementAndGet());
+                        }
+                    });
+            sFaceMapper = new ParallelFaceMapper(executor, parallelism);
+        }
+        return sFaceMapper;
+    }
 
-        // Determine the emoji position so it best lines up with the face
-        float emojiPositionX =
-                (face.getPosition().x + face.getWidth() / 2) - emojiBitmap.getWidth() / 2;
-        float emojiPositionY =
-                (face.getPosition().y + face.getHeight() / 2) - emojiBitmap.getHeight() / 3;
+    /**
+     * Method for drawing emoji over a picture from the faces stored in its metadata, such as
+     * cached ones, without running detection again.
+     *
+     * @param context     The application context.
+     * @param picture     The picture the metadata was recorded for, at any resolution, as
+     *                    stored.
+     * @param metadata    The faces found in the upright picture.
+     * @param orientation How the picture is stored compared to upright.
+     * @return The upright picture with the emoji drawn over it, which is the picture itself if
+     * it was already upright and there are no faces.
+     */
+    static Bitmap renderFromMetadata(Context context, Bitmap picture, FaceMetadata metadata,
+                                     ImageOrientation orientation) {
+        int width = picture.getWidth();
+        int height = picture.getHeight();
+        FaceMetadata scaled = metadata.scaledTo(orientation.uprightWidth(width, height),
+                orientation.uprightHeight(width, height));
+        return overlayEmoji(context, picture, scaled.faces, orientation);
+    }
 
-        // Create the canvas and draw the bitmaps to it
-        Canvas canvas = new Canvas(resultBitmap);
-        canvas.drawBitmap(backgroundBitmap, 0, 0, null);
-        canvas.drawBitmap(emojiBitmap, emojiPositionX, emojiPositionY, null);
 
-        return resultBitmap;
-    }
-    
-
-    // Enum for all possible Emojis
-    private enum Emoji {
-        SMILE,
-        FROWN,
-        LEFT_WINK,
-        RIGHT_WINK,
-        LEFT_WINK_FROWN,
-        RIGHT_WINK_FROWN,
-        CLOSED_EYE_SMILE,
-        CLOSED_EYE_FROWN
+    /**
+     * Determines the closest emoji to the expression on the face, based on the
+     * odds that the person is smiling and has each eye open.
+     *
+     * @param pack The pack to draw the emoji from.
+     * @param face The face for which you pick an emoji.
+     * @return The handle of the sprite in the pack.
+     */
+    private static int whichSprite(EmojiPack pack, DetectedFace face) {
+        // Look up the sprite in the rules of the pack
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long start = metrics.startTimer();
+        int sprite = pack.spriteFor(face);
+        metrics.recordStage(MetricsRegistry.Stage.CLASSIFY, start);
+
+        // Log the probabilities and the chosen sprite as fields, formatted off the hot path
+        EventLog.getInstance().record(EventLog.FACE_CLASSIFIED, face.id, sprite,
+                face.smilingProbability, face.leftEyeOpenProbability,
+                face.rightEyeOpenProbability);
+
+        return sprite;
     }
-
 }
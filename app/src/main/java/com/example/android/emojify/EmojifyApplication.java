@@ -0,0 +1,90 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import timber.log.Timber;
+
+public class EmojifyApplication extends Application {
+
+    // Debug builds log everything, release builds only warnings and errors
+    private static final int MIN_LOG_PRIORITY = BuildConfig.DEBUG ? Log.VERBOSE : Log.WARN;
+
+    // Enough for the faces of a large burst between two drains
+    private static final int EVENT_LOG_CAPACITY = 4096;
+    private static final long EVENT_LOG_DRAIN_INTERVAL_MILLIS = 500;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        MetricsRegistry.setInstance(new MetricsRegistry(BuildConfig.METRICS_ENABLED));
+
+        // Plant the tree once per process: the activities are recreated on every rotation
+        Timber.plant(new Timber.DebugTree() {
+            @Override
+            protected boolean isLoggable(String tag, int priority) {
+                // Checked before the message is formatted
+                return priority >= MIN_LOG_PRIORITY;
+            }
+        });
+
+        // Hot path events are only recorded when their level is logged
+        if (MIN_LOG_PRIORITY <= Log.DEBUG) {
+            EventLog eventLog = new EventLog(EVENT_LOG_CAPACITY);
+            eventLog.startDraining(new EventLog.Sink() {
+                @Override
+                public void onEvent(long timeNanos, int type, int a, int b, float x, float y,
+                                    float z) {
+                    Timber.d(EventLog.describe(type, a, b, x, y, z));
+                }
+
+                @Override
+                public void onDropped(long count) {
+                    Timber.w("EventLog: %d events dropped", count);
+                }
+            }, EVENT_LOG_DRAIN_INTERVAL_MILLIS);
+            EventLog.setInstance(eventLog);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        EmojiSpriteCache.onTrimMemory(level);
+        BitmapPool.onTrimMemory(level);
+        EmojifyPipeline.onTrimMemory(this, level);
+
+        // Keep the detectors while the camera app is in front, drop them once memory gets tight
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            FaceDetectorPool.getInstance(this).release();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        EmojiSpriteCache.onTrimMemory(TRIM_MEMORY_COMPLETE);
+        BitmapPool.onTrimMemory(TRIM_MEMORY_COMPLETE);
+        EmojifyPipeline.onTrimMemory(this, TRIM_MEMORY_COMPLETE);
+        FaceDetectorPool.getInstance(this).release();
+    }
+}
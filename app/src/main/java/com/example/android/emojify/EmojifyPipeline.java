@@ -0,0 +1,478 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Runs the decode, detect and composite stages of emojifying a photo on a bounded pool of
+ * background threads, and delivers progress and results on the main thread.
+ * <p>
+ * A coarse preview of the photo is emojified first and delivered within moments, then the
+ * full-quality result replaces it; the full detection scans the whole picture, as the preview
+ * is too coarse to find every face. The time to the preview and to the result are recorded as
+ * the {@link MetricsRegistry.Stage#TIME_TO_FIRST_PIXEL} and
+ * {@link MetricsRegistry.Stage#TIME_TO_FINAL} stages.
+ * <p>
+ * Photos are decoded as stored; their EXIF orientation is read once, passed to the detector as
+ * frame metadata, and only applied when the emoji are composited, so results are upright.
+ * <p>
+ * Results are cached by the content of the photo, so emojifying the same photo again with the
+ * same configuration skips the detection, and only draws the emoji over the cached faces again.
+ * The photo is hashed once the preview is on its way, so a hit is previewed too. Saving or
+ * sharing such a result writes the cached encoding of it.
+ */
+class EmojifyPipeline {
+
+    private static final int MAX_WORKERS = 2;
+    private static final int MAX_QUEUED_JOBS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // Encoded results kept in memory and on disk, as fractions of the heap and absolute
+    private static final int RESULT_CACHE_HEAP_FRACTION = 32;
+    private static final long RESULT_CACHE_DISK_BYTES = 32 * 1024 * 1024;
+    private static final String RESULT_CACHE_DIR = "results";
+
+    private static ResultCache sResultCache;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            MAX_WORKERS, MAX_WORKERS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED_JOBS), new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "Emojify #" + mCount.incrementAndGet());
+        }
+    });
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // The stages a photo goes through, reported to the callback as they start
+    enum Stage {
+        PREVIEW,
+        DECODE,
+        DETECT,
+        COMPOSITE
+    }
+
+    /**
+     * Receives the progress and result of a job, always on the main thread.
+     */
+    interface Callback {
+
+        void onStageStarted(Stage stage);
+
+        /**
+         * Receives a coarse result, to show until the full-quality one is finished. It is not
+         * delivered once the job has failed.
+         */
+        void onPreview(Result preview);
+
+        void onFinished(Result result);
+
+        void onFailed();
+    }
+
+    /**
+     * The emojified photo, or a preview of it, along with the faces found in it.
+     */
+    static final class Result {
+
+        final Bitmap bitmap;
+        final FaceMetadata metadata;
+        final int faceCount;
+
+        Result(Bitmap bitmap, FaceMetadata metadata) {
+            this.bitmap = bitmap;
+            this.metadata = metadata;
+            this.faceCount = metadata.faces.size();
+        }
+    }
+
+    /**
+     * Starts emojifying a photo in the background.
+     *
+     * @param context   The application context.
+     * @param imagePath The path of the captured photo.
+     * @param callback  The callback receiving progress and the result on the main thread.
+     * @return The job, which may be cancelled.
+     */
+    static Job process(Context context, String imagePath, Callback callback) {
+        Job job = new Job(context.getApplicationContext(), imagePath, callback);
+        try {
+            job.mFuture = sExecutor.submit(job);
+        } catch (RejectedExecutionException e) {
+            Timber.w(e, "process: too many jobs queued");
+            job.deliverFailure();
+        }
+        return job;
+    }
+
+    /**
+     * @param context The application context.
+     * @return The cache of results, in the cache directory of the app.
+     */
+    static synchronized ResultCache getResultCache(Context context) {
+        if (sResultCache == null) {
+            sResultCache = new ResultCache(new File(context.getCacheDir(), RESULT_CACHE_DIR),
+                    Runtime.getRuntime().maxMemory() / RESULT_CACHE_HEAP_FRACTION,
+                    RESULT_CACHE_DISK_BYTES);
+        }
+        return sResultCache;
+    }
+
+    /**
+     * Drops the cached results held in memory when the system needs memory back.
+     *
+     * @param context The application context.
+     * @param level   The level passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    static void onTrimMemory(Context context, int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            getResultCache(context).clearMemory();
+        }
+    }
+
+    /**
+     * Describes everything about the pipeline which changes the result for a given photo, so
+     * results made with another configuration are not reused.
+     *
+     * @param targetW The width photos are resampled to.
+     * @param targetH The height photos are resampled to.
+     * @param pack    The pack emoji are drawn with, rules included.
+     * @return The fingerprint of the configuration.
+     */
+    static String configFingerprint(int targetW, int targetH, EmojiPack pack) {
+        return "target=" + targetW + "x" + targetH
+                + ",detection=" + Emojifier.DETECTION_MAX_DIMENSION + Emojifier.DETECTOR_CONFIG
+                + ",scale=" + EmojiPlacement.EMOJI_SCALE_FACTOR
+                + ",emojiPack=" + pack.fingerprint()
+                + ",emojiScaling=" + EmojiSpriteCache.SCALING_VERSION
+                + ",orientation=exif"
+                + ",encoding=" + ImageSaver.DEFAULT_FORMAT + "@" + ImageSaver.DEFAULT_QUALITY;
+    }
+
+    /**
+     * A single photo being emojified. Once cancelled, nothing more is delivered to its callback.
+     */
+    static final class Job implements Runnable {
+
+        private final Context mContext;
+        private final String mImagePath;
+        private final Callback mCallback;
+
+        // When the photo was handed over, which is what the user waits from
+        private final long mStartNanos = System.nanoTime();
+
+        private volatile boolean mCancelled;
+        private volatile Future<?> mFuture;
+
+        private Job(Context context, String imagePath, Callback callback) {
+            mContext = context;
+            mImagePath = imagePath;
+            mCallback = callback;
+        }
+
+        /**
+         * Cancels the job, interrupting the worker if it has already started.
+         */
+        void cancel() {
+            mCancelled = true;
+            Future<?> future = mFuture;
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public void run() {
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            metrics.beginRun();
+            BitmapPool pool = BitmapPool.getInstance();
+
+            // The bitmaps this job still owns, handed back to the pool however it ends
+            Bitmap previewBitmap = null;
+            Bitmap picture = null;
+            Bitmap resultBitmap = null;
+            try {
+                if (!startStage(Stage.PREVIEW)) return;
+
+                // Show a coarse result while the full photo is hashed, decoded and emojified
+                ImageOrientation orientation = BitmapUtils.readOrientation(mImagePath);
+                previewBitmap = preview(orientation);
+
+                // Skip the detection if this photo was already emojified. Hashing reads the
+                // whole photo, so it waits until the preview is on its way.
+                ResultCache resultCache = getResultCache(mContext);
+                String cacheKey = cacheKey();
+                ResultCache.Entry cached = cacheKey != null ? resultCache.get(cacheKey) : null;
+                if (cached != null) {
+                    Timber.d("run: cached faces for %s, %s", mImagePath, resultCache);
+                }
+
+                if (!startStage(Stage.DECODE)) return;
+                picture = BitmapUtils.resamplePic(mContext, mImagePath);
+                if (picture == null) {
+                    deliverFailure();
+                    return;
+                }
+                metrics.sampleHeap();
+
+                List<DetectedFace> faces;
+                if (cached != null) {
+                    faces = cached.faces;
+                } else {
+                    if (!startStage(Stage.DETECT)) return;
+                    // Scan the whole picture: the preview is too coarse to find every face, such
+                    // as the small ones of a group shot
+                    faces = Emojifier.detectFaces(mContext, picture, orientation);
+                    metrics.sampleHeap();
+                }
+
+                if (!startStage(Stage.COMPOSITE)) return;
+                if (cached != null) {
+                    // The cached faces were found in the upright photo decoded the same way
+                    FaceMetadata cachedFaces = new FaceMetadata(
+                            orientation.uprightWidth(picture.getWidth(), picture.getHeight()),
+                            orientation.uprightHeight(picture.getWidth(), picture.getHeight()),
+                            faces);
+                    resultBitmap = Emojifier.renderFromMetadata(mContext, picture, cachedFaces,
+                            orientation);
+                } else {
+                    resultBitmap = Emojifier.overlayEmoji(mContext, picture, faces, orientation);
+                }
+                metrics.sampleHeap();
+
+                // A photo stored sideways was turned upright into another bitmap
+                if (resultBitmap != picture) {
+                    pool.put(picture);
+                }
+                picture = null;
+
+                if (cached != null) {
+                    // The same configuration draws the same result: save the cached bytes
+                    // rather than encoding it again
+                    ImageSaver.getInstance().putEncoded(resultBitmap, ImageSaver.DEFAULT_FORMAT,
+                            ImageSaver.DEFAULT_QUALITY, cached.image);
+                } else if (cacheKey != null) {
+                    // Encode the result for the cache on the saver thread, queued before the
+                    // result is handed over so it cannot go back to the pool before it is encoded
+                    cacheResult(resultCache, cacheKey, faces, resultBitmap);
+                }
+
+                deliverResult(new Result(resultBitmap, new FaceMetadata(resultBitmap.getWidth(),
+                        resultBitmap.getHeight(), faces)));
+                resultBitmap = null;
+            } catch (RuntimeException e) {
+                Timber.e(e, "run: failed to emojify %s", mImagePath);
+                deliverFailure();
+            } finally {
+                pool.put(picture);
+                if (resultBitmap != null) {
+                    ImageSaver.getInstance().releaseWhenSaved(resultBitmap, pool);
+                }
+                if (previewBitmap != null) {
+                    releaseShown(previewBitmap);
+                }
+                if (metrics.isEnabled()) {
+                    metrics.gauge(MetricsRegistry.BITMAP_BYTES_IN_USE)
+                            .set(pool.getBytesInUse());
+                }
+            }
+        }
+
+        /**
+         * Emojifies a preview of the photo and delivers it. The full result does not depend on
+         * it, so failures are only logged.
+         *
+         * @param orientation How the photo is stored compared to upright.
+         * @return The delivered preview, to hand back to the pool once the full result or the
+         * failure replaces it, or null if there is none.
+         */
+        private Bitmap preview(ImageOrientation orientation) {
+            int[] targetSize = BitmapUtils.getTargetSize(mContext);
+            Bitmap preview = null;
+            Bitmap previewResult;
+            List<DetectedFace> faces;
+            try {
+                preview = BitmapUtils.decodePreview(mImagePath, targetSize[0], targetSize[1]);
+                if (preview == null) {
+                    return null;
+                }
+                faces = Emojifier.detectFaces(mContext, preview, orientation);
+                previewResult = Emojifier.overlayEmoji(mContext, preview, faces, orientation);
+            } catch (RuntimeException e) {
+                Timber.w(e, "preview: cannot preview %s", mImagePath);
+                BitmapPool.getInstance().put(preview);
+                return null;
+            }
+
+            // A preview stored sideways was turned upright into another bitmap
+            if (previewResult != preview) {
+                BitmapPool.getInstance().put(preview);
+            }
+            FaceMetadata metadata = new FaceMetadata(previewResult.getWidth(),
+                    previewResult.getHeight(), faces);
+            deliverPreview(new Result(previewResult, metadata));
+            return previewResult;
+        }
+
+        private String cacheKey() {
+            int[] targetSize = BitmapUtils.getTargetSize(mContext);
+            try {
+                return ResultCache.key(new File(mImagePath),
+                        configFingerprint(targetSize[0], targetSize[1],
+                                EmojiPack.getCurrent(mContext)));
+            } catch (IOException e) {
+                Timber.w(e, "cacheKey: cannot hash %s", mImagePath);
+                return null;
+            }
+        }
+
+        private void cacheResult(final ResultCache resultCache, final String cacheKey,
+                                 final List<DetectedFace> faces, Bitmap resultBitmap) {
+            // Saving the result later writes the same bytes
+            ImageSaver.getInstance().encode(resultBitmap, ImageSaver.DEFAULT_FORMAT,
+                    ImageSaver.DEFAULT_QUALITY, new ImageSaver.EncodeCallback() {
+                        @Override
+                        public void onEncoded(byte[] encoded) {
+                            try {
+                                resultCache.put(cacheKey, new ResultCache.Entry(faces, encoded));
+                            } catch (IOException e) {
+                                Timber.w(e, "cacheResult: cannot cache the result of %s",
+                                        mImagePath);
+                            }
+                        }
+                    });
+        }
+
+        private boolean startStage(final Stage stage) {
+            if (mCancelled || Thread.currentThread().isInterrupted()) {
+                Timber.d("run: cancelled before %s", stage);
+                return false;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onStageStarted(stage);
+                }
+            });
+            return true;
+        }
+
+        private void deliverPreview(final Result preview) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    recordTimeTo(MetricsRegistry.Stage.TIME_TO_FIRST_PIXEL);
+                    mCallback.onPreview(preview);
+                }
+            });
+        }
+
+        private void deliverResult(final Result result) {
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Check again on the main thread, where cancel() is called from
+                    if (mCancelled) {
+                        // Nothing will show the result, but it may still be encoded for the cache
+                        ImageSaver.getInstance().releaseWhenSaved(result.bitmap,
+                                BitmapPool.getInstance());
+                        return;
+                    }
+                    recordTimeTo(MetricsRegistry.Stage.TIME_TO_FINAL);
+                    mCallback.onFinished(result);
+                }
+            });
+        }
+
+        /**
+         * Hands a bitmap delivered to the callback back to the pool, once everything delivered
+         * before it has replaced it on screen. Deliveries run in order on the main thread, and
+         * cancelling the job clears what it showed.
+         */
+        private void releaseShown(final Bitmap bitmap) {
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    BitmapPool.getInstance().put(bitmap);
+                }
+            });
+        }
+
+        private void recordTimeTo(MetricsRegistry.Stage stage) {
+            MetricsRegistry.getInstance().recordStage(stage, mStartNanos);
+            Timber.d("run: %s after %d ms for %s", stage,
+                    (System.nanoTime() - mStartNanos) / 1000000, mImagePath);
+        }
+
+        private void deliverFailure() {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onFailed();
+                }
+            });
+        }
+
+        private void post(final Runnable delivery) {
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Check again on the main thread, where cancel() is called from
+                    if (!mCancelled) {
+                        delivery.run();
+                    }
+                }
+            });
+        }
+    }
+}
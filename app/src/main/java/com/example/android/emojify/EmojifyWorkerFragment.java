@@ -0,0 +1,193 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+
+import java.util.List;
+
+/**
+ * Headless fragment, retained across configuration changes, which owns the running
+ * {@link EmojifyPipeline.Job} and its result, as well as the running {@link BatchEmojifier},
+ * so that recreating the activity does not redo the work.
+ */
+public class EmojifyWorkerFragment extends Fragment
+        implements EmojifyPipeline.Callback, BatchEmojifier.Callback {
+
+    static final String TAG = "EmojifyWorkerFragment";
+
+    private EmojifyPipeline.Callback mCallback;
+    private BatchEmojifier.Callback mBatchCallback;
+
+    private EmojifyPipeline.Job mJob;
+    private EmojifyPipeline.Stage mStage;
+    private EmojifyPipeline.Result mPreview;
+    private EmojifyPipeline.Result mResult;
+
+    private BatchEmojifier mBatch;
+
+    // The outcome of a batch which finished while the activity was being recreated
+    private int mBatchPhotoCount;
+    private StagedPipeline.Report<String> mBatchReport;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        // Keep the job running while the activity is recreated
+        setRetainInstance(true);
+    }
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        mCallback = (EmojifyPipeline.Callback) context;
+        mBatchCallback = (BatchEmojifier.Callback) context;
+        if (mBatchReport != null) {
+            mBatchCallback.onBatchFinished(mBatchPhotoCount, mBatchReport);
+            mBatchReport = null;
+        }
+    }
+
+    @Override
+    public void onDetach() {
+        super.onDetach();
+        mCallback = null;
+        mBatchCallback = null;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        // Only called when the activity is really going away
+        cancel();
+        if (mBatch != null) {
+            mBatch.cancel();
+            mBatch = null;
+        }
+    }
+
+    /**
+     * Starts emojifying a photo, cancelling any photo still being processed.
+     *
+     * @param imagePath The path of the captured photo.
+     */
+    void start(String imagePath) {
+        cancel();
+        mJob = EmojifyPipeline.process(getActivity(), imagePath, this);
+    }
+
+    /**
+     * Starts emojifying photos picked in another app, such as the gallery, unless a batch is
+     * still running. The photos are unrelated, so each of them is scanned whole.
+     *
+     * @param photos The content URIs of the photos.
+     * @return Whether the batch was started.
+     */
+    boolean startBatch(List<Uri> photos) {
+        if (mBatch != null) {
+            return false;
+        }
+        mBatch = new BatchEmojifier(getActivity(), false);
+        mBatch.start(photos, this);
+        return true;
+    }
+
+    /**
+     * Cancels the running job, if any, and forgets the last result.
+     */
+    void cancel() {
+        if (mJob != null) {
+            mJob.cancel();
+            mJob = null;
+        }
+        mStage = null;
+        mPreview = null;
+        mResult = null;
+    }
+
+    boolean isRunning() {
+        return mJob != null;
+    }
+
+    EmojifyPipeline.Stage getStage() {
+        return mStage;
+    }
+
+    /**
+     * @return The coarse result shown while the job is running, if it has been delivered.
+     */
+    EmojifyPipeline.Result getPreview() {
+        return mPreview;
+    }
+
+    EmojifyPipeline.Result getResult() {
+        return mResult;
+    }
+
+    @Override
+    public void onStageStarted(EmojifyPipeline.Stage stage) {
+        mStage = stage;
+        if (mCallback != null) {
+            mCallback.onStageStarted(stage);
+        }
+    }
+
+    @Override
+    public void onPreview(EmojifyPipeline.Result preview) {
+        mPreview = preview;
+        if (mCallback != null) {
+            mCallback.onPreview(preview);
+        }
+    }
+
+    @Override
+    public void onFinished(EmojifyPipeline.Result result) {
+        mJob = null;
+        mStage = null;
+        mPreview = null;
+        mResult = result;
+        if (mCallback != null) {
+            mCallback.onFinished(result);
+        }
+    }
+
+    @Override
+    public void onBatchFinished(int photoCount, StagedPipeline.Report<String> report) {
+        mBatch = null;
+        if (mBatchCallback != null) {
+            mBatchCallback.onBatchFinished(photoCount, report);
+        } else {
+            mBatchPhotoCount = photoCount;
+            mBatchReport = report;
+        }
+    }
+
+    @Override
+    public void onFailed() {
+        mJob = null;
+        mStage = null;
+        mPreview = null;
+        if (mCallback != null) {
+            mCallback.onFailed();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Structured log of the events of the hot path, such as the classification of every face.
+ * <p>
+ * An event is a type and a few primitive fields, written into a ring buffer of parallel arrays
+ * allocated up front, so recording one neither allocates nor formats anything. A background
+ * thread drains the buffer and turns the events into log lines. When the buffer fills up faster
+ * than it is drained, the oldest events are overwritten and counted as dropped. Writers which
+ * wrap around onto the same slot take turns, oldest first, and an event whose slot already holds
+ * a later one is dropped rather than written over it, so no event is ever torn. A disabled log,
+ * the default until one is installed, returns straight away.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ */
+final class EventLog {
+
+    // A face was classified: a = face id, b = sprite handle, x, y, z = odds of smiling, of the
+    // left eye and of the right eye being open
+    static final int FACE_CLASSIFIED = 1;
+
+    /**
+     * Receives the drained events, on the draining thread.
+     */
+    interface Sink {
+
+        void onEvent(long timeNanos, int type, int a, int b, float x, float y, float z);
+
+        /**
+         * @param count The number of events overwritten before they could be drained, since the
+         *              last call.
+         */
+        void onDropped(long count);
+    }
+
+    private static volatile EventLog sInstance = new EventLog(0);
+
+    private final boolean mEnabled;
+    private final int mMask;
+    private final long[] mTimes;
+    private final int[] mTypes;
+    private final int[] mA;
+    private final int[] mB;
+    private final float[] mX;
+    private final float[] mY;
+    private final float[] mZ;
+
+    // The sequence number + 1 of the event in each slot: 0 while empty, and negated while the
+    // event is being written
+    private final AtomicLongArray mPublished;
+    private final AtomicLong mNext = new AtomicLong();
+
+    // Only touched by the drainer, under the lock of the log
+    private long mRead;
+    private long mDropped;
+
+    private Thread mDrainThread;
+
+    /**
+     * @param capacity The number of events the buffer holds, rounded up to a power of two, or 0
+     *                 for a disabled log which records nothing.
+     */
+    EventLog(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity = " + capacity);
+        }
+        mEnabled = capacity > 0;
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mTimes = new long[mEnabled ? size : 0];
+        mTypes = new int[mTimes.length];
+        mA = new int[mTimes.length];
+        mB = new int[mTimes.length];
+        mX = new float[mTimes.length];
+        mY = new float[mTimes.length];
+        mZ = new float[mTimes.length];
+        mPublished = new AtomicLongArray(mTimes.length);
+    }
+
+    /**
+     * @return The log the hot path records to, disabled until one is installed.
+     */
+    static EventLog getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param log The log the hot path records to from now on.
+     */
+    static void setInstance(EventLog log) {
+        sInstance = log;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return The number of events the buffer holds.
+     */
+    int getCapacity() {
+        return mTimes.length;
+    }
+
+    /**
+     * Records an event, without allocating. Safe to call from any thread.
+     *
+     * @param type The type of the event, such as {@link #FACE_CLASSIFIED}.
+     */
+    void record(int type, int a, int b, float x, float y, float z) {
+        if (!mEnabled) {
+            return;
+        }
+        long sequence = mNext.getAndIncrement();
+        int slot = (int) sequence & mMask;
+
+        // Claim the slot, so neither the drainer nor another writer wrapping around onto it
+        // sees a half written event
+        long claimed = -(sequence + 1);
+        while (true) {
+            long current = mPublished.get(slot);
+            if (current > sequence + 1 || current < claimed) {
+                // A later event already took the slot, which the drainer counts this one as
+                // dropped for
+                return;
+            }
+            if (current < 0) {
+                // An earlier event is still being written, which only takes a few stores
+                Thread.yield();
+            } else if (mPublished.compareAndSet(slot, current, claimed)) {
+                break;
+            }
+        }
+        mTimes[slot] = System.nanoTime();
+        mTypes[slot] = type;
+        mA[slot] = a;
+        mB[slot] = b;
+        mX[slot] = x;
+        mY[slot] = y;
+        mZ[slot] = z;
+        mPublished.set(slot, sequence + 1);
+    }
+
+    /**
+     * Hands the events recorded since the last drain to the sink, oldest first. An event still
+     * being written is left for the next drain.
+     *
+     * @param sink Receives the events.
+     * @return The number of events drained.
+     */
+    synchronized int drainTo(Sink sink) {
+        if (!mEnabled) {
+            return 0;
+        }
+        long end = mNext.get();
+        if (end - mRead > mTimes.length) {
+            mDropped += end - mTimes.length - mRead;
+            mRead = end - mTimes.length;
+        }
+
+        int drained = 0;
+        while (mRead < end) {
+            int slot = (int) mRead & mMask;
+            long expected = mRead + 1;
+            long published = mPublished.get(slot);
+            if (published == expected) {
+                long time = mTimes[slot];
+                int type = mTypes[slot];
+                int a = mA[slot];
+                int b = mB[slot];
+                float x = mX[slot];
+                float y = mY[slot];
+                float z = mZ[slot];
+
+                // Only keep the event if no writer came by while it was being read
+                if (mPublished.get(slot) == expected) {
+                    sink.onEvent(time, type, a, b, x, y, z);
+                    drained++;
+                } else {
+                    mDropped++;
+                }
+            } else if (published > expected || published < -expected) {
+                // Overwritten, or being overwritten, by a later event
+                mDropped++;
+            } else {
+                // Not written yet
+                break;
+            }
+            mRead++;
+        }
+
+        if (mDropped > 0) {
+            sink.onDropped(mDropped);
+            mDropped = 0;
+        }
+        return drained;
+    }
+
+    /**
+     * Starts a daemon thread draining the log into the sink at a fixed interval. Does nothing
+     * if the log is disabled or already draining.
+     *
+     * @param sink           Receives the events, on the draining thread.
+     * @param intervalMillis How long to wait between two drains.
+     */
+    synchronized void startDraining(final Sink sink, final long intervalMillis) {
+        if (!mEnabled || mDrainThread != null) {
+            return;
+        }
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    drainTo(sink);
+                    try {
+                        Thread.sleep(intervalMillis);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                // Hand over what was recorded before stopping
+                drainTo(sink);
+            }
+        }, "EventLog");
+        mDrainThread.setDaemon(true);
+        mDrainThread.setPriority(Thread.MIN_PRIORITY);
+        mDrainThread.start();
+    }
+
+    /**
+     * Stops the draining thread, after a last drain.
+     */
+    void stopDraining() throws InterruptedException {
+        Thread drainThread;
+        synchronized (this) {
+            drainThread = mDrainThread;
+            mDrainThread = null;
+        }
+        if (drainThread != null) {
+            drainThread.interrupt();
+            drainThread.join();
+        }
+    }
+
+    /**
+     * Formats an event for a log line. Called by the sink, off the hot path.
+     *
+     * @return The event as text.
+     */
+    static String describe(int type, int a, int b, float x, float y, float z) {
+        switch (type) {
+            case FACE_CLASSIFIED:
+                return String.format(Locale.US, "whichSprite: face %d, smilingProb = %f, "
+                                + "leftEyeOpenProb = %f, rightEyeOpenProb = %f, sprite = %d",
+                        a, x, y, z, b);
+            default:
+                return String.format(Locale.US, "event %d: %d, %d, %f, %f, %f", type, a, b, x, y,
+                        z);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.FaceDetector;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Process-wide holder of warmed-up face detectors, one per detector configuration.
+ * <p>
+ * Loading the native face model is expensive, so detectors are built and warmed up once and
+ * then reused across calls until {@link #release()} is called on memory pressure or when the
+ * app is going away. A detector released while a detection is running on it is only torn down
+ * once that detection is done.
+ */
+class FaceDetectorPool {
+
+    private static final int WARM_UP_BITMAP_SIZE = 32;
+
+    private static FaceDetectorPool sInstance;
+
+    private final Context mAppContext;
+    private final Map<Config, DetectorHandle> mDetectors = new HashMap<>();
+
+    private long mLastWarmUpMillis;
+    private long mTotalWarmUpMillis;
+    private int mWarmUpCount;
+    private long mLastDetectMillis;
+    private long mTotalDetectMillis;
+    private int mDetectCount;
+
+    private FaceDetectorPool(Context context) {
+        mAppContext = context.getApplicationContext();
+    }
+
+    /**
+     * @param context Any context, only its application context is kept.
+     * @return The process-wide detector pool.
+     */
+    static synchronized FaceDetectorPool getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FaceDetectorPool(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Retains the detector for a configuration, building and warming it up on first use. The
+     * caller must unretain it once done.
+     *
+     * @param config The detector configuration.
+     * @return The handle of the shared detector.
+     */
+    private synchronized DetectorHandle retain(Config config) {
+        DetectorHandle handle = mDetectors.get(config);
+        if (handle == null) {
+            handle = new DetectorHandle(warmUp(config));
+            mDetectors.put(config, handle);
+        }
+
+        // Handles are only retired once out of the map, under the same lock
+        if (!handle.retain()) {
+            throw new IllegalStateException("retired detector in the pool: " + config);
+        }
+        return handle;
+    }
+
+    /**
+     * Detects the faces in a frame using the shared detector for the configuration.
+     *
+     * @param config The detector configuration.
+     * @param frame  The frame in which to detect the faces.
+     * @return The detected faces.
+     */
+    SparseArray<Face> detect(Config config, Frame frame) {
+        DetectorHandle handle = retain(config);
+
+        long start = System.nanoTime();
+        SparseArray<Face> faces;
+        try {
+            FaceDetector detector = handle.get();
+            synchronized (detector) {
+                faces = detector.detect(frame);
+            }
+        } finally {
+            handle.unretain();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        MetricsRegistry.getInstance().recordStage(MetricsRegistry.Stage.DETECT, start);
+
+        synchronized (this) {
+            mLastDetectMillis = elapsedMillis;
+            mTotalDetectMillis += elapsedMillis;
+            mDetectCount++;
+        }
+        return faces;
+    }
+
+    /**
+     * Warms up the detector for a configuration on a background thread, so the first photo
+     * does not pay for loading the face model.
+     *
+     * @param config The detector configuration.
+     */
+    void warmUpAsync(final Config config) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                retain(config).unretain();
+            }
+        }, "FaceDetectorWarmUp").start();
+    }
+
+    /**
+     * Releases every pooled detector, or, for a detector in use, lets the detection running on
+     * it finish first. They will be rebuilt on next use.
+     */
+    synchronized void release() {
+        for (DetectorHandle handle : mDetectors.values()) {
+            handle.retire();
+        }
+        if (!mDetectors.isEmpty()) {
+            Timber.d("release: released %d detector(s)", mDetectors.size());
+        }
+        mDetectors.clear();
+    }
+
+    synchronized long getLastWarmUpMillis() {
+        return mLastWarmUpMillis;
+    }
+
+    synchronized int getWarmUpCount() {
+        return mWarmUpCount;
+    }
+
+    synchronized long getLastDetectMillis() {
+        return mLastDetectMillis;
+    }
+
+    synchronized long getAverageDetectMillis() {
+        return mDetectCount == 0 ? 0 : mTotalDetectMillis / mDetectCount;
+    }
+
+    synchronized int getDetectCount() {
+        return mDetectCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FaceDetectorPool{warmUps=" + mWarmUpCount
+                + ", avgWarmUpMs=" + (mWarmUpCount == 0 ? 0 : mTotalWarmUpMillis / mWarmUpCount)
+                + ", detects=" + mDetectCount
+                + ", avgDetectMs=" + getAverageDetectMillis()
+                + ", lastDetectMs=" + mLastDetectMillis + "}";
+    }
+
+    private FaceDetector warmUp(Config config) {
+        long start = System.nanoTime();
+
+        FaceDetector detector = config.build(mAppContext);
+
+        // Run a tiny detection so the native model is loaded now rather than on the first photo
+        Bitmap warmUpBitmap = Bitmap.createBitmap(WARM_UP_BITMAP_SIZE, WARM_UP_BITMAP_SIZE,
+                Bitmap.Config.ARGB_8888);
+        detector.detect(new Frame.Builder().setBitmap(warmUpBitmap).build());
+        warmUpBitmap.recycle();
+
+        mLastWarmUpMillis = (System.nanoTime() - start) / 1000000;
+        MetricsRegistry.getInstance().recordStage(MetricsRegistry.Stage.DETECTOR_INIT, start);
+        mTotalWarmUpMillis += mLastWarmUpMillis;
+        mWarmUpCount++;
+
+        Timber.d("warmUp: %s took %d ms, operational = %b", config, mLastWarmUpMillis,
+                detector.isOperational());
+        return detector;
+    }
+
+    /**
+     * A pooled detector, released once no detection is running on it.
+     */
+    private static final class DetectorHandle extends SharedHandle<FaceDetector> {
+
+        DetectorHandle(FaceDetector detector) {
+            super(detector);
+        }
+
+        @Override
+        protected void onRelease(FaceDetector detector) {
+            synchronized (detector) {
+                detector.release();
+            }
+        }
+    }
+
+    /**
+     * The {@link FaceDetector.Builder} settings a pooled detector is keyed by.
+     */
+    static final class Config {
+
+        final boolean trackingEnabled;
+        final int classificationType;
+        final int landmarkType;
+        final int mode;
+
+        Config(boolean trackingEnabled, int classificationType, int landmarkType, int mode) {
+            this.trackingEnabled = trackingEnabled;
+            this.classificationType = classificationType;
+            this.landmarkType = landmarkType;
+            this.mode = mode;
+        }
+
+        FaceDetector build(Context context) {
+            return new FaceDetector.Builder(context)
+                    .setTrackingEnabled(trackingEnabled)
+                    .setClassificationType(classificationType)
+                    .setLandmarkType(landmarkType)
+                    .setMode(mode)
+                    .build();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Config)) return false;
+            Config other = (Config) o;
+            return trackingEnabled == other.trackingEnabled
+                    && classificationType == other.classificationType
+                    && landmarkType == other.landmarkType
+                    && mode == other.mode;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = trackingEnabled ? 1 : 0;
+            result = 31 * result + classificationType;
+            result = 31 * result + landmarkType;
+            result = 31 * result + mode;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Config{tracking=" + trackingEnabled + ", classification=" + classificationType
+                    + ", landmark=" + landmarkType + ", mode=" + mode + "}";
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The faces found in an image, persisted as a compact binary sidecar next to the image, so it
+ * can be emojified again from the metadata alone, without running detection.
+ * <p>
+ * The sidecar is big-endian: the magic "EMJF", the schema version, the size of the image the
+ * faces were found in, and the faces. Each face holds its ID, its bounds, its three
+ * probabilities and its landmarks, each a type and a position. A face without landmarks takes
+ * {@link #FACE_BYTES} bytes. Readers accept every version up to {@link #VERSION}, and reject
+ * sidecars written by a newer schema rather than misreading them.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ */
+final class FaceMetadata {
+
+    static final int MAGIC = 0x454D4A46; // "EMJF"
+    static final int VERSION = 1;
+    static final String SIDECAR_SUFFIX = ".faces";
+
+    // An ID, seven floats and a landmark count per face, then a type and two floats per landmark
+    static final int FACE_BYTES = 4 + 7 * 4 + 1;
+    static final int LANDMARK_BYTES = 1 + 2 * 4;
+
+    // The magic, version and image size, ahead of the faces
+    private static final int HEADER_BYTES = 4 + 2 + 2 * 4;
+    private static final int MAX_LANDMARKS = 0xFF;
+
+    final int imageWidth;
+    final int imageHeight;
+    final List<DetectedFace> faces;
+
+    /**
+     * @param imageWidth  The width of the image the faces were found in.
+     * @param imageHeight The height of the image the faces were found in.
+     * @param faces       The faces, in the coordinates of the image.
+     */
+    FaceMetadata(int imageWidth, int imageHeight, List<DetectedFace> faces) {
+        if (imageWidth <= 0 || imageHeight <= 0) {
+            throw new IllegalArgumentException(
+                    "Invalid image size " + imageWidth + "x" + imageHeight);
+        }
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.faces = Collections.unmodifiableList(new ArrayList<>(faces));
+    }
+
+    /**
+     * Maps the faces onto the same image at another resolution.
+     *
+     * @param width  The width of the image to draw over.
+     * @param height The height of the image to draw over.
+     * @return The metadata in the coordinates of the resized image.
+     */
+    FaceMetadata scaledTo(int width, int height) {
+        if (width == imageWidth && height == imageHeight) {
+            return this;
+        }
+        float scaleX = (float) width / imageWidth;
+        float scaleY = (float) height / imageHeight;
+        List<DetectedFace> scaledFaces = new ArrayList<>(faces.size());
+        for (DetectedFace face : faces) {
+            scaledFaces.add(face.scale(scaleX, scaleY));
+        }
+        return new FaceMetadata(width, height, scaledFaces);
+    }
+
+    /**
+     * @param image The processed image.
+     * @return The sidecar file of the image: the same name, with the extension replaced.
+     */
+    static File sidecarFor(File image) {
+        String name = image.getName();
+        int extension = name.lastIndexOf('.');
+        String baseName = extension > 0 ? name.substring(0, extension) : name;
+        return new File(image.getParentFile(), baseName + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * Writes the metadata to a file, through a temporary file so a reader never sees half of it.
+     *
+     * @param file The sidecar file.
+     * @throws IOException If the file cannot be written.
+     */
+    void writeTo(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw new IOException("Cannot write " + file);
+        }
+    }
+
+    /**
+     * @param file The sidecar file.
+     * @return The metadata read from the file.
+     * @throws IOException If the file cannot be read, is not a sidecar, or has a newer schema.
+     */
+    static FaceMetadata readFrom(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return read(in, file.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param out The stream to write the metadata to.
+     * @throws IOException If the stream cannot be written.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(imageWidth);
+        out.writeInt(imageHeight);
+        writeFaces(out, faces);
+    }
+
+    /**
+     * @param in       The stream to read the metadata from.
+     * @param maxBytes The most bytes the metadata may take, to reject corrupt face counts.
+     * @return The metadata.
+     * @throws IOException If the stream cannot be read, is not metadata, or has a newer schema.
+     */
+    static FaceMetadata read(DataInputStream in, long maxBytes) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not face metadata");
+        }
+        int version = in.readUnsignedShort();
+        if (version == 0 || version > VERSION) {
+            throw new IOException("Unsupported face metadata version " + version);
+        }
+        int imageWidth = in.readInt();
+        int imageHeight = in.readInt();
+        if (imageWidth <= 0 || imageHeight <= 0) {
+            throw new IOException("Corrupt image size " + imageWidth + "x" + imageHeight);
+        }
+        return new FaceMetadata(imageWidth, imageHeight,
+                readFaces(in, maxBytes - HEADER_BYTES));
+    }
+
+    /**
+     * Writes a list of faces, prefixed by their number.
+     *
+     * @param out   The stream to write the faces to.
+     * @param faces The faces.
+     * @throws IOException If the stream cannot be written.
+     */
+    static void writeFaces(DataOutputStream out, List<DetectedFace> faces) throws IOException {
+        out.writeInt(faces.size());
+        for (DetectedFace face : faces) {
+            out.writeInt(face.id);
+            out.writeFloat(face.left);
+            out.writeFloat(face.top);
+            out.writeFloat(face.width);
+            out.writeFloat(face.height);
+            out.writeFloat(face.smilingProbability);
+            out.writeFloat(face.leftEyeOpenProbability);
+            out.writeFloat(face.rightEyeOpenProbability);
+
+            int landmarkCount = Math.min(face.landmarks.size(), MAX_LANDMARKS);
+            out.writeByte(landmarkCount);
+            for (int i = 0; i < landmarkCount; i++) {
+                DetectedFace.Landmark landmark = face.landmarks.get(i);
+                out.writeByte(landmark.type);
+                out.writeFloat(landmark.x);
+                out.writeFloat(landmark.y);
+            }
+        }
+    }
+
+    /**
+     * Reads a list of faces written by {@link #writeFaces(DataOutputStream, List)}.
+     *
+     * @param in       The stream to read the faces from.
+     * @param maxBytes The most bytes the faces may take, to reject corrupt face counts.
+     * @return The faces.
+     * @throws IOException If the stream cannot be read or the faces are corrupt.
+     */
+    static List<DetectedFace> readFaces(DataInputStream in, long maxBytes) throws IOException {
+        int faceCount = in.readInt();
+        if (faceCount < 0 || 4 + faceCount * (long) FACE_BYTES > maxBytes) {
+            throw new IOException("Corrupt face count " + faceCount);
+        }
+        List<DetectedFace> faces = new ArrayList<>(faceCount);
+        for (int i = 0; i < faceCount; i++) {
+            int id = in.readInt();
+            float left = in.readFloat();
+            float top = in.readFloat();
+            float width = in.readFloat();
+            float height = in.readFloat();
+            float smiling = in.readFloat();
+            float leftEyeOpen = in.readFloat();
+            float rightEyeOpen = in.readFloat();
+
+            int landmarkCount = in.readUnsignedByte();
+            List<DetectedFace.Landmark> landmarks = new ArrayList<>(landmarkCount);
+            for (int j = 0; j < landmarkCount; j++) {
+                landmarks.add(new DetectedFace.Landmark(in.readUnsignedByte(), in.readFloat(),
+                        in.readFloat()));
+            }
+            faces.add(new DetectedFace(id, left, top, width, height, smiling, leftEyeOpen,
+                    rightEyeOpen, landmarks));
+        }
+        return faces;
+    }
+
+    /**
+     * @param faces The faces.
+     * @return The number of bytes {@link #writeFaces(DataOutputStream, List)} takes for them.
+     */
+    static long byteCount(List<DetectedFace> faces) {
+        long bytes = 4;
+        for (DetectedFace face : faces) {
+            bytes += FACE_BYTES
+                    + Math.min(face.landmarks.size(), MAX_LANDMARKS) * (long) LANDMARK_BYTES;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "FaceMetadata{image=" + imageWidth + "x" + imageHeight + ", faces=" + faces + "}";
+    }
+}
@@ -0,0 +1,105 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.android.emojify;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Draws emoji over the faces tracked in a camera preview shown beneath this view.
+ * <p>
+ * Faces are given in the coordinates of the upright frame, which the preview stretches to the
+ * size of the view.
+ */
+public class FaceOverlayView extends View {
+
+    private EmojiPack mPack;
+    private List<TrackedFaceStore.TrackedFace> mFaces = Collections.emptyList();
+    private int mFrameWidth;
+    private int mFrameHeight;
+    private boolean mMirrored;
+
+    public FaceOverlayView(Context context) {
+        super(context);
+    }
+
+    public FaceOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    /**
+     * Replaces the faces drawn over the preview. Must be called on the main thread.
+     *
+     * @param pack        The emoji pack whose rules picked the sprites of the faces.
+     * @param faces       The faces found in the latest processed frame.
+     * @param frameWidth  The width of the upright frame.
+     * @param frameHeight The height of the upright frame.
+     * @param mirrored    Whether the preview is mirrored, as it is for a front-facing camera.
+     */
+    void setFaces(EmojiPack pack, List<TrackedFaceStore.TrackedFace> faces, int frameWidth,
+                  int frameHeight, boolean mirrored) {
+        mPack = pack;
+        mFaces = faces;
+        mFrameWidth = frameWidth;
+        mFrameHeight = frameHeight;
+        mMirrored = mirrored;
+        invalidate();
+    }
+
+    /**
+     * Removes every face from the overlay.
+     */
+    void clear() {
+        setFaces(null, Collections.<TrackedFaceStore.TrackedFace>emptyList(), 0, 0, false);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mFaces.isEmpty() || mFrameWidth == 0 || mFrameHeight == 0) {
+            return;
+        }
+
+        float scaleX = (float) getWidth() / mFrameWidth;
+        float scaleY = (float) getHeight() / mFrameHeight;
+        EmojiSpriteCache spriteCache = EmojiSpriteCache.getInstance(getContext());
+
+        for (TrackedFaceStore.TrackedFace trackedFace : mFaces) {
+            DetectedFace face = trackedFace.face;
+            float width = face.width * scaleX;
+            float height = face.height * scaleY;
+            float left = mMirrored
+                    ? getWidth() - (face.left + face.width) * scaleX
+                    : face.left * scaleX;
+            float top = face.top * scaleY;
+
+            // Faces of nearly the same size share a scaled sprite, so this rarely scales
+            Bitmap sprite = spriteCache.getScaledSprite(mPack, trackedFace.sprite,
+                    width);
+            if (sprite != null) {
+                canvas.drawBitmap(sprite,
+                        EmojiPlacement.emojiLeft(left, width, sprite.getWidth()),
+                        EmojiPlacement.emojiTop(top, height, sprite.getHeight()), null);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic stand-in for the face detector, for host-side tests and benchmarks.
+ * <p>
+ * It either returns a fixed list of faces, or a number of faces generated from a seed and the
+ * size of the image, so the same image always gets the same faces.
+ */
+final class FakeFaceDetectionEngine implements FaceDetectionEngine<PixelBuffer> {
+
+    private final List<DetectedFace> mFaces;
+    private final long mSeed;
+    private final int mFaceCount;
+
+    private int mDetectCount;
+
+    private FakeFaceDetectionEngine(List<DetectedFace> faces, long seed, int faceCount) {
+        mFaces = faces;
+        mSeed = seed;
+        mFaceCount = faceCount;
+    }
+
+    /**
+     * @param faces The faces to find in every image.
+     * @return An engine which always finds these faces.
+     */
+    static FakeFaceDetectionEngine withFaces(List<DetectedFace> faces) {
+        return new FakeFaceDetectionEngine(
+                Collections.unmodifiableList(new ArrayList<>(faces)), 0, faces.size());
+    }
+
+    /**
+     * @param seed      The seed the faces are generated from.
+     * @param faceCount The number of faces to find in every image.
+     * @return An engine which finds faces spread over the image, with every expression.
+     */
+    static FakeFaceDetectionEngine withRandomFaces(long seed, int faceCount) {
+        return new FakeFaceDetectionEngine(null, seed, faceCount);
+    }
+
+    @Override
+    public List<DetectedFace> detect(PixelBuffer image) {
+        mDetectCount++;
+        if (mFaces != null) {
+            return mFaces;
+        }
+
+        Random random = new Random(mSeed ^ ((long) image.width << 32 | image.height));
+        int maxFaceSize = Math.max(1, Math.min(image.width, image.height) / 4);
+        List<DetectedFace> faces = new ArrayList<>(mFaceCount);
+        for (int i = 0; i < mFaceCount; i++) {
+            float size = 1 + random.nextInt(maxFaceSize);
+            float left = random.nextFloat() * (image.width - size);
+            float top = random.nextFloat() * (image.height - size);
+            faces.add(new DetectedFace(i, left, top, size, size * 1.2f, random.nextFloat(),
+                    random.nextFloat(), random.nextFloat()));
+        }
+        return faces;
+    }
+
+    /**
+     * @return The number of times {@link #detect(PixelBuffer)} was called.
+     */
+    int getDetectCount() {
+        return mDetectCount;
+    }
+}
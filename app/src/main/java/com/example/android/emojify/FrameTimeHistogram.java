@@ -0,0 +1,93 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+/**
+ * Histogram of frame times, in buckets bounded by the frame budgets of common refresh rates.
+ * <p>
+ * Recording never allocates or locks, so it can be done on the frame processing thread while
+ * the UI reads the histogram.
+ */
+final class FrameTimeHistogram extends LatencyHistogram {
+
+    // Upper bounds of the buckets, in milliseconds; the last bucket holds anything slower
+    private static final long[] BUCKET_UPPER_MILLIS = {4, 8, 16, 33, 50, 66, 100, 200, 500};
+
+    FrameTimeHistogram() {
+        super(toMicros(BUCKET_UPPER_MILLIS));
+    }
+
+    /**
+     * @param bucket The index of the bucket.
+     * @return The number of frames which took less than the upper bound of the bucket, and at
+     * least the upper bound of the previous one.
+     */
+    long getBucketFrameCount(int bucket) {
+        return getBucketSampleCount(bucket);
+    }
+
+    /**
+     * @param bucket The index of the bucket.
+     * @return The upper bound of the bucket in milliseconds, or {@link Long#MAX_VALUE} for the
+     * last bucket.
+     */
+    static long getBucketUpperMillis(int bucket) {
+        return bucket < BUCKET_UPPER_MILLIS.length ? BUCKET_UPPER_MILLIS[bucket] : Long.MAX_VALUE;
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound in milliseconds of the bucket the percentile falls in, or 0 if no
+     * frame was recorded.
+     */
+    long getPercentileMillis(double percentile) {
+        long micros = getPercentileMicros(percentile);
+        return micros == Long.MAX_VALUE ? Long.MAX_VALUE : micros / 1000;
+    }
+
+    long getAverageMillis() {
+        return getAverageMicros() / 1000;
+    }
+
+    long getMaxMillis() {
+        return getMaxMicros() / 1000;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("FrameTimeHistogram{count=").append(getCount())
+                .append(", avgMs=").append(getAverageMillis())
+                .append(", maxMs=").append(getMaxMillis())
+                .append(", buckets=[");
+        for (int i = 0; i < getBucketCount(); i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(i < BUCKET_UPPER_MILLIS.length ? "<" + BUCKET_UPPER_MILLIS[i] : ">=500")
+                    .append(": ").append(getBucketFrameCount(i));
+        }
+        return builder.append("]}").toString();
+    }
+
+    private static long[] toMicros(long[] millis) {
+        long[] micros = new long[millis.length];
+        for (int i = 0; i < millis.length; i++) {
+            micros[i] = millis[i] * 1000;
+        }
+        return micros;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.Landmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects faces in bitmaps with the Mobile Vision face detector, on a downscaled copy of the
+ * bitmap, or of a region of it, no larger than a maximum dimension.
+ * <p>
+ * Bitmaps stored sideways are not rotated: the detector is told their orientation through the
+ * frame metadata, and the faces, sizes and regions are all in upright coordinates.
+ */
+class GmsFaceDetectionEngine implements IncrementalFaceDetector.RegionDetector<Bitmap> {
+
+    private final FaceDetectorPool mDetectorPool;
+    private final FaceDetectorPool.Config mConfig;
+    private final int mMaxDimension;
+    private final ImageOrientation mOrientation;
+
+    /**
+     * @param context      The application context.
+     * @param config       The configuration of the pooled detector to use.
+     * @param maxDimension The largest width or height to run detection at, or 0 to run it on
+     *                     the bitmap itself.
+     */
+    GmsFaceDetectionEngine(Context context, FaceDetectorPool.Config config, int maxDimension) {
+        this(context, config, maxDimension, ImageOrientation.NORMAL);
+    }
+
+    /**
+     * @param context      The application context.
+     * @param config       The configuration of the pooled detector to use.
+     * @param maxDimension The largest width or height to run detection at, or 0 to run it on
+     *                     the bitmap itself.
+     * @param orientation  How the bitmaps are stored compared to upright.
+     */
+    GmsFaceDetectionEngine(Context context, FaceDetectorPool.Config config, int maxDimension,
+                           ImageOrientation orientation) {
+        mDetectorPool = FaceDetectorPool.getInstance(context);
+        mConfig = config;
+        mMaxDimension = maxDimension;
+        mOrientation = orientation;
+    }
+
+    @Override
+    public List<DetectedFace> detect(Bitmap picture) {
+        return detectIn(picture, new Rect(0, 0, picture.getWidth(), picture.getHeight()), 0, 0);
+    }
+
+    @Override
+    public int getWidth(Bitmap picture) {
+        return mOrientation.uprightWidth(picture.getWidth(), picture.getHeight());
+    }
+
+    @Override
+    public int getHeight(Bitmap picture) {
+        return mOrientation.uprightHeight(picture.getWidth(), picture.getHeight());
+    }
+
+    @Override
+    public List<DetectedFace> detectRegion(Bitmap picture,
+                                           IncrementalFaceDetector.Region region) {
+        int[] stored = mOrientation.toStoredRect(region.left, region.top, region.right,
+                region.bottom, picture.getWidth(), picture.getHeight());
+        return detectIn(picture, new Rect(stored[0], stored[1], stored[2], stored[3]),
+                region.left, region.top);
+    }
+
+    /**
+     * @param picture The picture, as stored.
+     * @param source  The part of the picture to look in, in stored coordinates.
+     * @param left    The left edge of that part once upright.
+     * @param top     The top edge of that part once upright.
+     * @return The faces found, in the upright coordinates of the whole picture.
+     */
+    private List<DetectedFace> detectIn(Bitmap picture, Rect source, int left, int top) {
+
+        // Detect on a smaller copy of the picture, which is plenty to find faces
+        float detectionScale = Emojifier.detectionScale(source.width(), source.height(),
+                mMaxDimension);
+        Bitmap detectionBitmap = picture;
+        BitmapPool pool = BitmapPool.getInstance();
+        boolean wholePicture = source.width() == picture.getWidth()
+                && source.height() == picture.getHeight();
+        if (detectionScale < 1f || !wholePicture) {
+            int width = Math.max(1, Math.round(source.width() * detectionScale));
+            int height = Math.max(1, Math.round(source.height() * detectionScale));
+            detectionBitmap = pool.acquire(width, height, picture.getConfig() != null
+                    ? picture.getConfig() : Bitmap.Config.ARGB_8888);
+            new Canvas(detectionBitmap).drawBitmap(picture, source,
+                    new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+        }
+
+        // Build the frame, letting the detector turn it upright
+        Frame frame = new Frame.Builder()
+                .setBitmap(detectionBitmap)
+                .setRotation(mOrientation.getFrameRotation())
+                .build();
+
+        // Detect the faces with the shared, already warmed-up detector
+        SparseArray<Face> faces = mDetectorPool.detect(mConfig, frame);
+
+        // Map the faces back to the upright coordinates of the picture; the detector reports
+        // them in the coordinates of the upright frame
+        int sourceWidth = mOrientation.uprightWidth(source.width(), source.height());
+        int sourceHeight = mOrientation.uprightHeight(source.width(), source.height());
+        float scaleX = (float) sourceWidth / mOrientation.uprightWidth(
+                detectionBitmap.getWidth(), detectionBitmap.getHeight());
+        float scaleY = (float) sourceHeight / mOrientation.uprightHeight(
+                detectionBitmap.getWidth(), detectionBitmap.getHeight());
+        List<DetectedFace> detectedFaces = new ArrayList<>(faces.size());
+        for (int i = 0; i < faces.size(); ++i) {
+            detectedFaces.add(toDetectedFace(faces.valueAt(i)).scale(scaleX, scaleY)
+                    .offset(left, top));
+        }
+
+        if (detectionBitmap != picture) {
+            pool.put(detectionBitmap);
+        }
+        return detectedFaces;
+    }
+
+    @Override
+    public String toString() {
+        return mDetectorPool.toString();
+    }
+
+    /**
+     * @param face The face found by the Mobile Vision detector.
+     * @return The face, in the coordinates of the frame it was found in.
+     */
+    static DetectedFace toDetectedFace(Face face) {
+        // Only found when the detector is configured to look for landmarks
+        List<DetectedFace.Landmark> landmarks = new ArrayList<>(face.getLandmarks().size());
+        for (Landmark landmark : face.getLandmarks()) {
+            landmarks.add(new DetectedFace.Landmark(landmark.getType(),
+                    landmark.getPosition().x, landmark.getPosition().y));
+        }
+        return new DetectedFace(face.getId(), face.getPosition().x, face.getPosition().y,
+                face.getWidth(), face.getHeight(), face.getIsSmilingProbability(),
+                face.getIsLeftEyeOpenProbability(), face.getIsRightEyeOpenProbability(),
+                landmarks);
+    }
+}
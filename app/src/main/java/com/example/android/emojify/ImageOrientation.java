@@ -0,0 +1,150 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+/**
+ * How a photo is stored compared to how it is meant to be seen, as read from its EXIF
+ * orientation: the clockwise rotation which turns the stored pixels upright.
+ * <p>
+ * Photos are decoded as stored, and their orientation carried along as a transform between
+ * the stored and the upright coordinates, so it can be applied in the one draw which already
+ * copies the picture instead of rotating a copy of it up front. Faces are always in upright
+ * coordinates. The mirrored EXIF orientations, which cameras do not write, are treated as
+ * {@link #NORMAL}.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ */
+final class ImageOrientation {
+
+    // The EXIF orientation values of the four rotations
+    static final int EXIF_NORMAL = 1;
+    static final int EXIF_ROTATE_180 = 3;
+    static final int EXIF_ROTATE_90 = 6;
+    static final int EXIF_ROTATE_270 = 8;
+
+    static final ImageOrientation NORMAL = new ImageOrientation(0);
+    private static final ImageOrientation ROTATE_90 = new ImageOrientation(90);
+    private static final ImageOrientation ROTATE_180 = new ImageOrientation(180);
+    private static final ImageOrientation ROTATE_270 = new ImageOrientation(270);
+
+    // The clockwise rotation turning the stored image upright: 0, 90, 180 or 270
+    final int degrees;
+
+    private ImageOrientation(int degrees) {
+        this.degrees = degrees;
+    }
+
+    /**
+     * @param exifOrientation The value of the EXIF orientation tag, or 0 if there is none.
+     * @return The orientation it stands for.
+     */
+    static ImageOrientation fromExif(int exifOrientation) {
+        switch (exifOrientation) {
+            case EXIF_ROTATE_90:
+                return ROTATE_90;
+            case EXIF_ROTATE_180:
+                return ROTATE_180;
+            case EXIF_ROTATE_270:
+                return ROTATE_270;
+            default:
+                return NORMAL;
+        }
+    }
+
+    boolean isNormal() {
+        return degrees == 0;
+    }
+
+    /**
+     * @return The rotation for the metadata of a Mobile Vision {@code Frame}, from 0 to 3 in
+     * quarter turns, so faces are detected upright and reported in upright coordinates.
+     */
+    int getFrameRotation() {
+        return degrees / 90;
+    }
+
+    /**
+     * @return The width of the image once upright, given its stored size.
+     */
+    int uprightWidth(int storedWidth, int storedHeight) {
+        return isQuarterTurn() ? storedHeight : storedWidth;
+    }
+
+    /**
+     * @return The height of the image once upright, given its stored size.
+     */
+    int uprightHeight(int storedWidth, int storedHeight) {
+        return isQuarterTurn() ? storedWidth : storedHeight;
+    }
+
+    /**
+     * The affine transform from stored to upright coordinates, as the nine values of a 3x3
+     * matrix in row-major order, ready for {@code android.graphics.Matrix.setValues}. Drawing
+     * the stored image through it draws the image upright.
+     *
+     * @param storedWidth  The width of the image as stored.
+     * @param storedHeight The height of the image as stored.
+     * @return The matrix.
+     */
+    float[] toUprightMatrix(int storedWidth, int storedHeight) {
+        switch (degrees) {
+            case 90:
+                return new float[]{0, -1, storedHeight, 1, 0, 0, 0, 0, 1};
+            case 180:
+                return new float[]{-1, 0, storedWidth, 0, -1, storedHeight, 0, 0, 1};
+            case 270:
+                return new float[]{0, 1, 0, -1, 0, storedWidth, 0, 0, 1};
+            default:
+                return new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1};
+        }
+    }
+
+    /**
+     * Maps a rectangle of the upright image onto the stored image.
+     *
+     * @param left         The left edge, in upright coordinates.
+     * @param top          The top edge, in upright coordinates.
+     * @param right        The right edge, in upright coordinates.
+     * @param bottom       The bottom edge, in upright coordinates.
+     * @param storedWidth  The width of the image as stored.
+     * @param storedHeight The height of the image as stored.
+     * @return The same pixels in stored coordinates, as {left, top, right, bottom}.
+     */
+    int[] toStoredRect(int left, int top, int right, int bottom, int storedWidth,
+                       int storedHeight) {
+        switch (degrees) {
+            case 90:
+                return new int[]{top, storedHeight - right, bottom, storedHeight - left};
+            case 180:
+                return new int[]{storedWidth - right, storedHeight - bottom, storedWidth - left,
+                        storedHeight - top};
+            case 270:
+                return new int[]{storedWidth - bottom, left, storedWidth - top, right};
+            default:
+                return new int[]{left, top, right, bottom};
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ImageOrientation{" + degrees + "}";
+    }
+
+    private boolean isQuarterTurn() {
+        return degrees == 90 || degrees == 270;
+    }
+}
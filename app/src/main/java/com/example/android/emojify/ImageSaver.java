@@ -0,0 +1,549 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import timber.log.Timber;
+
+/**
+ * Encodes and saves images on a background thread.
+ * <p>
+ * Saving the same bitmap again with the same format and quality, for instance tapping save
+ * twice, returns the pending or finished save instead of encoding it twice. A bitmap already
+ * encoded with the same format and quality, such as a cached result, is saved by writing those
+ * bytes, so it is neither encoded again nor loses quality over a decode and encode round trip.
+ */
+class ImageSaver {
+
+    static final Format DEFAULT_FORMAT = Format.JPEG;
+    static final int DEFAULT_QUALITY = 90;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static ImageSaver sInstance;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final File mDirectory;
+    private final ExecutorService mExecutor;
+
+    // Saves already started, per bitmap, keyed by format and quality
+    private final Map<Bitmap, Map<String, Future<Saved>>> mSaves = new WeakHashMap<>();
+
+    // Encodings of bitmaps, keyed by format and quality
+    private final Map<Bitmap, Map<String, Future<byte[]>>> mEncodings = new WeakHashMap<>();
+
+    // Full-resolution saves already started, per photo
+    private final Map<String, Future<Saved>> mFullResolutionSaves = new HashMap<>();
+
+    ImageSaver(File directory, ExecutorService executor) {
+        mDirectory = directory;
+        mExecutor = executor;
+    }
+
+    /**
+     * @return The saver writing to the public Emojify pictures directory.
+     */
+    static synchronized ImageSaver getInstance() {
+        if (sInstance == null) {
+            sInstance = new ImageSaver(BitmapUtils.getSavedImagesDir(),
+                    Executors.newSingleThreadExecutor());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Image formats the saver can encode to.
+     */
+    enum Format {
+        JPEG(Bitmap.CompressFormat.JPEG, "JPEG_", ".jpg", "image/jpeg"),
+        PNG(Bitmap.CompressFormat.PNG, "PNG_", ".png", "image/png"),
+        WEBP(Bitmap.CompressFormat.WEBP, "WEBP_", ".webp", "image/webp");
+
+        final Bitmap.CompressFormat compressFormat;
+        final String prefix;
+        final String suffix;
+        final String mimeType;
+
+        Format(Bitmap.CompressFormat compressFormat, String prefix, String suffix,
+               String mimeType) {
+            this.compressFormat = compressFormat;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.mimeType = mimeType;
+        }
+    }
+
+    /**
+     * Receives the outcome of a save on the main thread.
+     */
+    interface Callback {
+
+        void onSaved(Saved saved);
+
+        void onSaveFailed(IOException e);
+    }
+
+    /**
+     * Receives an encoded image on the thread of the saver.
+     */
+    interface EncodeCallback {
+
+        void onEncoded(byte[] encoded);
+    }
+
+    /**
+     * Where an image was saved, and how big it is.
+     */
+    static final class Saved {
+
+        final String path;
+        final long bytesWritten;
+
+        Saved(String path, long bytesWritten) {
+            this.path = path;
+            this.bytesWritten = bytesWritten;
+        }
+    }
+
+    /**
+     * Saves an image in the background, unless the same image was already saved with the same
+     * format and quality.
+     *
+     * @param context  The application context, used to add the image to the gallery.
+     * @param image    The image to be saved.
+     * @param format   The format to encode the image to.
+     * @param quality  The quality hint for the encoder, from 0 to 100.
+     * @param callback The callback receiving the outcome on the main thread, or null.
+     * @return The pending save.
+     */
+    Future<Saved> save(Context context, Bitmap image, Format format, int quality,
+                       Callback callback) {
+        return save(context, image, null, format, quality, callback);
+    }
+
+    /**
+     * Saves an image in the background along with the sidecar of its faces, unless the same
+     * image was already saved with the same format and quality.
+     *
+     * @param context  The application context, used to add the image to the gallery.
+     * @param image    The image to be saved.
+     * @param metadata The faces found in the image, or null to save the image alone.
+     * @param format   The format to encode the image to.
+     * @param quality  The quality hint for the encoder, from 0 to 100.
+     * @param callback The callback receiving the outcome on the main thread, or null.
+     * @return The pending save.
+     */
+    synchronized Future<Saved> save(Context context, final Bitmap image,
+                                    final FaceMetadata metadata, final Format format,
+                                    final int quality, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        String key = format + "@" + quality;
+
+        Map<String, Future<Saved>> saves = mSaves.get(image);
+        if (saves == null) {
+            saves = new HashMap<>();
+            mSaves.put(image, saves);
+        }
+
+        Future<Saved> future = saves.get(key);
+        if (future != null && hasFailed(future)) {
+            // Try again rather than repeating the failure
+            future = null;
+        }
+        if (future == null) {
+            // An encoding started before runs before this save, on the same thread
+            final Future<byte[]> encoding = getEncoding(image, key);
+            future = mExecutor.submit(new Callable<Saved>() {
+                @Override
+                public Saved call() throws IOException {
+                    File imageFile = createImageFile(format);
+                    byte[] encoded = encoding != null && !hasFailed(encoding)
+                            ? getDone(encoding) : null;
+                    long bytesWritten = encoded != null ? writeEncoded(encoded, imageFile)
+                            : writeImage(image, imageFile, format, quality);
+                    String savedImagePath = imageFile.getAbsolutePath();
+                    if (metadata != null) {
+                        writeSidecar(metadata, imageFile);
+                    }
+
+                    // Add the image to the system gallery
+                    BitmapUtils.galleryAddPic(appContext, savedImagePath);
+
+                    Timber.d("save: %d bytes written to %s", bytesWritten, savedImagePath);
+                    return new Saved(savedImagePath, bytesWritten);
+                }
+            });
+            saves.put(key, future);
+        } else {
+            Timber.d("save: already saved as %s", key);
+        }
+
+        if (callback != null) {
+            notifyWhenDone(future, callback);
+        }
+        return future;
+    }
+
+    /**
+     * Emojifies a photo too large to decode whole at its full resolution, a tile at a time, and
+     * saves it as a PNG along with the sidecar of its faces, in the background. Saving the same
+     * photo again returns the pending or finished save.
+     *
+     * @param context   The application context, used to add the image to the gallery.
+     * @param imagePath The path of the photo, which must be kept until the save is done, see
+     *                  {@link #deleteWhenSaved(String)}.
+     * @param callback  The callback receiving the outcome on the main thread, or null.
+     * @return The pending save.
+     */
+    synchronized Future<Saved> saveFullResolution(Context context, final String imagePath,
+                                                  Callback callback) {
+        final Context appContext = context.getApplicationContext();
+
+        Future<Saved> future = mFullResolutionSaves.get(imagePath);
+        if (future != null && hasFailed(future)) {
+            // Try again rather than repeating the failure
+            future = null;
+        }
+        if (future == null) {
+            future = mExecutor.submit(new Callable<Saved>() {
+                @Override
+                public Saved call() throws IOException {
+                    File imageFile = createImageFile(Format.PNG);
+                    TiledEmojifier.emojify(appContext, imagePath, imageFile,
+                            TiledEmojifier.DEFAULT_TILE_HEIGHT);
+                    String savedImagePath = imageFile.getAbsolutePath();
+
+                    // Add the image to the system gallery
+                    BitmapUtils.galleryAddPic(appContext, savedImagePath);
+
+                    Timber.d("saveFullResolution: %d bytes written to %s", imageFile.length(),
+                            savedImagePath);
+                    return new Saved(savedImagePath, imageFile.length());
+                }
+            });
+            mFullResolutionSaves.put(imagePath, future);
+        } else {
+            Timber.d("saveFullResolution: already saved %s", imagePath);
+        }
+
+        if (callback != null) {
+            notifyWhenDone(future, callback);
+        }
+        return future;
+    }
+
+    /**
+     * Deletes a photo once every full-resolution save of it is done, and forgets those saves.
+     * Saves run in order on the single thread of the saver, so the photo is only deleted after
+     * the last of them.
+     *
+     * @param imagePath The path of the photo, which the caller must no longer use.
+     */
+    synchronized void deleteWhenSaved(final String imagePath) {
+        mFullResolutionSaves.remove(imagePath);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!new File(imagePath).delete()) {
+                    Timber.w("deleteWhenSaved: cannot delete %s", imagePath);
+                }
+            }
+        });
+    }
+
+    /**
+     * Encodes an image in the background, so saving it later with the same format and quality
+     * writes these bytes. The image is only released to the pool after it is encoded.
+     *
+     * @param image    The image to be encoded.
+     * @param format   The format to encode the image to.
+     * @param quality  The quality hint for the encoder, from 0 to 100.
+     * @param callback The callback receiving the encoded image on the thread of the saver, or
+     *                 null.
+     * @return The pending encoding.
+     */
+    synchronized Future<byte[]> encode(final Bitmap image, final Format format,
+                                       final int quality, final EncodeCallback callback) {
+        Future<byte[]> encoding = mExecutor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                byte[] encoded;
+                try {
+                    encoded = encodeImage(image, format, quality);
+                } catch (IOException e) {
+                    Timber.w(e, "encode: cannot encode to %s", format);
+                    throw e;
+                }
+                if (callback != null) {
+                    callback.onEncoded(encoded);
+                }
+                return encoded;
+            }
+        });
+        encodingsOf(image).put(format + "@" + quality, encoding);
+        return encoding;
+    }
+
+    /**
+     * Remembers how an image was already encoded, so saving it with the same format and quality
+     * writes these bytes.
+     *
+     * @param image   The image.
+     * @param format  The format the image was encoded to.
+     * @param quality The quality hint the image was encoded with.
+     * @param encoded The encoded image, which decodes to the image.
+     */
+    synchronized void putEncoded(Bitmap image, Format format, int quality,
+                                 final byte[] encoded) {
+        FutureTask<byte[]> encoding = new FutureTask<>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return encoded;
+            }
+        });
+        encoding.run();
+        encodingsOf(image).put(format + "@" + quality, encoding);
+    }
+
+    /**
+     * Waits for the encoding of an image with a format and quality, if one was started or put.
+     *
+     * @param image   The image.
+     * @param format  The format the image was encoded to.
+     * @param quality The quality hint the image was encoded with.
+     * @return The encoded image, or null if it was not encoded that way or the encoding failed.
+     */
+    byte[] getEncoded(Bitmap image, Format format, int quality) {
+        Future<byte[]> encoding;
+        synchronized (this) {
+            encoding = getEncoding(image, format + "@" + quality);
+        }
+        if (encoding == null) {
+            return null;
+        }
+        try {
+            return encoding.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Hands an image back to the bitmap pool once every save and encoding of it is done, and
+     * forgets them, since the pooled bitmap will hold another image. Both run in order on the
+     * single thread of the saver, so the image is only released after the last of them.
+     *
+     * @param image The image, which the caller must no longer use.
+     * @param pool  The pool to hand the image back to.
+     */
+    synchronized void releaseWhenSaved(final Bitmap image, final BitmapPool pool) {
+        mSaves.remove(image);
+        mEncodings.remove(image);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pool.put(image);
+            }
+        });
+    }
+
+    /**
+     * Encodes an image into a file through a buffered stream.
+     *
+     * @param image     The image to be encoded.
+     * @param imageFile The file to write to.
+     * @param format    The format to encode the image to.
+     * @param quality   The quality hint for the encoder, from 0 to 100.
+     * @return The number of bytes written.
+     * @throws IOException If the file cannot be written.
+     */
+    static long writeImage(Bitmap image, File imageFile, Format format, int quality)
+            throws IOException {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long start = metrics.startTimer();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(imageFile), BUFFER_SIZE);
+        try {
+            if (!image.compress(format.compressFormat, quality, out)) {
+                throw new IOException("Cannot encode image to " + format);
+            }
+        } finally {
+            out.close();
+        }
+        metrics.recordStage(MetricsRegistry.Stage.ENCODE, start);
+        return imageFile.length();
+    }
+
+    /**
+     * Writes an image already encoded into a file.
+     *
+     * @param encoded   The encoded image.
+     * @param imageFile The file to write to.
+     * @return The number of bytes written.
+     * @throws IOException If the file cannot be written.
+     */
+    static long writeEncoded(byte[] encoded, File imageFile) throws IOException {
+        OutputStream out = new FileOutputStream(imageFile);
+        try {
+            out.write(encoded);
+        } finally {
+            out.close();
+        }
+        return encoded.length;
+    }
+
+    /**
+     * Encodes an image in memory.
+     *
+     * @param image   The image to be encoded.
+     * @param format  The format to encode the image to.
+     * @param quality The quality hint for the encoder, from 0 to 100.
+     * @return The encoded image.
+     * @throws IOException If the image cannot be encoded.
+     */
+    static byte[] encodeImage(Bitmap image, Format format, int quality) throws IOException {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long start = metrics.startTimer();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+        if (!image.compress(format.compressFormat, quality, out)) {
+            throw new IOException("Cannot encode image to " + format);
+        }
+        metrics.recordStage(MetricsRegistry.Stage.ENCODE, start);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the faces of an image next to it. The image is still worth keeping without them,
+     * so failures are only logged.
+     *
+     * @param metadata  The faces found in the image.
+     * @param imageFile The saved image.
+     */
+    static void writeSidecar(FaceMetadata metadata, File imageFile) {
+        File sidecar = FaceMetadata.sidecarFor(imageFile);
+        try {
+            metadata.writeTo(sidecar);
+        } catch (IOException e) {
+            Timber.w(e, "writeSidecar: cannot write %s", sidecar);
+        }
+    }
+
+    private File createImageFile(Format format) throws IOException {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss",
+                Locale.getDefault()).format(new Date());
+        File imageFile = new File(mDirectory, format.prefix + timeStamp + format.suffix);
+        for (int i = 1; imageFile.exists(); i++) {
+            imageFile = new File(mDirectory, format.prefix + timeStamp + "_" + i + format.suffix);
+        }
+        return imageFile;
+    }
+
+    private Map<String, Future<byte[]>> encodingsOf(Bitmap image) {
+        Map<String, Future<byte[]>> encodings = mEncodings.get(image);
+        if (encodings == null) {
+            encodings = new HashMap<>();
+            mEncodings.put(image, encodings);
+        }
+        return encodings;
+    }
+
+    private Future<byte[]> getEncoding(Bitmap image, String key) {
+        Map<String, Future<byte[]>> encodings = mEncodings.get(image);
+        return encodings != null ? encodings.get(key) : null;
+    }
+
+    private static <T> T getDone(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException | InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static boolean hasFailed(Future<?> future) {
+        if (!future.isDone()) {
+            return false;
+        }
+        try {
+            future.get();
+            return false;
+        } catch (ExecutionException | InterruptedException e) {
+            return true;
+        }
+    }
+
+    private void notifyWhenDone(final Future<Saved> future, final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Saved saved = null;
+                IOException error = null;
+                try {
+                    saved = future.get();
+                } catch (ExecutionException e) {
+                    error = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    error = new IOException(e);
+                }
+
+                final Saved result = saved;
+                final IOException failure = error;
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (failure == null) {
+                            callback.onSaved(result);
+                        } else {
+                            callback.onSaveFailed(failure);
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,306 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detects faces in a sequence of similar images, such as a burst, by only looking around the
+ * faces found in the previous image.
+ * <p>
+ * Each face of the previous image seeds a region, padded on every side and merged with the
+ * regions it overlaps, and detection runs on those regions alone. The whole image is scanned
+ * instead for the first image, every {@code fullScanInterval} images so new faces are found,
+ * whenever the image changes size, whenever the regions would cover most of the image anyway,
+ * and whenever a region does not hold as many faces as it was seeded with.
+ * <p>
+ * Faces found in a region keep the ID of the seed they are closest to. Not thread-safe: images
+ * must be detected one after the other, in the order they were taken.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ *
+ * @param <I> The type of image the detector works on.
+ */
+final class IncrementalFaceDetector<I> implements FaceDetectionEngine<I> {
+
+    // Past this share of the image, scanning the regions is no cheaper than a full scan
+    private static final float MAX_REGION_AREA_FRACTION = .5f;
+
+    /**
+     * Finds faces in a whole image, or in a region of it.
+     *
+     * @param <I> The type of image the detector works on.
+     */
+    interface RegionDetector<I> extends FaceDetectionEngine<I> {
+
+        int getWidth(I image);
+
+        int getHeight(I image);
+
+        /**
+         * @param image  The image in which to detect the faces.
+         * @param region The region to look in, within the bounds of the image.
+         * @return The faces found in the region, in the coordinates of the whole image.
+         */
+        List<DetectedFace> detectRegion(I image, Region region);
+    }
+
+    /**
+     * A rectangle of whole pixels, its right and bottom edges excluded.
+     */
+    static final class Region {
+
+        final int left;
+        final int top;
+        final int right;
+        final int bottom;
+
+        Region(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        int width() {
+            return right - left;
+        }
+
+        int height() {
+            return bottom - top;
+        }
+
+        boolean intersects(Region other) {
+            return left < other.right && other.left < right && top < other.bottom
+                    && other.top < bottom;
+        }
+
+        Region union(Region other) {
+            return new Region(Math.min(left, other.left), Math.min(top, other.top),
+                    Math.max(right, other.right), Math.max(bottom, other.bottom));
+        }
+
+        @Override
+        public String toString() {
+            return "Region{" + left + ", " + top + ", " + right + ", " + bottom + "}";
+        }
+    }
+
+    private final RegionDetector<I> mDetector;
+    private final int mFullScanInterval;
+    private final float mPadding;
+
+    private List<DetectedFace> mSeeds = Collections.emptyList();
+    private int mSeedWidth;
+    private int mSeedHeight;
+    private int mImagesSinceFullScan;
+
+    private int mFullScanCount;
+    private int mRegionScanCount;
+    private int mRegionCount;
+
+    /**
+     * @param detector         The detector scanning whole images and regions.
+     * @param fullScanInterval The whole image is scanned at least once every this many images;
+     *                         1 scans every image whole.
+     * @param padding          How far regions reach past the face they are seeded with, as a
+     *                         fraction of the larger side of the face.
+     */
+    IncrementalFaceDetector(RegionDetector<I> detector, int fullScanInterval, float padding) {
+        if (fullScanInterval < 1) {
+            throw new IllegalArgumentException("Full scan interval must be at least 1");
+        }
+        mDetector = detector;
+        mFullScanInterval = fullScanInterval;
+        mPadding = padding;
+    }
+
+    @Override
+    public List<DetectedFace> detect(I image) {
+        int width = mDetector.getWidth(image);
+        int height = mDetector.getHeight(image);
+
+        List<DetectedFace> faces = null;
+        if (!mSeeds.isEmpty() && mImagesSinceFullScan + 1 < mFullScanInterval
+                && width == mSeedWidth && height == mSeedHeight) {
+            faces = detectRegions(image, width, height);
+        }
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        if (faces != null) {
+            mRegionScanCount++;
+            mImagesSinceFullScan++;
+            metrics.counter(MetricsRegistry.DETECT_REGION_SCANS).increment();
+        } else {
+            faces = mDetector.detect(image);
+            mFullScanCount++;
+            mImagesSinceFullScan = 0;
+            metrics.counter(MetricsRegistry.DETECT_FULL_SCANS).increment();
+        }
+        metrics.gauge(MetricsRegistry.DETECT_REGION_SCAN_PERCENT)
+                .set(Math.round(getRegionScanRatio() * 100));
+
+        mSeeds = faces;
+        mSeedWidth = width;
+        mSeedHeight = height;
+        return faces;
+    }
+
+    /**
+     * Forgets the previous image, so the next one is scanned whole. Call it before starting on
+     * a sequence unrelated to the previous one.
+     */
+    void reset() {
+        mSeeds = Collections.emptyList();
+        mImagesSinceFullScan = 0;
+    }
+
+    /**
+     * @return The number of images scanned whole so far.
+     */
+    int getFullScanCount() {
+        return mFullScanCount;
+    }
+
+    /**
+     * @return The number of images only scanned around the faces of the previous image so far.
+     */
+    int getRegionScanCount() {
+        return mRegionScanCount;
+    }
+
+    /**
+     * @return The number of regions scanned so far, including those of images which fell back
+     * to a full scan.
+     */
+    int getRegionCount() {
+        return mRegionCount;
+    }
+
+    /**
+     * @return The share of images only scanned around the faces of the previous image, from 0
+     * to 1.
+     */
+    float getRegionScanRatio() {
+        int total = mFullScanCount + mRegionScanCount;
+        return total == 0 ? 0f : (float) mRegionScanCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "IncrementalFaceDetector{full=" + mFullScanCount + ", regions="
+                + mRegionScanCount + ", regionCount=" + mRegionCount + ", " + mDetector + "}";
+    }
+
+    /**
+     * @return The faces found in the regions around the seeds, or null if the image needs a
+     * full scan after all.
+     */
+    private List<DetectedFace> detectRegions(I image, int width, int height) {
+        // Pad the seeds, then merge overlapping regions so no face is found twice
+        List<Region> regions = new ArrayList<>(mSeeds.size());
+        List<List<DetectedFace>> regionSeeds = new ArrayList<>(mSeeds.size());
+        for (DetectedFace seed : mSeeds) {
+            regions.add(pad(seed, width, height));
+            regionSeeds.add(new ArrayList<>(Collections.singletonList(seed)));
+        }
+        mergeOverlapping(regions, regionSeeds);
+
+        long regionArea = 0;
+        for (Region region : regions) {
+            regionArea += (long) region.width() * region.height();
+        }
+        if (regionArea > MAX_REGION_AREA_FRACTION * width * height) {
+            return null;
+        }
+
+        List<DetectedFace> faces = new ArrayList<>(mSeeds.size());
+        for (int i = 0; i < regions.size(); i++) {
+            if (regions.get(i).width() <= 0 || regions.get(i).height() <= 0) {
+                return null;
+            }
+            mRegionCount++;
+            List<DetectedFace> found = mDetector.detectRegion(image, regions.get(i));
+
+            // A face came in or went out, which may have happened elsewhere too
+            List<DetectedFace> seeds = regionSeeds.get(i);
+            if (found.size() != seeds.size()) {
+                return null;
+            }
+            faces.addAll(matchSeeds(found, seeds));
+        }
+        return faces;
+    }
+
+    private Region pad(DetectedFace face, int width, int height) {
+        float padding = mPadding * Math.max(face.width, face.height);
+        return new Region(
+                clamp((int) Math.floor(face.left - padding), width),
+                clamp((int) Math.floor(face.top - padding), height),
+                clamp((int) Math.ceil(face.left + face.width + padding), width),
+                clamp((int) Math.ceil(face.top + face.height + padding), height));
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    // Merging two regions may make the union overlap a third one, so go on until none do
+    private static void mergeOverlapping(List<Region> regions,
+                                         List<List<DetectedFace>> regionSeeds) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regions.size() && !merged; i++) {
+                for (int j = i + 1; j < regions.size(); j++) {
+                    if (regions.get(i).intersects(regions.get(j))) {
+                        regions.set(i, regions.get(i).union(regions.remove(j)));
+                        regionSeeds.get(i).addAll(regionSeeds.remove(j));
+                        merged = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // Gives every face the ID of the nearest seed not taken yet, as the detector numbers the
+    // faces of each region from scratch
+    private static List<DetectedFace> matchSeeds(List<DetectedFace> found,
+                                                 List<DetectedFace> seeds) {
+        List<DetectedFace> remaining = new ArrayList<>(seeds);
+        List<DetectedFace> matched = new ArrayList<>(found.size());
+        for (DetectedFace face : found) {
+            DetectedFace nearest = null;
+            float nearestDistance = Float.MAX_VALUE;
+            for (DetectedFace seed : remaining) {
+                float dx = (face.left + face.width / 2) - (seed.left + seed.width / 2);
+                float dy = (face.top + face.height / 2) - (seed.top + seed.height / 2);
+                float distance = dx * dx + dy * dy;
+                if (distance < nearestDistance) {
+                    nearest = seed;
+                    nearestDistance = distance;
+                }
+            }
+            remaining.remove(nearest);
+            matched.add(face.withId(nearest.id));
+        }
+        return matched;
+    }
+}
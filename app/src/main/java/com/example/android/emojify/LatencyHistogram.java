@@ -0,0 +1,169 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies, in fixed buckets given by their upper bounds.
+ * <p>
+ * Recording never allocates or locks, so it can be done on hot paths while another thread reads
+ * or exports the histogram.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ */
+class LatencyHistogram {
+
+    // Upper bounds of the default buckets, in microseconds, from sprite lookups to cold decodes
+    static final long[] DEFAULT_BUCKET_UPPER_MICROS = {
+            50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+            1000000, 2500000};
+
+    private final long[] mBucketUpperMicros;
+    private final AtomicLongArray mBuckets;
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    LatencyHistogram() {
+        this(DEFAULT_BUCKET_UPPER_MICROS);
+    }
+
+    /**
+     * @param bucketUpperMicros The upper bounds of the buckets in microseconds, in increasing
+     *                          order. A last bucket holds anything slower.
+     */
+    LatencyHistogram(long... bucketUpperMicros) {
+        for (int i = 1; i < bucketUpperMicros.length; i++) {
+            if (bucketUpperMicros[i] <= bucketUpperMicros[i - 1]) {
+                throw new IllegalArgumentException(
+                        "Unordered buckets " + Arrays.toString(bucketUpperMicros));
+            }
+        }
+        mBucketUpperMicros = bucketUpperMicros.clone();
+        mBuckets = new AtomicLongArray(bucketUpperMicros.length + 1);
+    }
+
+    /**
+     * @param nanos A latency, in nanoseconds.
+     */
+    void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < mBucketUpperMicros.length && micros >= mBucketUpperMicros[bucket]) {
+            bucket++;
+        }
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    /**
+     * Records the time elapsed since a start time.
+     *
+     * @param startNanos The start time, from {@link System#nanoTime()}.
+     */
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    long getCount() {
+        return mCount.get();
+    }
+
+    long getTotalNanos() {
+        return mTotalNanos.get();
+    }
+
+    int getBucketCount() {
+        return mBuckets.length();
+    }
+
+    /**
+     * @param bucket The index of the bucket.
+     * @return The number of latencies below the upper bound of the bucket, and at least the upper
+     * bound of the previous one.
+     */
+    long getBucketSampleCount(int bucket) {
+        return mBuckets.get(bucket);
+    }
+
+    /**
+     * @param bucket The index of the bucket.
+     * @return The upper bound of the bucket in microseconds, or {@link Long#MAX_VALUE} for the
+     * last bucket.
+     */
+    long getBucketUpperMicros(int bucket) {
+        return bucket < mBucketUpperMicros.length ? mBucketUpperMicros[bucket] : Long.MAX_VALUE;
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound in microseconds of the bucket the percentile falls in, or 0 if
+     * nothing was recorded.
+     */
+    long getPercentileMicros(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < mBuckets.length(); i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return getBucketUpperMicros(i);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    long getAverageMicros() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count / 1000;
+    }
+
+    long getMaxMicros() {
+        return mMaxNanos.get() / 1000;
+    }
+
+    /**
+     * Forgets every latency recorded so far. Latencies recorded meanwhile may be partly kept.
+     */
+    void reset() {
+        for (int i = 0; i < mBuckets.length(); i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + getCount() + ", avgUs=" + getAverageMicros()
+                + ", maxUs=" + getMaxMicros() + ", p50Us=" + getPercentileMicros(50)
+                + ", p99Us=" + getPercentileMicros(99) + "}";
+    }
+}
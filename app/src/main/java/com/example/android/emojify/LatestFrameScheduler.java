@@ -0,0 +1,225 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.android.emojify;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes a stream of frames on a single background thread, always working on the most
+ * recent frame.
+ * <p>
+ * At most one frame waits while another is being processed: a newer frame replaces it, and the
+ * replaced frame is handed back as dropped. Slow processing therefore lowers the frame rate
+ * instead of adding latency. Every submitted frame is handed back to the {@link Listener}
+ * exactly once, so frame buffers can be recycled.
+ *
+ * @param <F> The type of the frames.
+ * @param <R> The type of the result of processing a frame.
+ */
+final class LatestFrameScheduler<F, R> {
+
+    /**
+     * Processes a single frame, on the scheduler thread.
+     */
+    interface Processor<F, R> {
+
+        R process(F frame) throws Exception;
+    }
+
+    /**
+     * Receives every frame back, on the thread which processed or dropped it.
+     */
+    interface Listener<F, R> {
+
+        void onFrameProcessed(F frame, R result);
+
+        void onFrameDropped(F frame);
+
+        void onFrameFailed(F frame, Exception e);
+    }
+
+    private final String mName;
+    private final Processor<F, R> mProcessor;
+    private final Listener<F, R> mListener;
+
+    private final Object mLock = new Object();
+    private Thread mThread;
+    private boolean mRunning;
+    private F mPendingFrame;
+    private long mPendingSubmitNanos;
+
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+    private final AtomicLong mProcessedCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mFailedCount = new AtomicLong();
+    private final FrameTimeHistogram mFrameTimes = new FrameTimeHistogram();
+
+    /**
+     * @param name      The name of the processing thread.
+     * @param processor The processor of the frames.
+     * @param listener  The listener receiving every frame back.
+     */
+    LatestFrameScheduler(String name, Processor<F, R> processor, Listener<F, R> listener) {
+        mName = name;
+        mProcessor = processor;
+        mListener = listener;
+    }
+
+    /**
+     * Starts the processing thread, if it is not already running.
+     */
+    void start() {
+        synchronized (mLock) {
+            if (mThread != null) {
+                return;
+            }
+            mRunning = true;
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    processFrames();
+                }
+            }, mName);
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stops processing, dropping the pending frame, and waits for the frame being processed.
+     * No frame is handed back to the listener after this returns.
+     */
+    void stop() {
+        Thread thread;
+        F dropped;
+        synchronized (mLock) {
+            mRunning = false;
+            dropped = mPendingFrame;
+            mPendingFrame = null;
+            thread = mThread;
+            mThread = null;
+            mLock.notifyAll();
+        }
+        if (dropped != null) {
+            drop(dropped);
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Hands a frame over for processing, replacing the frame waiting to be processed, if any.
+     * Frames submitted while the scheduler is stopped are dropped right away.
+     *
+     * @param frame The frame.
+     */
+    void submit(F frame) {
+        mSubmittedCount.incrementAndGet();
+        F dropped;
+        synchronized (mLock) {
+            if (mRunning) {
+                dropped = mPendingFrame;
+                mPendingFrame = frame;
+                mPendingSubmitNanos = System.nanoTime();
+                mLock.notifyAll();
+            } else {
+                dropped = frame;
+            }
+        }
+        if (dropped != null) {
+            drop(dropped);
+        }
+    }
+
+    long getSubmittedCount() {
+        return mSubmittedCount.get();
+    }
+
+    long getProcessedCount() {
+        return mProcessedCount.get();
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    long getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    /**
+     * @return The times from submitting each processed frame to its result being ready.
+     */
+    FrameTimeHistogram getFrameTimes() {
+        return mFrameTimes;
+    }
+
+    @Override
+    public String toString() {
+        return "LatestFrameScheduler{" + mName + ", submitted=" + getSubmittedCount()
+                + ", processed=" + getProcessedCount() + ", dropped=" + getDroppedCount()
+                + ", failed=" + getFailedCount() + ", frameTimes=" + mFrameTimes + "}";
+    }
+
+    private void processFrames() {
+        while (true) {
+            F frame;
+            long submitNanos;
+            synchronized (mLock) {
+                while (mRunning && mPendingFrame == null) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!mRunning) {
+                    return;
+                }
+                frame = mPendingFrame;
+                submitNanos = mPendingSubmitNanos;
+                mPendingFrame = null;
+            }
+
+            R result;
+            try {
+                result = mProcessor.process(frame);
+            } catch (Exception e) {
+                mFailedCount.incrementAndGet();
+                mListener.onFrameFailed(frame, e);
+                continue;
+            }
+            mFrameTimes.record(System.nanoTime() - submitNanos);
+            mProcessedCount.incrementAndGet();
+            mListener.onFrameProcessed(frame, result);
+        }
+    }
+
+    private void drop(F frame) {
+        mDroppedCount.incrementAndGet();
+        mListener.onFrameDropped(frame);
+    }
+}
@@ -0,0 +1,338 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.android.emojify;
+
+import android.Manifest;
+import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.app.AppCompatActivity;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.util.List;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+import timber.log.Timber;
+
+/**
+ * Shows the camera preview with emoji drawn over the faces, at the rate faces can be detected.
+ * <p>
+ * Preview frames go through a {@link LatestFrameScheduler}, so frames arriving while a frame is
+ * being detected are dropped rather than queued, and the emoji never lag behind the preview.
+ * Faces are tracked from one frame to the next by a {@link TrackedFaceStore}.
+ */
+public class LivePreviewActivity extends AppCompatActivity implements SurfaceHolder.Callback,
+        Camera.PreviewCallback {
+
+    private static final int REQUEST_CAMERA_PERMISSION = 1;
+
+    // Detection runs on the whole frame, so a small preview keeps the frame rate up
+    private static final int PREVIEW_WIDTH = 640;
+    private static final int PREVIEW_HEIGHT = 480;
+
+    // One frame being detected, one waiting and one being filled by the camera
+    private static final int PREVIEW_BUFFER_COUNT = 3;
+
+    @BindView(R.id.preview_surface) SurfaceView mPreviewSurface;
+    @BindView(R.id.face_overlay) FaceOverlayView mFaceOverlay;
+    @BindView(R.id.stats_text_view) TextView mStatsTextView;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private boolean mSurfaceReady;
+
+    private Camera mCamera;
+    private Camera.Size mPreviewSize;
+    private boolean mFrontFacing;
+    private int mFrameRotation;
+    private int mNextFrameId;
+    private LatestFrameScheduler<PreviewFrame, List<TrackedFaceStore.TrackedFace>> mScheduler;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_live_preview);
+
+        // Bind the views
+        ButterKnife.bind(this);
+
+        mPreviewSurface.getHolder().addCallback(this);
+
+        // Load the tracking face model while the camera starts
+        FaceDetectorPool.getInstance(this).warmUpAsync(Emojifier.TRACKING_DETECTOR_CONFIG);
+
+        if (!hasCameraPermission()) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.CAMERA}, REQUEST_CAMERA_PERMISSION);
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        startCamera();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        stopCamera();
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
+            @NonNull int[] grantResults) {
+        if (requestCode == REQUEST_CAMERA_PERMISSION) {
+            if (grantResults.length > 0
+                    && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                startCamera();
+            } else {
+                Toast.makeText(this, R.string.permission_denied, Toast.LENGTH_SHORT).show();
+                finish();
+            }
+        }
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        mSurfaceReady = true;
+        startCamera();
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        // The preview is stretched to the surface, and the overlay to the same size
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        mSurfaceReady = false;
+        stopCamera();
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        if (mScheduler == null) {
+            camera.addCallbackBuffer(data);
+            return;
+        }
+        mScheduler.submit(new PreviewFrame(mNextFrameId++, data, mPreviewSize.width,
+                mPreviewSize.height, mFrameRotation, SystemClock.elapsedRealtime()));
+    }
+
+    private boolean hasCameraPermission() {
+        return ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * Opens the camera and starts the preview, once the surface exists and the permission is
+     * granted.
+     */
+    private void startCamera() {
+        if (mCamera != null || !mSurfaceReady || !hasCameraPermission()) {
+            return;
+        }
+
+        int cameraId = findCamera();
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        Camera.getCameraInfo(cameraId, info);
+        mFrontFacing = info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+
+        final Camera camera;
+        try {
+            camera = Camera.open(cameraId);
+        } catch (RuntimeException e) {
+            Timber.e(e, "startCamera: cannot open camera %d", cameraId);
+            Toast.makeText(this, R.string.camera_unavailable, Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+
+        Camera.Parameters parameters = camera.getParameters();
+        mPreviewSize = choosePreviewSize(parameters.getSupportedPreviewSizes());
+        parameters.setPreviewSize(mPreviewSize.width, mPreviewSize.height);
+        parameters.setPreviewFormat(ImageFormat.NV21);
+        if (parameters.getSupportedFocusModes().contains(
+                Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO)) {
+            parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
+        }
+        camera.setParameters(parameters);
+
+        // Rotate the preview for the display, and the frames so the detector sees them upright
+        int displayDegrees = getWindowManager().getDefaultDisplay().getRotation() * 90;
+        if (mFrontFacing) {
+            mFrameRotation = (info.orientation + displayDegrees) % 360;
+            camera.setDisplayOrientation((360 - mFrameRotation) % 360);
+        } else {
+            mFrameRotation = (info.orientation - displayDegrees + 360) % 360;
+            camera.setDisplayOrientation(mFrameRotation);
+        }
+
+        // Preview frames are delivered in a fixed set of buffers, handed back once processed
+        int bufferSize = mPreviewSize.width * mPreviewSize.height
+                * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        for (int i = 0; i < PREVIEW_BUFFER_COUNT; i++) {
+            camera.addCallbackBuffer(new byte[bufferSize]);
+        }
+        camera.setPreviewCallbackWithBuffer(this);
+
+        try {
+            camera.setPreviewDisplay(mPreviewSurface.getHolder());
+        } catch (IOException e) {
+            Timber.e(e, "startCamera: cannot show the preview");
+            camera.release();
+            Toast.makeText(this, R.string.camera_unavailable, Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+
+        mCamera = camera;
+        mScheduler = createScheduler(camera);
+        mScheduler.start();
+        camera.startPreview();
+    }
+
+    /**
+     * Stops the preview, waits for the frame being detected and releases the camera.
+     */
+    private void stopCamera() {
+        if (mCamera == null) {
+            return;
+        }
+
+        mCamera.setPreviewCallbackWithBuffer(null);
+        mCamera.stopPreview();
+        mScheduler.stop();
+        Timber.d("stopCamera: %s", mScheduler);
+
+        mCamera.release();
+        mCamera = null;
+        mScheduler = null;
+        mFaceOverlay.clear();
+    }
+
+    private LatestFrameScheduler<PreviewFrame, List<TrackedFaceStore.TrackedFace>>
+    createScheduler(final Camera camera) {
+
+        final FaceDetectionEngine<PreviewFrame> engine = new CameraFaceDetectionEngine(this,
+                Emojifier.TRACKING_DETECTOR_CONFIG);
+
+        // Only used on the scheduler thread
+        final EmojiPack pack = EmojiPack.getCurrent(this);
+        final TrackedFaceStore faceStore = new TrackedFaceStore(pack.rules);
+
+        return new LatestFrameScheduler<>("LivePreview",
+                new LatestFrameScheduler.Processor<PreviewFrame,
+                        List<TrackedFaceStore.TrackedFace>>() {
+                    @Override
+                    public List<TrackedFaceStore.TrackedFace> process(PreviewFrame frame) {
+                        return faceStore.update(engine.detect(frame));
+                    }
+                },
+                new LatestFrameScheduler.Listener<PreviewFrame,
+                        List<TrackedFaceStore.TrackedFace>>() {
+                    @Override
+                    public void onFrameProcessed(final PreviewFrame frame,
+                                                 final List<TrackedFaceStore.TrackedFace> faces) {
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mCamera == camera) {
+                                    showFaces(pack, frame, faces);
+                                }
+                            }
+                        });
+                        returnBuffer(frame);
+                    }
+
+                    @Override
+                    public void onFrameDropped(PreviewFrame frame) {
+                        returnBuffer(frame);
+                    }
+
+                    @Override
+                    public void onFrameFailed(PreviewFrame frame, Exception e) {
+                        Timber.w(e, "onFrameFailed: frame %d", frame.id);
+                        returnBuffer(frame);
+                    }
+
+                    private void returnBuffer(final PreviewFrame frame) {
+                        // The camera is only used on the main thread, and only while it is open
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mCamera == camera) {
+                                    camera.addCallbackBuffer(frame.data);
+                                }
+                            }
+                        });
+                    }
+                });
+    }
+
+    private void showFaces(EmojiPack pack, PreviewFrame frame,
+                           List<TrackedFaceStore.TrackedFace> faces) {
+        mFaceOverlay.setFaces(pack, faces, frame.getUprightWidth(), frame.getUprightHeight(),
+                mFrontFacing);
+
+        FrameTimeHistogram frameTimes = mScheduler.getFrameTimes();
+        mStatsTextView.setText(getString(R.string.live_stats, frameTimes.getPercentileMillis(50),
+                frameTimes.getPercentileMillis(90), mScheduler.getDroppedCount()));
+    }
+
+    /**
+     * @return The front-facing camera, or the first camera if there is none.
+     */
+    private static int findCamera() {
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+            Camera.getCameraInfo(i, info);
+            if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The supported preview size closest in area to {@link #PREVIEW_WIDTH} by
+     * {@link #PREVIEW_HEIGHT}.
+     */
+    private static Camera.Size choosePreviewSize(List<Camera.Size> sizes) {
+        Camera.Size best = sizes.get(0);
+        int targetArea = PREVIEW_WIDTH * PREVIEW_HEIGHT;
+        for (Camera.Size size : sizes) {
+            if (Math.abs(size.width * size.height - targetArea)
+                    < Math.abs(best.width * best.height - targetArea)) {
+                best = size;
+            }
+        }
+        return best;
+    }
+}
@@ -18,52 +18,73 @@ package com.example.android.emojify;
 
 
 import android.Manifest;
+import android.content.ClipData;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.provider.MediaStore;
 import android.support.annotation.NonNull;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.ActivityCompat;
+import android.support.v4.app.FragmentManager;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.content.FileProvider;
 import android.support.v7.app.AppCompatActivity;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
+import butterknife.OnLongClick;
 import timber.log.Timber;
 
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity
+        implements EmojifyPipeline.Callback, BatchEmojifier.Callback {
 
 
     private static final int REQUEST_IMAGE_CAPTURE = 1;
+    private static final int REQUEST_PICK_IMAGES = 2;
     private static final int REQUEST_STORAGE_PERMISSION = 1;
+    private static final int REQUEST_STORAGE_PERMISSION_FOR_GALLERY = 2;
 
     private static final String FILE_PROVIDER_AUTHORITY = "com.example.android.fileprovider";
 
+    private static final String TEMP_PHOTO_PATH_KEY = "temp_photo_path";
+
     @BindView(R.id.image_view) ImageView mImageView;
 
     @BindView(R.id.emojify_button) Button mEmojifyButton;
+    @BindView(R.id.live_button) Button mLiveButton;
+    @BindView(R.id.gallery_button) Button mGalleryButton;
     @BindView(R.id.share_button) FloatingActionButton mShareFab;
     @BindView(R.id.save_button) FloatingActionButton mSaveFab;
     @BindView(R.id.clear_button) FloatingActionButton mClearFab;
 
     @BindView(R.id.title_text_view) TextView mTitleTextView;
 
+    @BindView(R.id.progress_bar) ProgressBar mProgressBar;
+
+    private EmojifyWorkerFragment mWorkerFragment;
+
     private String mTempPhotoPath;
 
     private Bitmap mResultsBitmap;
+    private FaceMetadata mResultsMetadata;
 
 
     @Override
@@ -74,8 +95,62 @@ public class MainActivity extends AppCompatActivity {
         // Bind the views
         ButterKnife.bind(this);
 
-        // Set up Timber
-        Timber.plant(new Timber.DebugTree());
+        // Load the face model while the user is taking the picture
+        FaceDetectorPool.getInstance(this).warmUpAsync(Emojifier.DETECTOR_CONFIG);
+
+        // Find the retained worker, or create it the first time around
+        FragmentManager fragmentManager = getSupportFragmentManager();
+        mWorkerFragment = (EmojifyWorkerFragment)
+                fragmentManager.findFragmentByTag(EmojifyWorkerFragment.TAG);
+        if (mWorkerFragment == null) {
+            mWorkerFragment = new EmojifyWorkerFragment();
+            fragmentManager.beginTransaction()
+                    .add(mWorkerFragment, EmojifyWorkerFragment.TAG)
+                    .commitNow();
+        }
+
+        if (savedInstanceState != null) {
+            mTempPhotoPath = savedInstanceState.getString(TEMP_PHOTO_PATH_KEY);
+
+            // Show the work which survived the configuration change
+            if (mWorkerFragment.getResult() != null) {
+                showResultViews();
+                onFinished(mWorkerFragment.getResult());
+            } else if (mWorkerFragment.isRunning()) {
+                showResultViews();
+                mProgressBar.setVisibility(View.VISIBLE);
+                if (mWorkerFragment.getPreview() != null) {
+                    onPreview(mWorkerFragment.getPreview());
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(TEMP_PHOTO_PATH_KEY, mTempPhotoPath);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // Release the face detectors and the result if the app is going away
+        if (isFinishing()) {
+            FaceDetectorPool.getInstance(this).release();
+            releaseResultsBitmap();
+        }
+    }
+
+    /**
+     * Exports the pipeline metrics, so they can be scraped with
+     * {@code adb shell dumpsys activity com.example.android.emojify}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(MetricsRegistry.getInstance().export());
     }
 
     /**
@@ -98,6 +173,32 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * OnClick method for the "Live" Button. Emojifies the camera preview as it runs.
+     */
+    @OnClick(R.id.live_button)
+    public void emojifyLive() {
+        startActivity(new Intent(this, LivePreviewActivity.class));
+    }
+
+    /**
+     * OnClick method for the "Gallery" Button. Lets the user pick several photos in the
+     * gallery, and emojifies them all in the background.
+     */
+    @OnClick(R.id.gallery_button)
+    public void emojifyGallery() {
+        // The emojified photos are saved to the public pictures directory
+        if (ContextCompat.checkSelfPermission(this,
+                Manifest.permission.WRITE_EXTERNAL_STORAGE)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE},
+                    REQUEST_STORAGE_PERMISSION_FOR_GALLERY);
+        } else {
+            launchGallery();
+        }
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
             @NonNull int[] grantResults) {
@@ -114,6 +215,15 @@ public class MainActivity extends AppCompatActivity {
                 }
                 break;
             }
+            case REQUEST_STORAGE_PERMISSION_FOR_GALLERY: {
+                if (grantResults.length > 0
+                        && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                    launchGallery();
+                } else {
+                    Toast.makeText(this, R.string.permission_denied, Toast.LENGTH_SHORT).show();
+                }
+                break;
+            }
         }
     }
 
@@ -156,8 +266,36 @@ public class MainActivity extends AppCompatActivity {
     }
 
 
+    /**
+     * Lets the user pick photos in the gallery, several at once where supported.
+     */
+    private void launchGallery() {
+        Intent pickIntent = new Intent(Intent.ACTION_GET_CONTENT)
+                .setType("image/*")
+                .addCategory(Intent.CATEGORY_OPENABLE)
+                .putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+        if (pickIntent.resolveActivity(getPackageManager()) != null) {
+            startActivityForResult(pickIntent, REQUEST_PICK_IMAGES);
+        }
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_PICK_IMAGES) {
+            List<Uri> photos = resultCode == RESULT_OK && data != null
+                    ? getPickedPhotos(data) : new ArrayList<Uri>();
+            if (photos.isEmpty()) {
+                return;
+            }
+            if (mWorkerFragment.startBatch(photos)) {
+                Toast.makeText(this, getString(R.string.batch_started, photos.size()),
+                        Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, R.string.batch_running, Toast.LENGTH_SHORT).show();
+            }
+            return;
+        }
+
         // If the image capture activity was called and was successful
         if (requestCode == REQUEST_IMAGE_CAPTURE && resultCode == RESULT_OK) {
             // Process the image and set it to the TextView
@@ -170,54 +308,179 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Method for processing the captured image and setting it to the TextView.
+     * @return The photos picked in the gallery: several of them in the clip data, or one in the
+     * data of the intent.
+     */
+    private static List<Uri> getPickedPhotos(Intent data) {
+        List<Uri> photos = new ArrayList<>();
+        ClipData clipData = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? data.getClipData() : null;
+        if (clipData != null) {
+            for (int i = 0; i < clipData.getItemCount(); i++) {
+                photos.add(clipData.getItemAt(i).getUri());
+            }
+        } else if (data.getData() != null) {
+            photos.add(data.getData());
+        }
+        return photos;
+    }
+
+    /**
+     * Method for processing the captured image in the background; the result is set to the
+     * ImageView when it is ready.
      */
     private void processAndSetImage() {
 
         // Toggle Visibility of the views
+        showResultViews();
+        mProgressBar.setVisibility(View.VISIBLE);
+
+        // Resample the image, detect the faces and overlay the appropriate emoji
+        mResultsBitmap = null;
+        mWorkerFragment.start(mTempPhotoPath);
+    }
+
+    /**
+     * Toggles the visibility of the views to show a (possibly pending) result.
+     */
+    private void showResultViews() {
         mEmojifyButton.setVisibility(View.GONE);
+        mLiveButton.setVisibility(View.GONE);
+        mGalleryButton.setVisibility(View.GONE);
         mTitleTextView.setVisibility(View.GONE);
         mSaveFab.setVisibility(View.VISIBLE);
         mShareFab.setVisibility(View.VISIBLE);
         mClearFab.setVisibility(View.VISIBLE);
+    }
 
-        // Resample the saved image to fit the ImageView
-        mResultsBitmap = BitmapUtils.resamplePic(this, mTempPhotoPath);
+    @Override
+    public void onStageStarted(EmojifyPipeline.Stage stage) {
+        Timber.d("onStageStarted: %s", stage);
+    }
 
+    @Override
+    public void onPreview(EmojifyPipeline.Result preview) {
+        // Show the coarse result until the full one replaces it; it cannot be saved or shared
+        mImageView.setImageBitmap(preview.bitmap);
+    }
 
-        // Detect the faces and overlay the appropriate emoji
-        mResultsBitmap = Emojifier.detectFacesandOverlayEmoji(this, mResultsBitmap);
+    @Override
+    public void onFinished(EmojifyPipeline.Result result) {
+        mProgressBar.setVisibility(View.GONE);
+        mResultsBitmap = result.bitmap;
+        mResultsMetadata = result.metadata;
+
+        // If there are no faces detected, show a Toast message
+        if (result.faceCount == 0) {
+            Toast.makeText(this, R.string.no_faces_message, Toast.LENGTH_SHORT).show();
+        }
 
         // Set the new bitmap to the ImageView
         mImageView.setImageBitmap(mResultsBitmap);
     }
 
+    @Override
+    public void onFailed() {
+        Toast.makeText(this, R.string.emojify_failed, Toast.LENGTH_SHORT).show();
+        clearImage();
+    }
+
+    @Override
+    public void onBatchFinished(int photoCount, StagedPipeline.Report<String> report) {
+        Timber.i("onBatchFinished: %d photos picked, %s", photoCount, report);
+
+        // The most photos which waited for each stage at once, to tell which one holds it up
+        StringBuilder queueDepths = new StringBuilder();
+        int[] maxQueueDepths = report.getMaxQueueDepths();
+        for (int i = 0; i < maxQueueDepths.length; i++) {
+            if (i > 0) {
+                queueDepths.append(", ");
+            }
+            queueDepths.append(report.getStageNames().get(i)).append(' ')
+                    .append(maxQueueDepths[i]);
+        }
+        String message = getString(R.string.batch_report,
+                report.size() - report.getFailureCount(), photoCount, report.getThroughput(),
+                queueDepths);
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
 
     /**
-     * OnClick method for the save button.
+     * OnClick method for the save button, saves the result as shown.
      */
     @OnClick(R.id.save_button)
     public void saveMe() {
-        // Delete the temporary image file
-        BitmapUtils.deleteImageFile(this, mTempPhotoPath);
+        // Nothing to save until the picture has been processed
+        if (mResultsBitmap == null) {
+            return;
+        }
 
-        // Save the image
-        BitmapUtils.saveImage(this, mResultsBitmap);
+        // Save the image in the background; the photo is kept for a full-resolution save until
+        // the result is cleared
+        ImageSaver.getInstance().save(this, mResultsBitmap, mResultsMetadata,
+                ImageSaver.DEFAULT_FORMAT, ImageSaver.DEFAULT_QUALITY, newSaveCallback());
     }
 
     /**
-     * OnClick method for the share button, saves and shares the new bitmap.
+     * OnLongClick method for the save button, saves the photo emojified at its full
+     * resolution, a tile at a time, however large it is.
+     */
+    @OnLongClick(R.id.save_button)
+    public boolean saveFullResolution() {
+        if (mResultsBitmap == null) {
+            return false;
+        }
+        Toast.makeText(this, R.string.saving_full_resolution, Toast.LENGTH_SHORT).show();
+        ImageSaver.getInstance().saveFullResolution(this, mTempPhotoPath, newSaveCallback());
+        return true;
+    }
+
+    private ImageSaver.Callback newSaveCallback() {
+        return new ImageSaver.Callback() {
+            @Override
+            public void onSaved(ImageSaver.Saved saved) {
+                // Show a Toast with the save location
+                String savedMessage = getString(R.string.saved_message, saved.path);
+                Toast.makeText(MainActivity.this, savedMessage, Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onSaveFailed(IOException e) {
+                Timber.e(e, "saveMe: failed to save the image");
+                Toast.makeText(MainActivity.this, R.string.not_saved, Toast.LENGTH_SHORT).show();
+            }
+        };
+    }
+
+    /**
+     * OnClick method for the share button, shares the new bitmap.
      */
     @OnClick(R.id.share_button)
     public void shareMe() {
-        // Delete the temporary image file
-        BitmapUtils.deleteImageFile(this, mTempPhotoPath);
+        // Nothing to share until the picture has been processed
+        if (mResultsBitmap == null) {
+            return;
+        }
 
-        // Save the image
-        BitmapUtils.saveImage(this, mResultsBitmap);
+        // Stream the result to the receiving app as it reads it, without saving it first
+        Uri resultUri = ResultShareProvider.share(mResultsBitmap, ImageSaver.DEFAULT_FORMAT,
+                ImageSaver.DEFAULT_QUALITY);
+        BitmapUtils.shareImage(this, resultUri, ImageSaver.DEFAULT_FORMAT.mimeType);
+    }
 
-        // Share the image
-        BitmapUtils.shareImage(this, mTempPhotoPath);
+    /**
+     * OnLongClick method for the share button, shares the photo emojified at its full
+     * resolution, a tile at a time as the receiving app reads it.
+     */
+    @OnLongClick(R.id.share_button)
+    public boolean shareFullResolution() {
+        if (mResultsBitmap == null) {
+            return false;
+        }
+        Uri resultUri = ResultShareProvider.shareFullResolution(mResultsBitmap, mTempPhotoPath);
+        BitmapUtils.shareImage(this, resultUri, ImageSaver.Format.PNG.mimeType);
+        return true;
     }
 
     /**
@@ -225,15 +488,40 @@ public class MainActivity extends AppCompatActivity {
      */
     @OnClick(R.id.clear_button)
     public void clearImage() {
-        // Clear the image and toggle the view visibility
+        // Stop processing the picture, if it is still being processed
+        mWorkerFragment.cancel();
+
+        // Clear the image, then give its buffer back once it is no longer being saved
         mImageView.setImageResource(0);
+        releaseResultsBitmap();
+
+        // Toggle the view visibility
+        mProgressBar.setVisibility(View.GONE);
         mEmojifyButton.setVisibility(View.VISIBLE);
+        mLiveButton.setVisibility(View.VISIBLE);
+        mGalleryButton.setVisibility(View.VISIBLE);
         mTitleTextView.setVisibility(View.VISIBLE);
         mShareFab.setVisibility(View.GONE);
         mSaveFab.setVisibility(View.GONE);
         mClearFab.setVisibility(View.GONE);
 
-        // Delete the temporary image file
-        BitmapUtils.deleteImageFile(this, mTempPhotoPath);
+        // Delete the temporary image file, once it is no longer read for a full-resolution save
+        // or share
+        if (mTempPhotoPath != null) {
+            ResultShareProvider.deleteWhenUnshared(mTempPhotoPath);
+            mTempPhotoPath = null;
+        }
+    }
+
+    /**
+     * Hands the result back to the bitmap pool, once any save or share of it is done.
+     * The result must no longer be shown.
+     */
+    private void releaseResultsBitmap() {
+        if (mResultsBitmap != null) {
+            ResultShareProvider.releaseWhenUnshared(mResultsBitmap, BitmapPool.getInstance());
+            mResultsBitmap = null;
+            mResultsMetadata = null;
+        }
     }
 }
@@ -0,0 +1,104 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream measuring how an image is streamed to another app: how long the reader waits
+ * for the first byte, how long the whole stream takes, and how many bytes are written.
+ * <p>
+ * The clock starts when the stream is created, which is when the reader opens the image. The
+ * measures are recorded in the {@link MetricsRegistry} once the stream is closed, as the
+ * {@link MetricsRegistry.Stage#SHARE_FIRST_BYTE} and {@link MetricsRegistry.Stage#SHARE}
+ * stages and the {@link MetricsRegistry#SHARE_BYTES_WRITTEN} counter.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ */
+final class MeteredOutputStream extends FilterOutputStream {
+
+    private final MetricsRegistry mMetrics;
+    private final long mStartNanos;
+
+    private long mFirstByteNanos = -1;
+    private long mCount;
+    private boolean mClosed;
+
+    /**
+     * @param out     The stream the reader reads from.
+     * @param metrics The registry to record the measures in.
+     */
+    MeteredOutputStream(OutputStream out, MetricsRegistry metrics) {
+        super(out);
+        mMetrics = metrics;
+        mStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        onWritten(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        onWritten(len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            super.close();
+        } finally {
+            if (mFirstByteNanos >= 0 && mMetrics.isEnabled()) {
+                mMetrics.getStageHistogram(MetricsRegistry.Stage.SHARE_FIRST_BYTE)
+                        .record(mFirstByteNanos);
+            }
+            mMetrics.recordStage(MetricsRegistry.Stage.SHARE, mStartNanos);
+            mMetrics.counter(MetricsRegistry.SHARE_BYTES_WRITTEN).add(mCount);
+        }
+    }
+
+    /**
+     * @return The number of bytes written so far.
+     */
+    long getByteCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The time from opening the stream to the first byte written, in nanoseconds, or
+     * -1 if nothing was written yet.
+     */
+    long getTimeToFirstByteNanos() {
+        return mFirstByteNanos;
+    }
+
+    private void onWritten(int len) {
+        if (mFirstByteNanos < 0 && len > 0) {
+            mFirstByteNanos = System.nanoTime() - mStartNanos;
+        }
+        mCount += len;
+    }
+}
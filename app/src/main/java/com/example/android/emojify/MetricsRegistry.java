@@ -0,0 +1,346 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide registry of the latency of every emojify stage, and of counters and gauges such
+ * as bitmap bytes allocated and the peak heap of a run.
+ * <p>
+ * Recording is lock-free and allocation-free. A disabled registry never reads the clock and
+ * hands out shared instruments which record nothing, so instrumented code costs a field read
+ * and a branch when metrics are off:
+ * <pre>
+ * MetricsRegistry metrics = MetricsRegistry.getInstance();
+ * long start = metrics.startTimer();
+ * ...
+ * metrics.recordStage(MetricsRegistry.Stage.DETECT, start);
+ * </pre>
+ * Everything recorded can be read back with {@link #snapshot()}, or exported in the Prometheus
+ * text format with {@link #export()}.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ */
+final class MetricsRegistry {
+
+    // Counters and gauges recorded by the app
+    static final String BITMAP_BYTES_ALLOCATED = "bitmap_bytes_allocated";
+    static final String BITMAP_BYTES_IN_USE = "bitmap_bytes_in_use";
+    static final String RUN_PEAK_HEAP_BYTES = "run_peak_heap_bytes";
+    static final String RUNS = "runs";
+    static final String DETECT_FULL_SCANS = "detect_full_scans";
+    static final String DETECT_REGION_SCANS = "detect_region_scans";
+    static final String DETECT_REGION_SCAN_PERCENT = "detect_region_scan_percent";
+    static final String SHARE_BYTES_WRITTEN = "share_bytes_written";
+
+    private static final String EXPORT_PREFIX = "emojify_";
+    private static final String STAGE_HISTOGRAM = EXPORT_PREFIX + "stage_latency_microseconds";
+
+    private static volatile MetricsRegistry sInstance = new MetricsRegistry(false);
+
+    /**
+     * The stages of emojifying and sharing a photo which are timed.
+     */
+    enum Stage {
+        DECODE,
+        DETECTOR_INIT,
+        DETECT,
+        CLASSIFY,
+        SCALE,
+        COMPOSITE,
+        ENCODE,
+        SHARE_FIRST_BYTE,
+        SHARE,
+        TIME_TO_FIRST_PIXEL,
+        TIME_TO_FINAL;
+
+        final String metricName = name().toLowerCase(Locale.US);
+    }
+
+    /**
+     * A count which only goes up, such as a number of bytes allocated.
+     */
+    static class Counter {
+
+        private final AtomicLong mValue = new AtomicLong();
+
+        void increment() {
+            mValue.incrementAndGet();
+        }
+
+        void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        long get() {
+            return mValue.get();
+        }
+    }
+
+    /**
+     * A value which is set rather than counted, such as a number of bytes in use.
+     */
+    static class Gauge {
+
+        private final AtomicLong mValue = new AtomicLong();
+
+        void set(long value) {
+            mValue.set(value);
+        }
+
+        /**
+         * Raises the gauge to the value, if it is higher, to track a peak.
+         */
+        void setMax(long value) {
+            long current = mValue.get();
+            while (value > current && !mValue.compareAndSet(current, value)) {
+                current = mValue.get();
+            }
+        }
+
+        long get() {
+            return mValue.get();
+        }
+    }
+
+    private static final Counter NO_OP_COUNTER = new Counter() {
+        @Override
+        void increment() {
+        }
+
+        @Override
+        void add(long delta) {
+        }
+    };
+
+    private static final Gauge NO_OP_GAUGE = new Gauge() {
+        @Override
+        void set(long value) {
+        }
+
+        @Override
+        void setMax(long value) {
+        }
+    };
+
+    private final boolean mEnabled;
+    private final LatencyHistogram[] mStages = new LatencyHistogram[Stage.values().length];
+    private final ConcurrentMap<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> mGauges = new ConcurrentHashMap<>();
+
+    /**
+     * @param enabled Whether anything is recorded at all.
+     */
+    MetricsRegistry(boolean enabled) {
+        mEnabled = enabled;
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @return The registry instrumented code records to, disabled until one is installed.
+     */
+    static MetricsRegistry getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param registry The registry instrumented code records to from now on.
+     */
+    static void setInstance(MetricsRegistry registry) {
+        sInstance = registry;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return The start time to pass to {@link #recordStage(Stage, long)}, or 0 when disabled.
+     */
+    long startTimer() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the latency of a stage.
+     *
+     * @param stage      The stage.
+     * @param startNanos The start time, from {@link #startTimer()}.
+     */
+    void recordStage(Stage stage, long startNanos) {
+        if (mEnabled) {
+            mStages[stage.ordinal()].recordSince(startNanos);
+        }
+    }
+
+    /**
+     * @param stage The stage.
+     * @return The latencies recorded for the stage, empty when disabled.
+     */
+    LatencyHistogram getStageHistogram(Stage stage) {
+        return mStages[stage.ordinal()];
+    }
+
+    /**
+     * @param name The name of the counter, made of lowercase letters and underscores.
+     * @return The counter, created on first use, or one which counts nothing when disabled.
+     */
+    Counter counter(String name) {
+        if (!mEnabled) {
+            return NO_OP_COUNTER;
+        }
+        Counter counter = mCounters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = mCounters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @param name The name of the gauge, made of lowercase letters and underscores.
+     * @return The gauge, created on first use, or one which holds nothing when disabled.
+     */
+    Gauge gauge(String name) {
+        if (!mEnabled) {
+            return NO_OP_GAUGE;
+        }
+        Gauge gauge = mGauges.get(name);
+        if (gauge == null) {
+            Gauge created = new Gauge();
+            gauge = mGauges.putIfAbsent(name, created);
+            if (gauge == null) {
+                gauge = created;
+            }
+        }
+        return gauge;
+    }
+
+    /**
+     * Starts a run, such as emojifying one photo, so its peak heap is tracked on its own.
+     */
+    void beginRun() {
+        if (mEnabled) {
+            counter(RUNS).increment();
+            gauge(RUN_PEAK_HEAP_BYTES).set(usedHeapBytes());
+        }
+    }
+
+    /**
+     * Samples the heap, raising the peak of the current run if it is higher. Called between
+     * stages, where the heap is at its fullest.
+     */
+    void sampleHeap() {
+        if (mEnabled) {
+            gauge(RUN_PEAK_HEAP_BYTES).setMax(usedHeapBytes());
+        }
+    }
+
+    /**
+     * @return Every value recorded, by name: counters and gauges under their own name, and for
+     * every stage its count, sum, maximum and percentiles in microseconds, such as
+     * {@code decode_p50_micros}.
+     */
+    Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getStageHistogram(stage);
+            snapshot.put(stage.metricName + "_count", histogram.getCount());
+            snapshot.put(stage.metricName + "_sum_micros", histogram.getTotalNanos() / 1000);
+            snapshot.put(stage.metricName + "_max_micros", histogram.getMaxMicros());
+            snapshot.put(stage.metricName + "_p50_micros", histogram.getPercentileMicros(50));
+            snapshot.put(stage.metricName + "_p99_micros", histogram.getPercentileMicros(99));
+        }
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return Everything recorded in the Prometheus text exposition format, with every name
+     * prefixed by {@code emojify_}.
+     */
+    String export() {
+        StringBuilder out = new StringBuilder();
+        out.append("# TYPE ").append(STAGE_HISTOGRAM).append(" histogram\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getStageHistogram(stage);
+            String labels = "{stage=\"" + stage.metricName + "\"";
+            long cumulative = 0;
+            for (int i = 0; i < histogram.getBucketCount(); i++) {
+                cumulative += histogram.getBucketSampleCount(i);
+                long upper = histogram.getBucketUpperMicros(i);
+                out.append(STAGE_HISTOGRAM).append("_bucket").append(labels)
+                        .append(",le=\"").append(upper == Long.MAX_VALUE ? "+Inf" : upper)
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(STAGE_HISTOGRAM).append("_sum").append(labels).append("} ")
+                    .append(histogram.getTotalNanos() / 1000).append('\n');
+            out.append(STAGE_HISTOGRAM).append("_count").append(labels).append("} ")
+                    .append(histogram.getCount()).append('\n');
+        }
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(mCounters).entrySet()) {
+            appendValue(out, "counter", entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : new TreeMap<>(mGauges).entrySet()) {
+            appendValue(out, "gauge", entry.getKey(), entry.getValue().get());
+        }
+        return out.toString();
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    void reset() {
+        for (LatencyHistogram histogram : mStages) {
+            histogram.reset();
+        }
+        mCounters.clear();
+        mGauges.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsRegistry{enabled=" + mEnabled + ", " + snapshot() + "}";
+    }
+
+    private static void appendValue(StringBuilder out, String type, String name, long value) {
+        out.append("# TYPE ").append(EXPORT_PREFIX).append(name).append(' ').append(type)
+                .append('\n').append(EXPORT_PREFIX).append(name).append(' ').append(value)
+                .append('\n');
+    }
+
+    private static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
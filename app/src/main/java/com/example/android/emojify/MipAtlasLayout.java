@@ -0,0 +1,200 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+/**
+ * Where every sprite of an atlas goes, along with its chain of mip levels.
+ * <p>
+ * Each level is half the size of the one before, down to a single pixel. A sprite and its
+ * levels share one cell: level 0 on the left, and the smaller levels stacked in a column to its
+ * right, so a cell takes about one and a half times the pixels of the sprite. The cells are laid
+ * out in a grid about as wide as it is tall, so the atlas stays within the texture size limits
+ * of the GPU. Every
+ * level is surrounded by a transparent {@link #GUTTER}, so filtering at its edges never picks
+ * up a neighbour.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ */
+final class MipAtlasLayout {
+
+    // Transparent pixels around every level
+    static final int GUTTER = 1;
+
+    private final int mWidth;
+    private final int mHeight;
+
+    // For each sprite, the index of its level 0 in the rectangles below
+    private final int[] mFirstLevel;
+
+    // The left, top, width and height of every level of every sprite, in the atlas
+    private final int[] mLefts;
+    private final int[] mTops;
+    private final int[] mWidths;
+    private final int[] mHeights;
+
+    /**
+     * @param spriteWidths  The width of every sprite, at its original size.
+     * @param spriteHeights The height of every sprite, at its original size.
+     */
+    MipAtlasLayout(int[] spriteWidths, int[] spriteHeights) {
+        int spriteCount = spriteWidths.length;
+        if (spriteHeights.length != spriteCount) {
+            throw new IllegalArgumentException("As many widths as heights are needed");
+        }
+
+        mFirstLevel = new int[spriteCount + 1];
+        for (int sprite = 0; sprite < spriteCount; sprite++) {
+            if (spriteWidths[sprite] <= 0 || spriteHeights[sprite] <= 0) {
+                throw new IllegalArgumentException("Empty sprite " + sprite);
+            }
+            mFirstLevel[sprite + 1] = mFirstLevel[sprite]
+                    + levelCount(spriteWidths[sprite], spriteHeights[sprite]);
+        }
+        int rectCount = mFirstLevel[spriteCount];
+        mLefts = new int[rectCount];
+        mTops = new int[rectCount];
+        mWidths = new int[rectCount];
+        mHeights = new int[rectCount];
+
+        // The size of every cell: level 0, then a column of the smaller levels one under the
+        // other
+        int[] cellWidths = new int[spriteCount];
+        int[] cellHeights = new int[spriteCount];
+        for (int sprite = 0; sprite < spriteCount; sprite++) {
+            int width = spriteWidths[sprite];
+            int height = spriteHeights[sprite];
+            int first = mFirstLevel[sprite];
+            mWidths[first] = width;
+            mHeights[first] = height;
+            mLefts[first] = GUTTER;
+            mTops[first] = GUTTER;
+
+            int columnLeft = width + 2 * GUTTER;
+            int columnHeight = 0;
+            int columnWidth = 0;
+            for (int rect = first + 1; rect < mFirstLevel[sprite + 1]; rect++) {
+                width = Math.max(1, width / 2);
+                height = Math.max(1, height / 2);
+                mWidths[rect] = width;
+                mHeights[rect] = height;
+                mLefts[rect] = columnLeft + GUTTER;
+                mTops[rect] = columnHeight + GUTTER;
+                columnHeight += height + 2 * GUTTER;
+                columnWidth = Math.max(columnWidth, width + 2 * GUTTER);
+            }
+            cellWidths[sprite] = columnLeft + columnWidth;
+            cellHeights[sprite] = Math.max(spriteHeights[sprite] + 2 * GUTTER, columnHeight);
+        }
+
+        // Lay the cells out in rows, each row as tall as its tallest cell
+        int columns = Math.max(1, (int) Math.ceil(Math.sqrt(spriteCount)));
+        int width = 0;
+        int top = 0;
+        for (int rowStart = 0; rowStart < spriteCount; rowStart += columns) {
+            int left = 0;
+            int rowHeight = 0;
+            for (int sprite = rowStart; sprite < Math.min(rowStart + columns, spriteCount);
+                 sprite++) {
+                for (int rect = mFirstLevel[sprite]; rect < mFirstLevel[sprite + 1]; rect++) {
+                    mLefts[rect] += left;
+                    mTops[rect] += top;
+                }
+                left += cellWidths[sprite];
+                rowHeight = Math.max(rowHeight, cellHeights[sprite]);
+            }
+            width = Math.max(width, left);
+            top += rowHeight;
+        }
+        mWidth = Math.max(1, width);
+        mHeight = Math.max(1, top);
+    }
+
+    /**
+     * @return The number of levels of a sprite of the given size, down to a single pixel.
+     */
+    static int levelCount(int width, int height) {
+        int levels = 1;
+        while (width > 1 || height > 1) {
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+            levels++;
+        }
+        return levels;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    int getSpriteCount() {
+        return mFirstLevel.length - 1;
+    }
+
+    int getLevelCount(int sprite) {
+        return mFirstLevel[sprite + 1] - mFirstLevel[sprite];
+    }
+
+    int getLeft(int sprite, int level) {
+        return mLefts[rect(sprite, level)];
+    }
+
+    int getTop(int sprite, int level) {
+        return mTops[rect(sprite, level)];
+    }
+
+    int getWidth(int sprite, int level) {
+        return mWidths[rect(sprite, level)];
+    }
+
+    int getHeight(int sprite, int level) {
+        return mHeights[rect(sprite, level)];
+    }
+
+    /**
+     * Picks the smallest level still at least as wide as the sprite is drawn, so a filtered
+     * draw never shrinks a level by half or more, and costs about as much as the pixels drawn.
+     *
+     * @param sprite      The sprite.
+     * @param targetWidth The width the sprite is drawn at.
+     * @return The level to draw from; level 0 when the sprite is drawn larger than it is.
+     */
+    int chooseLevel(int sprite, int targetWidth) {
+        int level = 0;
+        int last = getLevelCount(sprite) - 1;
+        while (level < last && getWidth(sprite, level + 1) >= targetWidth) {
+            level++;
+        }
+        return level;
+    }
+
+    @Override
+    public String toString() {
+        return "MipAtlasLayout{" + mWidth + "x" + mHeight + ", sprites=" + getSpriteCount()
+                + ", levels=" + mLefts.length + "}";
+    }
+
+    private int rect(int sprite, int level) {
+        if (level < 0 || level >= getLevelCount(sprite)) {
+            throw new IndexOutOfBoundsException("No level " + level + " for sprite " + sprite);
+        }
+        return mFirstLevel[sprite] + level;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent per-face work, such as picking and scaling the emoji of every face, on a
+ * fixed pool of threads, and hands back the results in the order of the faces.
+ * <p>
+ * The faces are split into one contiguous chunk per thread, the first of which runs on the
+ * calling thread. The work must not touch shared mutable state; anything order-dependent, such
+ * as drawing emoji which overlap, belongs in a single pass over the results.
+ * <p>
+ * This class has no Android dependencies, so it can be tested and benchmarked on the host.
+ */
+final class ParallelFaceMapper {
+
+    /**
+     * The work done for every face, possibly on several threads at once.
+     *
+     * @param <R> The type of the result for a face.
+     */
+    interface Mapper<R> {
+
+        R map(DetectedFace face);
+    }
+
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+
+    /**
+     * @param executor    The pool to run the chunks on, with at least parallelism - 1 threads.
+     * @param parallelism The most threads working on one list of faces, the caller included.
+     */
+    ParallelFaceMapper(ExecutorService executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        }
+        mExecutor = executor;
+        mParallelism = parallelism;
+    }
+
+    int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * Maps every face, blocking until all of them are done.
+     *
+     * @param faces  The faces.
+     * @param mapper The work to do for every face.
+     * @param <R>    The type of the result for a face.
+     * @return The results, in the order of the faces.
+     * @throws CancellationException If the calling thread is interrupted while waiting, in which
+     *                               case its interrupt flag is set again.
+     */
+    <R> List<R> map(final List<DetectedFace> faces, final Mapper<R> mapper) {
+        final Object[] results = new Object[faces.size()];
+        int chunkCount = Math.min(mParallelism, faces.size());
+
+        List<Future<?>> futures = new ArrayList<>(Math.max(0, chunkCount - 1));
+        for (int chunk = 1; chunk < chunkCount; chunk++) {
+            final int start = chunkStart(chunk, chunkCount, faces.size());
+            final int end = chunkStart(chunk + 1, chunkCount, faces.size());
+            futures.add(mExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    mapRange(faces, mapper, results, start, end);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            if (chunkCount > 0) {
+                mapRange(faces, mapper, results, 0, chunkStart(1, chunkCount, faces.size()));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while mapping faces");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException
+                    ? (RuntimeException) cause : new IllegalStateException(cause);
+        } finally {
+            // Does nothing to chunks which are already done
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        List<R> list = (List<R>) Arrays.asList(results);
+        return list;
+    }
+
+    private static <R> void mapRange(List<DetectedFace> faces, Mapper<R> mapper,
+                                     Object[] results, int start, int end) {
+        for (int i = start; i < end; i++) {
+            results[i] = mapper.map(faces.get(i));
+        }
+    }
+
+    // Spreads the remainder over the first chunks, so chunk sizes differ by at most one
+    private static int chunkStart(int chunk, int chunkCount, int size) {
+        return (int) ((long) chunk * size / chunkCount);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.util.Arrays;
+
+/**
+ * An image held as an array of ARGB pixels, row by row.
+ * <p>
+ * This class has no Android dependencies, so compositing can be tested and benchmarked on the
+ * host.
+ */
+final class PixelBuffer {
+
+    final int width;
+    final int height;
+    final int[] pixels;
+
+    PixelBuffer(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    PixelBuffer(int width, int height, int[] pixels) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Need " + width * height + " pixels, got "
+                    + pixels.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    int getPixel(int x, int y) {
+        return pixels[y * width + x];
+    }
+
+    void setPixel(int x, int y, int argb) {
+        pixels[y * width + x] = argb;
+    }
+
+    void fill(int argb) {
+        Arrays.fill(pixels, 0, width * height, argb);
+    }
+
+    PixelBuffer copy() {
+        return new PixelBuffer(width, height, Arrays.copyOf(pixels, width * height));
+    }
+
+    /**
+     * Scales the image with nearest-neighbour sampling, like an unfiltered
+     * {@code Bitmap.createScaledBitmap}.
+     *
+     * @param newWidth  The width of the scaled image.
+     * @param newHeight The height of the scaled image.
+     * @return The scaled image.
+     */
+    PixelBuffer scaled(int newWidth, int newHeight) {
+        PixelBuffer scaled = new PixelBuffer(newWidth, newHeight);
+        for (int y = 0; y < newHeight; y++) {
+            int sourceRow = (int) ((long) y * height / newHeight) * width;
+            int row = y * newWidth;
+            for (int x = 0; x < newWidth; x++) {
+                scaled.pixels[row + x] = pixels[sourceRow + (int) ((long) x * width / newWidth)];
+            }
+        }
+        return scaled;
+    }
+
+    /**
+     * Blends an image over this one, clipped to the bounds of this image.
+     *
+     * @param source The image to draw.
+     * @param left   Where the left edge of the source goes.
+     * @param top    Where the top edge of the source goes.
+     */
+    void drawOver(PixelBuffer source, int left, int top) {
+        int startX = Math.max(0, left);
+        int startY = Math.max(0, top);
+        int endX = Math.min(width, left + source.width);
+        int endY = Math.min(height, top + source.height);
+
+        for (int y = startY; y < endY; y++) {
+            int sourceRow = (y - top) * source.width - left;
+            int row = y * width;
+            for (int x = startX; x < endX; x++) {
+                pixels[row + x] = blend(source.pixels[sourceRow + x], pixels[row + x]);
+            }
+        }
+    }
+
+    /**
+     * Blends a pixel over another with the source-over rule.
+     */
+    static int blend(int source, int destination) {
+        int sourceAlpha = source >>> 24;
+        if (sourceAlpha == 0xFF) {
+            return source;
+        } else if (sourceAlpha == 0) {
+            return destination;
+        }
+
+        int inverse = 0xFF - sourceAlpha;
+        int destinationAlpha = destination >>> 24;
+        int alpha = sourceAlpha + destinationAlpha * inverse / 0xFF;
+        int red = channel(source >> 16, destination >> 16, sourceAlpha, inverse);
+        int green = channel(source >> 8, destination >> 8, sourceAlpha, inverse);
+        int blue = channel(source, destination, sourceAlpha, inverse);
+        return alpha << 24 | red << 16 | green << 8 | blue;
+    }
+
+    private static int channel(int source, int destination, int sourceAlpha, int inverse) {
+        return ((source & 0xFF) * sourceAlpha + (destination & 0xFF) * inverse) / 0xFF;
+    }
+}
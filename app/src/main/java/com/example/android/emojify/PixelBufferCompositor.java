@@ -0,0 +1,204 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws the emoji for every face over a {@link PixelBuffer}, the same way {@link Emojifier}
+ * does over a bitmap: one copy of the background, one scaled sprite per face.
+ * <p>
+ * This class has no Android dependencies, so compositing can be tested and benchmarked on the
+ * host.
+ */
+final class PixelBufferCompositor {
+
+    private final EmojiRuleTable mRules;
+
+    // The sprite of every handle of the rules
+    private final PixelBuffer[] mSprites;
+
+    private int mAllocatedBufferCount;
+
+    /**
+     * @param rules   The rules of the emoji pack, which pick the sprite of every face.
+     * @param sprites The sprites of the pack at their original size, indexed by their handle.
+     */
+    PixelBufferCompositor(EmojiRuleTable rules, PixelBuffer[] sprites) {
+        if (sprites.length != rules.getSpriteCount()) {
+            throw new IllegalArgumentException("Expected " + rules.getSpriteCount()
+                    + " sprites, got " + sprites.length);
+        }
+        mRules = rules;
+        mSprites = sprites.clone();
+    }
+
+    /**
+     * @param background The original picture, left untouched.
+     * @param faces      The faces detected in the picture.
+     * @return A copy of the picture with an emoji drawn over every face.
+     */
+    PixelBuffer composite(PixelBuffer background, List<DetectedFace> faces) {
+        return composite(background, faces, null);
+    }
+
+    /**
+     * Picks and scales the emoji of every face, in parallel if given a mapper, then draws them
+     * in one pass in the order of the faces, so overlapping emoji always stack the same way.
+     *
+     * @param background The original picture, left untouched.
+     * @param faces      The faces detected in the picture.
+     * @param mapper     The mapper to prepare the emoji on, or null to prepare them on the
+     *                   calling thread.
+     * @return A copy of the picture with an emoji drawn over every face.
+     */
+    PixelBuffer composite(PixelBuffer background, List<DetectedFace> faces,
+                          ParallelFaceMapper mapper) {
+        ParallelFaceMapper.Mapper<ScaledEmoji> prepare =
+                new ParallelFaceMapper.Mapper<ScaledEmoji>() {
+                    @Override
+                    public ScaledEmoji map(DetectedFace face) {
+                        return prepare(face);
+                    }
+                };
+        List<ScaledEmoji> emoji;
+        if (mapper != null) {
+            emoji = mapper.map(faces, prepare);
+        } else {
+            emoji = new ArrayList<>(faces.size());
+            for (DetectedFace face : faces) {
+                emoji.add(prepare.map(face));
+            }
+        }
+
+        PixelBuffer result = background.copy();
+        mAllocatedBufferCount++;
+        for (ScaledEmoji scaledEmoji : emoji) {
+            if (scaledEmoji != null) {
+                result.drawOver(scaledEmoji.sprite, (int) scaledEmoji.placement.left,
+                        (int) scaledEmoji.placement.top);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Composites the picture one tile at a time, encoding each tile as soon as it is drawn.
+     * The output is the same as {@link #composite(PixelBuffer, List)}, pixel for pixel.
+     *
+     * @param background The original picture, left untouched.
+     * @param faces      The faces detected in the picture.
+     * @param tileHeight The number of rows per tile.
+     * @param encoder    The encoder of the result, as large as the picture.
+     * @return The compositor, with the number of tiles written and emoji drawn.
+     * @throws IOException If the result cannot be encoded.
+     */
+    TiledCompositor<PixelBuffer> compositeTiled(final PixelBuffer background,
+                                                List<DetectedFace> faces, int tileHeight,
+                                                final PngStreamEncoder encoder)
+            throws IOException {
+        TiledCompositor<PixelBuffer> compositor = new TiledCompositor<>(
+                new TiledCompositor.Renderer<PixelBuffer>() {
+                    @Override
+                    public TiledCompositor.Placement place(DetectedFace face) {
+                        return PixelBufferCompositor.this.place(face);
+                    }
+
+                    @Override
+                    public PixelBuffer decodeTile(int top, int height) {
+                        PixelBuffer tile = new PixelBuffer(background.width, height);
+                        System.arraycopy(background.pixels, top * background.width,
+                                tile.pixels, 0, height * background.width);
+                        mAllocatedBufferCount++;
+                        return tile;
+                    }
+
+                    @Override
+                    public void drawEmoji(PixelBuffer tile, int tileTop,
+                                          TiledCompositor.Placement placement) {
+                        PixelBufferCompositor.this.drawEmoji(tile, tileTop, placement);
+                    }
+
+                    @Override
+                    public void writeTile(PixelBuffer tile, int tileTop) throws IOException {
+                        encoder.writeRows(tile.pixels, 0, tile.width, tile.height);
+                    }
+
+                    @Override
+                    public void releaseTile(PixelBuffer tile) {
+                    }
+                }, tileHeight);
+        compositor.composite(background.height, faces);
+        return compositor;
+    }
+
+    // Only reads the sprites, so it may run on several threads at once
+    private ScaledEmoji prepare(DetectedFace face) {
+        TiledCompositor.Placement placement = place(face);
+        if (placement == null) {
+            return null;
+        }
+        return new ScaledEmoji(placement, mSprites[placement.sprite]
+                .scaled(placement.width, placement.height));
+    }
+
+    private TiledCompositor.Placement place(DetectedFace face) {
+        int spriteHandle = mRules.lookup(face);
+        PixelBuffer sprite = mSprites[spriteHandle];
+
+        int newEmojiWidth = EmojiPlacement.scaledEmojiWidth(face.width);
+        int newEmojiHeight = EmojiPlacement.scaledEmojiHeight(sprite.width, sprite.height,
+                newEmojiWidth);
+        if (newEmojiWidth <= 0 || newEmojiHeight <= 0) {
+            return null;
+        }
+        return new TiledCompositor.Placement(spriteHandle,
+                EmojiPlacement.emojiLeft(face.left, face.width, newEmojiWidth),
+                EmojiPlacement.emojiTop(face.top, face.height, newEmojiHeight),
+                newEmojiWidth, newEmojiHeight);
+    }
+
+    // Positions are rounded in the coordinates of the whole picture, so tiles line up exactly
+    private void drawEmoji(PixelBuffer target, int targetTop, TiledCompositor.Placement placement) {
+        PixelBuffer scaledSprite = mSprites[placement.sprite]
+                .scaled(placement.width, placement.height);
+        target.drawOver(scaledSprite, (int) placement.left, (int) placement.top - targetTop);
+    }
+
+    /**
+     * An emoji scaled for a face, ready to be drawn.
+     */
+    private static final class ScaledEmoji {
+
+        final TiledCompositor.Placement placement;
+        final PixelBuffer sprite;
+
+        ScaledEmoji(TiledCompositor.Placement placement, PixelBuffer sprite) {
+            this.placement = placement;
+            this.sprite = sprite;
+        }
+    }
+
+    /**
+     * @return The number of buffers allocated so far, one per composited picture or tile.
+     */
+    int getAllocatedBufferCount() {
+        return mAllocatedBufferCount;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes an ARGB image to PNG a few rows at a time, so an image never needs to be held in
+ * memory as a whole to be saved. {@code Bitmap.compress} only encodes whole bitmaps.
+ * <p>
+ * Rows are written as 8-bit RGBA with the Sub filter, and compressed into IDAT chunks of at
+ * most {@link #CHUNK_SIZE} bytes.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ */
+final class PngStreamEncoder implements Closeable {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int BIT_DEPTH = 8;
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int FILTER_SUB = 1;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final DataOutputStream mOut;
+    private final int mWidth;
+    private final int mHeight;
+    private final Deflater mDeflater;
+    private final ChunkOutputStream mChunkOut;
+    private final DeflaterOutputStream mDeflaterOut;
+    private final byte[] mRow;
+
+    private int mRowCount;
+    private boolean mClosed;
+
+    /**
+     * Writes the PNG header; rows follow with {@link #writeRows(int[], int, int, int)}.
+     *
+     * @param out              The stream to encode to, closed along with the encoder.
+     * @param width            The width of the image.
+     * @param height           The height of the image.
+     * @param compressionLevel The deflate level, from 0 to 9.
+     * @throws IOException If the stream cannot be written.
+     */
+    PngStreamEncoder(OutputStream out, int width, int height, int compressionLevel)
+            throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        mOut = new DataOutputStream(out);
+        mWidth = width;
+        mHeight = height;
+        mRow = new byte[1 + width * BYTES_PER_PIXEL];
+
+        mOut.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = BIT_DEPTH;
+        header[9] = COLOR_TYPE_RGBA;
+        // Compression, filter and interlace methods are all 0
+        writeChunk("IHDR", header, 0, header.length);
+
+        mDeflater = new Deflater(compressionLevel);
+        mChunkOut = new ChunkOutputStream();
+        mDeflaterOut = new DeflaterOutputStream(mChunkOut, mDeflater, CHUNK_SIZE);
+    }
+
+    /**
+     * Encodes the next rows of the image.
+     *
+     * @param argb     The pixels, as non-premultiplied ARGB.
+     * @param offset   The index of the first pixel of the first row.
+     * @param stride   The number of pixels from one row to the next.
+     * @param rowCount The number of rows to encode.
+     * @throws IOException If the stream cannot be written.
+     */
+    void writeRows(int[] argb, int offset, int stride, int rowCount) throws IOException {
+        if (mRowCount + rowCount > mHeight) {
+            throw new IllegalStateException("Image only has " + mHeight + " rows");
+        }
+        for (int y = 0; y < rowCount; y++) {
+            int start = offset + y * stride;
+            mRow[0] = FILTER_SUB;
+            int previous = 0;
+            for (int x = 0, i = 1; x < mWidth; x++, i += BYTES_PER_PIXEL) {
+                int pixel = argb[start + x];
+                mRow[i] = (byte) ((pixel >> 16) - (previous >> 16));
+                mRow[i + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+                mRow[i + 2] = (byte) (pixel - previous);
+                mRow[i + 3] = (byte) ((pixel >>> 24) - (previous >>> 24));
+                previous = pixel;
+            }
+            mDeflaterOut.write(mRow);
+        }
+        mRowCount += rowCount;
+    }
+
+    /**
+     * @return The number of rows encoded so far.
+     */
+    int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Finishes the image and closes the stream.
+     *
+     * @throws IOException If the stream cannot be written, or not every row was encoded.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mRowCount != mHeight) {
+                throw new IOException("Only " + mRowCount + " of " + mHeight + " rows written");
+            }
+            mDeflaterOut.finish();
+            mChunkOut.flushChunk();
+            writeChunk("IEND", new byte[0], 0, 0);
+        } finally {
+            mDeflater.end();
+            mOut.close();
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int offset, int length)
+            throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+
+        mOut.writeInt(length);
+        mOut.write(typeBytes);
+        mOut.write(data, offset, length);
+        mOut.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects compressed data into IDAT chunks.
+     */
+    private final class ChunkOutputStream extends OutputStream {
+
+        private final byte[] mBuffer = new byte[CHUNK_SIZE];
+        private int mCount;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mCount == mBuffer.length) {
+                flushChunk();
+            }
+            mBuffer[mCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (mCount == mBuffer.length) {
+                    flushChunk();
+                }
+                int count = Math.min(len, mBuffer.length - mCount);
+                System.arraycopy(b, off, mBuffer, mCount, count);
+                mCount += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (mCount > 0) {
+                writeChunk("IDAT", mBuffer, 0, mCount);
+                mCount = 0;
+            }
+        }
+    }
+}
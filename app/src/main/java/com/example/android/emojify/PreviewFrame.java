@@ -0,0 +1,64 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.android.emojify;
+
+/**
+ * A camera preview frame in NV21 format, along with how it must be rotated to be upright.
+ * <p>
+ * This class has no Android dependencies, so frame scheduling can be tested on the host.
+ */
+final class PreviewFrame {
+
+    final int id;
+    final byte[] data;
+    final int width;
+    final int height;
+    final int rotationDegrees;
+    final long timestampMillis;
+
+    /**
+     * @param id              The sequence number of the frame.
+     * @param data            The NV21 pixels, in a buffer owned by the camera.
+     * @param width           The width of the frame, as captured.
+     * @param height          The height of the frame, as captured.
+     * @param rotationDegrees The clockwise rotation which makes the frame upright, a multiple
+     *                        of 90.
+     * @param timestampMillis The time the frame was captured.
+     */
+    PreviewFrame(int id, byte[] data, int width, int height, int rotationDegrees,
+                 long timestampMillis) {
+        this.id = id;
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.rotationDegrees = rotationDegrees;
+        this.timestampMillis = timestampMillis;
+    }
+
+    /**
+     * @return The width of the frame once upright, which faces are reported in.
+     */
+    int getUprightWidth() {
+        return rotationDegrees % 180 == 0 ? width : height;
+    }
+
+    /**
+     * @return The height of the frame once upright, which faces are reported in.
+     */
+    int getUprightHeight() {
+        return rotationDegrees % 180 == 0 ? height : width;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Two-tier cache of emojified results, so emojifying the same photo again skips detection, and
+ * saving or sharing the result skips encoding it. The photo is still decoded and the emoji drawn
+ * again over the cached faces, since the result goes on screen as a bitmap.
+ * <p>
+ * Results are keyed by a hash of the content of the source image and a fingerprint of the
+ * pipeline configuration, and hold the detected faces along with the encoded output. The first
+ * tier is an in-memory LRU, the second one a directory of entry files evicted least recently
+ * used first; both are bounded by byte size. Encoded bytes are kept rather than bitmaps, which
+ * go back to the {@link BitmapPool} once they are no longer shown.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ */
+class ResultCache {
+
+    private static final int ENTRY_MAGIC = 0x454D4A43; // "EMJC"
+    private static final int ENTRY_VERSION = 2;
+    private static final String ENTRY_SUFFIX = ".entry";
+
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A cached result: the faces found in the source image, and the encoded emojified image.
+     */
+    static final class Entry {
+
+        final List<DetectedFace> faces;
+        final byte[] image;
+
+        Entry(List<DetectedFace> faces, byte[] image) {
+            this.faces = Collections.unmodifiableList(new ArrayList<>(faces));
+            this.image = image;
+        }
+
+        long byteCount() {
+            return image.length + FaceMetadata.byteCount(faces);
+        }
+    }
+
+    private final File mDirectory;
+    private final long mMaxMemoryBytes;
+    private final long mMaxDiskBytes;
+
+    private final LinkedHashMap<String, Entry> mMemory = new LinkedHashMap<>(16, .75f, true);
+    private long mMemoryBytes;
+    private long mDiskBytes = -1;
+
+    private int mMemoryHitCount;
+    private int mDiskHitCount;
+    private int mMissCount;
+
+    /**
+     * @param directory      The directory of the disk tier, only used by this cache.
+     * @param maxMemoryBytes The maximum size of the in-memory tier.
+     * @param maxDiskBytes   The maximum size of the disk tier.
+     */
+    ResultCache(File directory, long maxMemoryBytes, long maxDiskBytes) {
+        mDirectory = directory;
+        mMaxMemoryBytes = maxMemoryBytes;
+        mMaxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * Builds the key of the result of emojifying an image.
+     *
+     * @param source            The source image.
+     * @param configFingerprint Everything about the pipeline which changes the result.
+     * @return The key, made of hexadecimal digits only.
+     * @throws IOException If the image cannot be read.
+     */
+    static String key(File source, String configFingerprint) throws IOException {
+        MessageDigest digest = sha1();
+        InputStream in = new FileInputStream(source);
+        try {
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        byte[] contentHash = digest.digest();
+
+        digest.update(configFingerprint.getBytes("UTF-8"));
+        byte[] configHash = digest.digest();
+
+        // The whole content hash, and enough of the configuration hash to tell configs apart
+        return toHex(contentHash, contentHash.length) + "_" + toHex(configHash, 8);
+    }
+
+    /**
+     * @param key The key of the result.
+     * @return The result, from memory or else from disk, or null if it is not cached.
+     */
+    synchronized Entry get(String key) {
+        Entry entry = mMemory.get(key);
+        if (entry != null) {
+            mMemoryHitCount++;
+            return entry;
+        }
+
+        File file = entryFile(key);
+        if (file.exists()) {
+            try {
+                entry = readEntry(file);
+                //noinspection ResultOfMethodCallIgnored
+                file.setLastModified(System.currentTimeMillis());
+                putInMemory(key, entry);
+                mDiskHitCount++;
+                return entry;
+            } catch (IOException e) {
+                // A truncated or outdated entry is as good as none
+                deleteEntryFile(file);
+            }
+        }
+
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Caches a result in both tiers.
+     *
+     * @param key   The key of the result.
+     * @param entry The result.
+     * @throws IOException If the result cannot be written to disk; it is still cached in memory.
+     */
+    synchronized void put(String key, Entry entry) throws IOException {
+        putInMemory(key, entry);
+
+        if (entry.byteCount() > mMaxDiskBytes) {
+            return;
+        }
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+
+        File file = entryFile(key);
+        File tempFile = new File(mDirectory, key + ".tmp");
+        writeEntry(tempFile, entry);
+
+        long diskBytes = getDiskBytes();
+        if (file.exists()) {
+            diskBytes -= file.length();
+        }
+        if (!tempFile.renameTo(file)) {
+            deleteEntryFile(tempFile);
+            throw new IOException("Cannot write " + file);
+        }
+        mDiskBytes = diskBytes + file.length();
+        trimDisk(file);
+    }
+
+    /**
+     * Empties the in-memory tier, keeping the results on disk.
+     */
+    synchronized void clearMemory() {
+        mMemory.clear();
+        mMemoryBytes = 0;
+    }
+
+    synchronized int getMemoryHitCount() {
+        return mMemoryHitCount;
+    }
+
+    synchronized int getDiskHitCount() {
+        return mDiskHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    synchronized long getMemoryBytes() {
+        return mMemoryBytes;
+    }
+
+    synchronized long getDiskBytes() {
+        if (mDiskBytes < 0) {
+            mDiskBytes = 0;
+            for (File file : listEntryFiles()) {
+                mDiskBytes += file.length();
+            }
+        }
+        return mDiskBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResultCache{memoryHits=" + mMemoryHitCount + ", diskHits=" + mDiskHitCount
+                + ", misses=" + mMissCount + ", memoryBytes=" + mMemoryBytes
+                + ", diskBytes=" + mDiskBytes + "}";
+    }
+
+    private void putInMemory(String key, Entry entry) {
+        Entry previous = mMemory.remove(key);
+        if (previous != null) {
+            mMemoryBytes -= previous.byteCount();
+        }
+        if (entry.byteCount() > mMaxMemoryBytes) {
+            return;
+        }
+        mMemory.put(key, entry);
+        mMemoryBytes += entry.byteCount();
+
+        // Evict the least recently used results
+        for (Iterator<Entry> it = mMemory.values().iterator();
+             mMemoryBytes > mMaxMemoryBytes && it.hasNext(); ) {
+            mMemoryBytes -= it.next().byteCount();
+            it.remove();
+        }
+    }
+
+    // Evicts by modification time, which is as fine-grained as the file system allows
+    private void trimDisk(File newest) {
+        if (mDiskBytes <= mMaxDiskBytes) {
+            return;
+        }
+        File[] files = listEntryFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < files.length && mDiskBytes > mMaxDiskBytes; i++) {
+            if (!files[i].equals(newest)) {
+                deleteEntryFile(files[i]);
+            }
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(mDirectory, key + ENTRY_SUFFIX);
+    }
+
+    private File[] listEntryFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> entryFiles = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (file.getName().endsWith(ENTRY_SUFFIX)) {
+                entryFiles.add(file);
+            }
+        }
+        return entryFiles.toArray(new File[entryFiles.size()]);
+    }
+
+    private void deleteEntryFile(File file) {
+        long length = file.length();
+        if (file.delete() && mDiskBytes >= 0 && file.getName().endsWith(ENTRY_SUFFIX)) {
+            mDiskBytes -= length;
+        }
+    }
+
+    private static void writeEntry(File file, Entry entry) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(ENTRY_MAGIC);
+            out.writeInt(ENTRY_VERSION);
+            FaceMetadata.writeFaces(out, entry.faces);
+            out.writeInt(entry.image.length);
+            out.write(entry.image);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Entry readEntry(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != ENTRY_MAGIC || in.readInt() != ENTRY_VERSION) {
+                throw new IOException("Not a result cache entry: " + file);
+            }
+            List<DetectedFace> faces = FaceMetadata.readFaces(in, file.length());
+            int imageLength = in.readInt();
+            if (imageLength < 0 || imageLength > file.length()) {
+                throw new IOException("Corrupt image length " + imageLength + " in " + file);
+            }
+            byte[] image = new byte[imageLength];
+            in.readFully(image);
+            return new Entry(faces, image);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform, Android included, is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes, int length) {
+        StringBuilder hex = new StringBuilder(length * 2);
+        for (int i = 0; i < length; i++) {
+            hex.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16))
+                    .append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
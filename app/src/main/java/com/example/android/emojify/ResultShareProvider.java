@@ -0,0 +1,333 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Serves the emojified result to the app it is shared with, without saving it first.
+ * <p>
+ * Every time the result is opened, it is written straight into a pipe on a background thread,
+ * while the receiving app reads the other end, so nothing is written to shared storage. A result
+ * the {@link ImageSaver} already encoded with the same format and quality is streamed from those
+ * bytes; any other is encoded as it is read, so the first bytes arrive as soon as they are
+ * encoded. Only the latest shared result can be read.
+ * <p>
+ * The provider keeps the shared bitmap out of the {@link BitmapPool} until another result is
+ * shared and every stream of it is closed, as the receiving app may open it long after the
+ * result is cleared.
+ * <p>
+ * A photo too large to decode whole is shared at its full resolution instead of as the
+ * subsampled result on screen: each stream emojifies it a tile at a time with a
+ * {@link TiledEmojifier}, so the photo is only deleted once it is no longer shared.
+ */
+public class ResultShareProvider extends ContentProvider {
+
+    static final String AUTHORITY = "com.example.android.emojify.share";
+
+    private static final String[] COLUMNS = {OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+
+    // One writer per open stream, as a reader which stops reading blocks its writer
+    private static final ExecutorService sWriters = Executors.newCachedThreadPool();
+
+    private static Shared sShared;
+    private static int sNextId;
+
+    /**
+     * Shares an image, replacing the image shared before.
+     *
+     * @param image   The image, which must not be changed while it is shared.
+     * @param format  The format to encode the image to.
+     * @param quality The quality hint for the encoder, from 0 to 100.
+     * @return The content URI to hand to the receiving app, along with the read permission.
+     */
+    static synchronized Uri share(Bitmap image, ImageSaver.Format format, int quality) {
+        Shared previous = sShared;
+        if (previous != null && previous.image == image && previous.format == format
+                && previous.quality == quality) {
+            return previous.uri;
+        }
+
+        sShared = new Shared(++sNextId, image, format, quality, null);
+        if (previous != null) {
+            releaseIfDone(previous);
+        }
+        return sShared.uri;
+    }
+
+    /**
+     * Shares a photo too large to decode whole at its full resolution, as a PNG emojified a
+     * tile at a time every time it is read, replacing the image shared before.
+     *
+     * @param image     The subsampled result of the photo, kept out of the pool while shared.
+     * @param imagePath The path of the photo, which must be kept until it is no longer shared,
+     *                  see {@link #deleteWhenUnshared(String)}.
+     * @return The content URI to hand to the receiving app, along with the read permission.
+     */
+    static synchronized Uri shareFullResolution(Bitmap image, String imagePath) {
+        Shared previous = sShared;
+        if (previous != null && imagePath.equals(previous.sourcePath)) {
+            return previous.uri;
+        }
+
+        sShared = new Shared(++sNextId, image, ImageSaver.Format.PNG, 100, imagePath);
+        if (previous != null) {
+            releaseIfDone(previous);
+        }
+        return sShared.uri;
+    }
+
+    /**
+     * Hands an image back to the bitmap pool once it is no longer shared and every stream of
+     * it is closed, as well as every save of it is done.
+     *
+     * @param image The image, which the caller must no longer use.
+     * @param pool  The pool to hand the image back to.
+     */
+    static synchronized void releaseWhenUnshared(Bitmap image, BitmapPool pool) {
+        if (sShared != null && sShared.image == image) {
+            sShared.pool = pool;
+            return;
+        }
+        ImageSaver.getInstance().releaseWhenSaved(image, pool);
+    }
+
+    /**
+     * Deletes a photo once it is no longer shared at full resolution and every stream of it is
+     * closed, as well as every full-resolution save of it is done.
+     *
+     * @param imagePath The path of the photo, which the caller must no longer use.
+     */
+    static synchronized void deleteWhenUnshared(String imagePath) {
+        if (sShared != null && imagePath.equals(sShared.sourcePath)) {
+            sShared.deleteSource = true;
+            return;
+        }
+        ImageSaver.getInstance().deleteWhenSaved(imagePath);
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        Shared shared = find(uri);
+        return shared != null ? shared.format.mimeType : null;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        Shared shared = find(uri);
+        if (shared == null) {
+            return null;
+        }
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+
+        // The size is unknown until the image is encoded, so it is left out
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = uri.getLastPathSegment();
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Shared results are read-only: " + uri);
+        }
+        final Shared shared = find(uri);
+        if (shared == null || !shared.open()) {
+            throw new FileNotFoundException("No longer shared: " + uri);
+        }
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            close(shared);
+            throw new FileNotFoundException("Cannot create a pipe for " + uri + ": " + e);
+        }
+
+        final Context context = getContext();
+        sWriters.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeImage(context, shared, pipe[1]);
+                } finally {
+                    close(shared);
+                }
+            }
+        });
+        return pipe[0];
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("No external inserts");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("No external updates");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("No external deletes");
+    }
+
+    /**
+     * Writes the image into the write end of a pipe, as the other end is read: the bytes the
+     * {@link ImageSaver} already encoded it to, if any, or else encoded on the spot. The encoder
+     * writes in chunks of its own buffer, so it is not buffered again.
+     */
+    private static void writeImage(Context context, Shared shared, ParcelFileDescriptor pipe) {
+        MeteredOutputStream out = new MeteredOutputStream(
+                new ParcelFileDescriptor.AutoCloseOutputStream(pipe),
+                MetricsRegistry.getInstance());
+        try {
+            try {
+                if (shared.sourcePath != null) {
+                    TiledEmojifier.emojify(context, shared.sourcePath, out,
+                            TiledEmojifier.DEFAULT_TILE_HEIGHT);
+                } else {
+                    byte[] encoded = ImageSaver.getInstance().getEncoded(shared.image,
+                            shared.format, shared.quality);
+                    if (encoded != null) {
+                        out.write(encoded);
+                    } else if (!shared.image.compress(shared.format.compressFormat,
+                            shared.quality, out)) {
+                        Timber.w("writeImage: cannot encode %s to %s", shared.uri,
+                                shared.format);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            Timber.d("writeImage: %s, %d bytes, first byte after %d us", shared.uri,
+                    out.getByteCount(), out.getTimeToFirstByteNanos() / 1000);
+        } catch (IOException e) {
+            // The receiving app closed its end before reading everything, or the photo shared
+            // at full resolution could not be decoded
+            Timber.w(e, "writeImage: %s closed after %d bytes", shared.uri, out.getByteCount());
+        } catch (RuntimeException e) {
+            // The decoder or the encoder failed; the receiving app sees the stream end early
+            Timber.e(e, "writeImage: %s failed after %d bytes", shared.uri, out.getByteCount());
+        }
+    }
+
+    private static synchronized Shared find(Uri uri) {
+        return sShared != null && sShared.uri.equals(uri) ? sShared : null;
+    }
+
+    private static synchronized void close(Shared shared) {
+        shared.openStreams--;
+        releaseIfDone(shared);
+    }
+
+    private static void releaseIfDone(Shared shared) {
+        if (shared == sShared || shared.openStreams > 0) {
+            return;
+        }
+
+        // The next share may be of the same bitmap or photo, which then stays in use
+        Shared current = sShared;
+        if (shared.pool != null) {
+            if (current != null && current.image == shared.image) {
+                current.pool = shared.pool;
+            } else {
+                ImageSaver.getInstance().releaseWhenSaved(shared.image, shared.pool);
+            }
+            shared.pool = null;
+        }
+        if (shared.deleteSource) {
+            if (current != null && shared.sourcePath.equals(current.sourcePath)) {
+                current.deleteSource = true;
+            } else {
+                ImageSaver.getInstance().deleteWhenSaved(shared.sourcePath);
+            }
+            shared.deleteSource = false;
+        }
+    }
+
+    /**
+     * An image being shared, along with how it is encoded and the streams reading it.
+     */
+    private static final class Shared {
+
+        final Uri uri;
+        final Bitmap image;
+        final ImageSaver.Format format;
+        final int quality;
+
+        // The photo emojified at full resolution on every read, or null to encode the image
+        final String sourcePath;
+
+        // Guarded by the provider class
+        int openStreams;
+        BitmapPool pool;
+        boolean deleteSource;
+
+        Shared(int id, Bitmap image, ImageSaver.Format format, int quality, String sourcePath) {
+            this.uri = new Uri.Builder()
+                    .scheme("content")
+                    .authority(AUTHORITY)
+                    .appendPath("Emojify_" + id + format.suffix)
+                    .build();
+            this.image = image;
+            this.format = format;
+            this.quality = quality;
+            this.sourcePath = sourcePath;
+        }
+
+        boolean open() {
+            synchronized (ResultShareProvider.class) {
+                if (this != sShared) {
+                    return false;
+                }
+                openStreams++;
+                return true;
+            }
+        }
+    }
+}
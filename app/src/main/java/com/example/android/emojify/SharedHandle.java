@@ -0,0 +1,109 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+/**
+ * A resource shared between threads which is only torn down once the last of its users is done
+ * with it.
+ * <p>
+ * Users {@link #retain()} the handle before using the resource and {@link #unretain()} it
+ * afterwards. {@link #retire()} stops new users from retaining it, and tears the resource down
+ * straight away if nobody is using it, or else when the last user unretains it.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ *
+ * @param <T> The type of the resource.
+ */
+abstract class SharedHandle<T> {
+
+    private final T mResource;
+    private int mUsers;
+    private boolean mRetired;
+    private boolean mReleased;
+
+    SharedHandle(T resource) {
+        mResource = resource;
+    }
+
+    /**
+     * @return The resource, only to be used between {@link #retain()} and {@link #unretain()}.
+     */
+    T get() {
+        return mResource;
+    }
+
+    /**
+     * @return Whether the resource can be used, false once the handle is retired.
+     */
+    synchronized boolean retain() {
+        if (mRetired) {
+            return false;
+        }
+        mUsers++;
+        return true;
+    }
+
+    /**
+     * Tells that a user which retained the handle is done with the resource.
+     */
+    void unretain() {
+        synchronized (this) {
+            if (mUsers == 0) {
+                throw new IllegalStateException("unretain without retain");
+            }
+            mUsers--;
+            if (!mRetired || mUsers > 0) {
+                return;
+            }
+            mReleased = true;
+        }
+        onRelease(mResource);
+    }
+
+    /**
+     * Stops new users from retaining the handle, and tears the resource down once it is unused.
+     */
+    void retire() {
+        synchronized (this) {
+            if (mRetired) {
+                return;
+            }
+            mRetired = true;
+            if (mUsers > 0) {
+                return;
+            }
+            mReleased = true;
+        }
+        onRelease(mResource);
+    }
+
+    synchronized int getUserCount() {
+        return mUsers;
+    }
+
+    synchronized boolean isReleased() {
+        return mReleased;
+    }
+
+    /**
+     * Tears the resource down. Called exactly once, by the thread which retires the handle or
+     * unretains it last, once nobody uses the resource any more.
+     *
+     * @param resource The resource.
+     */
+    protected abstract void onRelease(T resource);
+}
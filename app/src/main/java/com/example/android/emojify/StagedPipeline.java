@@ -0,0 +1,385 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A chain of stages, each with its own bounded input queue and its own worker threads, so that
+ * a stage can work on one item while the previous stage is already working on the next one.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ *
+ * @param <I> The type of the items going into the first stage.
+ * @param <O> The type of the items coming out of the last stage.
+ */
+class StagedPipeline<I, O> {
+
+    private static final long POLL_MILLIS = 20;
+
+    /**
+     * The work done by one stage on one item.
+     */
+    interface Stage<A, B> {
+
+        /**
+         * @param input The output of the previous stage.
+         * @return The input of the next stage, never null.
+         * @throws Exception To drop the item from the rest of the pipeline.
+         */
+        B process(A input) throws Exception;
+    }
+
+    private final List<StageRunner> mStages;
+
+    private volatile AtomicBoolean mStopped;
+
+    private StagedPipeline(List<StageRunner> stages) {
+        mStages = stages;
+    }
+
+    /**
+     * @param name          The name of the first stage.
+     * @param workers       The number of threads running the first stage.
+     * @param queueCapacity The number of items which may wait for the first stage.
+     * @param stage         The first stage.
+     * @return A builder to which more stages can be added.
+     */
+    static <I, O> Builder<I, O> startWith(String name, int workers, int queueCapacity,
+                                          Stage<? super I, ? extends O> stage) {
+        return new Builder<I, I>(new ArrayList<StageRunner>())
+                .then(name, workers, queueCapacity, stage);
+    }
+
+    /**
+     * Runs every input through every stage, blocking until all of them are done.
+     *
+     * @param inputs The items going into the first stage.
+     * @return The outcome of each input, in the order of the inputs.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    Report<O> run(List<? extends I> inputs) throws InterruptedException {
+        final int count = inputs.size();
+        final Object[] outputs = new Object[count];
+        final Exception[] errors = new Exception[count];
+        final CountDownLatch done = new CountDownLatch(count);
+        final AtomicBoolean stopped = new AtomicBoolean();
+        mStopped = stopped;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < mStages.size(); i++) {
+            StageRunner runner = mStages.get(i);
+            StageRunner next = i + 1 < mStages.size() ? mStages.get(i + 1) : null;
+            runner.reset();
+            threads.addAll(runner.startWorkers(next, outputs, errors, done, stopped));
+        }
+
+        long start = System.nanoTime();
+        try {
+            // Feed the first stage, waiting while its queue is full
+            StageRunner first = mStages.get(0);
+            for (int i = 0; i < count && !stopped.get(); i++) {
+                Item item = new Item(i, inputs.get(i));
+                while (!stopped.get()
+                        && !first.mQueue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // Back pressure from the first stage
+                }
+                first.recordQueueDepth();
+            }
+            first.mUpstreamDone = true;
+
+            while (!done.await(POLL_MILLIS, TimeUnit.MILLISECONDS) && !stopped.get()) {
+                // Wait for the last stage, or for the run to be cancelled
+            }
+        } finally {
+            stopped.set(true);
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        // Anything which did not make it through was cancelled
+        for (int i = 0; i < count; i++) {
+            if (outputs[i] == null && errors[i] == null) {
+                errors[i] = new CancellationException("Cancelled before completion");
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        int[] maxQueueDepths = new int[mStages.size()];
+        for (int i = 0; i < mStages.size(); i++) {
+            names.add(mStages.get(i).mName);
+            maxQueueDepths[i] = mStages.get(i).mMaxQueueDepth.get();
+        }
+        return new Report<>(outputs, errors, elapsedNanos, names, maxQueueDepths);
+    }
+
+    /**
+     * Stops the stages, making a pending {@link #run(List)} return as soon as possible.
+     */
+    void cancel() {
+        AtomicBoolean stopped = mStopped;
+        if (stopped != null) {
+            stopped.set(true);
+        }
+    }
+
+    /**
+     * @return The number of items currently waiting for each stage.
+     */
+    int[] getQueueDepths() {
+        int[] depths = new int[mStages.size()];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = mStages.get(i).mQueue.size();
+        }
+        return depths;
+    }
+
+    /**
+     * Adds stages to a pipeline, each one consuming what the previous one produces.
+     */
+    static final class Builder<I, O> {
+
+        private final List<StageRunner> mStages;
+
+        private Builder(List<StageRunner> stages) {
+            mStages = stages;
+        }
+
+        <N> Builder<I, N> then(String name, int workers, int queueCapacity,
+                               Stage<? super O, ? extends N> stage) {
+            if (workers < 1 || queueCapacity < 1) {
+                throw new IllegalArgumentException("A stage needs at least one worker and one "
+                        + "queue slot: " + name);
+            }
+            mStages.add(new StageRunner(name, workers, queueCapacity, stage));
+            return new Builder<>(mStages);
+        }
+
+        StagedPipeline<I, O> build() {
+            return new StagedPipeline<>(new ArrayList<>(mStages));
+        }
+    }
+
+    /**
+     * The outcome of a {@link #run(List)}.
+     */
+    static final class Report<O> {
+
+        private final Object[] mOutputs;
+        private final Exception[] mErrors;
+        private final long mElapsedNanos;
+        private final List<String> mStageNames;
+        private final int[] mMaxQueueDepths;
+
+        private Report(Object[] outputs, Exception[] errors, long elapsedNanos,
+                       List<String> stageNames, int[] maxQueueDepths) {
+            mOutputs = outputs;
+            mErrors = errors;
+            mElapsedNanos = elapsedNanos;
+            mStageNames = Collections.unmodifiableList(stageNames);
+            mMaxQueueDepths = maxQueueDepths;
+        }
+
+        int size() {
+            return mOutputs.length;
+        }
+
+        /**
+         * @return The output of the last stage for an input, or null if a stage failed on it.
+         */
+        @SuppressWarnings("unchecked")
+        O getOutput(int index) {
+            return (O) mOutputs[index];
+        }
+
+        /**
+         * @return The exception thrown by a stage for an input, or null if it went through.
+         */
+        Exception getError(int index) {
+            return mErrors[index];
+        }
+
+        int getFailureCount() {
+            int failures = 0;
+            for (Exception error : mErrors) {
+                if (error != null) failures++;
+            }
+            return failures;
+        }
+
+        long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mElapsedNanos);
+        }
+
+        /**
+         * @return The number of inputs which went through every stage, per second.
+         */
+        double getThroughput() {
+            int succeeded = mOutputs.length - getFailureCount();
+            return mElapsedNanos == 0 ? 0 : succeeded * 1e9 / mElapsedNanos;
+        }
+
+        List<String> getStageNames() {
+            return mStageNames;
+        }
+
+        /**
+         * @return The largest number of items which waited for each stage at the same time.
+         */
+        int[] getMaxQueueDepths() {
+            return mMaxQueueDepths.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("Report{items=").append(mOutputs.length)
+                    .append(", failures=").append(getFailureCount())
+                    .append(", elapsedMs=").append(getElapsedMillis())
+                    .append(", perSecond=").append(String.format("%.2f", getThroughput()));
+            for (int i = 0; i < mStageNames.size(); i++) {
+                builder.append(", ").append(mStageNames.get(i)).append("MaxQueue=")
+                        .append(mMaxQueueDepths[i]);
+            }
+            return builder.append('}').toString();
+        }
+    }
+
+    private static final class Item {
+
+        final int index;
+        final Object value;
+
+        Item(int index, Object value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    private static final class StageRunner {
+
+        final String mName;
+        final int mWorkers;
+        final BlockingQueue<Item> mQueue;
+        final Stage<Object, Object> mStage;
+        final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+        volatile boolean mUpstreamDone;
+
+        @SuppressWarnings("unchecked")
+        StageRunner(String name, int workers, int queueCapacity, Stage<?, ?> stage) {
+            mName = name;
+            mWorkers = workers;
+            mQueue = new ArrayBlockingQueue<>(queueCapacity);
+            mStage = (Stage<Object, Object>) stage;
+        }
+
+        void reset() {
+            mQueue.clear();
+            mUpstreamDone = false;
+            mMaxQueueDepth.set(0);
+        }
+
+        List<Thread> startWorkers(final StageRunner next, final Object[] outputs,
+                                  final Exception[] errors, final CountDownLatch done,
+                                  final AtomicBoolean stopped) {
+            final AtomicInteger running = new AtomicInteger(mWorkers);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < mWorkers; i++) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            work(next, outputs, errors, done, stopped);
+                        } catch (InterruptedException e) {
+                            // Cancelled, or the run is over
+                        } finally {
+                            // The last worker out tells the next stage nothing more is coming
+                            if (running.decrementAndGet() == 0 && next != null) {
+                                next.mUpstreamDone = true;
+                            }
+                        }
+                    }
+                }, mName + " #" + (i + 1));
+                thread.start();
+                threads.add(thread);
+            }
+            return threads;
+        }
+
+        private void work(StageRunner next, Object[] outputs, Exception[] errors,
+                          CountDownLatch done, AtomicBoolean stopped)
+                throws InterruptedException {
+            while (!stopped.get()) {
+                Item item = mQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    if (mUpstreamDone && mQueue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+
+                Object output;
+                try {
+                    output = mStage.process(item.value);
+                    if (output == null) {
+                        throw new NullPointerException(mName + " produced no output");
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    // Drop the item from the rest of the pipeline
+                    errors[item.index] = e;
+                    done.countDown();
+                    continue;
+                }
+
+                if (next == null) {
+                    outputs[item.index] = output;
+                    done.countDown();
+                } else {
+                    Item nextItem = new Item(item.index, output);
+                    while (!next.mQueue.offer(nextItem, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        // Back pressure from the next stage
+                        if (stopped.get()) {
+                            return;
+                        }
+                    }
+                    next.recordQueueDepth();
+                }
+            }
+        }
+
+        private void recordQueueDepth() {
+            int depth = mQueue.size();
+            int max;
+            do {
+                max = mMaxQueueDepth.get();
+            } while (depth > max && !mMaxQueueDepth.compareAndSet(max, depth));
+        }
+    }
+}
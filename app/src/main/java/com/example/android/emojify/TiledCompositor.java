@@ -0,0 +1,180 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws the emoji for every face over an image one horizontal tile at a time, so images far
+ * larger than the heap can be emojified: each tile is decoded, gets only the emoji whose bounds
+ * touch it, and is written out before the next one is decoded. Peak memory scales with the
+ * width of the image times the tile height, not with the whole image.
+ * <p>
+ * Tiles span the whole width of the image so they can be streamed to an encoder in row order.
+ * How tiles are decoded, drawn on and written is up to the {@link Renderer}.
+ * <p>
+ * This class has no Android dependencies, so it can be tested on the host.
+ *
+ * @param <T> The type of a decoded tile.
+ */
+final class TiledCompositor<T> {
+
+    /**
+     * Where the emoji of a face goes, in the coordinates of the whole image.
+     */
+    static final class Placement {
+
+        // The handle of the sprite to draw, as the renderer numbers its sprites
+        final int sprite;
+        final float left;
+        final float top;
+        final int width;
+        final int height;
+
+        Placement(int sprite, float left, float top, int width, int height) {
+            this.sprite = sprite;
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * @return Whether the emoji may cover any row of the tile. Renderers round the top edge
+         * either way, so a row of slack is allowed on both sides.
+         */
+        boolean touches(int tileTop, int tileHeight) {
+            return top - 1 < tileTop + tileHeight && top + height + 1 > tileTop;
+        }
+    }
+
+    /**
+     * Decodes, draws on and writes out the tiles of one image.
+     *
+     * @param <T> The type of a decoded tile.
+     */
+    interface Renderer<T> {
+
+        /**
+         * @param face A face of the image.
+         * @return Where its emoji goes, or null if the face is too small for one.
+         */
+        Placement place(DetectedFace face);
+
+        /**
+         * @param top    The first row of the tile in the image.
+         * @param height The number of rows of the tile.
+         * @return The tile, as wide as the image.
+         * @throws IOException If the tile cannot be decoded.
+         */
+        T decodeTile(int top, int height) throws IOException;
+
+        /**
+         * Draws an emoji over a tile, clipped to the tile.
+         *
+         * @param tile      The tile.
+         * @param tileTop   The first row of the tile in the image.
+         * @param placement Where the emoji goes in the whole image.
+         */
+        void drawEmoji(T tile, int tileTop, Placement placement);
+
+        /**
+         * Writes out a tile, below the previous one.
+         *
+         * @param tile    The tile.
+         * @param tileTop The first row of the tile in the image.
+         * @throws IOException If the tile cannot be written.
+         */
+        void writeTile(T tile, int tileTop) throws IOException;
+
+        /**
+         * Lets go of a tile once it has been written, or failed to be.
+         *
+         * @param tile The tile.
+         */
+        void releaseTile(T tile);
+    }
+
+    private final Renderer<T> mRenderer;
+    private final int mTileHeight;
+
+    private int mTileCount;
+    private int mEmojiDrawCount;
+
+    /**
+     * @param renderer   The renderer of the image.
+     * @param tileHeight The number of rows per tile; the last tile may have fewer.
+     */
+    TiledCompositor(Renderer<T> renderer, int tileHeight) {
+        if (tileHeight <= 0) {
+            throw new IllegalArgumentException("Invalid tile height " + tileHeight);
+        }
+        mRenderer = renderer;
+        mTileHeight = tileHeight;
+    }
+
+    /**
+     * Decodes, draws on and writes out every tile of the image, from top to bottom.
+     *
+     * @param imageHeight The height of the image.
+     * @param faces       The faces detected in the image, in its coordinates.
+     * @throws IOException If a tile cannot be decoded or written.
+     */
+    void composite(int imageHeight, List<DetectedFace> faces) throws IOException {
+        List<Placement> placements = new ArrayList<>(faces.size());
+        for (DetectedFace face : faces) {
+            Placement placement = mRenderer.place(face);
+            if (placement != null) {
+                placements.add(placement);
+            }
+        }
+
+        for (int tileTop = 0; tileTop < imageHeight; tileTop += mTileHeight) {
+            int tileHeight = Math.min(mTileHeight, imageHeight - tileTop);
+            T tile = mRenderer.decodeTile(tileTop, tileHeight);
+            try {
+                for (Placement placement : placements) {
+                    if (placement.touches(tileTop, tileHeight)) {
+                        mRenderer.drawEmoji(tile, tileTop, placement);
+                        mEmojiDrawCount++;
+                    }
+                }
+                mRenderer.writeTile(tile, tileTop);
+            } finally {
+                mRenderer.releaseTile(tile);
+            }
+            mTileCount++;
+        }
+    }
+
+    /**
+     * @return The number of tiles written so far.
+     */
+    int getTileCount() {
+        return mTileCount;
+    }
+
+    /**
+     * @return The number of times an emoji was drawn into a tile so far. An emoji straddling
+     * tiles is drawn into each of them, and into no other.
+     */
+    int getEmojiDrawCount() {
+        return mEmojiDrawCount;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.example.android.emojify;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Emojifies photos at their full resolution, however large, without ever holding the whole
+ * photo in memory: faces are detected on a subsampled decode, then the photo is decoded, drawn
+ * on and encoded one tile at a time by a {@link TiledCompositor}. Photos stored sideways come
+ * out upright: every tile is a band of rows of the upright photo, decoded from the matching
+ * region of the stored one and turned upright as it is copied into the tile.
+ * <p>
+ * The output is a PNG, as {@code Bitmap.compress} cannot encode an image a few rows at a time.
+ * It is either saved along with the sidecar of its faces, or streamed, for instance to the app
+ * it is shared with. Photos are only emojified this way when the user asks for the full
+ * resolution; the result shown is saved and shared as it is otherwise.
+ */
+class TiledEmojifier {
+
+    // Rows per tile; a 48 MP photo takes about 8 MB per tile
+    static final int DEFAULT_TILE_HEIGHT = 256;
+
+    // Favour speed over size, as the output is far larger than what the gallery shows anyway
+    private static final int COMPRESSION_LEVEL = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Emojifies a photo tile by tile into a file, along with the sidecar of its faces.
+     *
+     * @param context    The application context.
+     * @param imagePath  The path of the photo.
+     * @param output     The PNG file to write.
+     * @param tileHeight The number of rows per tile.
+     * @return The faces found in the photo, in its upright full-resolution coordinates.
+     * @throws IOException If the photo cannot be decoded, or the output cannot be written.
+     */
+    static FaceMetadata emojify(Context context, String imagePath, File output, int tileHeight)
+            throws IOException {
+        FaceMetadata metadata = emojify(context, imagePath,
+                new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE), tileHeight);
+        ImageSaver.writeSidecar(metadata, output);
+        return metadata;
+    }
+
+    /**
+     * Emojifies a photo tile by tile into a stream.
+     *
+     * @param context    The application context.
+     * @param imagePath  The path of the photo.
+     * @param out        The stream to write the PNG to, closed once done.
+     * @param tileHeight The number of rows per tile.
+     * @return The faces found in the photo, in its upright full-resolution coordinates.
+     * @throws IOException If the photo cannot be decoded, or the output cannot be written.
+     */
+    static FaceMetadata emojify(Context context, String imagePath, OutputStream out,
+                                int tileHeight) throws IOException {
+        try {
+            return emojifyTiles(context, imagePath, out, tileHeight);
+        } finally {
+            // The encoder closes the stream too, but may never have been created
+            out.close();
+        }
+    }
+
+    private static FaceMetadata emojifyTiles(Context context, String imagePath, OutputStream out,
+                                             int tileHeight) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imagePath, bounds);
+        int photoW = bounds.outWidth;
+        int photoH = bounds.outHeight;
+        if (photoW <= 0 || photoH <= 0) {
+            throw new IOException("Cannot decode " + imagePath);
+        }
+
+        ImageOrientation orientation = BitmapUtils.readOrientation(imagePath);
+        int uprightW = orientation.uprightWidth(photoW, photoH);
+        int uprightH = orientation.uprightHeight(photoW, photoH);
+        FaceMetadata metadata = detectFaces(context, imagePath, orientation, uprightW, uprightH);
+
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(imagePath, false);
+        try {
+            PngStreamEncoder encoder = new PngStreamEncoder(out, uprightW, uprightH,
+                    COMPRESSION_LEVEL);
+            try {
+                TiledCompositor<Bitmap> compositor = new TiledCompositor<>(
+                        new BitmapTileRenderer(context, decoder, orientation, encoder),
+                        tileHeight);
+                compositor.composite(uprightH, metadata.faces);
+                Timber.d("emojify: %dx%d, %s, in %d tiles, %d emoji draws", uprightW, uprightH,
+                        orientation, compositor.getTileCount(), compositor.getEmojiDrawCount());
+            } finally {
+                encoder.close();
+            }
+        } finally {
+            decoder.recycle();
+        }
+        return metadata;
+    }
+
+    /**
+     * Detects the faces on a subsampled decode of the photo, as stored.
+     *
+     * @return The faces, in the upright coordinates of the photo at its full resolution.
+     */
+    private static FaceMetadata detectFaces(Context context, String imagePath,
+                                            ImageOrientation orientation, int uprightW,
+                                            int uprightH) throws IOException {
+        Bitmap picture = BitmapUtils.decodeSampledBitmap(imagePath,
+                Emojifier.DETECTION_MAX_DIMENSION, Emojifier.DETECTION_MAX_DIMENSION,
+                new BitmapUtils.DecodeOptions());
+        if (picture == null) {
+            throw new IOException("Cannot decode " + imagePath);
+        }
+        try {
+            FaceMetadata detected = new FaceMetadata(
+                    orientation.uprightWidth(picture.getWidth(), picture.getHeight()),
+                    orientation.uprightHeight(picture.getWidth(), picture.getHeight()),
+                    Emojifier.detectFaces(context, picture, orientation));
+            return detected.scaledTo(uprightW, uprightH);
+        } finally {
+            BitmapPool.getInstance().put(picture);
+        }
+    }
+
+    /**
+     * Decodes tiles from a region decoder into pooled bitmaps, turned upright, draws cached
+     * emoji sprites over them, and hands their pixels to the encoder.
+     */
+    private static final class BitmapTileRenderer implements TiledCompositor.Renderer<Bitmap> {
+
+        private final EmojiSpriteCache mSpriteCache;
+        private final EmojiPack mPack;
+        private final BitmapRegionDecoder mDecoder;
+        private final ImageOrientation mOrientation;
+        private final PngStreamEncoder mEncoder;
+        private final BitmapPool mPool = BitmapPool.getInstance();
+
+        // The size of the photo as stored, and its width once upright
+        private final int mStoredWidth;
+        private final int mStoredHeight;
+        private final int mWidth;
+
+        // The scaled sprite of every placement, so each is looked up once per photo
+        private final Map<TiledCompositor.Placement, Bitmap> mSprites = new IdentityHashMap<>();
+
+        // The pixels of one tile, reused for every tile
+        private int[] mPixels;
+
+        BitmapTileRenderer(Context context, BitmapRegionDecoder decoder,
+                           ImageOrientation orientation, PngStreamEncoder encoder) {
+            mSpriteCache = EmojiSpriteCache.getInstance(context);
+            mPack = EmojiPack.getCurrent(context);
+            mDecoder = decoder;
+            mOrientation = orientation;
+            mEncoder = encoder;
+            mStoredWidth = decoder.getWidth();
+            mStoredHeight = decoder.getHeight();
+            mWidth = orientation.uprightWidth(mStoredWidth, mStoredHeight);
+        }
+
+        @Override
+        public TiledCompositor.Placement place(DetectedFace face) {
+            int spriteHandle = mPack.spriteFor(face);
+            Bitmap sprite = mSpriteCache.getScaledSprite(mPack, spriteHandle, face.width);
+            if (sprite == null) {
+                return null;
+            }
+
+            // Line the emoji up with the face the same way EmojiCompositor does
+            TiledCompositor.Placement placement = new TiledCompositor.Placement(spriteHandle,
+                    EmojiPlacement.emojiLeft(face.left, face.width, sprite.getWidth()),
+                    EmojiPlacement.emojiTop(face.top, face.height, sprite.getHeight()),
+                    sprite.getWidth(), sprite.getHeight());
+            mSprites.put(placement, sprite);
+            return placement;
+        }
+
+        @Override
+        public Bitmap decodeTile(int top, int height) throws IOException {
+            // The rows of the upright photo are a strip of columns of a photo stored sideways
+            int[] stored = mOrientation.toStoredRect(0, top, mWidth, top + height, mStoredWidth,
+                    mStoredHeight);
+            Rect region = new Rect(stored[0], stored[1], stored[2], stored[3]);
+            Bitmap decoded = decodeRegion(region, top, height);
+            if (mOrientation.isNormal()) {
+                return decoded;
+            }
+
+            // Turn the region upright as it is copied into the tile
+            Matrix toUpright = new Matrix();
+            toUpright.setValues(mOrientation.toUprightMatrix(region.width(), region.height()));
+            Bitmap tile = mPool.acquire(mWidth, height, Bitmap.Config.ARGB_8888);
+            new Canvas(tile).drawBitmap(decoded, toUpright, null);
+            mPool.put(decoded);
+            return tile;
+        }
+
+        /**
+         * Decodes a region of the photo as stored into a pooled bitmap of the same size.
+         */
+        private Bitmap decodeRegion(Rect region, int top, int height) throws IOException {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+            // Decode straight into a pooled tile where the platform allows it
+            Bitmap tile = mPool.acquire(region.width(), region.height(),
+                    Bitmap.Config.ARGB_8888);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                options.inBitmap = tile;
+            }
+
+            Bitmap decoded;
+            try {
+                decoded = mDecoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                // The pooled tile did not suit the decoder after all
+                Timber.w(e, "decodeTile: cannot decode into a pooled bitmap");
+                options.inBitmap = null;
+                decoded = mDecoder.decodeRegion(region, options);
+            }
+            if (decoded == null) {
+                mPool.put(tile);
+                throw new IOException("Cannot decode rows " + top + " to " + (top + height));
+            }
+
+            if (decoded != tile) {
+                new Canvas(tile).drawBitmap(decoded, 0, 0, null);
+                decoded.recycle();
+            }
+            return tile;
+        }
+
+        @Override
+        public void drawEmoji(Bitmap tile, int tileTop, TiledCompositor.Placement placement) {
+            Canvas canvas = new Canvas(tile);
+            canvas.translate(0, -tileTop);
+            canvas.drawBitmap(mSprites.get(placement), placement.left, placement.top, null);
+        }
+
+        @Override
+        public void writeTile(Bitmap tile, int tileTop) throws IOException {
+            int pixelCount = tile.getWidth() * tile.getHeight();
+            if (mPixels == null || mPixels.length < pixelCount) {
+                mPixels = new int[pixelCount];
+            }
+            tile.getPixels(mPixels, 0, tile.getWidth(), 0, 0, tile.getWidth(), tile.getHeight());
+            mEncoder.writeRows(mPixels, 0, tile.getWidth(), tile.getHeight());
+        }
+
+        @Override
+        public void releaseTile(Bitmap tile) {
+            mPool.put(tile);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.android.emojify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-face state kept across the frames of a stream, keyed by the tracking ID of each face.
+ * <p>
+ * The probabilities and bounds of each face are smoothed with an exponential moving average,
+ * and its sprite, picked by the rules of an emoji pack, only changes once the smoothed
+ * expression has clearly left the cell of the previous one (see {@link EmojiRuleTable}), so
+ * the emoji and the size of the sprite drawn over a face stay steady from frame to frame. A face
+ * missing from a few frames keeps its state, in case the detector lost it only briefly.
+ * <p>
+ * This class is not thread safe: it is meant to be updated by the thread processing the frames,
+ * which hands the immutable {@link TrackedFace} snapshots over to the UI.
+ */
+final class TrackedFaceStore {
+
+    /**
+     * A tracked face as of the latest frame it was seen in.
+     */
+    static final class TrackedFace {
+
+        final DetectedFace face;
+        // The handle of the sprite in the rules of the store
+        final int sprite;
+        final int framesTracked;
+
+        TrackedFace(DetectedFace face, int sprite, int framesTracked) {
+            this.face = face;
+            this.sprite = sprite;
+            this.framesTracked = framesTracked;
+        }
+
+        @Override
+        public String toString() {
+            return "TrackedFace{id=" + face.id + ", sprite=" + sprite
+                    + ", framesTracked=" + framesTracked + "}";
+        }
+    }
+
+    // Weight of the newest frame in the smoothed probabilities and bounds
+    static final float DEFAULT_PROBABILITY_SMOOTHING = .4f;
+    static final float DEFAULT_BOUNDS_SMOOTHING = .5f;
+
+    // Frames a face may be missing from before it is forgotten
+    static final int DEFAULT_MAX_MISSED_FRAMES = 5;
+
+    // What is remembered about a face between frames
+    private static final class State {
+
+        float left;
+        float top;
+        float width;
+        float height;
+        float smilingProbability;
+        float leftEyeOpenProbability;
+        float rightEyeOpenProbability;
+        int cell = -1;
+        int sprite = -1;
+        int framesTracked;
+        long lastSeenFrame;
+    }
+
+    private final EmojiRuleTable mRules;
+    private final float mProbabilitySmoothing;
+    private final float mBoundsSmoothing;
+    private final int mMaxMissedFrames;
+
+    private final Map<Integer, State> mStates = new HashMap<>();
+
+    private long mFrameNumber;
+    private int mTrackedFaceCount;
+    private int mEvictedFaceCount;
+    private int mEmojiChangeCount;
+
+    /**
+     * @param rules The rules of the emoji pack picking the sprite of every face.
+     */
+    TrackedFaceStore(EmojiRuleTable rules) {
+        this(rules, DEFAULT_PROBABILITY_SMOOTHING, DEFAULT_BOUNDS_SMOOTHING,
+                DEFAULT_MAX_MISSED_FRAMES);
+    }
+
+    /**
+     * @param rules                The rules of the emoji pack picking the sprite of every face.
+     * @param probabilitySmoothing The weight of the newest frame in the smoothed probabilities,
+     *                             from 0 exclusive to 1, where 1 disables smoothing.
+     * @param boundsSmoothing      The weight of the newest frame in the smoothed bounds.
+     * @param maxMissedFrames      The number of frames a face may be missing from before it is
+     *                             forgotten.
+     */
+    TrackedFaceStore(EmojiRuleTable rules, float probabilitySmoothing, float boundsSmoothing,
+                     int maxMissedFrames) {
+        if (probabilitySmoothing <= 0 || probabilitySmoothing > 1
+                || boundsSmoothing <= 0 || boundsSmoothing > 1) {
+            throw new IllegalArgumentException("Smoothing weights must be in (0, 1]");
+        }
+        mRules = rules;
+        mProbabilitySmoothing = probabilitySmoothing;
+        mBoundsSmoothing = boundsSmoothing;
+        mMaxMissedFrames = maxMissedFrames;
+    }
+
+    /**
+     * Updates the state of every face with the faces found in a new frame, and forgets the
+     * faces which have been missing for too long.
+     *
+     * @param faces The faces found in the frame, with their tracking IDs.
+     * @return The smoothed faces found in the frame, in the order of the given faces.
+     */
+    List<TrackedFace> update(List<DetectedFace> faces) {
+        mFrameNumber++;
+
+        List<TrackedFace> trackedFaces = new ArrayList<>(faces.size());
+        for (DetectedFace face : faces) {
+            State state = mStates.get(face.id);
+            if (state == null) {
+                state = start(face);
+                mStates.put(face.id, state);
+                mTrackedFaceCount++;
+            } else {
+                smooth(state, face);
+            }
+
+            state.cell = mRules.getCell(state.smilingProbability,
+                    state.leftEyeOpenProbability, state.rightEyeOpenProbability, state.cell);
+            int sprite = mRules.getSprite(state.cell);
+            if (state.sprite >= 0 && state.sprite != sprite) {
+                mEmojiChangeCount++;
+            }
+            state.sprite = sprite;
+            state.framesTracked++;
+            state.lastSeenFrame = mFrameNumber;
+
+            DetectedFace smoothedFace = new DetectedFace(face.id, state.left, state.top,
+                    state.width, state.height, state.smilingProbability,
+                    state.leftEyeOpenProbability, state.rightEyeOpenProbability);
+            trackedFaces.add(new TrackedFace(smoothedFace, sprite, state.framesTracked));
+        }
+
+        // Forget the faces which have been gone for too long
+        for (Iterator<State> it = mStates.values().iterator(); it.hasNext(); ) {
+            if (mFrameNumber - it.next().lastSeenFrame > mMaxMissedFrames) {
+                it.remove();
+                mEvictedFaceCount++;
+            }
+        }
+
+        return Collections.unmodifiableList(trackedFaces);
+    }
+
+    /**
+     * Forgets every face, for when the stream restarts.
+     */
+    void clear() {
+        mStates.clear();
+    }
+
+    /**
+     * @return The number of faces currently tracked.
+     */
+    int size() {
+        return mStates.size();
+    }
+
+    /**
+     * @return The number of faces forgotten after going missing.
+     */
+    int getEvictedFaceCount() {
+        return mEvictedFaceCount;
+    }
+
+    /**
+     * @return The number of distinct faces tracked so far.
+     */
+    int getTrackedFaceCount() {
+        return mTrackedFaceCount;
+    }
+
+    /**
+     * @return The number of times the emoji of a tracked face changed from one frame to the next.
+     */
+    int getEmojiChangeCount() {
+        return mEmojiChangeCount;
+    }
+
+    @Override
+    public String toString() {
+        return "TrackedFaceStore{faces=" + size() + ", tracked=" + mTrackedFaceCount
+                + ", evicted=" + mEvictedFaceCount + ", emojiChanges=" + mEmojiChangeCount + "}";
+    }
+
+    private static State start(DetectedFace face) {
+        State state = new State();
+        state.left = face.left;
+        state.top = face.top;
+        state.width = face.width;
+        state.height = face.height;
+        state.smilingProbability = face.smilingProbability;
+        state.leftEyeOpenProbability = face.leftEyeOpenProbability;
+        state.rightEyeOpenProbability = face.rightEyeOpenProbability;
+        return state;
+    }
+
+    private void smooth(State state, DetectedFace face) {
+        state.left = average(state.left, face.left, mBoundsSmoothing);
+        state.top = average(state.top, face.top, mBoundsSmoothing);
+        state.width = average(state.width, face.width, mBoundsSmoothing);
+        state.height = average(state.height, face.height, mBoundsSmoothing);
+        state.smilingProbability = averageProbability(state.smilingProbability,
+                face.smilingProbability, mProbabilitySmoothing);
+        state.leftEyeOpenProbability = averageProbability(state.leftEyeOpenProbability,
+                face.leftEyeOpenProbability, mProbabilitySmoothing);
+        state.rightEyeOpenProbability = averageProbability(state.rightEyeOpenProbability,
+                face.rightEyeOpenProbability, mProbabilitySmoothing);
+    }
+
+    private static float average(float smoothed, float newest, float weight) {
+        return smoothed + weight * (newest - smoothed);
+    }
+
+    // A probability the detector could not compute leaves the smoothed one as it was
+    private static float averageProbability(float smoothed, float newest, float weight) {
+        if (newest == DetectedFace.UNCOMPUTED_PROBABILITY) {
+            return smoothed;
+        }
+        if (smoothed == DetectedFace.UNCOMPUTED_PROBABILITY) {
+            return newest;
+        }
+        return average(smoothed, newest, weight);
+    }
+}
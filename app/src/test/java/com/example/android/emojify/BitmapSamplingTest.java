@@ -0,0 +1,90 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link BitmapSampling}, which will execute on the development machine
+ * (host).
+ */
+public class BitmapSamplingTest {
+
+    private static final long NO_LIMIT = Long.MAX_VALUE;
+    private static final int ARGB_8888 = 4;
+    private static final int RGB_565 = 2;
+
+    @Test
+    public void sampleSize_isLargestPowerOfTwoAboveTarget() throws Exception {
+        assertEquals(4, BitmapSampling.calculateInSampleSize(4000, 3000, 1000, 750,
+                NO_LIMIT, ARGB_8888));
+        assertEquals(2, BitmapSampling.calculateInSampleSize(4000, 3000, 1500, 1000,
+                NO_LIMIT, ARGB_8888));
+        assertEquals(1, BitmapSampling.calculateInSampleSize(800, 600, 1080, 1920,
+                NO_LIMIT, ARGB_8888));
+    }
+
+    @Test
+    public void sampleSize_honoursByteBudget() throws Exception {
+        // A 12 MP capture shown on a portrait screen needs no subsampling to fill it...
+        assertEquals(1, BitmapSampling.calculateInSampleSize(4000, 3000, 1080, 1920,
+                NO_LIMIT, ARGB_8888));
+
+        // ...but 48 MB does not fit a 16 MB ceiling
+        long maxBytes = 16 * 1024 * 1024;
+        int sampleSize = BitmapSampling.calculateInSampleSize(4000, 3000, 1080, 1920,
+                maxBytes, ARGB_8888);
+        assertEquals(2, sampleSize);
+        assertTrue(BitmapSampling.decodedByteCount(4000, 3000, sampleSize, ARGB_8888) <= maxBytes);
+
+        // Half the bytes per pixel fit twice as many pixels
+        assertEquals(2, BitmapSampling.calculateInSampleSize(4000, 3000, 1080, 1920,
+                11 * 1000 * 1000, RGB_565));
+        assertEquals(4, BitmapSampling.calculateInSampleSize(4000, 3000, 1080, 1920,
+                11 * 1000 * 1000, ARGB_8888));
+    }
+
+    @Test
+    public void sampleSize_stopsAtSinglePixel() throws Exception {
+        assertEquals(4096, BitmapSampling.calculateInSampleSize(4000, 3000, 0, 0, 1, ARGB_8888));
+    }
+
+    @Test
+    public void centerCropRegion_matchesTargetAspectRatio() throws Exception {
+        assertArrayEquals(new int[]{500, 0, 3500, 3000},
+                BitmapSampling.centerCropRegion(4000, 3000, 1000, 1000));
+        assertArrayEquals(new int[]{0, 375, 4000, 2625},
+                BitmapSampling.centerCropRegion(4000, 3000, 1600, 900));
+        assertArrayEquals(new int[]{0, 0, 4000, 3000},
+                BitmapSampling.centerCropRegion(4000, 3000, 0, 0));
+    }
+
+    @Test
+    public void thumbnail_onlyPreviewsPhotosOfItsAspectRatio() throws Exception {
+        assertTrue(BitmapSampling.isThumbnailOf(160, 120, 4000, 3000));
+        assertTrue(BitmapSampling.isThumbnailOf(120, 160, 3000, 4000));
+
+        // Rounded to whole pixels
+        assertTrue(BitmapSampling.isThumbnailOf(320, 181, 3264, 1836));
+
+        // A 4:3 thumbnail of a 16:9 photo, letterboxed or stretched, or of a rotated photo
+        assertFalse(BitmapSampling.isThumbnailOf(160, 120, 1920, 1080));
+        assertFalse(BitmapSampling.isThumbnailOf(160, 120, 3000, 4000));
+        assertFalse(BitmapSampling.isThumbnailOf(0, 0, 4000, 3000));
+    }
+
+    @Test
+    public void targetDensity_isCappedToTheMaximumSize() throws Exception {
+        // A 240 px mdpi sprite on a 2x screen scales to 480 px, within the cap
+        assertEquals(320, BitmapSampling.cappedTargetDensity(160, 320, 240, 240, 512));
+
+        // On a 4x screen it would be 960 px, so it is only scaled to 384 px
+        int density = BitmapSampling.cappedTargetDensity(160, 640, 240, 240, 384);
+        assertEquals(256, density);
+        assertTrue(240 * density / 160 <= 384);
+
+        // Never scaled up past the screen density, nor for an unknown density
+        assertEquals(120, BitmapSampling.cappedTargetDensity(160, 120, 240, 240, 384));
+        assertEquals(640, BitmapSampling.cappedTargetDensity(0, 640, 240, 240, 384));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for downscaled detection, which will execute on the development machine
+ * (host). Synthetic faces found on the detection copy must get their emoji placed where they
+ * are in the full-resolution picture.
+ */
+public class DetectionScaleTest {
+
+    private static final float DELTA = 0.001f;
+
+    @Test
+    public void detectionScale_capsLongestSide() throws Exception {
+        assertEquals(0.16f, Emojifier.detectionScale(4000, 3000, 640), DELTA);
+        assertEquals(0.16f, Emojifier.detectionScale(3000, 4000, 640), DELTA);
+        assertEquals(1f, Emojifier.detectionScale(600, 400, 640), DELTA);
+        assertEquals(1f, Emojifier.detectionScale(4000, 3000, 0), DELTA);
+    }
+
+    @Test
+    public void face_isMappedBackToFullResolution() throws Exception {
+        // A 4000x3000 picture is detected at 640x480
+        float scaleX = 4000f / 640;
+        float scaleY = 3000f / 480;
+        DetectedFace detected = new DetectedFace(7, 100, 50, 80, 80, .9f, .8f, .7f);
+
+        DetectedFace face = detected.scale(scaleX, scaleY);
+
+        assertEquals(625f, face.left, DELTA);
+        assertEquals(312.5f, face.top, DELTA);
+        assertEquals(500f, face.width, DELTA);
+        assertEquals(500f, face.height, DELTA);
+        assertEquals(7, face.id);
+        assertEquals(.9f, face.smilingProbability, DELTA);
+        assertEquals(.8f, face.leftEyeOpenProbability, DELTA);
+        assertEquals(.7f, face.rightEyeOpenProbability, DELTA);
+    }
+
+    @Test
+    public void emoji_isPlacedAtFullResolutionCoordinates() throws Exception {
+        DetectedFace face = new DetectedFace(0, 100, 50, 80, 80, .9f, .8f, .7f)
+                .scale(4000f / 640, 3000f / 480);
+
+        // A 240x240 emoji sprite scaled to the full-resolution face
+        int emojiWidth = EmojiPlacement.scaledEmojiWidth(face.width);
+        int emojiHeight = EmojiPlacement.scaledEmojiHeight(240, 240, emojiWidth);
+        assertEquals(450, emojiWidth);
+        assertEquals(405, emojiHeight);
+
+        assertEquals(650f, EmojiPlacement.emojiLeft(face.left, face.width, emojiWidth), DELTA);
+        assertEquals(427.5f, EmojiPlacement.emojiTop(face.top, face.height, emojiHeight), DELTA);
+    }
+}
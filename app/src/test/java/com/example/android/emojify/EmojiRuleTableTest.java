@@ -0,0 +1,184 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link EmojiRuleTable}, which will execute on the development machine
+ * (host).
+ */
+public class EmojiRuleTableTest {
+
+    // The drawable each emoji was decoded from before emoji packs
+    private static final Map<Emoji, String> DRAWABLES = new EnumMap<>(Emoji.class);
+
+    static {
+        DRAWABLES.put(Emoji.SMILE, "smile");
+        DRAWABLES.put(Emoji.FROWN, "frown");
+        DRAWABLES.put(Emoji.LEFT_WINK, "leftwink");
+        DRAWABLES.put(Emoji.RIGHT_WINK, "rightwink");
+        DRAWABLES.put(Emoji.LEFT_WINK_FROWN, "leftwinkfrown");
+        DRAWABLES.put(Emoji.RIGHT_WINK_FROWN, "rightwinkfrown");
+        DRAWABLES.put(Emoji.CLOSED_EYE_SMILE, "closed_smile");
+        DRAWABLES.put(Emoji.CLOSED_EYE_FROWN, "closed_frown");
+    }
+
+    private static final float SMILING = .9f;
+    private static final float NOT_SMILING = .1f;
+    private static final float OPEN = .9f;
+    private static final float CLOSED = .1f;
+
+    @Test
+    public void defaultPack_eightWayMapping() throws Exception {
+        EmojiRuleTable rules = defaultRules();
+
+        assertEquals("smile", rules.getSpriteName(rules.lookup(SMILING, OPEN, OPEN)));
+        assertEquals("leftwink", rules.getSpriteName(rules.lookup(SMILING, CLOSED, OPEN)));
+        assertEquals("rightwink", rules.getSpriteName(rules.lookup(SMILING, OPEN, CLOSED)));
+        assertEquals("closed_smile", rules.getSpriteName(rules.lookup(SMILING, CLOSED, CLOSED)));
+        assertEquals("frown", rules.getSpriteName(rules.lookup(NOT_SMILING, OPEN, OPEN)));
+        assertEquals("leftwinkfrown",
+                rules.getSpriteName(rules.lookup(NOT_SMILING, CLOSED, OPEN)));
+        assertEquals("rightwinkfrown",
+                rules.getSpriteName(rules.lookup(NOT_SMILING, OPEN, CLOSED)));
+        assertEquals("closed_frown",
+                rules.getSpriteName(rules.lookup(NOT_SMILING, CLOSED, CLOSED)));
+    }
+
+    @Test
+    public void defaultPack_cutsAreInclusive() throws Exception {
+        EmojiRuleTable rules = defaultRules();
+
+        // Odds exactly at a cut go to the bucket above it
+        assertEquals("smile", rules.getSpriteName(rules.lookup(.15f, .5f, .5f)));
+        assertEquals("closed_frown", rules.getSpriteName(rules.lookup(
+                Math.nextAfter(.15f, 0), Math.nextAfter(.5f, 0), Math.nextAfter(.5f, 0))));
+
+        // The detector reports -1 when it cannot tell
+        assertEquals("closed_frown", rules.getSpriteName(rules.lookup(
+                DetectedFace.UNCOMPUTED_PROBABILITY, DetectedFace.UNCOMPUTED_PROBABILITY,
+                DetectedFace.UNCOMPUTED_PROBABILITY)));
+    }
+
+    @Test
+    public void hysteresis_keepsThePreviousCellWithinTheMargin() throws Exception {
+        EmojiRuleTable rules = defaultRules();
+        int frown = rules.getCell(NOT_SMILING, OPEN, OPEN, -1);
+        int smile = rules.getCell(SMILING, OPEN, OPEN, -1);
+        int leftWink = rules.getCell(SMILING, CLOSED, OPEN, -1);
+
+        // Just above the smiling cut, but not clearly: a frowning face keeps frowning
+        assertEquals(smile, rules.getCell(.18f, OPEN, OPEN, -1));
+        assertEquals(frown, rules.getCell(.18f, OPEN, OPEN, frown));
+
+        // Just below it: a smiling face keeps smiling
+        assertEquals(smile, rules.getCell(.12f, OPEN, OPEN, smile));
+
+        // Eyes within the margin stay as they were
+        assertEquals(leftWink, rules.getCell(SMILING, .55f, .45f, leftWink));
+        assertEquals(smile, rules.getCell(SMILING, .55f, .45f, smile));
+    }
+
+    @Test
+    public void hysteresis_followsClearChanges() throws Exception {
+        EmojiRuleTable rules = defaultRules();
+        int smile = rules.getCell(SMILING, OPEN, OPEN, -1);
+        int closedSmile = rules.getCell(SMILING, CLOSED, CLOSED, -1);
+
+        assertEquals("frown", rules.getSpriteName(rules.getSprite(
+                rules.getCell(0f, OPEN, OPEN, smile))));
+        assertEquals("rightwinkfrown", rules.getSpriteName(rules.getSprite(
+                rules.getCell(0f, OPEN, CLOSED, closedSmile))));
+    }
+
+    @Test
+    public void hysteresis_movesOneBucketAtATimeWithinTheMargin() throws Exception {
+        EmojiRuleTable rules = parse("smiling 0.3 0.6\n"
+                + "eye_open 0.5\n"
+                + "rule 0 * * neutral\n"
+                + "rule 1 * * smile\n"
+                + "rule 2 * * grin\n");
+        int neutral = rules.getCell(0f, OPEN, OPEN, -1);
+
+        // Clearly past the first cut but within the margin of the second
+        assertEquals("smile", rules.getSpriteName(rules.getSprite(
+                rules.getCell(.62f, OPEN, OPEN, neutral))));
+        assertEquals("grin", rules.getSpriteName(rules.getSprite(
+                rules.getCell(.7f, OPEN, OPEN, neutral))));
+    }
+
+    @Test
+    public void defaultPack_hasOneSpritePerEmoji() throws Exception {
+        EmojiRuleTable rules = defaultRules();
+
+        assertEquals(Emoji.values().length, rules.getSpriteCount());
+        for (Emoji emoji : Emoji.values()) {
+            assertEquals(DRAWABLES.get(emoji), rules.getSpriteName(rules.lookup(emoji)));
+        }
+    }
+
+    @Test
+    public void firstMatchingRuleWins() throws Exception {
+        EmojiRuleTable rules = parse("smiling 0.3 0.7\n"
+                + "eye_open 0.5\n"
+                + "rule 2 * * grin\n"
+                + "rule * 0 0 sleepy\n"
+                + "rule * * * neutral\n");
+
+        assertEquals("grin", rules.getSpriteName(rules.lookup(.8f, .1f, .1f)));
+        assertEquals("sleepy", rules.getSpriteName(rules.lookup(.5f, .1f, .1f)));
+        assertEquals("neutral", rules.getSpriteName(rules.lookup(.5f, .1f, .9f)));
+        assertEquals("neutral", rules.getSpriteName(rules.lookup(0f, 1f, 1f)));
+        assertEquals("neutral", rules.getSpriteName(rules.lookup(.5f, .9f, .1f)));
+        assertEquals(3, rules.getSpriteCount());
+    }
+
+    @Test
+    public void uncoveredBuckets_areRejected() throws Exception {
+        try {
+            parse("smiling 0.15\neye_open 0.5\nrule 1 * * smile\n");
+            fail("Expected the frowning buckets to be missing");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("smiling 0"));
+        }
+    }
+
+    @Test
+    public void malformedRules_areRejected() throws Exception {
+        String[] malformed = {
+                "eye_open 0.5\nrule * * * smile\n",
+                "smiling 0.5 0.2\neye_open 0.5\nrule * * * smile\n",
+                "smiling 0.15\neye_open 0.5\nrule 2 * * smile\n",
+                "smiling 0.15\neye_open 0.5\nrule * * smile\n",
+                "smiling 0.15\neye_open 0.5\nrule * * * smile\nwink 1\n",
+        };
+        for (String rules : malformed) {
+            try {
+                parse(rules);
+                fail("Expected to reject " + rules);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    private static EmojiRuleTable defaultRules() throws IOException {
+        InputStream in = EmojiRuleTableTest.class.getResourceAsStream(
+                "/emoji_packs/default/rules.txt");
+        assertNotNull("The default pack is not on the test classpath", in);
+        EmojiRuleTable rules = EmojiRuleTable.parse(new InputStreamReader(in, "UTF-8"));
+        assertEquals(1, rules.getVersion());
+        return rules;
+    }
+
+    private static EmojiRuleTable parse(String rules) throws IOException {
+        return EmojiRuleTable.parse(new StringReader(rules));
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link EventLog}, which will execute on the development machine (host).
+ */
+public class EventLogTest {
+
+    private static final int CAPACITY = 8;
+
+    @Test
+    public void drain_handsOverTheEventsInOrder() throws Exception {
+        EventLog log = new EventLog(CAPACITY);
+        log.record(EventLog.FACE_CLASSIFIED, 0, 3, .9f, .8f, .7f);
+        log.record(EventLog.FACE_CLASSIFIED, 1, 5, .1f, .2f, .3f);
+
+        RecordingSink sink = new RecordingSink();
+        assertEquals(2, log.drainTo(sink));
+        assertEquals(2, sink.events.size());
+        assertArrayEquals(new float[]{EventLog.FACE_CLASSIFIED, 0, 3, .9f, .8f, .7f},
+                sink.events.get(0), 0f);
+        assertArrayEquals(new float[]{EventLog.FACE_CLASSIFIED, 1, 5, .1f, .2f, .3f},
+                sink.events.get(1), 0f);
+        assertTrue(sink.times.get(0) <= sink.times.get(1));
+        assertEquals(0, sink.dropped);
+
+        // Drained events are not handed over again
+        assertEquals(0, log.drainTo(sink));
+        log.record(EventLog.FACE_CLASSIFIED, 2, 1, 0f, 0f, 0f);
+        assertEquals(1, log.drainTo(sink));
+        assertEquals(2, (int) sink.events.get(2)[1]);
+    }
+
+    @Test
+    public void overflow_dropsTheOldestEvents() throws Exception {
+        EventLog log = new EventLog(CAPACITY);
+        for (int i = 0; i < CAPACITY * 3 + 2; i++) {
+            log.record(EventLog.FACE_CLASSIFIED, i, 0, 0f, 0f, 0f);
+        }
+
+        RecordingSink sink = new RecordingSink();
+        assertEquals(CAPACITY, log.drainTo(sink));
+        assertEquals(CAPACITY * 2 + 2, sink.dropped);
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(CAPACITY * 2 + 2 + i, (int) sink.events.get(i)[1]);
+        }
+    }
+
+    @Test
+    public void capacity_isRoundedUpToAPowerOfTwo() throws Exception {
+        assertEquals(1, new EventLog(1).getCapacity());
+        assertEquals(8, new EventLog(5).getCapacity());
+        assertEquals(8, new EventLog(8).getCapacity());
+    }
+
+    @Test
+    public void disabledLog_recordsNothing() throws Exception {
+        EventLog log = new EventLog(0);
+        assertFalse(log.isEnabled());
+        log.record(EventLog.FACE_CLASSIFIED, 0, 0, 0f, 0f, 0f);
+
+        RecordingSink sink = new RecordingSink();
+        assertEquals(0, log.drainTo(sink));
+        assertTrue(sink.events.isEmpty());
+        assertFalse(EventLog.getInstance().isEnabled());
+    }
+
+    @Test
+    public void concurrentWriters_noEventIsLostOrTorn() throws Exception {
+        final int threads = 4;
+        final int perThread = 10000;
+        final EventLog log = new EventLog(threads * perThread);
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int writer = t;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        // Every field of an event is derived from the same value
+                        log.record(EventLog.FACE_CLASSIFIED, writer, i, i, i, i);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+
+        RecordingSink sink = new RecordingSink();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        log.drainTo(sink);
+
+        assertEquals(threads * perThread, sink.events.size());
+        assertEquals(0, sink.dropped);
+        int[] next = new int[threads];
+        for (float[] event : sink.events) {
+            int writer = (int) event[1];
+            assertEquals(next[writer], (int) event[2]);
+            assertEquals(event[2], event[3], 0f);
+            assertEquals(event[2], event[5], 0f);
+            next[writer]++;
+        }
+    }
+
+    @Test
+    public void writersWrappingOntoTheSameSlot_neverTearAnEvent() throws Exception {
+        final int threads = 8;
+        final int perThread = 20000;
+        // A tiny buffer, so writers keep landing on the slots of one another
+        final EventLog log = new EventLog(2);
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int writer = t;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        log.record(EventLog.FACE_CLASSIFIED, writer, i, writer, i, i);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+
+        RecordingSink sink = new RecordingSink();
+        boolean writing = true;
+        while (writing) {
+            writing = false;
+            for (Thread writer : writers) {
+                writing |= writer.isAlive();
+            }
+            log.drainTo(sink);
+        }
+
+        assertEquals(threads * perThread, sink.events.size() + sink.dropped);
+        for (float[] event : sink.events) {
+            assertEquals(event[1], event[3], 0f);
+            assertEquals(event[2], event[4], 0f);
+            assertEquals(event[2], event[5], 0f);
+        }
+    }
+
+    @Test
+    public void drainingThread_drainsInTheBackground() throws Exception {
+        EventLog log = new EventLog(CAPACITY);
+        RecordingSink sink = new RecordingSink();
+        log.startDraining(sink, 1);
+        log.record(EventLog.FACE_CLASSIFIED, 0, 0, 0f, 0f, 0f);
+        log.record(EventLog.FACE_CLASSIFIED, 1, 0, 0f, 0f, 0f);
+        log.stopDraining();
+
+        synchronized (sink) {
+            assertEquals(2, sink.events.size());
+        }
+    }
+
+    @Test
+    public void describe_formatsTheFields() throws Exception {
+        assertEquals("whichSprite: face 2, smilingProb = 0.500000, leftEyeOpenProb = 0.250000, "
+                        + "rightEyeOpenProb = 1.000000, sprite = 4",
+                EventLog.describe(EventLog.FACE_CLASSIFIED, 2, 4, .5f, .25f, 1f));
+    }
+
+    private static final class RecordingSink implements EventLog.Sink {
+        final List<float[]> events = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+        long dropped;
+
+        @Override
+        public synchronized void onEvent(long timeNanos, int type, int a, int b, float x,
+                                         float y, float z) {
+            times.add(timeNanos);
+            events.add(new float[]{type, a, b, x, y, z});
+        }
+
+        @Override
+        public synchronized void onDropped(long count) {
+            dropped += count;
+        }
+    }
+}
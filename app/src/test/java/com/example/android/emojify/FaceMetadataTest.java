@@ -0,0 +1,173 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link FaceMetadata}, which will execute on the development machine
+ * (host).
+ */
+public class FaceMetadataTest {
+
+    // Mobile Vision landmark types
+    private static final int LEFT_EYE = 4;
+    private static final int RIGHT_EYE = 10;
+
+    private static FaceMetadata metadata() {
+        DetectedFace withLandmarks = new DetectedFace(3, 100, 120, 200, 240, .9f, .8f, .1f,
+                Arrays.asList(new DetectedFace.Landmark(LEFT_EYE, 150, 180),
+                        new DetectedFace.Landmark(RIGHT_EYE, 250, 182)));
+        DetectedFace withoutLandmarks = new DetectedFace(7, 600, 50, 80, 96, .2f,
+                DetectedFace.UNCOMPUTED_PROBABILITY, .7f);
+        return new FaceMetadata(1000, 750, Arrays.asList(withLandmarks, withoutLandmarks));
+    }
+
+    private static byte[] write(FaceMetadata metadata) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        metadata.write(out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static FaceMetadata read(byte[] bytes) throws IOException {
+        return FaceMetadata.read(new DataInputStream(new ByteArrayInputStream(bytes)),
+                bytes.length);
+    }
+
+    private static void assertSameFace(DetectedFace expected, DetectedFace actual) {
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.left, actual.left, 0);
+        assertEquals(expected.top, actual.top, 0);
+        assertEquals(expected.width, actual.width, 0);
+        assertEquals(expected.height, actual.height, 0);
+        assertEquals(expected.smilingProbability, actual.smilingProbability, 0);
+        assertEquals(expected.leftEyeOpenProbability, actual.leftEyeOpenProbability, 0);
+        assertEquals(expected.rightEyeOpenProbability, actual.rightEyeOpenProbability, 0);
+        assertEquals(expected.landmarks.size(), actual.landmarks.size());
+        for (int i = 0; i < expected.landmarks.size(); i++) {
+            assertEquals(expected.landmarks.get(i).type, actual.landmarks.get(i).type);
+            assertEquals(expected.landmarks.get(i).x, actual.landmarks.get(i).x, 0);
+            assertEquals(expected.landmarks.get(i).y, actual.landmarks.get(i).y, 0);
+        }
+    }
+
+    @Test
+    public void roundTrip_keepsBoundsLandmarksAndProbabilities() throws Exception {
+        FaceMetadata metadata = metadata();
+
+        FaceMetadata read = read(write(metadata));
+
+        assertEquals(1000, read.imageWidth);
+        assertEquals(750, read.imageHeight);
+        assertEquals(2, read.faces.size());
+        assertSameFace(metadata.faces.get(0), read.faces.get(0));
+        assertSameFace(metadata.faces.get(1), read.faces.get(1));
+    }
+
+    @Test
+    public void write_isCompact() throws Exception {
+        FaceMetadata metadata = metadata();
+
+        byte[] bytes = write(metadata);
+
+        // The header, then two faces, one of them with two landmarks
+        assertEquals(4 + 2 + 4 + 4 + 4 + 2 * FaceMetadata.FACE_BYTES
+                + 2 * FaceMetadata.LANDMARK_BYTES, bytes.length);
+        assertEquals(bytes.length - 14, FaceMetadata.byteCount(metadata.faces));
+    }
+
+    @Test
+    public void read_rejectsNewerVersion() throws Exception {
+        byte[] bytes = write(metadata());
+        bytes[5] = (byte) (FaceMetadata.VERSION + 1);
+
+        try {
+            read(bytes);
+            fail("Read metadata of an unknown version");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void read_rejectsOtherFiles() throws Exception {
+        byte[] bytes = write(metadata());
+        bytes[0] = 'J';
+
+        try {
+            read(bytes);
+            fail("Read metadata without the magic");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void read_rejectsCorruptFaceCount() throws Exception {
+        byte[] bytes = write(new FaceMetadata(10, 10, Collections.<DetectedFace>emptyList()));
+        bytes[bytes.length - 4] = 0x7F;
+
+        try {
+            read(bytes);
+            fail("Read more faces than the metadata can hold");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void scaledTo_mapsFacesAndLandmarks() {
+        FaceMetadata scaled = metadata().scaledTo(500, 375);
+
+        assertEquals(500, scaled.imageWidth);
+        assertEquals(375, scaled.imageHeight);
+        DetectedFace face = scaled.faces.get(0);
+        assertEquals(50, face.left, 1e-4);
+        assertEquals(60, face.top, 1e-4);
+        assertEquals(100, face.width, 1e-4);
+        assertEquals(120, face.height, 1e-4);
+        assertEquals(.9f, face.smilingProbability, 0);
+        assertEquals(75, face.landmarks.get(0).x, 1e-4);
+        assertEquals(90, face.landmarks.get(0).y, 1e-4);
+    }
+
+    @Test
+    public void scaledTo_sameSize_returnsItself() {
+        FaceMetadata metadata = metadata();
+
+        assertSame(metadata, metadata.scaledTo(1000, 750));
+    }
+
+    @Test
+    public void sidecarFor_replacesExtension() {
+        File image = new File("/pictures/Emojify/JPEG_20170301_101010.jpg");
+
+        File sidecar = FaceMetadata.sidecarFor(image);
+
+        assertEquals(new File("/pictures/Emojify/JPEG_20170301_101010.faces"), sidecar);
+    }
+
+    @Test
+    public void writeTo_readFrom_roundTripsThroughFile() throws Exception {
+        File file = File.createTempFile("metadata", FaceMetadata.SIDECAR_SUFFIX);
+        try {
+            metadata().writeTo(file);
+
+            FaceMetadata read = FaceMetadata.readFrom(file);
+
+            assertEquals(2, read.faces.size());
+            assertSameFace(metadata().faces.get(0), read.faces.get(0));
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link ImageOrientation}, which will execute on the development machine
+ * (host).
+ */
+public class ImageOrientationTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    private static final int[] EXIF_ROTATIONS = {ImageOrientation.EXIF_NORMAL,
+            ImageOrientation.EXIF_ROTATE_90, ImageOrientation.EXIF_ROTATE_180,
+            ImageOrientation.EXIF_ROTATE_270};
+
+    @Test
+    public void exifOrientation_mapsToRotations() throws Exception {
+        assertEquals(0, ImageOrientation.fromExif(ImageOrientation.EXIF_NORMAL).degrees);
+        assertEquals(90, ImageOrientation.fromExif(ImageOrientation.EXIF_ROTATE_90).degrees);
+        assertEquals(180, ImageOrientation.fromExif(ImageOrientation.EXIF_ROTATE_180).degrees);
+        assertEquals(270, ImageOrientation.fromExif(ImageOrientation.EXIF_ROTATE_270).degrees);
+        assertEquals(3, ImageOrientation.fromExif(ImageOrientation.EXIF_ROTATE_270)
+                .getFrameRotation());
+
+        // No tag, and the mirrored orientations
+        assertSame(ImageOrientation.NORMAL, ImageOrientation.fromExif(0));
+        assertSame(ImageOrientation.NORMAL, ImageOrientation.fromExif(2));
+        assertSame(ImageOrientation.NORMAL, ImageOrientation.fromExif(5));
+    }
+
+    @Test
+    public void quarterTurns_swapTheSides() throws Exception {
+        ImageOrientation rotate90 = ImageOrientation.fromExif(ImageOrientation.EXIF_ROTATE_90);
+        assertEquals(HEIGHT, rotate90.uprightWidth(WIDTH, HEIGHT));
+        assertEquals(WIDTH, rotate90.uprightHeight(WIDTH, HEIGHT));
+
+        ImageOrientation rotate180 = ImageOrientation.fromExif(ImageOrientation.EXIF_ROTATE_180);
+        assertEquals(WIDTH, rotate180.uprightWidth(WIDTH, HEIGHT));
+        assertEquals(HEIGHT, rotate180.uprightHeight(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void matrix_turnsTheStoredPixelsUpright() throws Exception {
+        // The top left pixel of a photo taken with the camera turned clockwise ends up at the
+        // top right once upright
+        float[] toUpright = ImageOrientation.fromExif(ImageOrientation.EXIF_ROTATE_90)
+                .toUprightMatrix(WIDTH, HEIGHT);
+        int[] pixel = uprightPixel(toUpright, 0, 0);
+        assertArrayEquals(new int[]{HEIGHT - 1, 0}, pixel);
+
+        // Every stored pixel lands on its own pixel of the upright image
+        for (int exif : EXIF_ROTATIONS) {
+            ImageOrientation orientation = ImageOrientation.fromExif(exif);
+            int uprightW = orientation.uprightWidth(WIDTH, HEIGHT);
+            int uprightH = orientation.uprightHeight(WIDTH, HEIGHT);
+            float[] matrix = orientation.toUprightMatrix(WIDTH, HEIGHT);
+            boolean[] covered = new boolean[WIDTH * HEIGHT];
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    int[] upright = uprightPixel(matrix, x, y);
+                    assertTrue(orientation.toString(), upright[0] >= 0 && upright[0] < uprightW
+                            && upright[1] >= 0 && upright[1] < uprightH);
+                    assertFalse(covered[upright[1] * uprightW + upright[0]]);
+                    covered[upright[1] * uprightW + upright[0]] = true;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void storedRect_holdsThePixelsOfTheUprightRect() throws Exception {
+        for (int exif : EXIF_ROTATIONS) {
+            ImageOrientation orientation = ImageOrientation.fromExif(exif);
+            float[] matrix = orientation.toUprightMatrix(WIDTH, HEIGHT);
+            int[] upright = {3, 5, 11, 9};
+            int[] stored = orientation.toStoredRect(upright[0], upright[1], upright[2],
+                    upright[3], WIDTH, HEIGHT);
+
+            assertEquals((upright[2] - upright[0]) * (upright[3] - upright[1]),
+                    (stored[2] - stored[0]) * (stored[3] - stored[1]));
+            for (int y = stored[1]; y < stored[3]; y++) {
+                for (int x = stored[0]; x < stored[2]; x++) {
+                    int[] pixel = uprightPixel(matrix, x, y);
+                    assertTrue(orientation.toString(), pixel[0] >= upright[0]
+                            && pixel[0] < upright[2] && pixel[1] >= upright[1]
+                            && pixel[1] < upright[3]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void uprightBands_turnedOnTheirOwn_landWhereTheWholePhotoWould() throws Exception {
+        // As TiledEmojifier does: decode the stored region of every band of upright rows, and
+        // turn that region upright into a tile of its own
+        int bandHeight = 7;
+        for (int exif : EXIF_ROTATIONS) {
+            ImageOrientation orientation = ImageOrientation.fromExif(exif);
+            int uprightW = orientation.uprightWidth(WIDTH, HEIGHT);
+            int uprightH = orientation.uprightHeight(WIDTH, HEIGHT);
+            float[] whole = orientation.toUprightMatrix(WIDTH, HEIGHT);
+            for (int top = 0; top < uprightH; top += bandHeight) {
+                int bottom = Math.min(top + bandHeight, uprightH);
+                int[] stored = orientation.toStoredRect(0, top, uprightW, bottom, WIDTH, HEIGHT);
+                int regionW = stored[2] - stored[0];
+                int regionH = stored[3] - stored[1];
+                assertEquals(uprightW, orientation.uprightWidth(regionW, regionH));
+                assertEquals(bottom - top, orientation.uprightHeight(regionW, regionH));
+
+                float[] band = orientation.toUprightMatrix(regionW, regionH);
+                for (int y = stored[1]; y < stored[3]; y++) {
+                    for (int x = stored[0]; x < stored[2]; x++) {
+                        int[] inBand = uprightPixel(band, x - stored[0], y - stored[1]);
+                        int[] inPhoto = uprightPixel(whole, x, y);
+                        assertEquals(orientation.toString(), inPhoto[0], inBand[0]);
+                        assertEquals(orientation.toString(), inPhoto[1], inBand[1] + top);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The upright pixel a stored pixel is drawn to: the one holding the image of its
+     * center.
+     */
+    private static int[] uprightPixel(float[] matrix, int x, int y) {
+        float cx = x + .5f;
+        float cy = y + .5f;
+        float u = matrix[0] * cx + matrix[1] * cy + matrix[2];
+        float v = matrix[3] * cx + matrix[4] * cy + matrix[5];
+        return new int[]{(int) Math.floor(u), (int) Math.floor(v)};
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.android.emojify;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link IncrementalFaceDetector}, which will execute on the development
+ * machine (host).
+ */
+public class IncrementalFaceDetectorTest {
+
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 800;
+
+    private MetricsRegistry mMetrics;
+
+    @Before
+    public void setUp() throws Exception {
+        mMetrics = new MetricsRegistry(true);
+        MetricsRegistry.setInstance(mMetrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MetricsRegistry.setInstance(new MetricsRegistry(false));
+    }
+
+    @Test
+    public void burst_onlyScansAroundThePreviousFaces() throws Exception {
+        FakeRegionDetector fake = new FakeRegionDetector();
+        IncrementalFaceDetector<Frame> detector = new IncrementalFaceDetector<>(fake, 3, .5f);
+
+        for (int i = 0; i < 7; i++) {
+            // Two faces drifting a few pixels per shot
+            Frame frame = new Frame(WIDTH, HEIGHT, face(100 + i * 3, 100, 80),
+                    face(600, 400 - i * 2, 100));
+            List<DetectedFace> faces = detector.detect(frame);
+
+            assertEquals(2, faces.size());
+            assertEquals(frame.faces.get(0).left, faces.get(0).left, 0f);
+            assertEquals(frame.faces.get(1).top, faces.get(1).top, 0f);
+        }
+
+        // Full scans of shots 0, 3 and 6, the others only around both faces
+        assertEquals(3, fake.fullScans);
+        assertEquals(4, detector.getRegionScanCount());
+        assertEquals(8, fake.regionScans);
+        assertEquals(8, detector.getRegionCount());
+        assertEquals(4f / 7, detector.getRegionScanRatio(), 1e-6f);
+        assertEquals(3L, mMetrics.counter(MetricsRegistry.DETECT_FULL_SCANS).get());
+        assertEquals(4L, mMetrics.counter(MetricsRegistry.DETECT_REGION_SCANS).get());
+        assertEquals(57L, mMetrics.gauge(MetricsRegistry.DETECT_REGION_SCAN_PERCENT).get());
+    }
+
+    @Test
+    public void regionFaces_keepTheIdsOfTheirSeeds() throws Exception {
+        FakeRegionDetector fake = new FakeRegionDetector();
+        IncrementalFaceDetector<Frame> detector = new IncrementalFaceDetector<>(fake, 10, .5f);
+
+        detector.detect(new Frame(WIDTH, HEIGHT, face(7, 100, 100, 80), face(9, 150, 120, 80)));
+
+        // The detector numbers the faces of each region from scratch, in another order
+        List<DetectedFace> faces = detector.detect(new Frame(WIDTH, HEIGHT,
+                face(0, 152, 121, 80), face(1, 101, 102, 80)));
+
+        assertEquals(1, detector.getRegionScanCount());
+        assertEquals(9, faces.get(0).id);
+        assertEquals(7, faces.get(1).id);
+
+        // Both faces overlap, so they were found in a single merged region
+        assertEquals(1, fake.regionScans);
+    }
+
+    @Test
+    public void newFace_fallsBackToAFullScan() throws Exception {
+        FakeRegionDetector fake = new FakeRegionDetector();
+        IncrementalFaceDetector<Frame> detector = new IncrementalFaceDetector<>(fake, 10, .5f);
+
+        detector.detect(new Frame(WIDTH, HEIGHT, face(100, 100, 80)));
+        List<DetectedFace> faces = detector.detect(new Frame(WIDTH, HEIGHT,
+                face(100, 100, 80), face(140, 110, 60)));
+
+        assertEquals(2, faces.size());
+        assertEquals(2, fake.fullScans);
+        assertEquals(1, fake.regionScans);
+        assertEquals(0, detector.getRegionScanCount());
+    }
+
+    @Test
+    public void lostFace_fallsBackToAFullScan() throws Exception {
+        FakeRegionDetector fake = new FakeRegionDetector();
+        IncrementalFaceDetector<Frame> detector = new IncrementalFaceDetector<>(fake, 10, .5f);
+
+        detector.detect(new Frame(WIDTH, HEIGHT, face(100, 100, 80), face(600, 400, 80)));
+        List<DetectedFace> faces = detector.detect(new Frame(WIDTH, HEIGHT,
+                face(600, 400, 80)));
+
+        assertEquals(1, faces.size());
+        assertEquals(2, fake.fullScans);
+    }
+
+    @Test
+    public void fullScan_whenNothingToFollow() throws Exception {
+        FakeRegionDetector fake = new FakeRegionDetector();
+        IncrementalFaceDetector<Frame> detector = new IncrementalFaceDetector<>(fake, 10, .5f);
+
+        // No faces to seed regions with
+        detector.detect(new Frame(WIDTH, HEIGHT));
+        detector.detect(new Frame(WIDTH, HEIGHT, face(100, 100, 80)));
+
+        // Another size of image
+        detector.detect(new Frame(HEIGHT, WIDTH, face(100, 100, 500)));
+
+        // A face covering most of the image once padded
+        detector.detect(new Frame(HEIGHT, WIDTH, face(100, 100, 500)));
+
+        // A new sequence
+        detector.reset();
+        detector.detect(new Frame(HEIGHT, WIDTH, face(100, 100, 500)));
+
+        assertEquals(5, fake.fullScans);
+        assertEquals(0, fake.regionScans);
+    }
+
+    @Test
+    public void intervalOfOne_alwaysScansWhole() throws Exception {
+        FakeRegionDetector fake = new FakeRegionDetector();
+        IncrementalFaceDetector<Frame> detector = new IncrementalFaceDetector<>(fake, 1, .5f);
+
+        for (int i = 0; i < 3; i++) {
+            detector.detect(new Frame(WIDTH, HEIGHT, face(100, 100, 80)));
+        }
+
+        assertEquals(3, fake.fullScans);
+        assertEquals(0, fake.regionScans);
+    }
+
+    private static DetectedFace face(float left, float top, float size) {
+        return face(0, left, top, size);
+    }
+
+    private static DetectedFace face(int id, float left, float top, float size) {
+        return new DetectedFace(id, left, top, size, size, .5f, .5f, .5f);
+    }
+
+    /**
+     * An image, along with the faces a detector would find in it.
+     */
+    private static final class Frame {
+
+        final int width;
+        final int height;
+        final List<DetectedFace> faces;
+
+        Frame(int width, int height, DetectedFace... faces) {
+            this.width = width;
+            this.height = height;
+            this.faces = Arrays.asList(faces);
+        }
+    }
+
+    /**
+     * Finds the faces of a frame whose center is in the region scanned.
+     */
+    private static final class FakeRegionDetector
+            implements IncrementalFaceDetector.RegionDetector<Frame> {
+
+        int fullScans;
+        int regionScans;
+
+        @Override
+        public List<DetectedFace> detect(Frame frame) {
+            fullScans++;
+            return frame.faces;
+        }
+
+        @Override
+        public int getWidth(Frame frame) {
+            return frame.width;
+        }
+
+        @Override
+        public int getHeight(Frame frame) {
+            return frame.height;
+        }
+
+        @Override
+        public List<DetectedFace> detectRegion(Frame frame,
+                                               IncrementalFaceDetector.Region region) {
+            regionScans++;
+            assertTrue(region.toString(), region.left >= 0 && region.top >= 0
+                    && region.right <= frame.width && region.bottom <= frame.height);
+
+            List<DetectedFace> found = new ArrayList<>();
+            for (DetectedFace face : frame.faces) {
+                float centerX = face.left + face.width / 2;
+                float centerY = face.top + face.height / 2;
+                if (centerX >= region.left && centerX < region.right
+                        && centerY >= region.top && centerY < region.bottom) {
+                    found.add(face);
+                }
+            }
+            return Collections.unmodifiableList(found);
+        }
+    }
+}
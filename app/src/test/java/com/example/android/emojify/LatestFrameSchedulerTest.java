@@ -0,0 +1,226 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the live preview frame scheduling, which will execute on the development
+ * machine (host). A synthetic frame source stands in for the camera, and a stub stands in for
+ * the detector.
+ */
+public class LatestFrameSchedulerTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    /**
+     * Produces numbered frames at a fixed interval, like a camera delivering preview frames.
+     */
+    private static final class SyntheticFrameSource {
+
+        private final LatestFrameScheduler<PreviewFrame, ?> mScheduler;
+        private final long mIntervalMillis;
+
+        SyntheticFrameSource(LatestFrameScheduler<PreviewFrame, ?> scheduler,
+                             long intervalMillis) {
+            mScheduler = scheduler;
+            mIntervalMillis = intervalMillis;
+        }
+
+        void emit(int frameCount) throws InterruptedException {
+            for (int i = 0; i < frameCount; i++) {
+                mScheduler.submit(new PreviewFrame(i, new byte[WIDTH * HEIGHT * 3 / 2], WIDTH,
+                        HEIGHT, 0, i * mIntervalMillis));
+                if (mIntervalMillis > 0) {
+                    Thread.sleep(mIntervalMillis);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records every frame handed back by the scheduler.
+     */
+    private static class RecordingListener
+            implements LatestFrameScheduler.Listener<PreviewFrame, Integer> {
+
+        final List<Integer> processed = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> failed = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public void onFrameProcessed(PreviewFrame frame, Integer result) {
+            processed.add(frame.id);
+        }
+
+        @Override
+        public void onFrameDropped(PreviewFrame frame) {
+            dropped.add(frame.id);
+        }
+
+        @Override
+        public void onFrameFailed(PreviewFrame frame, Exception e) {
+            failed.add(frame.id);
+        }
+
+        Set<Integer> returned() {
+            Set<Integer> ids = new HashSet<>(processed);
+            ids.addAll(dropped);
+            ids.addAll(failed);
+            return ids;
+        }
+    }
+
+    // Processing which takes a fixed time per frame
+    private static LatestFrameScheduler.Processor<PreviewFrame, Integer> sleeping(
+            final long millis) {
+        return new LatestFrameScheduler.Processor<PreviewFrame, Integer>() {
+            @Override
+            public Integer process(PreviewFrame frame) throws Exception {
+                Thread.sleep(millis);
+                return frame.id;
+            }
+        };
+    }
+
+    @Test
+    public void slowProcessing_dropsFramesInsteadOfQueueing() throws Exception {
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch lastProcessed = new CountDownLatch(1);
+
+        // The first frame is only processed once every other frame has arrived
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onFrameProcessed(PreviewFrame frame, Integer result) {
+                super.onFrameProcessed(frame, result);
+                if (frame.id == 9) {
+                    lastProcessed.countDown();
+                }
+            }
+        };
+        LatestFrameScheduler<PreviewFrame, Integer> scheduler = new LatestFrameScheduler<>(
+                "test", new LatestFrameScheduler.Processor<PreviewFrame, Integer>() {
+                    @Override
+                    public Integer process(PreviewFrame frame) throws Exception {
+                        firstStarted.countDown();
+                        release.await();
+                        return frame.id;
+                    }
+                }, listener);
+        scheduler.start();
+
+        SyntheticFrameSource source = new SyntheticFrameSource(scheduler, 0);
+        source.emit(1);
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        source.emit(10);
+        release.countDown();
+        assertTrue(lastProcessed.await(5, TimeUnit.SECONDS));
+        scheduler.stop();
+
+        // Of the burst which arrived during the first frame, only the latest frame was processed
+        assertEquals(Arrays.asList(0, 9), listener.processed);
+        assertEquals(9, listener.dropped.size());
+        assertEquals(11, scheduler.getSubmittedCount());
+        assertEquals(2, scheduler.getProcessedCount());
+        assertEquals(9, scheduler.getDroppedCount());
+        assertEquals(2, scheduler.getFrameTimes().getCount());
+    }
+
+    @Test
+    public void everyFrame_isHandedBackExactlyOnce() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        LatestFrameScheduler<PreviewFrame, Integer> scheduler = new LatestFrameScheduler<>(
+                "test", sleeping(5), listener);
+        scheduler.start();
+
+        new SyntheticFrameSource(scheduler, 1).emit(100);
+        scheduler.stop();
+
+        int returned = listener.processed.size() + listener.dropped.size()
+                + listener.failed.size();
+        assertEquals(100, returned);
+        assertEquals(100, listener.returned().size());
+        assertEquals(100, scheduler.getSubmittedCount());
+        assertTrue(scheduler.getDroppedCount() > 0);
+        assertEquals(scheduler.getProcessedCount(), scheduler.getFrameTimes().getCount());
+
+        // The frames which were processed were always the latest ones
+        for (int i = 1; i < listener.processed.size(); i++) {
+            assertTrue(listener.processed.get(i) > listener.processed.get(i - 1));
+        }
+    }
+
+    @Test
+    public void failedFrame_doesNotStopTheStream() throws Exception {
+        final CountDownLatch secondProcessed = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onFrameProcessed(PreviewFrame frame, Integer result) {
+                super.onFrameProcessed(frame, result);
+                secondProcessed.countDown();
+            }
+        };
+        final CountDownLatch firstFailed = new CountDownLatch(1);
+        LatestFrameScheduler<PreviewFrame, Integer> scheduler = new LatestFrameScheduler<>(
+                "test", new LatestFrameScheduler.Processor<PreviewFrame, Integer>() {
+                    @Override
+                    public Integer process(PreviewFrame frame) throws Exception {
+                        if (frame.id == 0) {
+                            firstFailed.countDown();
+                            throw new IllegalStateException("detector not operational");
+                        }
+                        return frame.id;
+                    }
+                }, listener);
+        scheduler.start();
+
+        SyntheticFrameSource source = new SyntheticFrameSource(scheduler, 0);
+        source.emit(1);
+        assertTrue(firstFailed.await(5, TimeUnit.SECONDS));
+        scheduler.submit(new PreviewFrame(1, new byte[0], WIDTH, HEIGHT, 0, 1));
+        assertTrue(secondProcessed.await(5, TimeUnit.SECONDS));
+        scheduler.stop();
+
+        assertEquals(Collections.singletonList(0), listener.failed);
+        assertEquals(Collections.singletonList(1), listener.processed);
+    }
+
+    @Test
+    public void framesSubmittedWhileStopped_areDropped() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        LatestFrameScheduler<PreviewFrame, Integer> scheduler = new LatestFrameScheduler<>(
+                "test", sleeping(0), listener);
+
+        new SyntheticFrameSource(scheduler, 0).emit(3);
+
+        assertEquals(Arrays.asList(0, 1, 2), listener.dropped);
+        assertTrue(listener.processed.isEmpty());
+    }
+
+    @Test
+    public void frameTimes_areBucketed() {
+        FrameTimeHistogram histogram = new FrameTimeHistogram();
+        for (int i = 0; i < 9; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(120));
+
+        assertEquals(10, histogram.getCount());
+        assertEquals(16, histogram.getPercentileMillis(50));
+        assertEquals(16, histogram.getPercentileMillis(90));
+        assertEquals(200, histogram.getPercentileMillis(100));
+        assertEquals(120, histogram.getMaxMillis());
+        assertEquals(21, histogram.getAverageMillis());
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link MeteredOutputStream}, which will execute on the development
+ * machine (host).
+ */
+public class MeteredOutputStreamTest {
+
+    private static final long MILLIS = 1000 * 1000;
+
+    @Test
+    public void close_recordsBytesAndTimes() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry(true);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        MeteredOutputStream out = new MeteredOutputStream(sink, metrics);
+
+        assertEquals(-1, out.getTimeToFirstByteNanos());
+        out.write(new byte[100], 0, 0);
+        assertEquals(-1, out.getTimeToFirstByteNanos());
+
+        out.write(1);
+        out.write(new byte[100], 10, 50);
+        out.close();
+        out.close();
+
+        assertEquals(51, out.getByteCount());
+        assertEquals(51, sink.size());
+        assertTrue(out.getTimeToFirstByteNanos() >= 0);
+        assertEquals(51L, metrics.counter(MetricsRegistry.SHARE_BYTES_WRITTEN).get());
+        assertEquals(1, metrics.getStageHistogram(MetricsRegistry.Stage.SHARE_FIRST_BYTE)
+                .getCount());
+        assertEquals(1, metrics.getStageHistogram(MetricsRegistry.Stage.SHARE).getCount());
+    }
+
+    @Test
+    public void streamedImage_reachesTheReaderWhileBeingEncoded() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry(true);
+
+        // Noise, so the image hardly compresses
+        int width = 200;
+        int height = 100;
+        int[] argb = new int[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = 0xff000000 | random.nextInt();
+        }
+
+        final PipedInputStream in = new PipedInputStream(4096);
+        final MeteredOutputStream out = new MeteredOutputStream(new PipedOutputStream(in),
+                metrics);
+        final long[] firstRead = new long[1];
+        final long[] bytesRead = new long[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] buffer = new byte[1024];
+                    for (int n; (n = in.read(buffer)) != -1; ) {
+                        if (bytesRead[0] == 0) {
+                            firstRead[0] = System.nanoTime();
+                        }
+                        bytesRead[0] += n;
+
+                        // A slow reader, such as an app uploading the image
+                        Thread.sleep(1);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    bytesRead[0] = -1;
+                }
+            }
+        });
+        reader.start();
+
+        PngStreamEncoder encoder = new PngStreamEncoder(out, width, height, 6);
+        encoder.writeRows(argb, 0, width, height);
+        encoder.close();
+        long encoded = System.nanoTime();
+        reader.join();
+
+        assertEquals(out.getByteCount(), bytesRead[0]);
+        assertEquals(out.getByteCount(),
+                metrics.counter(MetricsRegistry.SHARE_BYTES_WRITTEN).get());
+
+        // The pipe only holds a few kilobytes, so the reader got the first of them well before
+        // the writer was done
+        assertTrue(out.getByteCount() > 4 * 4096);
+        assertTrue(firstRead[0] < encoded - MILLIS);
+    }
+
+    @Test
+    public void failedWrite_isStillRecorded() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry(true);
+        MeteredOutputStream out = new MeteredOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Reader went away");
+            }
+        }, metrics);
+
+        try {
+            out.write(1);
+            fail("Expected the write to fail");
+        } catch (IOException expected) {
+        }
+        out.close();
+
+        assertEquals(0, out.getByteCount());
+        assertEquals(-1, out.getTimeToFirstByteNanos());
+        assertEquals(1, metrics.getStageHistogram(MetricsRegistry.Stage.SHARE).getCount());
+        assertEquals(0, metrics.getStageHistogram(MetricsRegistry.Stage.SHARE_FIRST_BYTE)
+                .getCount());
+    }
+}
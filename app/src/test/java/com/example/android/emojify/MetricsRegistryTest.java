@@ -0,0 +1,164 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link MetricsRegistry} and {@link LatencyHistogram}, which will execute
+ * on the development machine (host).
+ */
+public class MetricsRegistryTest {
+
+    private static final long MICROS = 1000;
+
+    @Test
+    public void disabledRegistry_recordsNothing() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry(false);
+
+        assertEquals(0, metrics.startTimer());
+        metrics.recordStage(MetricsRegistry.Stage.DECODE, 0);
+        metrics.counter(MetricsRegistry.BITMAP_BYTES_ALLOCATED).add(100);
+        metrics.gauge(MetricsRegistry.BITMAP_BYTES_IN_USE).set(100);
+        metrics.beginRun();
+        metrics.sampleHeap();
+
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(0L, (long) snapshot.get("decode_count"));
+        assertFalse(snapshot.containsKey(MetricsRegistry.BITMAP_BYTES_ALLOCATED));
+        assertFalse(snapshot.containsKey(MetricsRegistry.RUNS));
+        assertEquals(0, metrics.counter(MetricsRegistry.BITMAP_BYTES_ALLOCATED).get());
+    }
+
+    @Test
+    public void disabledRegistry_sharesItsInstruments() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry(false);
+
+        assertSame(metrics.counter("a"), metrics.counter("b"));
+        assertSame(metrics.gauge("a"), metrics.gauge("b"));
+    }
+
+    @Test
+    public void stages_areRecordedInTheirOwnHistogram() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry(true);
+
+        long start = metrics.startTimer();
+        assertTrue(start != 0);
+        metrics.recordStage(MetricsRegistry.Stage.DETECT, start);
+        metrics.recordStage(MetricsRegistry.Stage.DETECT, start);
+
+        assertEquals(2, metrics.getStageHistogram(MetricsRegistry.Stage.DETECT).getCount());
+        assertEquals(0, metrics.getStageHistogram(MetricsRegistry.Stage.DECODE).getCount());
+        assertEquals(2L, (long) metrics.snapshot().get("detect_count"));
+    }
+
+    @Test
+    public void counters_areLockFreeAndExact() throws Exception {
+        final MetricsRegistry metrics = new MetricsRegistry(true);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        metrics.counter(MetricsRegistry.BITMAP_BYTES_ALLOCATED).add(2);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80000, metrics.counter(MetricsRegistry.BITMAP_BYTES_ALLOCATED).get());
+    }
+
+    @Test
+    public void gauge_tracksThePeak() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry(true);
+        MetricsRegistry.Gauge gauge = metrics.gauge(MetricsRegistry.RUN_PEAK_HEAP_BYTES);
+
+        gauge.set(10);
+        gauge.setMax(30);
+        gauge.setMax(20);
+
+        assertEquals(30, gauge.get());
+    }
+
+    @Test
+    public void runs_trackTheirPeakHeap() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry(true);
+
+        metrics.beginRun();
+        metrics.sampleHeap();
+        metrics.beginRun();
+
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(2L, (long) snapshot.get(MetricsRegistry.RUNS));
+        assertTrue(snapshot.get(MetricsRegistry.RUN_PEAK_HEAP_BYTES) > 0);
+    }
+
+    @Test
+    public void export_isPrometheusText() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry(true);
+        LatencyHistogram encode = metrics.getStageHistogram(MetricsRegistry.Stage.ENCODE);
+        encode.record(40 * MICROS);
+        encode.record(300 * MICROS);
+        metrics.counter(MetricsRegistry.BITMAP_BYTES_ALLOCATED).add(4096);
+
+        String export = metrics.export();
+
+        assertTrue(export.contains("# TYPE emojify_stage_latency_microseconds histogram\n"));
+        assertTrue(export.contains(
+                "emojify_stage_latency_microseconds_bucket{stage=\"encode\",le=\"50\"} 1\n"));
+        assertTrue(export.contains(
+                "emojify_stage_latency_microseconds_bucket{stage=\"encode\",le=\"500\"} 2\n"));
+        assertTrue(export.contains(
+                "emojify_stage_latency_microseconds_bucket{stage=\"encode\",le=\"+Inf\"} 2\n"));
+        assertTrue(export.contains(
+                "emojify_stage_latency_microseconds_sum{stage=\"encode\"} 340\n"));
+        assertTrue(export.contains(
+                "emojify_stage_latency_microseconds_count{stage=\"encode\"} 2\n"));
+        assertTrue(export.contains("# TYPE emojify_bitmap_bytes_allocated counter\n"
+                + "emojify_bitmap_bytes_allocated 4096\n"));
+    }
+
+    @Test
+    public void reset_forgetsEverything() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry(true);
+        metrics.recordStage(MetricsRegistry.Stage.SCALE, metrics.startTimer());
+        metrics.counter(MetricsRegistry.RUNS).increment();
+
+        metrics.reset();
+
+        assertEquals(0, metrics.getStageHistogram(MetricsRegistry.Stage.SCALE).getCount());
+        assertFalse(metrics.snapshot().containsKey(MetricsRegistry.RUNS));
+    }
+
+    @Test
+    public void histogram_percentilesAreBucketUpperBounds() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(100, 1000, 10000);
+        for (int i = 0; i < 9; i++) {
+            histogram.record(50 * MICROS);
+        }
+        histogram.record(5000 * MICROS);
+
+        assertEquals(100, histogram.getPercentileMicros(50));
+        assertEquals(100, histogram.getPercentileMicros(90));
+        assertEquals(10000, histogram.getPercentileMicros(100));
+        assertEquals(5000, histogram.getMaxMicros());
+        assertEquals(545, histogram.getAverageMicros());
+    }
+
+    @Test
+    public void histogram_rejectsUnorderedBuckets() throws Exception {
+        try {
+            new LatencyHistogram(100, 100);
+            fail("Accepted buckets with the same bound");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
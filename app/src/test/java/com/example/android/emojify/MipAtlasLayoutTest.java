@@ -0,0 +1,129 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link MipAtlasLayout}, which will execute on the development machine
+ * (host).
+ */
+public class MipAtlasLayoutTest {
+
+    // The sizes of the drawables of the default emoji pack
+    private static final int[] WIDTHS = {240, 240, 144, 240, 240, 240, 240, 144};
+    private static final int[] HEIGHTS = {240, 240, 144, 240, 240, 240, 240, 144};
+
+    @Test
+    public void levels_halveDownToOnePixel() throws Exception {
+        MipAtlasLayout layout = new MipAtlasLayout(new int[]{240, 5}, new int[]{120, 1});
+
+        assertEquals(8, layout.getLevelCount(0));
+        int[] expectedWidths = {240, 120, 60, 30, 15, 7, 3, 1};
+        int[] expectedHeights = {120, 60, 30, 15, 7, 3, 1, 1};
+        for (int level = 0; level < expectedWidths.length; level++) {
+            assertEquals(expectedWidths[level], layout.getWidth(0, level));
+            assertEquals(expectedHeights[level], layout.getHeight(0, level));
+        }
+
+        assertEquals(3, layout.getLevelCount(1));
+        assertEquals(1, layout.getWidth(1, 2));
+        assertEquals(1, layout.getHeight(1, 2));
+    }
+
+    @Test
+    public void levels_neitherOverlapNorTouch() throws Exception {
+        MipAtlasLayout layout = new MipAtlasLayout(WIDTHS, HEIGHTS);
+
+        int rectCount = 0;
+        for (int sprite = 0; sprite < layout.getSpriteCount(); sprite++) {
+            rectCount += layout.getLevelCount(sprite);
+        }
+        int[][] rects = new int[rectCount][];
+        int i = 0;
+        for (int sprite = 0; sprite < layout.getSpriteCount(); sprite++) {
+            for (int level = 0; level < layout.getLevelCount(sprite); level++) {
+                int left = layout.getLeft(sprite, level);
+                int top = layout.getTop(sprite, level);
+                int right = left + layout.getWidth(sprite, level);
+                int bottom = top + layout.getHeight(sprite, level);
+
+                // The gutter around every level is inside the atlas
+                assertTrue(left >= MipAtlasLayout.GUTTER && top >= MipAtlasLayout.GUTTER);
+                assertTrue(right + MipAtlasLayout.GUTTER <= layout.getWidth());
+                assertTrue(bottom + MipAtlasLayout.GUTTER <= layout.getHeight());
+                rects[i++] = new int[]{left, top, right, bottom};
+            }
+        }
+
+        // Grown by the gutter, no two levels overlap, so filtering never reads a neighbour
+        for (int a = 0; a < rects.length; a++) {
+            for (int b = a + 1; b < rects.length; b++) {
+                boolean overlap = rects[a][0] - MipAtlasLayout.GUTTER < rects[b][2]
+                        && rects[b][0] < rects[a][2] + MipAtlasLayout.GUTTER
+                        && rects[a][1] - MipAtlasLayout.GUTTER < rects[b][3]
+                        && rects[b][1] < rects[a][3] + MipAtlasLayout.GUTTER;
+                assertFalse(overlap);
+            }
+        }
+    }
+
+    @Test
+    public void atlas_staysWithinTextureLimits() throws Exception {
+        MipAtlasLayout layout = new MipAtlasLayout(WIDTHS, HEIGHTS);
+
+        // Three columns of cells, each a sprite beside a column of its smaller levels
+        assertTrue(layout.toString(), layout.getWidth() <= 3 * (240 + 2 + 120 + 2));
+        assertTrue(layout.toString(), layout.getHeight() <= 3 * (240 + 2 * 8));
+
+        // The mip chain adds at most a third of the pixels of the sprites
+        long spritePixels = 0;
+        for (int sprite = 0; sprite < WIDTHS.length; sprite++) {
+            spritePixels += WIDTHS[sprite] * HEIGHTS[sprite];
+        }
+        long levelPixels = 0;
+        for (int sprite = 0; sprite < layout.getSpriteCount(); sprite++) {
+            for (int level = 0; level < layout.getLevelCount(sprite); level++) {
+                levelPixels += layout.getWidth(sprite, level) * layout.getHeight(sprite, level);
+            }
+        }
+        assertTrue(levelPixels <= spritePixels * 4 / 3);
+
+        // Nor does the atlas, gutters and the gaps of the grid included, take much more than
+        // twice the pixels of the sprites; stacking the levels under each sprite took nearly
+        // three times
+        assertTrue(layout.toString(),
+                (long) layout.getWidth() * layout.getHeight() <= spritePixels * 9 / 4);
+    }
+
+    @Test
+    public void chosenLevel_isTheSmallestAtLeastAsWide() throws Exception {
+        MipAtlasLayout layout = new MipAtlasLayout(new int[]{240}, new int[]{240});
+
+        assertEquals(0, layout.chooseLevel(0, 1000));
+        assertEquals(0, layout.chooseLevel(0, 240));
+        assertEquals(0, layout.chooseLevel(0, 121));
+        assertEquals(1, layout.chooseLevel(0, 120));
+        assertEquals(1, layout.chooseLevel(0, 61));
+        assertEquals(2, layout.chooseLevel(0, 60));
+        assertEquals(4, layout.chooseLevel(0, 10));
+        assertEquals(layout.getLevelCount(0) - 1, layout.chooseLevel(0, 1));
+
+        // Drawing never shrinks the chosen level by half or more
+        for (int width = 1; width <= 240; width++) {
+            int level = layout.chooseLevel(0, width);
+            assertTrue(layout.getWidth(0, level) >= width);
+            assertTrue(level == layout.getLevelCount(0) - 1
+                    || layout.getWidth(0, level) < 2 * width);
+        }
+    }
+
+    @Test
+    public void emptySprites_areRejected() throws Exception {
+        try {
+            new MipAtlasLayout(new int[]{10, 0}, new int[]{10, 10});
+            fail("Expected an empty sprite to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.emojify;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link ParallelFaceMapper}, which will execute on the development machine
+ * (host).
+ */
+public class ParallelFaceMapperTest {
+
+    private static final int PARALLELISM = 4;
+
+    private ExecutorService mExecutor;
+    private ParallelFaceMapper mMapper;
+
+    @Before
+    public void setUp() throws Exception {
+        mExecutor = Executors.newFixedThreadPool(PARALLELISM - 1);
+        mMapper = new ParallelFaceMapper(mExecutor, PARALLELISM);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+    }
+
+    private static List<DetectedFace> faces(int count) {
+        List<DetectedFace> faces = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            faces.add(new DetectedFace(i, i, i, 10, 12, .5f, .5f, .5f));
+        }
+        return faces;
+    }
+
+    @Test
+    public void results_areInFaceOrder() throws Exception {
+        for (int count : new int[]{0, 1, 3, 4, 10, 50}) {
+            List<Integer> ids = mMapper.map(faces(count),
+                    new ParallelFaceMapper.Mapper<Integer>() {
+                        @Override
+                        public Integer map(DetectedFace face) {
+                            return face.id;
+                        }
+                    });
+
+            assertEquals(count, ids.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, (int) ids.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void faces_areSpreadOverThreads() throws Exception {
+        final Set<String> threads =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final CountDownLatch allStarted = new CountDownLatch(PARALLELISM);
+
+        mMapper.map(faces(PARALLELISM), new ParallelFaceMapper.Mapper<Void>() {
+            @Override
+            public Void map(DetectedFace face) {
+                threads.add(Thread.currentThread().getName());
+                allStarted.countDown();
+                try {
+                    // Only returns once every chunk runs at the same time
+                    assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return null;
+            }
+        });
+
+        assertEquals(PARALLELISM, threads.size());
+        assertTrue(threads.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void failures_reachTheCaller() throws Exception {
+        try {
+            mMapper.map(faces(10), new ParallelFaceMapper.Mapper<Void>() {
+                @Override
+                public Void map(DetectedFace face) {
+                    if (face.id == 7) {
+                        throw new IllegalArgumentException("Face " + face.id);
+                    }
+                    return null;
+                }
+            });
+            fail("Swallowed the failure of a face");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Face 7", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void parallelComposite_matchesSerialComposite() throws Exception {
+        EmojiRuleTable rules = SolidSprites.defaultRules();
+        PixelBufferCompositor compositor =
+                new PixelBufferCompositor(rules, SolidSprites.create(rules, 64));
+        PixelBuffer picture = new PixelBuffer(640, 480);
+        picture.fill(0xFF0000FF);
+
+        // Enough faces on a small picture for plenty of overlapping emoji
+        List<DetectedFace> faces =
+                FakeFaceDetectionEngine.withRandomFaces(11, 50).detect(picture);
+        PixelBuffer serial = compositor.composite(picture, faces);
+
+        for (int i = 0; i < 5; i++) {
+            PixelBuffer parallel = compositor.composite(picture, faces, mMapper);
+            assertArrayEquals(serial.pixels, parallel.pixels);
+        }
+    }
+}
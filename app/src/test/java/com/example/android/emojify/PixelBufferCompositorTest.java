@@ -0,0 +1,84 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link PixelBufferCompositor} fed by {@link FakeFaceDetectionEngine},
+ * which will execute on the development machine (host).
+ */
+public class PixelBufferCompositorTest {
+
+    private static final int BACKGROUND = 0xFF0000FF;
+
+    private static PixelBuffer background(int width, int height) {
+        PixelBuffer background = new PixelBuffer(width, height);
+        background.fill(BACKGROUND);
+        return background;
+    }
+
+    @Test
+    public void emoji_isDrawnOverTheFace() throws Exception {
+        PixelBuffer picture = background(400, 300);
+        FakeFaceDetectionEngine engine = FakeFaceDetectionEngine.withFaces(Arrays.asList(
+                new DetectedFace(0, 100, 100, 100, 100, .9f, .9f, .9f)));
+        EmojiRuleTable rules = SolidSprites.defaultRules();
+        PixelBufferCompositor compositor =
+                new PixelBufferCompositor(rules, SolidSprites.create(rules, 64));
+
+        PixelBuffer result = compositor.composite(picture, engine.detect(picture));
+
+        // A 90x81 smile, centered on the face and a third of its height above the center
+        int smile = SolidSprites.color(rules.lookup(Emoji.SMILE));
+        assertEquals(smile, result.getPixel(105, 123));
+        assertEquals(smile, result.getPixel(194, 203));
+        assertEquals(BACKGROUND, result.getPixel(104, 123));
+        assertEquals(BACKGROUND, result.getPixel(195, 123));
+        assertEquals(BACKGROUND, result.getPixel(105, 122));
+        assertEquals(BACKGROUND, result.getPixel(105, 204));
+
+        // The original picture is left untouched
+        assertEquals(BACKGROUND, picture.getPixel(150, 150));
+    }
+
+    @Test
+    public void oneBufferPerPicture_regardlessOfFaceCount() throws Exception {
+        EmojiRuleTable rules = SolidSprites.defaultRules();
+        PixelBufferCompositor compositor =
+                new PixelBufferCompositor(rules, SolidSprites.create(rules, 64));
+        PixelBuffer picture = background(640, 480);
+
+        for (int faceCount : new int[]{1, 10, 50}) {
+            FakeFaceDetectionEngine engine =
+                    FakeFaceDetectionEngine.withRandomFaces(42, faceCount);
+            assertEquals(faceCount, engine.detect(picture).size());
+            compositor.composite(picture, engine.detect(picture));
+        }
+
+        assertEquals(3, compositor.getAllocatedBufferCount());
+    }
+
+    @Test
+    public void fakeEngine_isDeterministic() throws Exception {
+        PixelBuffer picture = background(640, 480);
+        List<DetectedFace> first = FakeFaceDetectionEngine.withRandomFaces(7, 5).detect(picture);
+        List<DetectedFace> second = FakeFaceDetectionEngine.withRandomFaces(7, 5).detect(picture);
+
+        assertEquals(first.toString(), second.toString());
+        for (DetectedFace face : first) {
+            assertTrue(face.left >= 0 && face.left + face.width <= picture.width);
+            assertTrue(face.top >= 0);
+        }
+    }
+
+    @Test
+    public void blend_isSourceOver() throws Exception {
+        assertEquals(0xFFFF0000, PixelBuffer.blend(0xFFFF0000, 0xFF0000FF));
+        assertEquals(0xFF0000FF, PixelBuffer.blend(0x00FF0000, 0xFF0000FF));
+        assertEquals(0xFF80007F, PixelBuffer.blend(0x80FF0000, 0xFF0000FF));
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.emojify;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link ResultCache}, which will execute on the development machine
+ * (host). Small byte arrays stand in for encoded images.
+ */
+public class ResultCacheTest {
+
+    private static final String CONFIG = "target=1080x1920";
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("results", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private static ResultCache.Entry entry(int faceCount, int imageBytes) {
+        DetectedFace[] faces = new DetectedFace[faceCount];
+        for (int i = 0; i < faceCount; i++) {
+            faces[i] = new DetectedFace(i, i * 10, 20, 30, 36, .9f, .8f,
+                    DetectedFace.UNCOMPUTED_PROBABILITY);
+        }
+        byte[] image = new byte[imageBytes];
+        Arrays.fill(image, (byte) faceCount);
+        return new ResultCache.Entry(Arrays.asList(faces), image);
+    }
+
+    private File photo(String content) throws IOException {
+        File photo = File.createTempFile("photo", ".jpg");
+        photo.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(photo);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return photo;
+    }
+
+    @Test
+    public void key_dependsOnContentAndConfig() throws Exception {
+        String key = ResultCache.key(photo("same pixels"), CONFIG);
+
+        assertEquals(key, ResultCache.key(photo("same pixels"), CONFIG));
+        assertNotEquals(key, ResultCache.key(photo("other pixels"), CONFIG));
+        assertNotEquals(key, ResultCache.key(photo("same pixels"), "target=720x1280"));
+        assertTrue(key.matches("[0-9a-f]+_[0-9a-f]+"));
+    }
+
+    @Test
+    public void result_isServedFromMemoryThenDisk() throws Exception {
+        ResultCache cache = new ResultCache(mDirectory, 1024 * 1024, 1024 * 1024);
+        cache.put("a", entry(2, 100));
+
+        ResultCache.Entry fromMemory = cache.get("a");
+        assertEquals(2, fromMemory.faces.size());
+        assertEquals(1, cache.getMemoryHitCount());
+
+        // A new cache, as after the process was restarted, only has the disk tier
+        ResultCache restarted = new ResultCache(mDirectory, 1024 * 1024, 1024 * 1024);
+        ResultCache.Entry fromDisk = restarted.get("a");
+        assertEquals(1, restarted.getDiskHitCount());
+        assertEquals(100, fromDisk.image.length);
+        DetectedFace face = fromDisk.faces.get(1);
+        assertEquals(1, face.id);
+        assertEquals(10f, face.left, 0f);
+        assertEquals(.8f, face.leftEyeOpenProbability, 0f);
+        assertEquals(DetectedFace.UNCOMPUTED_PROBABILITY, face.rightEyeOpenProbability, 0f);
+
+        // It is in memory again after being read from disk
+        restarted.get("a");
+        assertEquals(1, restarted.getMemoryHitCount());
+    }
+
+    @Test
+    public void unknownKey_isAMiss() throws Exception {
+        ResultCache cache = new ResultCache(mDirectory, 1024, 1024);
+
+        assertNull(cache.get("missing"));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void memoryTier_evictsLeastRecentlyUsed() throws Exception {
+        // Room for two entries in memory, all of them on disk
+        ResultCache cache = new ResultCache(mDirectory, 250, 1024 * 1024);
+        cache.put("a", entry(0, 100));
+        cache.put("b", entry(0, 100));
+        cache.get("a");
+        cache.put("c", entry(0, 100));
+
+        assertTrue(cache.getMemoryBytes() <= 250);
+        cache.get("a");
+        cache.get("c");
+        assertEquals(3, cache.getMemoryHitCount());
+
+        // The least recently used entry is still on disk
+        assertNotNull(cache.get("b"));
+        assertEquals(1, cache.getDiskHitCount());
+    }
+
+    @Test
+    public void diskTier_staysUnderItsCap() throws Exception {
+        // Room for three entries on disk, none in memory
+        ResultCache cache = new ResultCache(mDirectory, 0, 1100);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            cache.put("entry" + i, entry(1, 300));
+
+            // Entries written in a row may share a modification time; spread them apart
+            assertTrue(new File(mDirectory, "entry" + i + ".entry")
+                    .setLastModified(now - (3 - i) * 10000));
+        }
+        cache.get("entry0");
+        cache.put("entry3", entry(1, 300));
+
+        assertTrue(cache.getDiskBytes() <= 1100);
+        assertNotNull(cache.get("entry3"));
+        assertNotNull(cache.get("entry0"));
+        assertNull(cache.get("entry1"));
+    }
+
+    @Test
+    public void corruptEntry_isAMiss() throws Exception {
+        ResultCache cache = new ResultCache(mDirectory, 0, 1024 * 1024);
+        cache.put("a", entry(1, 100));
+
+        FileOutputStream out = new FileOutputStream(new File(mDirectory, "a.entry"));
+        try {
+            out.write(new byte[]{1, 2, 3});
+        } finally {
+            out.close();
+        }
+
+        assertNull(cache.get("a"));
+        assertFalse(new File(mDirectory, "a.entry").exists());
+    }
+
+    @Test
+    public void entries_areUnmodifiable() throws Exception {
+        ResultCache.Entry entry = new ResultCache.Entry(
+                Collections.<DetectedFace>emptyList(), new byte[0]);
+        try {
+            entry.faces.add(null);
+            fail("faces can be modified");
+        } catch (UnsupportedOperationException expected) {
+            // The faces are shared by every hit
+        }
+    }
+}
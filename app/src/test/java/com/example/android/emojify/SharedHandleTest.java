@@ -0,0 +1,168 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link SharedHandle}, which will execute on the development machine (host).
+ */
+public class SharedHandleTest {
+
+    @Test
+    public void unusedHandle_isReleasedWhenRetired() throws Exception {
+        FakeDetector detector = new FakeDetector();
+        FakeHandle handle = new FakeHandle(detector);
+
+        handle.retire();
+        handle.retire();
+
+        assertTrue(handle.isReleased());
+        assertEquals(1, detector.releaseCount.get());
+        assertFalse(handle.retain());
+    }
+
+    @Test
+    public void releaseDuringDetect_waitsForTheDetectToFinish() throws Exception {
+        final FakeDetector detector = new FakeDetector();
+        final FakeHandle handle = new FakeHandle(detector);
+        final CountDownLatch retained = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // Detect: retain, let release run in the gap, then use the detector
+        Thread detect = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    assertTrue(handle.retain());
+                    retained.countDown();
+                    assertTrue(released.await(5, TimeUnit.SECONDS));
+                    handle.get().detect();
+                    handle.unretain();
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        detect.start();
+
+        assertTrue(retained.await(5, TimeUnit.SECONDS));
+        handle.retire();
+        assertFalse(handle.isReleased());
+        assertEquals(0, detector.releaseCount.get());
+        released.countDown();
+
+        detect.join();
+        assertNull(failure.get());
+        assertEquals(1, detector.detectCount.get());
+        assertTrue(handle.isReleased());
+        assertEquals(1, detector.releaseCount.get());
+    }
+
+    @Test
+    public void concurrentDetectsAndReleases_neverUseAReleasedDetector() throws Exception {
+        final int detectThreads = 4;
+        final int detectsPerThread = 5000;
+        final AtomicReference<FakeHandle> current = new AtomicReference<>(
+                new FakeHandle(new FakeDetector()));
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // Like the pool: retain the current handle, or build a new one once it is retired
+        Thread[] detects = new Thread[detectThreads];
+        for (int t = 0; t < detectThreads; t++) {
+            detects[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < detectsPerThread; i++) {
+                            FakeHandle handle = current.get();
+                            if (!handle.retain()) {
+                                current.compareAndSet(handle,
+                                        new FakeHandle(new FakeDetector()));
+                                continue;
+                            }
+                            handle.get().detect();
+                            handle.unretain();
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            detects[t].start();
+        }
+
+        // Release again and again, as onTrimMemory would
+        Thread release = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        current.get().retire();
+                        Thread.yield();
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        release.start();
+
+        for (Thread detect : detects) {
+            detect.join();
+        }
+        release.join();
+        FakeHandle last = current.get();
+        last.retire();
+
+        assertNull(failure.get());
+        assertEquals(0, last.getUserCount());
+        assertTrue(last.isReleased());
+    }
+
+    @Test
+    public void unretainWithoutRetain_fails() throws Exception {
+        FakeHandle handle = new FakeHandle(new FakeDetector());
+        try {
+            handle.unretain();
+            fail("unretain without retain");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static final class FakeDetector {
+        final AtomicInteger detectCount = new AtomicInteger();
+        final AtomicInteger releaseCount = new AtomicInteger();
+
+        void detect() {
+            if (releaseCount.get() > 0) {
+                throw new IllegalStateException("detect on a released detector");
+            }
+            detectCount.incrementAndGet();
+        }
+
+        void release() {
+            if (releaseCount.incrementAndGet() > 1) {
+                throw new IllegalStateException("released twice");
+            }
+        }
+    }
+
+    private static final class FakeHandle extends SharedHandle<FakeDetector> {
+
+        FakeHandle(FakeDetector detector) {
+            super(detector);
+        }
+
+        @Override
+        protected void onRelease(FakeDetector detector) {
+            detector.release();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.emojify;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Sprites for {@link PixelBufferCompositor} in tests and benchmarks: one solid, fully opaque
+ * square per sprite of the default pack, each in its own color, so the sprite drawn at a pixel
+ * can be told from its color.
+ */
+final class SolidSprites {
+
+    private SolidSprites() {
+    }
+
+    /**
+     * @return The rules of the default pack, read from the assets on the classpath.
+     * @throws IOException If the rules are missing or cannot be read.
+     */
+    static EmojiRuleTable defaultRules() throws IOException {
+        InputStream in = SolidSprites.class.getResourceAsStream("/emoji_packs/default/rules.txt");
+        if (in == null) {
+            throw new IOException("The default pack is not on the classpath");
+        }
+        return EmojiRuleTable.parse(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /**
+     * @param rules The rules of the pack.
+     * @param size  The width and height of the sprites.
+     * @return The sprites, indexed by their handle in the rules.
+     */
+    static PixelBuffer[] create(EmojiRuleTable rules, int size) {
+        PixelBuffer[] sprites = new PixelBuffer[rules.getSpriteCount()];
+        for (int sprite = 0; sprite < sprites.length; sprite++) {
+            sprites[sprite] = new PixelBuffer(size, size);
+            sprites[sprite].fill(color(sprite));
+        }
+        return sprites;
+    }
+
+    /**
+     * @return The color of the sprite made by {@link #create(EmojiRuleTable, int)} for a handle.
+     */
+    static int color(int sprite) {
+        return 0xFF000000 | (sprite + 1) * 0x1F1F1F;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link StagedPipeline}, which will execute on the development machine
+ * (host). Synthetic ARGB buffers stand in for bitmaps, and a stub stands in for the detector.
+ */
+public class StagedPipelineTest {
+
+    private static final int SIZE = 64;
+
+    // Decode: "decodes" a synthetic picture filled with the color named by the path
+    private static final StagedPipeline.Stage<String, int[]> DECODE =
+            new StagedPipeline.Stage<String, int[]>() {
+                @Override
+                public int[] process(String path) throws Exception {
+                    if (path.startsWith("missing")) {
+                        throw new java.io.FileNotFoundException(path);
+                    }
+                    int[] pixels = new int[SIZE * SIZE];
+                    Arrays.fill(pixels, 0xFF000000 | Integer.parseInt(path));
+                    return pixels;
+                }
+            };
+
+    // Detect: a stub detector which finds one face in the middle of every picture
+    private static final StagedPipeline.Stage<int[], int[][]> DETECT =
+            new StagedPipeline.Stage<int[], int[][]>() {
+                @Override
+                public int[][] process(int[] pixels) throws Exception {
+                    return new int[][]{pixels, {SIZE / 4, SIZE / 4, SIZE / 2, SIZE / 2}};
+                }
+            };
+
+    // Composite: paints the face white
+    private static final StagedPipeline.Stage<int[][], int[]> COMPOSITE =
+            new StagedPipeline.Stage<int[][], int[]>() {
+                @Override
+                public int[] process(int[][] detected) throws Exception {
+                    int[] pixels = detected[0];
+                    int[] face = detected[1];
+                    for (int y = face[1]; y < face[1] + face[3]; y++) {
+                        Arrays.fill(pixels, y * SIZE + face[0], y * SIZE + face[0] + face[2],
+                                0xFFFFFFFF);
+                    }
+                    return pixels;
+                }
+            };
+
+    // Encode: returns the number of bytes which would have been written
+    private static final StagedPipeline.Stage<int[], Integer> ENCODE =
+            new StagedPipeline.Stage<int[], Integer>() {
+                @Override
+                public Integer process(int[] pixels) throws Exception {
+                    return pixels.length * 4 + (pixels[0] & 0xFF);
+                }
+            };
+
+    private static StagedPipeline<String, Integer> buildPipeline() {
+        return StagedPipeline.<String, int[]>startWith("decode", 2, 2, DECODE)
+                .then("detect", 1, 2, DETECT)
+                .then("composite", 2, 2, COMPOSITE)
+                .then("encode", 1, 2, ENCODE)
+                .build();
+    }
+
+    @Test
+    public void outputs_areInInputOrder() throws Exception {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            paths.add(String.valueOf(i));
+        }
+
+        StagedPipeline.Report<Integer> report = buildPipeline().run(paths);
+
+        assertEquals(50, report.size());
+        assertEquals(0, report.getFailureCount());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(SIZE * SIZE * 4 + i, (int) report.getOutput(i));
+        }
+        assertTrue(report.getThroughput() > 0);
+        assertEquals(Arrays.asList("decode", "detect", "composite", "encode"),
+                report.getStageNames());
+        for (int depth : report.getMaxQueueDepths()) {
+            assertTrue("queue depth " + depth, depth <= 2);
+        }
+    }
+
+    @Test
+    public void failedItem_doesNotStopTheOthers() throws Exception {
+        StagedPipeline.Report<Integer> report = buildPipeline()
+                .run(Arrays.asList("1", "missing.jpg", "3"));
+
+        assertEquals(1, report.getFailureCount());
+        assertNull(report.getOutput(1));
+        assertTrue(report.getError(1) instanceof java.io.FileNotFoundException);
+        assertEquals(SIZE * SIZE * 4 + 3, (int) report.getOutput(2));
+    }
+
+    @Test
+    public void stages_overlap() throws Exception {
+        final CountDownLatch secondDecoded = new CountDownLatch(1);
+
+        // Detecting the first picture only completes once the second one has been decoded
+        StagedPipeline.Stage<String, int[]> decode = new StagedPipeline.Stage<String, int[]>() {
+            @Override
+            public int[] process(String path) throws Exception {
+                int[] pixels = DECODE.process(path);
+                if (path.equals("2")) {
+                    secondDecoded.countDown();
+                }
+                return pixels;
+            }
+        };
+        StagedPipeline<String, Integer> pipeline = StagedPipeline
+                .<String, int[]>startWith("decode", 1, 1, decode)
+                .then("detect", 1, 1, new StagedPipeline.Stage<int[], int[][]>() {
+                    @Override
+                    public int[][] process(int[] pixels) throws Exception {
+                        if (!secondDecoded.await(5, TimeUnit.SECONDS)) {
+                            throw new IllegalStateException("decode did not overlap detect");
+                        }
+                        return DETECT.process(pixels);
+                    }
+                })
+                .then("composite", 1, 1, COMPOSITE)
+                .then("encode", 1, 1, ENCODE)
+                .build();
+
+        StagedPipeline.Report<Integer> report = pipeline.run(Arrays.asList("1", "2", "3"));
+
+        assertEquals(0, report.getFailureCount());
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.android.emojify;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link TiledCompositor} and {@link PngStreamEncoder}, driven through
+ * {@link PixelBufferCompositor}, which will execute on the development machine (host).
+ */
+public class TiledCompositorTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    // A gradient, so an emoji drawn a row off does not go unnoticed
+    private static PixelBuffer background() {
+        PixelBuffer background = new PixelBuffer(WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                background.setPixel(x, y, 0xFF000000 | x << 16 | y << 8 | (x + y) & 0xFF);
+            }
+        }
+        return background;
+    }
+
+    // Half-transparent sprites, so the emoji blend with the background
+    private static PixelBufferCompositor compositor() throws Exception {
+        EmojiRuleTable rules = SolidSprites.defaultRules();
+        PixelBuffer[] sprites = SolidSprites.create(rules, 64);
+        for (PixelBuffer sprite : sprites) {
+            for (int i = 0; i < sprite.pixels.length; i++) {
+                sprite.pixels[i] = sprite.pixels[i] & 0xFFFFFF | 0x80000000;
+            }
+        }
+        return new PixelBufferCompositor(rules, sprites);
+    }
+
+    private static List<DetectedFace> faces() throws Exception {
+        List<DetectedFace> faces = new ArrayList<>(
+                FakeFaceDetectionEngine.withRandomFaces(3, 20).detect(background()));
+
+        // Emoji partly above and below the picture, at fractional positions
+        faces.add(new DetectedFace(20, 10.5f, 2.25f, 60.5f, 40.75f, .9f, .9f, .1f));
+        faces.add(new DetectedFace(21, 200.75f, 210.5f, 50.25f, 60.5f, .1f, .1f, .9f));
+        return faces;
+    }
+
+    private static byte[] encodeWhole(PixelBuffer picture) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PngStreamEncoder encoder = new PngStreamEncoder(bytes, picture.width, picture.height, 6);
+        encoder.writeRows(picture.pixels, 0, picture.width, picture.height);
+        encoder.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeTiled(PixelBufferCompositor compositor, PixelBuffer picture,
+                                      List<DetectedFace> faces, int tileHeight) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PngStreamEncoder encoder = new PngStreamEncoder(bytes, picture.width, picture.height, 6);
+        compositor.compositeTiled(picture, faces, tileHeight, encoder);
+        encoder.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void tiledOutput_matchesWholeImageOutput() throws Exception {
+        PixelBufferCompositor compositor = compositor();
+        PixelBuffer picture = background();
+        List<DetectedFace> faces = faces();
+        byte[] whole = encodeWhole(compositor.composite(picture, faces));
+
+        for (int tileHeight : new int[]{1, 7, 16, 100, HEIGHT, 1000}) {
+            byte[] tiled = encodeTiled(compositor, picture, faces, tileHeight);
+            assertTrue("Tiles of " + tileHeight + " rows differ", Arrays.equals(whole, tiled));
+        }
+    }
+
+    @Test
+    public void encodedOutput_decodesToTheComposite() throws Exception {
+        PixelBufferCompositor compositor = compositor();
+        PixelBuffer picture = background();
+        List<DetectedFace> faces = faces();
+        PixelBuffer expected = compositor.composite(picture, faces);
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(
+                encodeTiled(compositor, picture, faces, 32)));
+
+        assertEquals(WIDTH, decoded.getWidth());
+        assertEquals(HEIGHT, decoded.getHeight());
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals("Pixel " + x + "," + y, expected.getPixel(x, y),
+                        decoded.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void emoji_areOnlyDrawnIntoTheTilesTheyTouch() throws Exception {
+        EmojiRuleTable rules = SolidSprites.defaultRules();
+        PixelBufferCompositor compositor =
+                new PixelBufferCompositor(rules, SolidSprites.create(rules, 64));
+        PixelBuffer picture = background();
+
+        // A 90x81 emoji from row 123 to row 203, in tiles 2 to 4 of 50 rows
+        TiledCompositor<PixelBuffer> tiled = compositor.compositeTiled(picture,
+                Arrays.asList(new DetectedFace(0, 100, 100, 100, 100, .9f, .9f, .9f)), 50,
+                new PngStreamEncoder(new ByteArrayOutputStream(), WIDTH, HEIGHT, 1));
+
+        assertEquals(5, tiled.getTileCount());
+        assertEquals(3, tiled.getEmojiDrawCount());
+    }
+
+    @Test
+    public void tiles_areNoLargerThanTheTileHeight() throws Exception {
+        final List<Integer> heights = new ArrayList<>();
+
+        new TiledCompositor<>(new TiledCompositor.Renderer<Object>() {
+            @Override
+            public TiledCompositor.Placement place(DetectedFace face) {
+                return null;
+            }
+
+            @Override
+            public Object decodeTile(int top, int height) {
+                heights.add(height);
+                return top;
+            }
+
+            @Override
+            public void drawEmoji(Object tile, int tileTop, TiledCompositor.Placement placement) {
+            }
+
+            @Override
+            public void writeTile(Object tile, int tileTop) {
+                assertEquals(tile, tileTop);
+            }
+
+            @Override
+            public void releaseTile(Object tile) {
+            }
+        }, 64).composite(HEIGHT, Arrays.<DetectedFace>asList());
+
+        assertEquals(Arrays.asList(64, 64, 64, 48), heights);
+    }
+
+    @Test
+    public void encoder_rejectsMissingRows() throws Exception {
+        PngStreamEncoder encoder = new PngStreamEncoder(new ByteArrayOutputStream(), 4, 4, 1);
+        encoder.writeRows(new int[16], 0, 4, 3);
+
+        try {
+            encoder.close();
+            fail("Closed an image missing a row");
+        } catch (IOException expected) {
+        }
+    }
+}
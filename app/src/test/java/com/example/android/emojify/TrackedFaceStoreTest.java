@@ -0,0 +1,119 @@
+package com.example.android.emojify;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link TrackedFaceStore}, which will execute on the development machine
+ * (host).
+ */
+public class TrackedFaceStoreTest {
+
+    private EmojiRuleTable mRules;
+
+    @Before
+    public void setUp() throws Exception {
+        mRules = SolidSprites.defaultRules();
+    }
+
+    private static DetectedFace face(int id, float left, float width, float smiling) {
+        return new DetectedFace(id, left, 10, width, width * 1.2f, smiling, .9f, .9f);
+    }
+
+    @Test
+    public void trackedFaces_keepTheirStateAcrossFrames() {
+        TrackedFaceStore store = new TrackedFaceStore(mRules);
+        DetectedFace smiling = face(7, 10, 20, .9f);
+        DetectedFace frowning = face(8, 40, 20, 0f);
+
+        store.update(Arrays.asList(smiling, frowning));
+        List<TrackedFaceStore.TrackedFace> faces = store.update(Arrays.asList(smiling,
+                frowning));
+
+        assertEquals(2, faces.size());
+        assertEquals(2, faces.get(0).framesTracked);
+        assertEquals("smile", mRules.getSpriteName(faces.get(0).sprite));
+        assertEquals("frown", mRules.getSpriteName(faces.get(1).sprite));
+        assertEquals(2, store.getTrackedFaceCount());
+    }
+
+    @Test
+    public void flickeringProbabilities_doNotFlipTheEmoji() {
+        TrackedFaceStore store = new TrackedFaceStore(mRules);
+
+        // The raw odds cross the smiling threshold on every frame
+        float[] smiling = {.3f, .1f, .3f, .1f, .3f, .1f, .3f, .1f};
+        int sprite = -1;
+        for (float probability : smiling) {
+            sprite = store.update(Collections.singletonList(face(1, 10, 20, probability)))
+                    .get(0).sprite;
+        }
+
+        assertEquals("smile", mRules.getSpriteName(sprite));
+        assertEquals(0, store.getEmojiChangeCount());
+
+        // A lasting change gets through
+        for (int i = 0; i < 5; i++) {
+            sprite = store.update(Collections.singletonList(face(1, 10, 20, 0f))).get(0).sprite;
+        }
+        assertEquals("frown", mRules.getSpriteName(sprite));
+        assertEquals(1, store.getEmojiChangeCount());
+    }
+
+    @Test
+    public void bounds_areSmoothed() {
+        TrackedFaceStore store = new TrackedFaceStore(mRules, 1f, .5f, 0);
+
+        store.update(Collections.singletonList(face(1, 100, 40, .9f)));
+        DetectedFace smoothed = store.update(Collections.singletonList(face(1, 110, 48, .9f)))
+                .get(0).face;
+
+        assertEquals(105f, smoothed.left, 0f);
+        assertEquals(44f, smoothed.width, 0f);
+        assertEquals(1, smoothed.id);
+    }
+
+    @Test
+    public void uncomputedProbability_keepsTheSmoothedOne() {
+        TrackedFaceStore store = new TrackedFaceStore(mRules);
+
+        store.update(Collections.singletonList(face(1, 10, 20, .9f)));
+        TrackedFaceStore.TrackedFace trackedFace = store.update(Collections.singletonList(
+                face(1, 10, 20, DetectedFace.UNCOMPUTED_PROBABILITY))).get(0);
+
+        assertEquals(.9f, trackedFace.face.smilingProbability, 0f);
+        assertEquals("smile", mRules.getSpriteName(trackedFace.sprite));
+    }
+
+    @Test
+    public void staleFaces_areEvicted() {
+        TrackedFaceStore store = new TrackedFaceStore(mRules, .4f, .5f, 2);
+        DetectedFace first = face(1, 10, 20, .9f);
+        DetectedFace second = face(2, 40, 20, .9f);
+        List<DetectedFace> none = Collections.emptyList();
+
+        store.update(Arrays.asList(first, second));
+
+        // The second face is briefly lost, and comes back with its state
+        store.update(Collections.singletonList(first));
+        store.update(Collections.singletonList(first));
+        assertEquals(2, store.size());
+        List<TrackedFaceStore.TrackedFace> faces = store.update(Arrays.asList(first, second));
+        assertEquals(2, faces.get(1).framesTracked);
+
+        // Both faces leave for good
+        store.update(none);
+        store.update(none);
+        assertEquals(2, store.size());
+        store.update(none);
+        assertEquals(0, store.size());
+        assertEquals(2, store.getEvictedFaceCount());
+        assertEquals(2, store.getTrackedFaceCount());
+    }
+}
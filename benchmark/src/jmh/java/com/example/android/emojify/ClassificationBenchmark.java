@@ -0,0 +1,77 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.android.emojify;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures choosing an emoji for a face and working out where it is drawn.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClassificationBenchmark {
+
+    // Enough faces that the buckets of the rules are not all predicted the same way
+    private static final int FACE_COUNT = 1024;
+
+    private static final int SPRITE_WIDTH = 512;
+    private static final int SPRITE_HEIGHT = 512;
+
+    private DetectedFace[] mFaces;
+    private EmojiRuleTable mRules;
+    private int mIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<DetectedFace> faces = FakeFaceDetectionEngine.withRandomFaces(42, FACE_COUNT)
+                .detect(new PixelBuffer(1920, 1080));
+        mFaces = faces.toArray(new DetectedFace[faces.size()]);
+        mRules = EmojiRuleTable.parse(new InputStreamReader(getClass().getResourceAsStream(
+                "/emoji_packs/default/rules.txt"), "UTF-8"));
+    }
+
+    @Benchmark
+    public int ruleTableLookup() {
+        return mRules.lookup(nextFace());
+    }
+
+    @Benchmark
+    public void placement(Blackhole blackhole) {
+        DetectedFace face = nextFace();
+        int width = EmojiPlacement.scaledEmojiWidth(face.width);
+        int height = EmojiPlacement.scaledEmojiHeight(SPRITE_WIDTH, SPRITE_HEIGHT, width);
+        blackhole.consume(EmojiPlacement.emojiLeft(face.left, face.width, width));
+        blackhole.consume(EmojiPlacement.emojiTop(face.top, face.height, height));
+    }
+
+    private DetectedFace nextFace() {
+        mIndex = (mIndex + 1) & (FACE_COUNT - 1);
+        return mFaces[mIndex];
+    }
+}
@@ -0,0 +1,67 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.android.emojify;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures drawing the emojis over a whole picture held in an int[] buffer, for the picture
+ * sizes the app typically decodes and for crowded pictures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompositeBenchmark {
+
+    private static final int SPRITE_SIZE = 128;
+
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String size;
+
+    @Param({"1", "10", "50"})
+    public int faces;
+
+    private PixelBuffer mBackground;
+    private List<DetectedFace> mFaces;
+    private PixelBufferCompositor mCompositor;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] dimensions = size.split("x");
+        mBackground = new PixelBuffer(Integer.parseInt(dimensions[0]),
+                Integer.parseInt(dimensions[1]));
+        mBackground.fill(0xFF336699);
+        mFaces = FakeFaceDetectionEngine.withRandomFaces(42, faces).detect(mBackground);
+        EmojiRuleTable rules = SolidSprites.defaultRules();
+        mCompositor = new PixelBufferCompositor(rules, SolidSprites.create(rules, SPRITE_SIZE));
+    }
+
+    @Benchmark
+    public PixelBuffer composite() {
+        return mCompositor.composite(mBackground, mFaces);
+    }
+}
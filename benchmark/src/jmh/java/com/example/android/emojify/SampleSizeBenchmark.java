@@ -0,0 +1,53 @@
+/*
+* Copyright (C) 2017 The Android Open Source Project
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*  	http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.android.emojify;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures working out how much a photo is subsampled when it is decoded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SampleSizeBenchmark {
+
+    // A 12 megapixel photo decoded for a 1080p screen, within a 64 MB heap budget
+    public int photoWidth = 4000;
+    public int photoHeight = 3000;
+    public int targetWidth = 1920;
+    public int targetHeight = 1080;
+    public long maxBytes = 64L * 1024 * 1024 / 8;
+
+    @Benchmark
+    public int calculateInSampleSize() {
+        return BitmapSampling.calculateInSampleSize(photoWidth, photoHeight, targetWidth,
+                targetHeight, maxBytes, 4);
+    }
+
+    @Benchmark
+    public int[] centerCropRegion() {
+        return BitmapSampling.centerCropRegion(photoWidth, photoHeight, targetWidth,
+                targetHeight);
+    }
+}